@@ -0,0 +1,59 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks once for each of several thread counts, since JMH does not accept a list of thread counts.
+ * Usage:
+ * <pre>
+ *   java -cp target/benchmarks.jar edu.vt.middleware.cas.benchmark.BenchmarkRunner 1,8,32 [JMH options]
+ * </pre>
+ * For example, <code>1,8,32 LdapBenchmark.authenticate -p poolSize=16</code> measures authentication with 1, 8 and
+ * 32 threads against pools of 16 connections.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * Utility class.
+     */
+    private BenchmarkRunner() {}
+
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param  args  Comma-separated thread counts followed by JMH command line options.
+     *
+     * @throws  Exception  On benchmark failure.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: BenchmarkRunner <threads,...> [JMH options]");
+            System.exit(1);
+        }
+        final String[] jmhArgs = new String[args.length - 1];
+        System.arraycopy(args, 1, jmhArgs, 0, jmhArgs.length);
+        final CommandLineOptions options = new CommandLineOptions(jmhArgs);
+        for (String threads : args[0].split(",")) {
+            new Runner(new OptionsBuilder().parent(options).threads(Integer.parseInt(threads.trim())).build()).run();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.schema.Schema;
+
+/**
+ * Embedded in-memory LDAP directory populated with generated users and groups.  User <code>user{n}</code> has
+ * password <code>password{n}</code> and is a member of up to three groups, recorded both in the
+ * <code>member</code> attribute of each group and in the <code>memberOf</code> attribute of the user.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class EmbeddedDirectory {
+
+    /** Base DN of the directory. */
+    public static final String BASE_DN = "dc=ldaptive,dc=org";
+
+    /** Base DN of user entries. */
+    public static final String PEOPLE_DN = "ou=people," + BASE_DN;
+
+    /** Base DN of group entries. */
+    public static final String GROUPS_DN = "ou=groups," + BASE_DN;
+
+    /** Definition of the memberOf attribute, which the standard schema lacks. */
+    private static final String MEMBER_OF_ATTRIBUTE_TYPE = "( 1.2.840.113556.1.2.102 NAME 'memberOf' " +
+            "EQUALITY distinguishedNameMatch SYNTAX 1.3.6.1.4.1.1466.115.121.1.12 )";
+
+    /** Number of user entries. */
+    private final int userCount;
+
+    /** Number of groups; groups no user belongs to are not added. */
+    private final int groupCount;
+
+    /** Directory server. */
+    private final InMemoryDirectoryServer server;
+
+
+    /**
+     * Creates and starts a directory with the given number of users and groups, listening on an ephemeral port.
+     *
+     * @param  users  Number of user entries.
+     * @param  groups  Number of groups; groups no user belongs to are not added.
+     *
+     * @throws  LDAPException  If the directory cannot be created or started.
+     */
+    public EmbeddedDirectory(final int users, final int groups) throws LDAPException {
+        this.userCount = users;
+        this.groupCount = groups;
+        final InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        config.setSchema(Schema.mergeSchemas(Schema.getDefaultStandardSchema(), new Schema(new Entry(
+                "cn=schema",
+                new Attribute("attributeTypes", MEMBER_OF_ATTRIBUTE_TYPE)))));
+        // Without equality indexes every search scans all entries
+        config.setEqualityIndexAttributes("uid", "member", "memberOf");
+        server = new InMemoryDirectoryServer(config);
+        populate();
+        server.startListening();
+    }
+
+
+    /**
+     * Gets the URL of the directory.
+     *
+     * @return  LDAP URL.
+     */
+    public String getLdapUrl() {
+        return "ldap://localhost:" + server.getListenPort();
+    }
+
+
+    /**
+     * Gets the number of user entries.
+     *
+     * @return  User count.
+     */
+    public int getUserCount() {
+        return userCount;
+    }
+
+
+    /**
+     * Gets the username of the given user.
+     *
+     * @param  n  User number.
+     *
+     * @return  Username.
+     */
+    public static String username(final int n) {
+        return "user" + n;
+    }
+
+
+    /**
+     * Gets the password of the given user.
+     *
+     * @param  n  User number.
+     *
+     * @return  Password.
+     */
+    public static String password(final int n) {
+        return "password" + n;
+    }
+
+
+    /**
+     * Stops the directory.
+     */
+    public void shutdown() {
+        server.shutDown(true);
+    }
+
+
+    /**
+     * Adds the generated entries.
+     *
+     * @throws  LDAPException  If an entry cannot be added.
+     */
+    private void populate() throws LDAPException {
+        server.add(new Entry(BASE_DN, new Attribute("objectClass", "top", "domain"), new Attribute("dc", "ldaptive")));
+        server.add(new Entry(PEOPLE_DN, new Attribute("objectClass", "top", "organizationalUnit")));
+        server.add(new Entry(GROUPS_DN, new Attribute("objectClass", "top", "organizationalUnit")));
+
+        final List<List<String>> members = new ArrayList<List<String>>(groupCount);
+        for (int g = 0; g < groupCount; g++) {
+            members.add(new ArrayList<String>());
+        }
+        for (int n = 0; n < userCount; n++) {
+            final String dn = "uid=" + username(n) + ',' + PEOPLE_DN;
+            final Set<Integer> groups = groupsOf(n);
+            final List<String> memberOf = new ArrayList<String>(groups.size());
+            for (Integer g : groups) {
+                members.get(g).add(dn);
+                memberOf.add(groupDn(g));
+            }
+            final Entry entry = new Entry(dn);
+            entry.addAttribute(
+                    "objectClass", "top", "person", "organizationalPerson", "inetOrgPerson", "extensibleObject");
+            entry.addAttribute("uid", username(n));
+            entry.addAttribute("cn", "User " + n);
+            entry.addAttribute("sn", String.valueOf(n));
+            entry.addAttribute("givenName", "User");
+            entry.addAttribute("mail", username(n) + "@ldaptive.org");
+            entry.addAttribute("userPassword", password(n));
+            if (!memberOf.isEmpty()) {
+                entry.addAttribute("memberOf", memberOf);
+            }
+            server.add(entry);
+        }
+        for (int g = 0; g < groupCount; g++) {
+            // groupOfNames requires at least one member; no user refers to an empty group
+            if (members.get(g).isEmpty()) {
+                continue;
+            }
+            final Entry entry = new Entry(groupDn(g));
+            entry.addAttribute("objectClass", "top", "groupOfNames");
+            entry.addAttribute("cn", "group" + g);
+            entry.addAttribute("ou", "group" + g);
+            entry.addAttribute("member", members.get(g));
+            server.add(entry);
+        }
+    }
+
+
+    /**
+     * Gets the DN of the given group.
+     *
+     * @param  g  Group number.
+     *
+     * @return  Group DN.
+     */
+    private static String groupDn(final int g) {
+        return "cn=group" + g + ',' + GROUPS_DN;
+    }
+
+
+    /**
+     * Gets the groups of the given user.
+     *
+     * @param  n  User number.
+     *
+     * @return  Group numbers.
+     */
+    private Set<Integer> groupsOf(final int n) {
+        final Set<Integer> groups = new LinkedHashSet<Integer>(3);
+        if (groupCount > 0) {
+            groups.add(n % groupCount);
+            groups.add((n / 10) % groupCount);
+            groups.add((int) ((n * 31L + 17) % groupCount));
+        }
+        return groups;
+    }
+}
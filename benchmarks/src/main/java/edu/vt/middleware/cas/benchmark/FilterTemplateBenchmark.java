@@ -0,0 +1,78 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.vt.middleware.cas.ldap.FilterTemplate;
+import org.ldaptive.SearchFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares producing an encoded search filter with {@link FilterTemplate} against the per-call
+ * {@link SearchFilter} construction previously used by the resolver and user details service.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterTemplateBenchmark {
+
+    /** Search filter expression. */
+    @Param({"uid={user}", "(&(objectClass=eduPerson)(|(uid={user})(mail={user})))"})
+    private String expression;
+
+    /** Username parameter; the second value requires escaping. */
+    @Param({"bobsmith", "bob*(smith)"})
+    private String username;
+
+    /** Compiled template. */
+    private FilterTemplate template;
+
+
+    @Setup
+    public void setup() {
+        template = new FilterTemplate(expression, "user");
+    }
+
+
+    @Benchmark
+    public String searchFilter() {
+        final SearchFilter filter = new SearchFilter();
+        filter.setFilter(expression);
+        filter.setParameter("user", username);
+        return filter.format();
+    }
+
+
+    @Benchmark
+    public String filterTemplate() {
+        return template.format(username);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import edu.vt.middleware.cas.authentication.handler.LdapAuthenticationHandler;
+import edu.vt.middleware.cas.authentication.principal.LdapCredentialsToPrincipalResolver;
+import edu.vt.middleware.cas.userdetails.LdapUserDetailsService;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.DefaultConnectionFactory;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.auth.Authenticator;
+import org.ldaptive.auth.PooledBindAuthenticationHandler;
+import org.ldaptive.auth.PooledSearchDnResolver;
+import org.ldaptive.pool.BlockingConnectionPool;
+import org.ldaptive.pool.PoolConfig;
+import org.ldaptive.pool.PooledConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Measures the throughput of authentication, principal resolution and user details lookup against an
+ * {@link EmbeddedDirectory}, for random users and a range of connection pool sizes.  Caches are not configured, so
+ * every operation reaches the directory.  Use {@link BenchmarkRunner} to repeat the benchmarks at several thread
+ * counts.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class LdapBenchmark {
+
+    /** Number of generated users. */
+    @Param("100000")
+    private int users;
+
+    /** Number of generated groups. */
+    @Param("10000")
+    private int groups;
+
+    /** Maximum size of each connection pool. */
+    @Param({"4", "16", "64"})
+    private int poolSize;
+
+    /** Directory under test. */
+    private EmbeddedDirectory directory;
+
+    /** Pool used for authentication. */
+    private BlockingConnectionPool authnPool;
+
+    /** Pool used for searches. */
+    private BlockingConnectionPool searchPool;
+
+    /** Authentication handler. */
+    private LdapAuthenticationHandler handler;
+
+    /** Principal resolver. */
+    private LdapCredentialsToPrincipalResolver resolver;
+
+    /** User details service. */
+    private LdapUserDetailsService userDetailsService;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = new EmbeddedDirectory(users, groups);
+
+        authnPool = newPool();
+        final PooledConnectionFactory authnFactory = new PooledConnectionFactory(authnPool);
+        final PooledSearchDnResolver dnResolver = new PooledSearchDnResolver(authnFactory);
+        dnResolver.setBaseDn(EmbeddedDirectory.PEOPLE_DN);
+        dnResolver.setUserFilter("uid={user}");
+        handler = new LdapAuthenticationHandler(
+                new Authenticator(dnResolver, new PooledBindAuthenticationHandler(authnFactory)));
+
+        searchPool = newPool();
+        final PooledConnectionFactory searchFactory = new PooledConnectionFactory(searchPool);
+        resolver = new LdapCredentialsToPrincipalResolver(
+                searchFactory,
+                newSearchExecutor(EmbeddedDirectory.PEOPLE_DN, "uid={user}", "uid", "cn", "mail"),
+                "uid");
+        resolver.afterPropertiesSet();
+
+        userDetailsService = new LdapUserDetailsService(
+                searchFactory,
+                newSearchExecutor(EmbeddedDirectory.PEOPLE_DN, "uid={user}", "uid"),
+                newSearchExecutor(EmbeddedDirectory.GROUPS_DN, "member={user}", "cn"),
+                "uid",
+                "cn");
+        userDetailsService.afterPropertiesSet();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        authnPool.close();
+        searchPool.close();
+        directory.shutdown();
+    }
+
+
+    @Benchmark
+    public boolean authenticate() throws Exception {
+        final int n = randomUser();
+        return handler.authenticate(newCredentials(EmbeddedDirectory.username(n), EmbeddedDirectory.password(n)));
+    }
+
+
+    @Benchmark
+    public Principal resolvePrincipal() {
+        return resolver.resolvePrincipal(newCredentials(EmbeddedDirectory.username(randomUser()), null));
+    }
+
+
+    @Benchmark
+    public UserDetails loadUserByUsername() {
+        return userDetailsService.loadUserByUsername(EmbeddedDirectory.username(randomUser()));
+    }
+
+
+    /**
+     * Creates an initialized connection pool for the directory.
+     *
+     * @return  Connection pool.
+     */
+    private BlockingConnectionPool newPool() {
+        final PoolConfig config = new PoolConfig();
+        config.setMinPoolSize(Math.min(4, poolSize));
+        config.setMaxPoolSize(poolSize);
+        final BlockingConnectionPool pool = new BlockingConnectionPool(
+                config, new DefaultConnectionFactory(new ConnectionConfig(directory.getLdapUrl())));
+        pool.initialize();
+        return pool;
+    }
+
+
+    /**
+     * Creates a subtree search executor.
+     *
+     * @param  baseDn  Search base.
+     * @param  filter  Search filter with a <code>{user}</code> parameter.
+     * @param  attributes  Return attributes.
+     *
+     * @return  Search executor.
+     */
+    private static SearchExecutor newSearchExecutor(
+            final String baseDn, final String filter, final String... attributes) {
+        final SearchExecutor executor = new SearchExecutor();
+        executor.setBaseDn(baseDn);
+        executor.setSearchFilter(new SearchFilter(filter));
+        executor.setReturnAttributes(attributes);
+        return executor;
+    }
+
+
+    /**
+     * Creates credentials.
+     *
+     * @param  username  Username.
+     * @param  password  Password.
+     *
+     * @return  Username/password credentials.
+     */
+    private static UsernamePasswordCredentials newCredentials(final String username, final String password) {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername(username);
+        credentials.setPassword(password);
+        return credentials;
+    }
+
+
+    /**
+     * Picks a random user.
+     *
+     * @return  User number.
+     */
+    private int randomUser() {
+        return ThreadLocalRandom.current().nextInt(users);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication;
+
+import edu.vt.middleware.cas.cache.CacheKeys;
+import org.ldaptive.LdapEntry;
+
+/**
+ * Carries the LDAP entry obtained during authentication to principal resolution for the same request.
+ * CAS authenticates credentials and resolves the principal on the same thread, so the entry is bound to the current
+ * thread by {@link edu.vt.middleware.cas.authentication.handler.LdapAuthenticationHandler} and consumed by
+ * {@link edu.vt.middleware.cas.authentication.principal.LdapCredentialsToPrincipalResolver}, which avoids a second
+ * search for the same user.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class AuthenticatedEntryHolder {
+
+    /** Entry for the current request. */
+    private static final ThreadLocal<AuthenticatedEntry> CURRENT = new ThreadLocal<AuthenticatedEntry>();
+
+
+    /**
+     * Utility class.
+     */
+    private AuthenticatedEntryHolder() {}
+
+
+    /**
+     * Binds the entry of an authenticated user to the current thread, replacing any existing entry.
+     *
+     * @param  username  Username that was authenticated.
+     * @param  entry  LDAP entry of the authenticated user.
+     */
+    public static void set(final String username, final LdapEntry entry) {
+        CURRENT.set(new AuthenticatedEntry(CacheKeys.normalizeUsername(username), entry));
+    }
+
+
+    /**
+     * Removes the entry bound to the current thread and returns it if it belongs to the given user.
+     *
+     * @param  username  Username whose entry is requested.
+     *
+     * @return  LDAP entry for the user or null if there is none bound to the current thread.
+     */
+    public static LdapEntry take(final String username) {
+        final AuthenticatedEntry current = CURRENT.get();
+        if (current == null) {
+            return null;
+        }
+        CURRENT.remove();
+        return current.username.equals(CacheKeys.normalizeUsername(username)) ? current.entry : null;
+    }
+
+
+    /**
+     * Removes any entry bound to the current thread.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+
+    /** Username and LDAP entry pair. */
+    private static final class AuthenticatedEntry {
+
+        /** Normalized username. */
+        final String username;
+
+        /** LDAP entry of user. */
+        final LdapEntry entry;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  username  Normalized username.
+         * @param  entry  LDAP entry of user.
+         */
+        AuthenticatedEntry(final String username, final LdapEntry entry) {
+            this.username = username;
+            this.entry = entry;
+        }
+    }
+}
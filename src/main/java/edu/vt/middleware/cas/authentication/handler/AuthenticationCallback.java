@@ -0,0 +1,32 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.handler;
+
+/**
+ * Receives notice that an asynchronous authentication has completed, failed, timed out or been cancelled.
+ * Callbacks run on the thread that completed the authentication and should call
+ * {@link AuthenticationFuture#await()}, which does not block at that point, to obtain the outcome.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public interface AuthenticationCallback {
+
+    /**
+     * Invoked once the given authentication is done.
+     *
+     * @param  future  Completed authentication.
+     */
+    void completed(AuthenticationFuture future);
+}
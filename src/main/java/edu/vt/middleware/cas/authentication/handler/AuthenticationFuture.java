@@ -0,0 +1,357 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.vt.middleware.cas.authentication.AuthenticatedEntryHolder;
+import org.jasig.cas.authentication.handler.AuthenticationException;
+import org.jasig.cas.authentication.handler.AuthenticationHandler;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.ldaptive.LdapEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pending result of an authentication performed by {@link LdapAuthenticationHandler#authenticateAsync} on a
+ * background thread.  The outcome is obtained with {@link #await()}, which reports failures with the same
+ * {@link AuthenticationException} the synchronous handler would have thrown, or with an
+ * {@link AuthenticationTimeoutException} if the authentication did not complete within its timeout.  Awaiting a
+ * successful result also binds the authenticated entry, if any, to the calling thread via
+ * {@link AuthenticatedEntryHolder} so principal resolution on that thread can use it.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AuthenticationFuture extends FutureTask<Boolean> {
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Authentication performed by this future. */
+    private final AuthenticationTask task;
+
+    /** Callbacks to notify on completion; null once notified. */
+    private List<AuthenticationCallback> callbacks = new ArrayList<AuthenticationCallback>(1);
+
+    /** Pending timeout, if any. */
+    private volatile ScheduledFuture<?> timeout;
+
+    /** Scheduler of the pending timeout, if any. */
+    private volatile ScheduledThreadPoolExecutor timeoutScheduler;
+
+    /** Flag that indicates whether this future was cancelled because it timed out. */
+    private volatile boolean timedOut;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  handler  Handler that authenticates credentials.
+     * @param  credentials  Credentials to authenticate.
+     */
+    AuthenticationFuture(final AuthenticationHandler handler, final UsernamePasswordCredentials credentials) {
+        this(new AuthenticationTask(handler, credentials));
+    }
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  task  Authentication to perform.
+     */
+    private AuthenticationFuture(final AuthenticationTask task) {
+        super(task);
+        this.task = task;
+    }
+
+
+    /**
+     * Gets the credentials being authenticated.  The reference is released once the authentication is done and the
+     * callbacks registered by then have been notified, so the password is not kept by a completed future.
+     *
+     * @return  Username/password credentials, or null once done.
+     */
+    public UsernamePasswordCredentials getCredentials() {
+        return task.credentials;
+    }
+
+
+    /**
+     * Registers a callback to be notified when the authentication is done.  The callback is invoked immediately on
+     * the calling thread if the authentication is already done.
+     *
+     * @param  callback  Completion callback.
+     */
+    public void addCallback(final AuthenticationCallback callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        fireCompleted(callback);
+    }
+
+
+    /**
+     * Waits for the authentication to complete.
+     *
+     * @return  True if the credentials were authenticated, false otherwise.
+     *
+     * @throws  AuthenticationException  On authentication failure or timeout.
+     */
+    public boolean await() throws AuthenticationException {
+        try {
+            return outcome(get());
+        } catch (InterruptedException e) {
+            cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for authentication", e);
+        } catch (CancellationException e) {
+            throw cancelled(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+
+    /**
+     * Waits at most the given time for the authentication to complete, cancelling it if it does not.
+     *
+     * @param  time  Maximum time to wait.
+     * @param  unit  Unit of time.
+     *
+     * @return  True if the credentials were authenticated, false otherwise.
+     *
+     * @throws  AuthenticationException  On authentication failure or timeout.
+     */
+    public boolean await(final long time, final TimeUnit unit) throws AuthenticationException {
+        try {
+            return outcome(get(time, unit));
+        } catch (TimeoutException e) {
+            expire();
+            // Either cancelled now or completed in the meantime; neither case blocks
+            return await();
+        } catch (InterruptedException e) {
+            cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for authentication", e);
+        } catch (CancellationException e) {
+            throw cancelled(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+
+    /**
+     * Determines whether this authentication was cancelled because it exceeded its timeout.
+     *
+     * @return  True if timed out, false otherwise.
+     */
+    public boolean isTimedOut() {
+        return timedOut && isCancelled();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::username=%s, done=%s, timedOut=%s",
+                getClass().getName(),
+                hashCode(),
+                task.username,
+                isDone(),
+                isTimedOut());
+    }
+
+
+    /**
+     * Cancels this authentication after the given time unless it has completed by then.
+     *
+     * @param  time  Timeout.
+     * @param  unit  Unit of time.
+     * @param  scheduler  Scheduler that runs the timeout; it is purged of the timeout once cancelled.
+     */
+    void scheduleTimeout(final long time, final TimeUnit unit, final ScheduledThreadPoolExecutor scheduler) {
+        timeoutScheduler = scheduler;
+        timeout = scheduler.schedule(
+                new Runnable() {
+                    public void run() {
+                        expire();
+                    }
+                },
+                time,
+                unit);
+        if (isDone()) {
+            cancelTimeout();
+        }
+    }
+
+
+    @Override
+    protected void done() {
+        cancelTimeout();
+        final List<AuthenticationCallback> toNotify;
+        synchronized (this) {
+            toNotify = callbacks;
+            callbacks = null;
+        }
+        for (AuthenticationCallback callback : toNotify) {
+            fireCompleted(callback);
+        }
+        task.credentials = null;
+    }
+
+
+    /**
+     * Cancels the pending timeout, if any, and removes it from the queue of its scheduler, which would otherwise hold
+     * it and this future until the time it was due.
+     */
+    private void cancelTimeout() {
+        final ScheduledFuture<?> pending = timeout;
+        if (pending != null && pending.cancel(false)) {
+            timeoutScheduler.purge();
+        }
+    }
+
+
+    /**
+     * Cancels this authentication because it timed out.
+     */
+    private void expire() {
+        // Set before cancelling so waiters woken by cancellation observe it; meaningless unless cancelled
+        timedOut = true;
+        if (cancel(true)) {
+            logger.debug("Authentication of {} timed out.", task.username);
+        }
+    }
+
+
+    /**
+     * Binds the authenticated entry to the calling thread on success.
+     *
+     * @param  result  Authentication result.
+     *
+     * @return  Authentication result.
+     */
+    private boolean outcome(final Boolean result) {
+        if (Boolean.TRUE.equals(result) && task.entry != null) {
+            AuthenticatedEntryHolder.set(task.username, task.entry);
+        }
+        return Boolean.TRUE.equals(result);
+    }
+
+
+    /**
+     * Rethrows the cause of an execution failure as it would have been thrown by the synchronous handler.
+     *
+     * @param  e  Execution failure.
+     *
+     * @return  Authentication exception to throw.
+     */
+    private AuthenticationException unwrap(final ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof AuthenticationException) {
+            return (AuthenticationException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new RuntimeException("Unexpected authentication error", cause);
+    }
+
+
+    /**
+     * Notifies a callback, logging rather than propagating any exception it throws.
+     *
+     * @param  callback  Callback to notify.
+     */
+    private void fireCompleted(final AuthenticationCallback callback) {
+        try {
+            callback.completed(this);
+        } catch (RuntimeException e) {
+            logger.warn("Authentication callback {} failed.", callback, e);
+        }
+    }
+
+
+    /**
+     * Translates cancellation due to timeout into the corresponding authentication exception.
+     *
+     * @param  e  Cancellation exception.
+     *
+     * @return  Authentication exception to throw.
+     */
+    private AuthenticationException cancelled(final CancellationException e) {
+        if (timedOut) {
+            return new AuthenticationTimeoutException();
+        }
+        throw e;
+    }
+
+
+    /** Authenticates credentials and captures the authenticated entry from the executing thread. */
+    private static final class AuthenticationTask implements Callable<Boolean> {
+
+        /** Handler that authenticates credentials. */
+        final AuthenticationHandler handler;
+
+        /** Username of the credentials. */
+        final String username;
+
+        /** Credentials to authenticate; null once the future is done. */
+        volatile UsernamePasswordCredentials credentials;
+
+        /** Entry of the authenticated user, if one was fetched. */
+        volatile LdapEntry entry;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  handler  Handler that authenticates credentials.
+         * @param  credentials  Credentials to authenticate.
+         */
+        AuthenticationTask(final AuthenticationHandler handler, final UsernamePasswordCredentials credentials) {
+            this.handler = handler;
+            this.username = credentials.getUsername();
+            this.credentials = credentials;
+        }
+
+
+        @Override
+        public Boolean call() throws Exception {
+            try {
+                return handler.authenticate(credentials);
+            } finally {
+                // Clear the binding on the worker thread regardless of outcome so pooled threads do not leak entries
+                entry = AuthenticatedEntryHolder.take(username);
+            }
+        }
+    }
+}
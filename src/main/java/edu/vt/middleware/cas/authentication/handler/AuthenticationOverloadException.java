@@ -0,0 +1,47 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.handler;
+
+import org.jasig.cas.authentication.handler.AuthenticationException;
+
+/**
+ * Indicates that an authentication was rejected without contacting the directory because too many authentications
+ * were already in progress.  Rejections are expected under overload, so the exception carries no stack trace and
+ * {@link #ERROR} is thrown every time.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AuthenticationOverloadException extends AuthenticationException {
+
+    /** Error code for an authentication rejected under overload. */
+    public static final String CODE = "error.authentication.overload";
+
+    /** Instance thrown on every rejection. */
+    public static final AuthenticationOverloadException ERROR = new AuthenticationOverloadException();
+
+
+    /**
+     * Creates a new instance.
+     */
+    public AuthenticationOverloadException() {
+        super(CODE);
+    }
+
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.handler;
+
+import org.jasig.cas.authentication.handler.AuthenticationException;
+
+/**
+ * Indicates that an asynchronous authentication did not complete within its allotted time.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AuthenticationTimeoutException extends AuthenticationException {
+
+    /** Error code for an authentication timeout. */
+    public static final String CODE = "error.authentication.timeout";
+
+
+    /**
+     * Creates a new instance.
+     */
+    public AuthenticationTimeoutException() {
+        super(CODE);
+    }
+}
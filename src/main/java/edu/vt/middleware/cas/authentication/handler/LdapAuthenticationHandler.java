@@ -14,29 +14,76 @@
 package edu.vt.middleware.cas.authentication.handler;
 
 import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.validation.constraints.NotNull;
 
+import edu.vt.middleware.cas.authentication.AuthenticatedEntryHolder;
+import edu.vt.middleware.cas.cache.CredentialVerificationCache;
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import edu.vt.middleware.cas.util.ConcurrencyLimiter;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
 import org.jasig.cas.authentication.handler.AuthenticationException;
 import org.jasig.cas.authentication.handler.BadCredentialsAuthenticationException;
 import org.jasig.cas.authentication.handler.support.AbstractUsernamePasswordAuthenticationHandler;
 import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
 import org.ldaptive.Credential;
+import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.auth.AccountState;
+import org.ldaptive.auth.AuthenticationCriteria;
+import org.ldaptive.auth.AuthenticationHandlerResponse;
 import org.ldaptive.auth.AuthenticationRequest;
 import org.ldaptive.auth.AuthenticationResponse;
+import org.ldaptive.auth.AuthenticationResultCode;
 import org.ldaptive.auth.Authenticator;
+import org.ldaptive.auth.DnResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * LDAP authentication handler that uses the ldaptive <code>Authenticator</code> component underneath.
+ * If {@link #setReturnAttributes(String[])} is set, the entry of the authenticated user is fetched with those
+ * attributes and made available to principal resolution via {@link AuthenticatedEntryHolder}.
+ * <p>
+ * Credentials may also be authenticated asynchronously with {@link #authenticateAsync(UsernamePasswordCredentials)},
+ * which performs the DN resolution and bind on a bounded executor so that container threads are not held while
+ * waiting on the directory.  Asynchronous authentications fail with the same exceptions as synchronous ones and may
+ * be given a timeout, after which they fail with {@link AuthenticationTimeoutException}.
+ * </p>
+ * <p>
+ * Clients that repeatedly authenticate the same credentials may be answered without a search and bind by setting a
+ * {@link CredentialVerificationCache}.  Successful authentications are remembered and any failure forgets the user.
+ * </p>
+ * <p>
+ * When a {@link ConcurrencyLimiter} is set, authentications beyond the number the directory currently sustains fail
+ * immediately with {@link AuthenticationOverloadException} rather than waiting on the directory.
+ * </p>
  *
  * @author Middleware Services
  * @version $Revision: $
  */
-public class LdapAuthenticationHandler extends AbstractUsernamePasswordAuthenticationHandler {
+public class LdapAuthenticationHandler extends AbstractUsernamePasswordAuthenticationHandler
+        implements DisposableBean {
+
+    /** Default maximum number of concurrent asynchronous authentications. */
+    public static final int DEFAULT_ASYNC_THREADS = 32;
+
+    /** Default maximum number of asynchronous authentications waiting to run. */
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 512;
+
+    /** Name of the authentication operation in {@link OperationMetrics}. */
+    public static final String OP_AUTHENTICATE = "authentication";
+
+    /** Name of the DN resolution step of authentication in {@link OperationMetrics}. */
+    public static final String OP_RESOLVE_DN = "authentication.resolveDn";
+
+    /** Name of the bind step of authentication in {@link OperationMetrics}. */
+    public static final String OP_BIND = "authentication.bind";
 
     /** Logger instance. */
     private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -45,6 +92,30 @@ public class LdapAuthenticationHandler extends AbstractUsernamePasswordAuthentic
     @NotNull
     private final Authenticator authenticator;
 
+    /** Attributes of the authenticated entry to retrieve for principal resolution. */
+    private String[] returnAttributes;
+
+    /** Runs asynchronous authentications. */
+    private volatile ExecutorService asyncExecutor;
+
+    /** Whether the asynchronous executor was created by this handler. */
+    private boolean asyncExecutorCreated;
+
+    /** Cancels asynchronous authentications that exceed their timeout; created on first use. */
+    private ScheduledThreadPoolExecutor timeoutScheduler;
+
+    /** Default timeout in milliseconds of asynchronous authentications; zero for none. */
+    private long asyncTimeout;
+
+    /** Records operation latencies. */
+    private OperationMetrics metrics;
+
+    /** Remembers recently verified credentials. */
+    private CredentialVerificationCache verificationCache;
+
+    /** Limits concurrent authentications against the directory. */
+    private ConcurrencyLimiter concurrencyLimiter;
+
 
     /**
      * Creates a new authentication handler that delegates to the given authenticator.
@@ -56,30 +127,336 @@ public class LdapAuthenticationHandler extends AbstractUsernamePasswordAuthentic
     }
 
 
+    /**
+     * Sets the attributes of the authenticated user's entry to retrieve during authentication.
+     * These should be the return attributes of the principal resolver, including its username attribute, so that the
+     * resolver can build the principal from the entry without performing its own search.
+     * Note that the entry is read by the ldaptive <code>EntryResolver</code> configured on the authenticator.
+     * No entry is retrieved by default.
+     *
+     * @param  attributes  Names of attributes to retrieve.
+     */
+    public void setReturnAttributes(final String[] attributes) {
+        this.returnAttributes = attributes;
+    }
+
+
+    /**
+     * Sets the executor that runs asynchronous authentications.  The executor should be bounded so that a slow
+     * directory causes new authentications to be rejected rather than queued without limit.  If none is set, one is
+     * created on first use by {@link BoundedExecutors#newExecutor(String, int, int)} with
+     * {@value #DEFAULT_ASYNC_THREADS} threads and a queue of {@value #DEFAULT_ASYNC_QUEUE_SIZE}.
+     *
+     * @param  executor  Executor service.
+     */
+    public void setAsyncExecutor(final ExecutorService executor) {
+        this.asyncExecutor = executor;
+    }
+
+
+    /**
+     * Sets the default timeout of asynchronous authentications.  The timeout includes time spent waiting for an
+     * executor thread.  No timeout is applied by default.
+     *
+     * @param  timeout  Timeout in milliseconds; zero for none.
+     */
+    public void setAsyncTimeout(final long timeout) {
+        this.asyncTimeout = timeout;
+    }
+
+
+    /**
+     * Sets the component that records the latency of authentications, as operation {@value #OP_AUTHENTICATE}, and of
+     * their DN resolution and bind steps, as operations {@value #OP_RESOLVE_DN} and {@value #OP_BIND}.  The latter
+     * are measured by wrapping the DN resolver and authentication handler of the authenticator.  No metrics are
+     * recorded by default.
+     *
+     * @param  metrics  Operation metrics.
+     */
+    public void setMetrics(final OperationMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics != null) {
+            if (authenticator.getDnResolver() != null && !(authenticator.getDnResolver() instanceof TimedDnResolver)) {
+                authenticator.setDnResolver(new TimedDnResolver(authenticator.getDnResolver(), metrics));
+            }
+            if (authenticator.getAuthenticationHandler() != null &&
+                    !(authenticator.getAuthenticationHandler() instanceof TimedAuthenticationHandler)) {
+                authenticator.setAuthenticationHandler(
+                        new TimedAuthenticationHandler(authenticator.getAuthenticationHandler(), metrics));
+            }
+        }
+    }
+
+
+    /**
+     * Sets the cache of recently verified credentials.  Credentials found in the cache are accepted without contacting
+     * the directory, so no entry is made available to principal resolution and account state is not checked until
+     * the entry expires.  No cache is used by default.
+     *
+     * @param  cache  Credential verification cache.
+     */
+    public void setVerificationCache(final CredentialVerificationCache cache) {
+        this.verificationCache = cache;
+    }
+
+
+    /**
+     * Sets the limiter of concurrent authentications against the directory.  Authentications answered by the
+     * verification cache are not limited.  No limit is applied by default.
+     *
+     * @param  limiter  Concurrency limiter used by this component only, since the cost of operations differs between
+     *                  components.
+     */
+    public void setConcurrencyLimiter(final ConcurrencyLimiter limiter) {
+        this.concurrencyLimiter = limiter;
+    }
+
+
+    /**
+     * Authenticates the given credentials on the asynchronous executor with the default timeout.
+     *
+     * @param  credentials  Credentials to authenticate.
+     *
+     * @return  Pending authentication result.
+     *
+     * @throws  java.util.concurrent.RejectedExecutionException  If the executor cannot accept more work.
+     */
+    public AuthenticationFuture authenticateAsync(final UsernamePasswordCredentials credentials) {
+        return authenticateAsync(credentials, asyncTimeout, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Authenticates the given credentials on the asynchronous executor.
+     *
+     * @param  credentials  Credentials to authenticate.
+     * @param  timeout  Time after which the authentication is cancelled if not complete; zero for none.
+     * @param  unit  Unit of timeout.
+     *
+     * @return  Pending authentication result.
+     *
+     * @throws  java.util.concurrent.RejectedExecutionException  If the executor cannot accept more work.
+     */
+    public AuthenticationFuture authenticateAsync(
+            final UsernamePasswordCredentials credentials, final long timeout, final TimeUnit unit) {
+
+        final AuthenticationFuture future = new AuthenticationFuture(this, credentials);
+        getAsyncExecutor().execute(future);
+        if (timeout > 0) {
+            future.scheduleTimeout(timeout, unit, getTimeoutScheduler());
+        }
+        return future;
+    }
+
+
+    /**
+     * Shuts down the timeout scheduler and the asynchronous executor if it was created by this handler.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        synchronized (this) {
+            if (timeoutScheduler != null) {
+                timeoutScheduler.shutdownNow();
+            }
+            if (asyncExecutorCreated) {
+                asyncExecutor.shutdownNow();
+            }
+        }
+    }
+
+
     @Override
     protected boolean authenticateUsernamePasswordInternal(final UsernamePasswordCredentials credentials)
             throws AuthenticationException {
 
-        final AuthenticationResponse response;
+        AuthenticatedEntryHolder.clear();
+        if (verificationCache != null &&
+                verificationCache.verify(credentials.getUsername(), credentials.getPassword())) {
+            logger.debug("Verified {} from cache.", credentials);
+            return true;
+        }
+        final long start = System.nanoTime();
+        Outcome outcome = Outcome.LDAP_ERROR;
         try {
-            logger.debug("Attempting LDAP authentication for {}", credentials);
-            response = authenticator.authenticate(
-                    new AuthenticationRequest(credentials.getUsername(), new Credential(credentials.getPassword())));
-        } catch (LdapException e) {
-            throw new RuntimeException("Unexpected LDAP error", e);
+            if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+                outcome = Outcome.REJECTED;
+                logger.debug("Rejected authentication for {}: concurrency limit reached.", credentials);
+                throw AuthenticationOverloadException.ERROR;
+            }
+            final AuthenticationResponse response;
+            final long ldapStart = System.nanoTime();
+            boolean failed = true;
+            try {
+                logger.debug("Attempting LDAP authentication for {}", credentials);
+                final AuthenticationRequest request = new AuthenticationRequest(
+                        credentials.getUsername(), new Credential(credentials.getPassword()));
+                if (returnAttributes != null) {
+                    request.setReturnAttributes(returnAttributes);
+                }
+                response = authenticator.authenticate(request);
+                failed = false;
+            } catch (LdapException e) {
+                throw new RuntimeException("Unexpected LDAP error", e);
+            } finally {
+                if (concurrencyLimiter != null) {
+                    concurrencyLimiter.release(ldapStart, failed);
+                }
+            }
+            logger.debug("LDAP response: {}", response);
+            if (response.getResult()) {
+                final LdapEntry entry = response.getLdapEntry();
+                if (returnAttributes != null && entry != null) {
+                    AuthenticatedEntryHolder.set(credentials.getUsername(), entry);
+                }
+                if (verificationCache != null) {
+                    verificationCache.remember(credentials.getUsername(), credentials.getPassword());
+                }
+                outcome = Outcome.SUCCESS;
+                return true;
+            }
+            final AccountState state = response.getAccountState();
+            if (state != null && state.getError() != null) {
+                outcome = Outcome.ACCOUNT_STATE_ERROR;
+                try {
+                    state.getError().throwSecurityException();
+                } catch (GeneralSecurityException e) {
+                    throw new WrappedGeneralSecurityException(e);
+                }
+            }
+            outcome = response.getAuthenticationResultCode() == AuthenticationResultCode.DN_RESOLUTION_FAILURE
+                    ? Outcome.NOT_FOUND : Outcome.BAD_CREDENTIALS;
+            throw BadCredentialsAuthenticationException.ERROR;
+        } finally {
+            if (outcome != Outcome.SUCCESS && outcome != Outcome.REJECTED && verificationCache != null) {
+                verificationCache.invalidate(credentials.getUsername());
+            }
+            if (metrics != null) {
+                metrics.recordSince(OP_AUTHENTICATE, outcome, start);
+            }
         }
-        logger.debug("LDAP response: {}", response);
-        if (response.getResult()) {
-            return true;
+    }
+
+
+    /**
+     * Gets the asynchronous executor, creating the default one if none was set.
+     *
+     * @return  Executor service.
+     */
+    private ExecutorService getAsyncExecutor() {
+        ExecutorService executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    executor = BoundedExecutors.newExecutor(
+                            "ldap-auth", DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_QUEUE_SIZE);
+                    asyncExecutor = executor;
+                    asyncExecutorCreated = true;
+                }
+            }
+        }
+        return executor;
+    }
+
+
+    /**
+     * Gets the scheduler of asynchronous authentication timeouts, creating it on first use.
+     *
+     * @return  Scheduled executor.
+     */
+    private synchronized ScheduledThreadPoolExecutor getTimeoutScheduler() {
+        if (timeoutScheduler == null) {
+            timeoutScheduler = new ScheduledThreadPoolExecutor(
+                    1, new BoundedExecutors.NamedThreadFactory("ldap-auth-timeout"));
         }
-        final AccountState state = response.getAccountState();
-        if (state != null && state.getError() != null) {
+        return timeoutScheduler;
+    }
+
+
+    /** Records the latency of DN resolution. */
+    private static final class TimedDnResolver implements DnResolver {
+
+        /** Resolver that performs DN resolution. */
+        private final DnResolver resolver;
+
+        /** Records latencies. */
+        private final OperationMetrics metrics;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  resolver  Resolver that performs DN resolution.
+         * @param  metrics  Records latencies.
+         */
+        TimedDnResolver(final DnResolver resolver, final OperationMetrics metrics) {
+            this.resolver = resolver;
+            this.metrics = metrics;
+        }
+
+
+        @Override
+        public String resolve(final String user) throws LdapException {
+            final long start = System.nanoTime();
+            Outcome outcome = Outcome.LDAP_ERROR;
             try {
-                state.getError().throwSecurityException();
-            } catch (GeneralSecurityException e) {
-                throw new WrappedGeneralSecurityException(e);
+                final String dn = resolver.resolve(user);
+                outcome = dn == null || dn.isEmpty() ? Outcome.NOT_FOUND : Outcome.SUCCESS;
+                return dn;
+            } finally {
+                metrics.recordSince(OP_RESOLVE_DN, outcome, start);
             }
         }
-        throw BadCredentialsAuthenticationException.ERROR;
+
+
+        @Override
+        public String toString() {
+            return resolver.toString();
+        }
+    }
+
+
+    /** Records the latency of the bind step of authentication. */
+    private static final class TimedAuthenticationHandler implements org.ldaptive.auth.AuthenticationHandler {
+
+        /** Handler that performs the bind. */
+        private final org.ldaptive.auth.AuthenticationHandler handler;
+
+        /** Records latencies. */
+        private final OperationMetrics metrics;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  handler  Handler that performs the bind.
+         * @param  metrics  Records latencies.
+         */
+        TimedAuthenticationHandler(
+                final org.ldaptive.auth.AuthenticationHandler handler, final OperationMetrics metrics) {
+            this.handler = handler;
+            this.metrics = metrics;
+        }
+
+
+        @Override
+        public AuthenticationHandlerResponse authenticate(final AuthenticationCriteria criteria) throws LdapException {
+            final long start = System.nanoTime();
+            Outcome outcome = Outcome.LDAP_ERROR;
+            try {
+                final AuthenticationHandlerResponse response = handler.authenticate(criteria);
+                outcome = response.getResult() ? Outcome.SUCCESS : Outcome.BAD_CREDENTIALS;
+                return response;
+            } finally {
+                metrics.recordSince(OP_BIND, outcome, start);
+            }
+        }
+
+
+        @Override
+        public String toString() {
+            return handler.toString();
+        }
     }
 }
@@ -0,0 +1,180 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable, ordered set of attribute names shared by every {@link CompactAttributeMap} built by the same resolver.
+ * Each name occupies a slot; the maps hold only an array of values indexed by slot.  Names are interned, and each
+ * source attribute name is mapped to its slot once, so building a map neither allocates names nor repeats the
+ * attribute name mapping.  A layout is extended by creating a new one with {@link #with(String, String)}; maps built on
+ * an older layout remain valid.
+ * <p>
+ * Only the attribute names are serialized.  Deserialized layouts are interned by their names, so the maps read from a
+ * ticket registry share one layout per distinct set of names rather than each carrying a copy; they do not map source
+ * attribute names until extended with {@link #with(String, String)}.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class AttributeLayout implements Serializable {
+
+    /** Layout without attributes. */
+    public static final AttributeLayout EMPTY = new AttributeLayout(
+            new String[0], Collections.<String, Integer>emptyMap(), Collections.<String, Integer>emptyMap());
+
+    /** Serialization version. */
+    private static final long serialVersionUID = 6201872316428427170L;
+
+    /** Deserialized layouts by attribute names. */
+    private static final ConcurrentMap<List<String>, AttributeLayout> DESERIALIZED =
+            new ConcurrentHashMap<List<String>, AttributeLayout>();
+
+    /** Attribute names by slot. */
+    private final String[] names;
+
+    /** Slot by attribute name. */
+    private final transient Map<String, Integer> slots;
+
+    /** Slot by source attribute name. */
+    private final transient Map<String, Integer> sourceSlots;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  names  Attribute names by slot.
+     * @param  slots  Slot by attribute name.
+     * @param  sourceSlots  Slot by source attribute name.
+     */
+    private AttributeLayout(
+            final String[] names, final Map<String, Integer> slots, final Map<String, Integer> sourceSlots) {
+        this.names = names;
+        this.slots = slots;
+        this.sourceSlots = sourceSlots;
+    }
+
+
+    /**
+     * Gets the number of slots.
+     *
+     * @return  Number of attribute names.
+     */
+    public int size() {
+        return names.length;
+    }
+
+
+    /**
+     * Gets the attribute name in a slot.
+     *
+     * @param  slot  Slot index.
+     *
+     * @return  Attribute name.
+     */
+    public String getName(final int slot) {
+        return names[slot];
+    }
+
+
+    /**
+     * Gets the slot of an attribute name.
+     *
+     * @param  name  Attribute name.
+     *
+     * @return  Slot index or -1 if the layout does not contain the name.
+     */
+    public int indexOf(final Object name) {
+        final Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+
+    /**
+     * Gets the slot of the attribute mapped from a source attribute name.
+     *
+     * @param  source  Source attribute name, e.g. the LDAP attribute name.
+     *
+     * @return  Slot index or -1 if the source name has not been added to the layout.
+     */
+    public int indexOfSource(final String source) {
+        final Integer slot = sourceSlots.get(source);
+        return slot != null ? slot : -1;
+    }
+
+
+    /**
+     * Creates a layout that also maps the given source name to the given attribute name.  The new layout keeps the
+     * slots of this one, so maps built on this layout are valid for the new one.
+     *
+     * @param  source  Source attribute name, e.g. the LDAP attribute name.
+     * @param  name  Attribute name the source name maps to.
+     *
+     * @return  This layout if it already maps the source name, otherwise a new layout.
+     */
+    public AttributeLayout with(final String source, final String name) {
+        if (sourceSlots.containsKey(source)) {
+            return this;
+        }
+        final Map<String, Integer> newSourceSlots = new HashMap<String, Integer>(sourceSlots);
+        final Integer slot = slots.get(name);
+        if (slot != null) {
+            newSourceSlots.put(source.intern(), slot);
+            return new AttributeLayout(names, slots, newSourceSlots);
+        }
+        final String[] newNames = Arrays.copyOf(names, names.length + 1);
+        newNames[names.length] = name.intern();
+        final Map<String, Integer> newSlots = new HashMap<String, Integer>(slots);
+        newSlots.put(newNames[names.length], names.length);
+        newSourceSlots.put(source.intern(), names.length);
+        return new AttributeLayout(newNames, newSlots, newSourceSlots);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s::names=%s", getClass().getName(), hashCode(), Arrays.toString(names));
+    }
+
+
+    /**
+     * Replaces a deserialized layout with the interned layout of the same attribute names.
+     *
+     * @return  Layout without source attribute names shared by every deserialized layout with these names.
+     */
+    private Object readResolve() {
+        if (names.length == 0) {
+            return EMPTY;
+        }
+        final String[] internedNames = new String[names.length];
+        final Map<String, Integer> newSlots = new HashMap<String, Integer>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            internedNames[i] = names[i].intern();
+            newSlots.put(internedNames[i], i);
+        }
+        final AttributeLayout layout = new AttributeLayout(
+                internedNames, newSlots, Collections.<String, Integer>emptyMap());
+        final AttributeLayout existing = DESERIALIZED.putIfAbsent(Arrays.asList(internedNames), layout);
+        return existing != null ? existing : layout;
+    }
+}
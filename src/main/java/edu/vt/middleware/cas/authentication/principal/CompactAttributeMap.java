@@ -0,0 +1,197 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map of principal attributes that stores only an array of values; the attribute names are held by an
+ * {@link AttributeLayout} shared with other maps.  Single-valued attributes are stored as the value itself and
+ * multi-valued attributes as an array that is exposed as an unmodifiable list, so a principal costs little more than
+ * its values.  Binary attributes may be held in their encoded form and decoded when first read.  Attributes without a
+ * value in a slot are absent from the map.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class CompactAttributeMap extends AbstractMap<String, Object> implements Serializable {
+
+    /** Serialization version. */
+    private static final long serialVersionUID = -3350913208451938217L;
+
+    /** Attribute names. */
+    private final AttributeLayout layout;
+
+    /** Values by slot of the layout; null for absent attributes. */
+    private final Object[] values;
+
+    /** Number of attributes present. */
+    private final int size;
+
+
+    /**
+     * Creates a new instance.  The values array is not copied and must not be modified afterward.
+     *
+     * @param  layout  Attribute names.
+     * @param  values  Values by slot of the layout, no longer than the layout.  Each value is null if the attribute is
+     *                 absent, a {@link String} array for multi-valued attributes, an encoded binary value
+     *                 created by the resolver to be decoded on first read, or the value itself.
+     */
+    public CompactAttributeMap(final AttributeLayout layout, final Object[] values) {
+        if (values.length > layout.size()) {
+            throw new IllegalArgumentException("More values than attribute names in layout.");
+        }
+        this.layout = layout;
+        this.values = values;
+        int n = 0;
+        for (Object value : values) {
+            if (value != null) {
+                n++;
+            }
+        }
+        this.size = n;
+    }
+
+
+    /**
+     * Gets the layout of this map.
+     *
+     * @return  Attribute names.
+     */
+    public AttributeLayout getLayout() {
+        return layout;
+    }
+
+
+    /**
+     * Gets the value stored in a slot without converting it, so it can be copied without decoding binary values.
+     *
+     * @param  slot  Slot of the layout.
+     *
+     * @return  Null if the attribute is absent, a {@link String} array for multi-valued attributes, a
+     *          {@link LazyAttributeValue} for binary attributes, or the value itself.
+     */
+    Object getStored(final int slot) {
+        return slot >= 0 && slot < values.length ? values[slot] : null;
+    }
+
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    @Override
+    public boolean containsKey(final Object key) {
+        final int slot = layout.indexOf(key);
+        return slot >= 0 && slot < values.length && values[slot] != null;
+    }
+
+
+    @Override
+    public Object get(final Object key) {
+        final int slot = layout.indexOf(key);
+        return slot >= 0 && slot < values.length ? expose(values[slot]) : null;
+    }
+
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+
+    /**
+     * Converts a stored value to the value seen by consumers of the map.
+     *
+     * @param  value  Stored value.
+     *
+     * @return  Unmodifiable list for arrays, the decoded value of lazy values, otherwise the value itself.
+     */
+    private static Object expose(final Object value) {
+        if (value instanceof String[]) {
+            return Collections.unmodifiableList(Arrays.asList((String[]) value));
+        }
+        if (value instanceof LazyAttributeValue) {
+            return ((LazyAttributeValue) value).get();
+        }
+        return value;
+    }
+
+
+    /** Iterates over the attributes present in the map in slot order. */
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+        /** Slot of the next attribute. */
+        private int next = advance(0);
+
+
+        @Override
+        public boolean hasNext() {
+            return next < values.length;
+        }
+
+
+        @Override
+        public Entry<String, Object> next() {
+            if (next >= values.length) {
+                throw new NoSuchElementException();
+            }
+            final Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(
+                    layout.getName(next), expose(values[next]));
+            next = advance(next + 1);
+            return entry;
+        }
+
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Attributes are immutable.");
+        }
+
+
+        /**
+         * Finds the first slot at or after the given one that holds a value.
+         *
+         * @param  from  Slot to start from.
+         *
+         * @return  Slot index or the number of values if there is none.
+         */
+        private int advance(final int from) {
+            int slot = from;
+            while (slot < values.length && values[slot] == null) {
+                slot++;
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+
+/**
+ * Principal whose attributes are held by a {@link CompactAttributeMap}.  {@link SimplePrincipal} exposes its
+ * attributes through an unmodifiable view, so this class keeps a reference to the compact map for components that
+ * need its stored form, e.g. {@link PrincipalSnapshot} writing binary attributes without decoding them.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class CompactPrincipal extends SimplePrincipal {
+
+    /** Serialization version. */
+    private static final long serialVersionUID = 2937146470520416625L;
+
+    /** Principal attributes. */
+    private final CompactAttributeMap compactAttributes;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  id  Principal identifier.
+     * @param  attributes  Principal attributes.
+     */
+    public CompactPrincipal(final String id, final CompactAttributeMap attributes) {
+        super(id, attributes);
+        this.compactAttributes = attributes;
+    }
+
+
+    /**
+     * Gets the attributes of this principal as stored.
+     *
+     * @return  Principal attributes.
+     */
+    CompactAttributeMap getCompactAttributes() {
+        return compactAttributes;
+    }
+}
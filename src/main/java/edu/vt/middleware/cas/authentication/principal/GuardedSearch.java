@@ -0,0 +1,146 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import edu.vt.middleware.cas.util.CircuitBreaker;
+import edu.vt.middleware.cas.util.CircuitOpenException;
+import edu.vt.middleware.cas.util.ConcurrencyLimitExceededException;
+import edu.vt.middleware.cas.util.ConcurrencyLimiter;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchResult;
+
+/**
+ * Performs the searches of {@link LdapCredentialsToPrincipalResolver} within the limit of an optional
+ * {@link ConcurrencyLimiter} and while an optional {@link CircuitBreaker} allows.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+final class GuardedSearch {
+
+    /** Source of LDAP connections. */
+    private final ConnectionFactory connectionFactory;
+
+    /** Performs the LDAP search operation. */
+    private final SearchExecutor searchExecutor;
+
+    /** Limits concurrent searches. */
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    /** Stops searching while the directory is failing. */
+    private CircuitBreaker circuitBreaker;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  cf  Source of LDAP connections.
+     * @param  se  Executes the search operation.
+     */
+    GuardedSearch(final ConnectionFactory cf, final SearchExecutor se) {
+        this.connectionFactory = cf;
+        this.searchExecutor = se;
+    }
+
+
+    /**
+     * Sets the limiter of concurrent searches.
+     *
+     * @param  limiter  Concurrency limiter or null for none.
+     */
+    void setConcurrencyLimiter(final ConcurrencyLimiter limiter) {
+        this.concurrencyLimiter = limiter;
+    }
+
+
+    /**
+     * Sets the circuit breaker that guards searches.
+     *
+     * @param  breaker  Circuit breaker or null for none.
+     */
+    void setCircuitBreaker(final CircuitBreaker breaker) {
+        this.circuitBreaker = breaker;
+    }
+
+
+    /**
+     * Performs a search if the circuit breaker, if any, allows, and reports its outcome to the breaker.
+     *
+     * @param  filter  Search filter.
+     *
+     * @return  Search response.
+     *
+     * @throws  LdapException  On search errors.
+     * @throws  CircuitOpenException  If the circuit breaker is open.
+     * @throws  ConcurrencyLimitExceededException  If the concurrency limit has been reached.
+     */
+    Response<SearchResult> search(final String filter) throws LdapException {
+        if (circuitBreaker == null) {
+            return limitedSearch(filter);
+        }
+        circuitBreaker.acquire();
+        Boolean failed = null;
+        try {
+            final Response<SearchResult> response = limitedSearch(filter);
+            failed = Boolean.FALSE;
+            return response;
+        } catch (LdapException e) {
+            failed = Boolean.TRUE;
+            throw e;
+        } catch (ConcurrencyLimitExceededException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            failed = Boolean.TRUE;
+            throw e;
+        } finally {
+            if (failed == null) {
+                circuitBreaker.onIgnored();
+            } else if (failed) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+        }
+    }
+
+
+    /**
+     * Performs a search within the concurrency limit, if any.
+     *
+     * @param  filter  Search filter.
+     *
+     * @return  Search response.
+     *
+     * @throws  LdapException  On search errors.
+     * @throws  ConcurrencyLimitExceededException  If the concurrency limit has been reached.
+     */
+    private Response<SearchResult> limitedSearch(final String filter) throws LdapException {
+        if (concurrencyLimiter == null) {
+            return searchExecutor.search(connectionFactory, filter);
+        }
+        concurrencyLimiter.acquire();
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final Response<SearchResult> response = searchExecutor.search(connectionFactory, filter);
+            failed = false;
+            return response;
+        } finally {
+            concurrencyLimiter.release(start, failed);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import org.jasig.cas.authentication.principal.Principal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Last principal resolved for each user by {@link LdapCredentialsToPrincipalResolver}, which is returned as a
+ * {@link StalePrincipal} when the user cannot be resolved because the directory is unavailable.  Nothing is kept
+ * unless a cache is set.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+final class LastKnownGoodPrincipals {
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Last known good principals keyed by normalized username. */
+    private ExpiringCache<String, Principal> cache;
+
+
+    /**
+     * Sets the cache of last known good principals.
+     *
+     * @param  c  Last known good principals keyed by normalized username, or null to keep none.
+     */
+    void setCache(final ExpiringCache<String, Principal> c) {
+        this.cache = c;
+    }
+
+
+    /**
+     * Remembers a resolved principal.
+     *
+     * @param  key  Normalized username.
+     * @param  principal  Principal resolved now.
+     */
+    void remember(final String key, final Principal principal) {
+        if (cache != null) {
+            cache.put(
+                    key, new StalePrincipal(principal.getId(), principal.getAttributes(), System.currentTimeMillis()));
+        }
+    }
+
+
+    /**
+     * Gets the last principal resolved for a user that could not be resolved now.
+     *
+     * @param  key  Normalized username.
+     *
+     * @return  Stale principal or null if there is none.
+     */
+    Principal get(final String key) {
+        if (cache == null) {
+            return null;
+        }
+        final Principal principal = cache.get(key);
+        if (principal != null) {
+            logger.warn("Directory unavailable; resolved last known good principal {}.", principal);
+        }
+        return principal;
+    }
+
+
+    /**
+     * Forgets the last principal resolved for a user.
+     *
+     * @param  key  Normalized username.
+     */
+    void remove(final String key) {
+        if (cache != null) {
+            cache.remove(key);
+        }
+    }
+}
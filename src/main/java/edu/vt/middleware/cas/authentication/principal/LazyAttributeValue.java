@@ -0,0 +1,125 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ldaptive.LdapUtils;
+
+/**
+ * Binary attribute value held in its encoded form and converted to base64 text the first time it is read.  The text is
+ * the same as {@link org.ldaptive.LdapAttribute#getStringValue()} returns for binary attributes.  The decoded value is
+ * memoized and the encoded form released, so each value is converted at most once.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+final class LazyAttributeValue implements Serializable {
+
+    /** Serialization version. */
+    private static final long serialVersionUID = 4185106620953414311L;
+
+    /** Encoded values; null once decoded. */
+    private byte[][] encoded;
+
+    /** Decoded value; a string for single-valued attributes, otherwise an unmodifiable list of strings. */
+    private volatile Object decoded;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  values  Encoded values.
+     */
+    LazyAttributeValue(final byte[][] values) {
+        this.encoded = values;
+    }
+
+
+    /**
+     * Gets the decoded value, decoding it on first use.
+     *
+     * @return  String for single-valued attributes, otherwise an unmodifiable list of strings.
+     */
+    Object get() {
+        Object value = decoded;
+        if (value == null) {
+            synchronized (this) {
+                value = decoded;
+                if (value == null) {
+                    value = decode(encoded);
+                    decoded = value;
+                    encoded = null;
+                }
+            }
+        }
+        return value;
+    }
+
+
+    /**
+     * Gets whether the value has been decoded.
+     *
+     * @return  True if decoded, false otherwise.
+     */
+    boolean isDecoded() {
+        return decoded != null;
+    }
+
+
+    /**
+     * Gets the encoded values if they have not been decoded yet.  The arrays are not copied and must not be modified.
+     *
+     * @return  Encoded values or null if the value has been decoded.
+     */
+    synchronized byte[][] getEncoded() {
+        return encoded;
+    }
+
+
+    /**
+     * Converts encoded values to base64 text.
+     *
+     * @param  values  Encoded values.
+     *
+     * @return  String for a single value, otherwise an unmodifiable list of strings.
+     */
+    private static Object decode(final byte[][] values) {
+        if (values.length == 1) {
+            return LdapUtils.base64Encode(values[0]);
+        }
+        final List<String> list = new ArrayList<String>(values.length);
+        for (byte[] value : values) {
+            list.add(LdapUtils.base64Encode(value));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+
+    /**
+     * Writes the value while holding the lock so the encoded and decoded forms are consistent.
+     *
+     * @param  out  Object output stream.
+     *
+     * @throws  IOException  On write errors.
+     */
+    private synchronized void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+}
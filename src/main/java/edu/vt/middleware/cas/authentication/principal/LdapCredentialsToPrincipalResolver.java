@@ -13,15 +13,31 @@
 */
 package edu.vt.middleware.cas.authentication.principal;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.validation.constraints.NotNull;
 
+import edu.vt.middleware.cas.authentication.AuthenticatedEntryHolder;
+import edu.vt.middleware.cas.cache.CacheKeys;
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import edu.vt.middleware.cas.cache.NegativeResultCache;
+import edu.vt.middleware.cas.ldap.FilterTemplate;
+import edu.vt.middleware.cas.util.CircuitBreaker;
+import edu.vt.middleware.cas.util.CircuitOpenException;
+import edu.vt.middleware.cas.util.ConcurrencyLimitExceededException;
+import edu.vt.middleware.cas.util.ConcurrencyLimiter;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import edu.vt.middleware.cas.util.SingleFlight;
 import org.jasig.cas.authentication.principal.Credentials;
 import org.jasig.cas.authentication.principal.CredentialsToPrincipalResolver;
 import org.jasig.cas.authentication.principal.Principal;
-import org.jasig.cas.authentication.principal.SimplePrincipal;
 import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
 import org.ldaptive.ConnectionFactory;
 import org.ldaptive.LdapAttribute;
@@ -29,10 +45,10 @@ import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.Response;
 import org.ldaptive.SearchExecutor;
-import org.ldaptive.SearchFilter;
 import org.ldaptive.SearchResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
@@ -40,11 +56,43 @@ import org.springframework.util.Assert;
  * Simple credentials to principal resolver that searches for attributes of a principal using
  * the user name of a {@link org.jasig.cas.authentication.principal.UsernamePasswordCredentials} instance as the
  * basis of the search query. This component provides an optional simple attribute name mapping facility.
+ * Resolved principals may optionally be cached by normalized username to avoid repeated searches for the same user.
+ * When {@link #setUseAuthenticatedEntry(boolean)} is enabled, the entry fetched by
+ * {@link edu.vt.middleware.cas.authentication.handler.LdapAuthenticationHandler} during authentication is used to
+ * build the principal and no search is performed.  Usernames for which no entry was found may be remembered for a
+ * short time by a {@link NegativeResultCache}.  Concurrent searches for the same user are coalesced into one.
+ * <p>
+ * Principal attributes are held in a {@link CompactAttributeMap} whose attribute names are shared by every principal
+ * from this resolver.  The names of the return attributes of the search executor are mapped and interned when the
+ * resolver is initialized; other attributes are added the first time they are seen.  Binary attributes named in
+ * {@link #setLazyAttributes(Set)} keep their encoded form and are converted to text only if a service reads them.
+ * </p>
+ * <p>
+ * Many principals may be resolved at once with {@link #resolvePrincipals(Collection)}, which searches for chunks of
+ * users with a single OR filter each; see {@link PrincipalBatchResolver}.
+ * </p>
+ * <p>
+ * A {@link PrincipalSnapshot} loaded at startup answers for users not yet in the cache.  Principals from the snapshot,
+ * or left in the cache from it, are {@link StalePrincipal} instances; each is returned as is and searched for again in
+ * the background by a {@link PrincipalRevalidator}, replacing it in the cache when found and removing it when the
+ * user no longer exists.
+ * </p>
+ * <p>
+ * Searches may be limited by a {@link ConcurrencyLimiter}; a principal that cannot be resolved because the limit was
+ * reached is treated like one that could not be resolved because of an LDAP error.  Searches may also be guarded by a
+ * {@link CircuitBreaker}, which stops searching while the directory is failing.  When a principal cannot be resolved
+ * for any of these reasons, the last principal resolved for the user is returned as a {@link StalePrincipal} if a
+ * {@link #setLastKnownGoodCache(ExpiringCache) last known good cache} is set.
+ * </p>
+ * <p>
+ * Executors created by the resolver for batch resolution and revalidation are shut down by {@link #destroy()}.
+ * </p>
  *
  * @author Middleware Services
  * @version $Revision: $
  */
-public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipalResolver, InitializingBean {
+public class LdapCredentialsToPrincipalResolver
+        implements CredentialsToPrincipalResolver, InitializingBean, DisposableBean {
 
     /** The name of the username parameter in the search filter expression. */
     public static final String USER_PARAM = "user";
@@ -52,6 +100,21 @@ public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipa
     /** User name placeholder in LDAP search filter expression. */
     public static final String USER_PLACEHOLDER = '{' + USER_PARAM + '}';
 
+    /** Name of the principal resolution operation in {@link OperationMetrics}. */
+    public static final String OP_RESOLVE = "principalResolution";
+
+    /** Name of the search step of principal resolution in {@link OperationMetrics}. */
+    public static final String OP_SEARCH = "principalResolution.search";
+
+    /** Name of the search step of batch principal resolution in {@link OperationMetrics}. */
+    public static final String OP_BATCH_SEARCH = "principalResolution.batchSearch";
+
+    /** Default number of users searched for with one filter in batch resolution. */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /** Default number of concurrent searches in batch resolution. */
+    public static final int DEFAULT_BATCH_PARALLELISM = 1;
+
     /** Logger instance. */
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -69,9 +132,45 @@ public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipa
     @NotNull
     private final SearchExecutor searchExecutor;
 
-    /** Source of LDAP connections. */
-    @NotNull
-    private final ConnectionFactory connectionFactory;
+    /** Performs searches within the concurrency limit and while the circuit breaker allows. */
+    private final GuardedSearch guardedSearch;
+
+    /** Optional cache of resolved principals keyed by normalized username. */
+    private ExpiringCache<String, Principal> principalCache;
+
+    /** Optional cache of usernames for which no entry was found. */
+    private NegativeResultCache negativeResultCache;
+
+    /** Flag that indicates whether to build principals from the entry obtained during authentication. */
+    private boolean useAuthenticatedEntry = false;
+
+    /** Search filter compiled from {@link SearchExecutor#getSearchFilter()}. */
+    private FilterTemplate filterTemplate;
+
+    /** Coalesces concurrent searches for the same normalized username. */
+    private final SingleFlight<String, SearchResult> searches = new SingleFlight<String, SearchResult>();
+
+    /** Records operation latencies. */
+    private OperationMetrics metrics;
+
+    /** Names of binary LDAP attributes decoded on first read. */
+    private Set<String> lazyAttributes = Collections.emptySet();
+
+    /** Principals written before the last restart. */
+    private PrincipalSnapshot principalSnapshot;
+
+    /** Resolves many principals at once. */
+    private final PrincipalBatchResolver batchResolver = new PrincipalBatchResolver(this);
+
+    /** Revalidates stale principals. */
+    private final PrincipalRevalidator revalidator = new PrincipalRevalidator(this);
+
+    /** Last principal resolved for each user, served while the directory is unavailable. */
+    private final LastKnownGoodPrincipals lastKnownGood = new LastKnownGoodPrincipals();
+
+    /** Attribute names shared by the attribute maps of resolved principals. */
+    private final AtomicReference<AttributeLayout> attributeLayout =
+            new AtomicReference<AttributeLayout>(AttributeLayout.EMPTY);
 
 
     /**
@@ -84,8 +183,8 @@ public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipa
     public LdapCredentialsToPrincipalResolver(
             final ConnectionFactory cf, final SearchExecutor se, final String userAttribute) {
 
-        this.connectionFactory = cf;
         this.searchExecutor = se;
+        this.guardedSearch = new GuardedSearch(cf, se);
         this.userNameAttribute = userAttribute;
     }
 
@@ -115,18 +214,193 @@ public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipa
     }
 
 
+    /**
+     * Sets the cache of resolved principals.  Principals are cached by normalized username, so a principal resolved
+     * once is served from memory until it expires or is evicted.  No caching is performed by default.
+     *
+     * @param  cache  Principal cache.
+     */
+    public void setPrincipalCache(final ExpiringCache<String, Principal> cache) {
+        this.principalCache = cache;
+    }
+
+
+    /**
+     * Sets the cache of usernames for which no entry was found.  Lookups of such users return null without searching
+     * until the negative result expires.  No negative caching is performed by default.
+     *
+     * @param  cache  Negative result cache.
+     */
+    public void setNegativeResultCache(final NegativeResultCache cache) {
+        this.negativeResultCache = cache;
+    }
+
+
+    /**
+     * Sets whether to build the principal from the LDAP entry obtained during authentication, if one is available for
+     * the current request.  This requires the authentication handler to be configured with the return attributes of
+     * this resolver.  This is false by default.
+     *
+     * @param  useEntry  True to use the authenticated entry when available, false to always search.
+     */
+    public void setUseAuthenticatedEntry(final boolean useEntry) {
+        this.useAuthenticatedEntry = useEntry;
+    }
+
+
+    /**
+     * Sets the binary LDAP attributes, such as certificates or photos, whose values are kept in their encoded form and
+     * converted to base64 text only when the principal attribute is first read.  The converted value is memoized.
+     * Attributes that are rarely released to services then cost neither the conversion nor the heap for the text.
+     * Attributes with string values are unaffected, since the directory has already decoded them.  None by default.
+     *
+     * @param  names  LDAP attribute names.
+     */
+    public void setLazyAttributes(final Set<String> names) {
+        this.lazyAttributes = names != null ? names : Collections.<String>emptySet();
+    }
+
+
+    /**
+     * Sets the number of users searched for with one OR filter by {@link #resolvePrincipals(Collection)}.  The
+     * default is {@value #DEFAULT_BATCH_SIZE}.  Directories may limit the size of filters or of search results.
+     *
+     * @param  size  Users per search; at least 1.
+     */
+    public void setBatchSize(final int size) {
+        Assert.isTrue(size > 0, "Batch size must be positive.");
+        batchResolver.setBatchSize(size);
+    }
+
+
+    /**
+     * Sets the number of concurrent searches performed by {@link #resolvePrincipals(Collection)}.  The default is
+     * {@value #DEFAULT_BATCH_PARALLELISM}, in which case searches run on the calling thread.
+     *
+     * @param  parallelism  Concurrent searches; at least 1.
+     */
+    public void setBatchParallelism(final int parallelism) {
+        Assert.isTrue(parallelism > 0, "Batch parallelism must be positive.");
+        batchResolver.setParallelism(parallelism);
+    }
+
+
+    /**
+     * Sets the executor that runs concurrent searches of batch resolution.  If none is set, one with as many threads
+     * as the batch parallelism is created when first needed and shut down by {@link #destroy()}.
+     *
+     * @param  executor  Executor service.
+     */
+    public void setBatchExecutor(final ExecutorService executor) {
+        batchResolver.setExecutor(executor);
+    }
+
+
+    /**
+     * Sets the snapshot of principals resolved before the last restart.  Its principals are returned while they are
+     * revalidated in the background.
+     *
+     * @param  snapshot  Principal snapshot.
+     */
+    public void setPrincipalSnapshot(final PrincipalSnapshot snapshot) {
+        this.principalSnapshot = snapshot;
+    }
+
+
+    /**
+     * Sets the limiter of concurrent searches.  Searches beyond the limit fail with
+     * {@link ConcurrencyLimitExceededException}.  No limit is applied by default.
+     *
+     * @param  limiter  Concurrency limiter used by this component only, since the cost of operations differs between
+     *                  components.
+     */
+    public void setConcurrencyLimiter(final ConcurrencyLimiter limiter) {
+        guardedSearch.setConcurrencyLimiter(limiter);
+    }
+
+
+    /**
+     * Sets the circuit breaker that guards searches.  Searches rejected by the breaker fail with
+     * {@link CircuitOpenException}.  No breaker is used by default.
+     *
+     * @param  breaker  Circuit breaker.
+     */
+    public void setCircuitBreaker(final CircuitBreaker breaker) {
+        guardedSearch.setCircuitBreaker(breaker);
+    }
+
+
+    /**
+     * Sets the cache of the last principal resolved for each user, which answers for users that cannot be resolved
+     * because of an LDAP error, an open circuit or the concurrency limit.  Its time to live should be long, e.g. a
+     * day, since it is only used when the directory is unavailable.  No fallback is made by default.
+     *
+     * @param  cache  Last known good principals keyed by normalized username.
+     */
+    public void setLastKnownGoodCache(final ExpiringCache<String, Principal> cache) {
+        lastKnownGood.setCache(cache);
+    }
+
+
     @Override
     public void afterPropertiesSet() throws Exception {
         Assert.notNull(searchExecutor.getSearchFilter(), "SearchExecutor#searchFilter cannot be null.");
         final String filterString = searchExecutor.getSearchFilter().getFilter();
         Assert.notNull(filterString, "SearchExecutor#searchFilter#filter cannot be null.");
-        if (!filterString.contains(USER_PLACEHOLDER)) {
-            throw new IllegalArgumentException(
-                    "Search filter expression must container user name placeholder " + USER_PLACEHOLDER);
+        filterTemplate = new FilterTemplate(filterString, USER_PARAM);
+        if (searchExecutor.getReturnAttributes() != null) {
+            for (String name : searchExecutor.getReturnAttributes()) {
+                if (!userNameAttribute.equals(name)) {
+                    extendAttributeLayout(name);
+                }
+            }
         }
     }
 
 
+    /**
+     * Stops revalidating stale principals and shuts down the executors created by this resolver.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        revalidator.destroy();
+        batchResolver.destroy();
+    }
+
+
+    /**
+     * Sets the component that records the latency of principal resolution, as operation {@value #OP_RESOLVE}, and of
+     * the searches it performs, as operation {@value #OP_SEARCH}.  No metrics are recorded by default.
+     *
+     * @param  metrics  Operation metrics.
+     */
+    public void setMetrics(final OperationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Gets the attribute names shared by the attribute maps of principals resolved so far.
+     *
+     * @return  Current attribute layout.
+     */
+    public AttributeLayout getAttributeLayout() {
+        return attributeLayout.get();
+    }
+
+
+    /**
+     * Gets the component that coalesces concurrent searches for the same user, e.g. to report how many searches
+     * were saved.
+     *
+     * @return  Search coalescer.
+     */
+    public SingleFlight<String, SearchResult> getSearchCoalescer() {
+        return searches;
+    }
+
+
     @Override
     public final boolean supports(final Credentials credentials) {
         return credentials instanceof UsernamePasswordCredentials;
@@ -135,17 +409,130 @@ public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipa
 
     @Override
     public final Principal resolvePrincipal(final Credentials credentials) {
-        final SearchResult result;
+        return resolvePrincipal(credentials, true);
+    }
+
+
+    /**
+     * Resolves a principal from the given credentials, optionally bypassing the negative result cache.
+     *
+     * @param  credentials  Username/password credentials.
+     * @param  useNegativeCache  True to answer lookups of users recently not found from the negative result cache,
+     *                           false to search regardless.  Search outcomes are recorded in either case.
+     *
+     * @return  Resolved principal or null if none could be resolved.
+     */
+    public final Principal resolvePrincipal(final Credentials credentials, final boolean useNegativeCache) {
+        final long start = System.nanoTime();
+        Outcome outcome = Outcome.LDAP_ERROR;
         try {
-            logger.debug("Attempting to resolve principal from {}.", credentials);
-            final Response<SearchResult> response = searchExecutor.search(
-                    connectionFactory,
-                    filterWithParams(credentials));
-            logger.debug("LDAP response: {}", response);
-            result = response.getResult();
+            final Principal principal = resolve(credentials, useNegativeCache);
+            outcome = principal != null ? Outcome.SUCCESS : Outcome.NOT_FOUND;
+            return principal;
         } catch (LdapException e) {
             logger.error("LDAP error resolving principal from {}.", credentials, e);
+            return lastKnownGood.get(CacheKeys.normalizeUsername(usernameFrom(credentials)));
+        } catch (CircuitOpenException e) {
+            outcome = Outcome.REJECTED;
+            logger.debug("Cannot resolve principal from {}: {}", credentials, e.getMessage());
+            return lastKnownGood.get(CacheKeys.normalizeUsername(usernameFrom(credentials)));
+        } catch (ConcurrencyLimitExceededException e) {
+            outcome = Outcome.REJECTED;
+            logger.warn("Cannot resolve principal from {}: {}", credentials, e.getMessage());
+            return lastKnownGood.get(CacheKeys.normalizeUsername(usernameFrom(credentials)));
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(OP_RESOLVE, outcome, start);
+            }
+        }
+    }
+
+
+    /**
+     * Resolves the principals of many users, searching for up to {@link #setBatchSize(int) batch size} users with one
+     * OR filter built from the configured filter, e.g. <code>(|(uid=a)(uid=b))</code>.  Users in the principal cache
+     * are not searched for.  Entries are matched to usernames by the value of the username attribute, ignoring case,
+     * so the filter must select users by that attribute.  Resolved principals are cached and users not found are
+     * recorded in the negative result cache.  Users with several entries are omitted unless multiple results are
+     * allowed.
+     *
+     * @param  usernames  Usernames to resolve.
+     *
+     * @return  Map of username, as given, to principal for every user that was found, in the order given.
+     *
+     * @throws  LdapException  If a search fails.
+     */
+    public Map<String, Principal> resolvePrincipals(final Collection<String> usernames) throws LdapException {
+        return batchResolver.resolve(usernames);
+    }
+
+
+    /**
+     * Resolves a principal from the given credentials.
+     *
+     * @param  credentials  Username/password credentials.
+     * @param  useNegativeCache  True to consult the negative result cache.
+     *
+     * @return  Resolved principal or null if none could be resolved.
+     *
+     * @throws  LdapException  On LDAP search errors.
+     */
+    private Principal resolve(final Credentials credentials, final boolean useNegativeCache) throws LdapException {
+        final String username = usernameFrom(credentials);
+        if (useAuthenticatedEntry) {
+            final LdapEntry entry = AuthenticatedEntryHolder.take(username);
+            if (entry != null) {
+                final Principal principal = principalFromEntry(entry);
+                if (principal != null) {
+                    cachePrincipal(username, principal);
+                    logger.debug("Resolved principal {} from authenticated entry.", principal);
+                    return principal;
+                }
+            }
+        }
+        if (principalCache != null) {
+            final Principal cached = principalCache.get(CacheKeys.normalizeUsername(username));
+            if (cached != null) {
+                logger.debug("Resolved principal {} from cache.", cached);
+                if (cached instanceof StalePrincipal) {
+                    revalidator.revalidate(username);
+                }
+                return cached;
+            }
+        }
+        if (principalSnapshot != null) {
+            final StalePrincipal stale = principalSnapshot.get(CacheKeys.normalizeUsername(username));
+            if (stale != null) {
+                if (principalCache != null) {
+                    principalCache.put(CacheKeys.normalizeUsername(username), stale);
+                }
+                logger.debug("Resolved principal {} from snapshot.", stale);
+                revalidator.revalidate(username);
+                return stale;
+            }
+        }
+        if (useNegativeCache && negativeResultCache != null && negativeResultCache.isNotFound(username)) {
+            logger.debug("No results found for {} (cached).", credentials);
+            return null;
+        }
+        final SearchResult result;
+        try {
+            logger.debug("Attempting to resolve principal from {}.", credentials);
+            result = searches.execute(CacheKeys.normalizeUsername(username), new Callable<SearchResult>() {
+                public SearchResult call() throws LdapException {
+                    return search(username);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted resolving principal from {}.", credentials);
             return null;
+        } catch (LdapException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Unexpected error resolving principal.", e);
         }
         if (result.getEntries().size() > 1 && !allowMultipleResults) {
             throw new IllegalStateException(
@@ -154,15 +541,53 @@ public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipa
         final Principal principal;
         if (result.getEntries().isEmpty()) {
             logger.debug("No results found for {}.", credentials);
+            if (negativeResultCache != null) {
+                negativeResultCache.notFound(username);
+            }
             principal = null;
         } else {
             principal = principalFromEntry(result.getEntry());
         }
+        if (principal != null) {
+            cachePrincipal(username, principal);
+        }
         logger.debug("Resolved principal {}", principal);
         return principal;
     }
 
 
+    /**
+     * Searches for the entry of a user.
+     *
+     * @param  username  Username.
+     *
+     * @return  Search result.
+     *
+     * @throws  LdapException  On search errors.
+     */
+    SearchResult search(final String username) throws LdapException {
+        final long start = System.nanoTime();
+        Outcome outcome = Outcome.LDAP_ERROR;
+        try {
+            final Response<SearchResult> response = guardedSearch.search(filterTemplate.format(username));
+            logger.debug("LDAP response: {}", response);
+            final SearchResult result = response.getResult();
+            outcome = result.size() > 0 ? Outcome.SUCCESS : Outcome.NOT_FOUND;
+            return result;
+        } catch (ConcurrencyLimitExceededException e) {
+            outcome = Outcome.REJECTED;
+            throw e;
+        } catch (CircuitOpenException e) {
+            outcome = Outcome.REJECTED;
+            throw e;
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(OP_SEARCH, outcome, start);
+            }
+        }
+    }
+
+
     /**
      * Creates a CAS principal from an LDAP entry.
      *
@@ -177,20 +602,111 @@ public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipa
             return null;
         }
         final String id = nameAttribute.getStringValue();
-        final Map<String, Object> attributes = new HashMap<String, Object>(entry.getAttributes().size());
-        Object value;
+        AttributeLayout layout = attributeLayout.get();
+        for (LdapAttribute attribute : entry.getAttributes()) {
+            if (layout.indexOfSource(attribute.getName()) < 0 && !userNameAttribute.equals(attribute.getName())) {
+                layout = extendAttributeLayout(attribute.getName());
+            }
+        }
+        final Object[] values = new Object[layout.size()];
         for (LdapAttribute attribute : entry.getAttributes()) {
             if (userNameAttribute.equals(attribute.getName())) {
                 continue;
             }
-            if (attribute.size() == 1) {
-                value = attribute.getStringValue();
+            if (attribute.isBinary() && lazyAttributes.contains(attribute.getName())) {
+                values[layout.indexOfSource(attribute.getName())] = new LazyAttributeValue(
+                        attribute.getBinaryValues().toArray(new byte[attribute.size()][]));
+            } else if (attribute.size() == 1) {
+                values[layout.indexOfSource(attribute.getName())] = attribute.getStringValue();
             } else {
-                value = attribute.getStringValues();
+                values[layout.indexOfSource(attribute.getName())] =
+                        attribute.getStringValues().toArray(new String[attribute.size()]);
             }
-            attributes.put(mapAttributeName(attribute.getName()), value);
         }
-        return new SimplePrincipal(id, attributes);
+        return new CompactPrincipal(id, new CompactAttributeMap(layout, values));
+    }
+
+
+    /**
+     * Forgets everything cached about a user, e.g. because the directory reports that the user entry changed, so that
+     * the next resolution searches for the user.
+     *
+     * @param  username  Username.
+     */
+    public void invalidate(final String username) {
+        final String key = CacheKeys.normalizeUsername(username);
+        if (principalCache != null) {
+            principalCache.remove(key);
+        }
+        if (principalSnapshot != null) {
+            principalSnapshot.remove(key);
+        }
+        lastKnownGood.remove(key);
+        if (negativeResultCache != null) {
+            negativeResultCache.remove(username);
+        }
+    }
+
+
+    /**
+     * Forgets all cached and negative results, e.g. because changes to the directory may have been missed.  Last
+     * known good principals are kept, since they are only served while the directory is unavailable.
+     */
+    public void invalidateAll() {
+        if (principalCache != null) {
+            principalCache.clear();
+        }
+        if (negativeResultCache != null) {
+            negativeResultCache.clear();
+        }
+    }
+
+
+    /**
+     * Builds a principal from an LDAP entry and stores it in the principal cache, e.g. to warm the cache.  The
+     * principal is cached under the value of the attribute the search filter matches the username against, which is
+     * the key {@link #resolvePrincipal(Credentials)} looks it up by.
+     *
+     * @param  entry  LDAP entry of a user.
+     * @param  keyAttribute  Attribute the search filter matches the username against.
+     *
+     * @return  True if the principal was cached, false if there is no principal cache, the entry lacks the key
+     * attribute or no principal could be built.
+     */
+    boolean cacheEntry(final LdapEntry entry, final String keyAttribute) {
+        if (principalCache == null) {
+            return false;
+        }
+        final LdapAttribute key = entry.getAttribute(keyAttribute);
+        if (key == null) {
+            return false;
+        }
+        final Principal principal = principalFromEntry(entry);
+        if (principal == null) {
+            return false;
+        }
+        cachePrincipal(key.getStringValue(), principal);
+        return true;
+    }
+
+
+    /**
+     * Gets whether resolved principals are cached.
+     *
+     * @return  True if a principal cache is set.
+     */
+    boolean isCaching() {
+        return principalCache != null;
+    }
+
+
+    /**
+     * Gets the search executor whose base DN, filter and return attributes are used to find users.
+     *
+     * @return  Search executor.
+     */
+    SearchExecutor getSearchExecutor() {
+        return searchExecutor;
     }
 
 
@@ -211,20 +727,141 @@ public class LdapCredentialsToPrincipalResolver implements CredentialsToPrincipa
 
 
     /**
-     * Constructs a new search filter using {@link SearchExecutor#searchFilter} as a template and
-     * the username from the credential as a parameter.
+     * Adds an LDAP attribute to the shared attribute layout under its mapped name.
+     *
+     * @param  ldapName  LDAP attribute name.
+     *
+     * @return  Attribute layout that contains the attribute.
+     */
+    private AttributeLayout extendAttributeLayout(final String ldapName) {
+        while (true) {
+            final AttributeLayout current = attributeLayout.get();
+            final AttributeLayout extended = current.with(ldapName, mapAttributeName(ldapName));
+            if (extended == current || attributeLayout.compareAndSet(current, extended)) {
+                return extended;
+            }
+        }
+    }
+
+
+    /**
+     * Stores a resolved principal in the principal and last known good caches, if any, and clears any negative result
+     * for the user.
+     *
+     * @param  username  Username from credentials.
+     * @param  principal  Resolved principal.
+     */
+    void cachePrincipal(final String username, final Principal principal) {
+        if (principalCache != null) {
+            principalCache.put(CacheKeys.normalizeUsername(username), principal);
+        }
+        lastKnownGood.remember(CacheKeys.normalizeUsername(username), principal);
+        if (negativeResultCache != null) {
+            negativeResultCache.remove(username);
+        }
+    }
+
+
+    /**
+     * Records that no entry was found for a user, forgetting any cached principal.
+     *
+     * @param  username  Username.
+     */
+    void notFound(final String username) {
+        if (principalCache != null) {
+            principalCache.remove(CacheKeys.normalizeUsername(username));
+        }
+        if (negativeResultCache != null) {
+            negativeResultCache.notFound(username);
+        }
+    }
+
+
+    /**
+     * Removes a user whose principal has been searched for again from the snapshot, if any.
+     *
+     * @param  key  Normalized username.
+     */
+    void revalidated(final String key) {
+        if (principalSnapshot != null) {
+            principalSnapshot.remove(key);
+        }
+    }
+
+
+    /**
+     * Gets a principal from the principal cache.
+     *
+     * @param  key  Normalized username.
+     *
+     * @return  Cached principal or null if there is none or no principal cache.
+     */
+    Principal getCachedPrincipal(final String key) {
+        return principalCache != null ? principalCache.get(key) : null;
+    }
+
+
+    /**
+     * Gets the component that performs searches within the concurrency limit and while the circuit breaker allows.
+     *
+     * @return  Guarded search.
+     */
+    GuardedSearch getGuardedSearch() {
+        return guardedSearch;
+    }
+
+
+    /**
+     * Gets the search filter compiled from the search executor.
+     *
+     * @return  Filter template; null until initialized.
+     */
+    FilterTemplate getFilterTemplate() {
+        return filterTemplate;
+    }
+
+
+    /**
+     * Gets the component that records operation latencies.
+     *
+     * @return  Operation metrics or null if none.
+     */
+    OperationMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Gets the attribute used as the principal identifier.
+     *
+     * @return  Username attribute name.
+     */
+    String getUserNameAttribute() {
+        return userNameAttribute;
+    }
+
+
+    /**
+     * Gets whether multiple search results are allowed for a user.
+     *
+     * @return  True if allowed, false otherwise.
+     */
+    boolean isAllowMultipleResults() {
+        return allowMultipleResults;
+    }
+
+
+    /**
+     * Gets the username from the given credentials.
      *
-     * @param  credentials  Source of username for LDAP search query.
+     * @param  credentials  Username/password credentials.
      *
-     * @return  Search filter with parameters applied.
+     * @return  Username.
      */
-    private SearchFilter filterWithParams(final Credentials credentials) {
+    private String usernameFrom(final Credentials credentials) {
         if (!(credentials instanceof UsernamePasswordCredentials)) {
             throw new IllegalArgumentException(credentials + " not supported.");
         }
-        final SearchFilter filter = new SearchFilter();
-        filter.setFilter(searchExecutor.getSearchFilter().getFilter());
-        filter.setParameter(USER_PARAM, ((UsernamePasswordCredentials) credentials).getUsername());
-        return filter;
+        return ((UsernamePasswordCredentials) credentials).getUsername();
     }
 }
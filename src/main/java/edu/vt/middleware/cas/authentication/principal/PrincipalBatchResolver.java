@@ -0,0 +1,331 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import edu.vt.middleware.cas.cache.CacheKeys;
+import edu.vt.middleware.cas.ldap.FilterTemplate;
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import edu.vt.middleware.cas.util.CircuitOpenException;
+import edu.vt.middleware.cas.util.ConcurrencyLimitExceededException;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import org.jasig.cas.authentication.principal.Principal;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.SearchResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the principals of many users for {@link LdapCredentialsToPrincipalResolver#resolvePrincipals(Collection)}
+ * by searching for chunks of users with a single OR filter each, optionally with several searches in flight.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+final class PrincipalBatchResolver {
+
+    /** Number of queued batch searches per thread of the default batch executor. */
+    private static final int QUEUE_FACTOR = 4;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Resolver whose principals are resolved. */
+    private final LdapCredentialsToPrincipalResolver resolver;
+
+    /** Number of users searched for with one filter. */
+    private int batchSize = LdapCredentialsToPrincipalResolver.DEFAULT_BATCH_SIZE;
+
+    /** Number of concurrent searches. */
+    private int parallelism = LdapCredentialsToPrincipalResolver.DEFAULT_BATCH_PARALLELISM;
+
+    /** Runs concurrent searches. */
+    private volatile ExecutorService executor;
+
+    /** Whether the executor was created by this component. */
+    private boolean executorCreated;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  resolver  Resolver whose principals are resolved.
+     */
+    PrincipalBatchResolver(final LdapCredentialsToPrincipalResolver resolver) {
+        this.resolver = resolver;
+    }
+
+
+    /**
+     * Sets the number of users searched for with one OR filter.
+     *
+     * @param  size  Users per search; at least 1.
+     */
+    void setBatchSize(final int size) {
+        this.batchSize = size;
+    }
+
+
+    /**
+     * Sets the number of concurrent searches.
+     *
+     * @param  n  Concurrent searches; at least 1.
+     */
+    void setParallelism(final int n) {
+        this.parallelism = n;
+    }
+
+
+    /**
+     * Sets the executor that runs concurrent searches.
+     *
+     * @param  es  Executor service or null to create one when first needed.
+     */
+    void setExecutor(final ExecutorService es) {
+        this.executor = es;
+    }
+
+
+    /**
+     * Resolves the principals of many users.  Users in the principal cache are not searched for.
+     *
+     * @param  usernames  Usernames to resolve.
+     *
+     * @return  Map of username, as given, to principal for every user that was found, in the order given.
+     *
+     * @throws  LdapException  If a search fails.
+     */
+    Map<String, Principal> resolve(final Collection<String> usernames) throws LdapException {
+        final Map<String, Principal> found = new HashMap<String, Principal>(usernames.size() * 2);
+        final Set<String> pending = new LinkedHashSet<String>();
+        for (String username : usernames) {
+            final String key = CacheKeys.normalizeUsername(username);
+            final Principal cached = resolver.getCachedPrincipal(key);
+            if (cached != null) {
+                found.put(key, cached);
+            } else {
+                pending.add(key);
+            }
+        }
+        final List<List<String>> chunks = new ArrayList<List<String>>();
+        List<String> chunk = null;
+        for (String key : pending) {
+            if (chunk == null || chunk.size() == batchSize) {
+                chunk = new ArrayList<String>(Math.min(batchSize, pending.size()));
+                chunks.add(chunk);
+            }
+            chunk.add(key);
+        }
+        logger.debug("Resolving {} principals with {} searches.", pending.size(), chunks.size());
+        if (parallelism == 1 || chunks.size() == 1) {
+            for (List<String> keys : chunks) {
+                collect(keys, searchBatch(keys), found);
+            }
+        } else {
+            searchBatchesConcurrently(chunks, found);
+        }
+        final Map<String, Principal> principals = new LinkedHashMap<String, Principal>(found.size() * 2);
+        for (String username : usernames) {
+            final Principal principal = found.get(CacheKeys.normalizeUsername(username));
+            if (principal != null) {
+                principals.put(username, principal);
+            }
+        }
+        return principals;
+    }
+
+
+    /**
+     * Shuts down the executor if it was created by this component.
+     */
+    synchronized void destroy() {
+        if (executorCreated) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Searches for the entries of several users with one OR filter.
+     *
+     * @param  keys  Normalized usernames.
+     *
+     * @return  Search result.
+     *
+     * @throws  LdapException  On search errors.
+     */
+    private SearchResult searchBatch(final List<String> keys) throws LdapException {
+        final OperationMetrics metrics = resolver.getMetrics();
+        final long start = System.nanoTime();
+        Outcome outcome = Outcome.LDAP_ERROR;
+        try {
+            final FilterTemplate filterTemplate = resolver.getFilterTemplate();
+            final String filter;
+            if (keys.size() == 1) {
+                filter = filterTemplate.format(keys.get(0));
+            } else {
+                final StringBuilder sb = new StringBuilder(keys.size() * (filterTemplate.getTemplate().length() + 8));
+                sb.append("(|");
+                for (String key : keys) {
+                    filterTemplate.appendTo(sb, key);
+                }
+                filter = sb.append(')').toString();
+            }
+            final SearchResult result = resolver.getGuardedSearch().search(filter).getResult();
+            outcome = result.size() > 0 ? Outcome.SUCCESS : Outcome.NOT_FOUND;
+            return result;
+        } catch (ConcurrencyLimitExceededException e) {
+            outcome = Outcome.REJECTED;
+            throw e;
+        } catch (CircuitOpenException e) {
+            outcome = Outcome.REJECTED;
+            throw e;
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(LdapCredentialsToPrincipalResolver.OP_BATCH_SEARCH, outcome, start);
+            }
+        }
+    }
+
+
+    /**
+     * Runs the searches for chunks of users on the executor, with at most the parallelism in flight.
+     *
+     * @param  chunks  Chunks of normalized usernames.
+     * @param  found  Map of normalized username to principal to which principals are added.
+     *
+     * @throws  LdapException  If a search fails.
+     */
+    private void searchBatchesConcurrently(final List<List<String>> chunks, final Map<String, Principal> found)
+            throws LdapException {
+
+        final CompletionService<SearchResult> service = new ExecutorCompletionService<SearchResult>(getExecutor());
+        final Map<Future<SearchResult>, List<String>> inFlight = new HashMap<Future<SearchResult>, List<String>>();
+        int submitted = 0;
+        try {
+            while (submitted < chunks.size() || !inFlight.isEmpty()) {
+                while (submitted < chunks.size() && inFlight.size() < parallelism) {
+                    final List<String> keys = chunks.get(submitted++);
+                    inFlight.put(service.submit(new Callable<SearchResult>() {
+                        public SearchResult call() throws LdapException {
+                            return searchBatch(keys);
+                        }
+                    }), keys);
+                }
+                final Future<SearchResult> future = service.take();
+                collect(inFlight.remove(future), future.get(), found);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LdapException("Interrupted resolving principals.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LdapException) {
+                throw (LdapException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException("Unexpected error resolving principals.", e.getCause());
+        } finally {
+            for (Future<SearchResult> future : inFlight.keySet()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+
+    /**
+     * Builds principals from the entries of a batch search and matches them to the users searched for.
+     *
+     * @param  keys  Normalized usernames searched for.
+     * @param  result  Search result.
+     * @param  found  Map of normalized username to principal to which principals are added.
+     */
+    private void collect(final List<String> keys, final SearchResult result, final Map<String, Principal> found) {
+        final String userNameAttribute = resolver.getUserNameAttribute();
+        final boolean allowMultipleResults = resolver.isAllowMultipleResults();
+        final Set<String> wanted = new HashSet<String>(keys);
+        final Map<String, LdapEntry> entries = new HashMap<String, LdapEntry>(keys.size() * 2);
+        final Set<String> duplicates = new HashSet<String>();
+        for (LdapEntry entry : result.getEntries()) {
+            final LdapAttribute nameAttribute = entry.getAttribute(userNameAttribute);
+            final String key =
+                    nameAttribute != null ? CacheKeys.normalizeUsername(nameAttribute.getStringValue()) : null;
+            if (!wanted.contains(key)) {
+                logger.warn("Ignoring entry {} that does not match any username searched for.", entry.getDn());
+            } else if (entries.containsKey(key)) {
+                // Keep the first entry, as SearchResult#getEntry() does for a single user
+                if (!allowMultipleResults) {
+                    duplicates.add(key);
+                }
+            } else {
+                entries.put(key, entry);
+            }
+        }
+        for (String key : keys) {
+            final LdapEntry entry = entries.get(key);
+            if (entry == null) {
+                resolver.notFound(key);
+            } else if (duplicates.contains(key)) {
+                logger.warn("Multiple search results found for {} but not allowed (allowMultipleResults=false).", key);
+            } else {
+                final Principal principal = resolver.principalFromEntry(entry);
+                if (principal != null) {
+                    resolver.cachePrincipal(key, principal);
+                    found.put(key, principal);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Gets the executor for concurrent searches, creating a default one if none is set.
+     *
+     * @return  Batch executor.
+     */
+    private ExecutorService getExecutor() {
+        ExecutorService es = executor;
+        if (es == null) {
+            synchronized (this) {
+                es = executor;
+                if (es == null) {
+                    es = BoundedExecutors.newExecutor("ldap-batch", parallelism, parallelism * QUEUE_FACTOR);
+                    executor = es;
+                    executorCreated = true;
+                }
+            }
+        }
+        return es;
+    }
+}
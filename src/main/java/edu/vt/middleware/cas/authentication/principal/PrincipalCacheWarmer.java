@@ -0,0 +1,521 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.validation.constraints.NotNull;
+
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.SearchEntry;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResult;
+import org.ldaptive.control.util.PagedResultsClient;
+import org.ldaptive.handler.HandlerResult;
+import org.ldaptive.handler.SearchEntryHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Fills the principal cache of a {@link LdapCredentialsToPrincipalResolver} in the background after startup, so a
+ * restarted node does not send a burst of searches to the directory.  The people subtree is read with the simple paged
+ * results control; each entry is turned into a cached principal as it arrives and is not retained, so memory use is
+ * bounded by the page size.  Entries are processed at no more than {@link #setRateLimit(int) rate limit} per second.
+ * <p>
+ * The warmer is {@link #isReady() ready} once it has cached {@link #setReadyPercentage(int) ready percentage} of the
+ * {@link #setExpectedEntries(long) expected entries}, or once it finishes or fails, so that a status monitor can hold a
+ * node out of service until its cache is mostly warm.  Caching more principals than the cache holds evicts principals
+ * cached earlier.
+ * </p>
+ * <p>
+ * Principals are cached under the value of the attribute the resolver's search filter matches the username against,
+ * e.g. <code>mail</code> for <code>(mail={user})</code>, since that is the key logins look them up by.  If the filter
+ * does not match the username against a single attribute with a simple equality, e.g.
+ * <code>(|(uid={user})(mail={user}))</code>, the key of an entry cannot be known and the cache is not warmed.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class PrincipalCacheWarmer implements InitializingBean, DisposableBean {
+
+    /** Default number of entries per page. */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    /** Default maximum number of entries processed per second. */
+    public static final int DEFAULT_RATE_LIMIT = 1000;
+
+    /** Default percentage of expected entries after which the warmer is ready. */
+    public static final int DEFAULT_READY_PERCENTAGE = 90;
+
+    /** Equality assertion of an attribute with the username parameter. */
+    private static final Pattern USER_ASSERTION = Pattern.compile(
+            "\\(\\s*([^()=<>~:\\s]+)\\s*=\\s*" + Pattern.quote(LdapCredentialsToPrincipalResolver.USER_PLACEHOLDER) +
+            "\\s*\\)");
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Source of LDAP connections. */
+    @NotNull
+    private final ConnectionFactory connectionFactory;
+
+    /** Resolver whose cache is warmed. */
+    @NotNull
+    private final LdapCredentialsToPrincipalResolver resolver;
+
+    /** Base DN of the search; defaults to that of the resolver. */
+    private String baseDn;
+
+    /** Search filter; defaults to the filter of the resolver matching any user. */
+    private String searchFilter;
+
+    /** Number of entries per page. */
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    /** Maximum number of entries processed per second; zero for no limit. */
+    private int rateLimit = DEFAULT_RATE_LIMIT;
+
+    /** Number of entries expected; zero if unknown. */
+    private long expectedEntries;
+
+    /** Percentage of expected entries after which the warmer is ready. */
+    private int readyPercentage = DEFAULT_READY_PERCENTAGE;
+
+    /** Attribute the resolver's filter matches the username against; principals are cached by its value. */
+    private String keyAttribute;
+
+    /** Number of principals cached. */
+    private final AtomicLong warmedCount = new AtomicLong();
+
+    /** Thread that warms the cache. */
+    private Thread thread;
+
+    /** Set to stop warming. */
+    private volatile boolean stopped;
+
+    /** Set when warming has finished or failed. */
+    private volatile boolean finished;
+
+    /** Error that ended warming, if any. */
+    private volatile String failure;
+
+    /** Time warming took in milliseconds; set when finished. */
+    private volatile long elapsed;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  factory  Source of LDAP connections.  A connection is held for the whole warm-up.
+     * @param  resolver  Resolver whose principal cache is warmed.
+     */
+    public PrincipalCacheWarmer(final ConnectionFactory factory, final LdapCredentialsToPrincipalResolver resolver) {
+        this.connectionFactory = factory;
+        this.resolver = resolver;
+    }
+
+
+    /**
+     * Sets the base DN of the search.  Defaults to the base DN of the resolver's search executor.
+     *
+     * @param  dn  Base DN, e.g. of the people subtree.
+     */
+    public void setBaseDn(final String dn) {
+        this.baseDn = dn;
+    }
+
+
+    /**
+     * Sets the search filter that selects the users to cache.  Defaults to the filter of the resolver's search
+     * executor with a wildcard substituted for the username.
+     *
+     * @param  filter  Search filter.
+     */
+    public void setSearchFilter(final String filter) {
+        this.searchFilter = filter;
+    }
+
+
+    /**
+     * Sets the number of entries per page.  The default is {@value #DEFAULT_PAGE_SIZE}.
+     *
+     * @param  size  Page size.
+     */
+    public void setPageSize(final int size) {
+        this.pageSize = size;
+    }
+
+
+    /**
+     * Sets the maximum number of entries processed per second.  The default is {@value #DEFAULT_RATE_LIMIT}.
+     *
+     * @param  limit  Entries per second; zero for no limit.
+     */
+    public void setRateLimit(final int limit) {
+        this.rateLimit = limit;
+    }
+
+
+    /**
+     * Sets the number of entries the search is expected to return, e.g. the number of users in the directory.
+     * If unknown, the warmer is ready only when it finishes.
+     *
+     * @param  count  Expected number of entries; zero if unknown.
+     */
+    public void setExpectedEntries(final long count) {
+        this.expectedEntries = count;
+    }
+
+
+    /**
+     * Sets the percentage of expected entries after which the warmer is ready.  The default is
+     * {@value #DEFAULT_READY_PERCENTAGE}.
+     *
+     * @param  percentage  Percentage between 0 and 100.
+     */
+    public void setReadyPercentage(final int percentage) {
+        this.readyPercentage = percentage;
+    }
+
+
+    /**
+     * Starts warming the cache on a background thread.
+     *
+     * @throws  Exception  If the configuration is invalid.
+     */
+    public void afterPropertiesSet() throws Exception {
+        Assert.isTrue(pageSize > 0, "Page size must be positive.");
+        Assert.isTrue(readyPercentage >= 0 && readyPercentage <= 100, "Ready percentage must be between 0 and 100.");
+        final SearchExecutor executor = resolver.getSearchExecutor();
+        if (baseDn == null) {
+            baseDn = executor.getBaseDn();
+        }
+        keyAttribute = userAttribute(executor.getSearchFilter().getFilter());
+        if (searchFilter == null) {
+            searchFilter = executor.getSearchFilter().getFilter().replace(
+                    LdapCredentialsToPrincipalResolver.USER_PLACEHOLDER, "*");
+        }
+        if (!resolver.isCaching()) {
+            logger.warn("Resolver has no principal cache; nothing to warm.");
+            finished = true;
+            return;
+        }
+        if (keyAttribute == null) {
+            logger.warn(
+                    "Resolver filter {} does not match the username against a single attribute; not warming.",
+                    executor.getSearchFilter().getFilter());
+            finished = true;
+            return;
+        }
+        if (!keyAttribute.equalsIgnoreCase(resolver.getUserNameAttribute())) {
+            logger.info(
+                    "Caching warmed principals by {} rather than username attribute {}.",
+                    keyAttribute,
+                    resolver.getUserNameAttribute());
+        }
+        if (thread == null) {
+            thread = new BoundedExecutors.NamedThreadFactory("ldap-cache-warmer").newThread(new Runnable() {
+                public void run() {
+                    warm();
+                }
+            });
+            thread.start();
+        }
+    }
+
+
+    /**
+     * Stops warming the cache.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+
+    /**
+     * Gets whether enough of the cache is warm for the node to serve requests.
+     *
+     * @return  True if the ready percentage of expected entries has been cached, or warming has finished or failed.
+     */
+    public boolean isReady() {
+        return finished || (expectedEntries > 0 && getProgress() >= readyPercentage);
+    }
+
+
+    /**
+     * Gets whether warming has ended, successfully or not.
+     *
+     * @return  True if finished.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+
+    /**
+     * Gets the error that ended warming.
+     *
+     * @return  Error message or null if warming has not failed.
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+
+    /**
+     * Gets the number of principals cached so far.
+     *
+     * @return  Number of principals cached.
+     */
+    public long getWarmedCount() {
+        return warmedCount.get();
+    }
+
+
+    /**
+     * Gets the number of entries the search is expected to return.
+     *
+     * @return  Expected number of entries; zero if unknown.
+     */
+    public long getExpectedEntries() {
+        return expectedEntries;
+    }
+
+
+    /**
+     * Gets the percentage of expected entries cached so far.
+     *
+     * @return  Percentage between 0 and 100, 100 if warming finished, or 0 if the number of entries is unknown.
+     */
+    public double getProgress() {
+        if (expectedEntries <= 0) {
+            return finished ? 100 : 0;
+        }
+        return Math.min(100.0 * warmedCount.get() / expectedEntries, 100);
+    }
+
+
+    /**
+     * Gets the time warming took.
+     *
+     * @return  Elapsed time in milliseconds, or zero if warming has not finished.
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::baseDn=%s, searchFilter=%s, pageSize=%s, rateLimit=%s, warmed=%s, finished=%s",
+                getClass().getName(),
+                hashCode(),
+                baseDn,
+                searchFilter,
+                pageSize,
+                rateLimit,
+                warmedCount.get(),
+                finished);
+    }
+
+
+    /**
+     * Reads all pages of the search, caching a principal for each entry.
+     */
+    void warm() {
+        final long start = System.nanoTime();
+        logger.info("Warming principal cache from {} with filter {}.", baseDn, searchFilter);
+        final SearchRequest request = newSearchRequest();
+        request.setSearchEntryHandlers(new WarmingHandler(start));
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            if (!conn.isOpen()) {
+                conn.open();
+            }
+            final PagedResultsClient client = new PagedResultsClient(conn, pageSize);
+            Response<SearchResult> response = client.execute(request);
+            while (!stopped && client.hasMore(response)) {
+                response = client.execute(request, response);
+            }
+        } catch (LdapException e) {
+            failure = e.getMessage();
+            logger.warn("Warming principal cache failed after {} principals.", warmedCount.get(), e);
+        } catch (RuntimeException e) {
+            failure = e.getMessage();
+            logger.warn("Warming principal cache failed after {} principals.", warmedCount.get(), e);
+        } finally {
+            if (conn != null && conn.isOpen()) {
+                conn.close();
+            }
+            elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            finished = true;
+        }
+        logger.info("Warmed principal cache with {} principals in {}ms.", warmedCount.get(), elapsed);
+    }
+
+
+    /**
+     * Creates the search request from the configuration of this warmer and the resolver's search executor.
+     *
+     * @return  Search request.
+     */
+    private SearchRequest newSearchRequest() {
+        final SearchExecutor executor = resolver.getSearchExecutor();
+        final SearchRequest request = new SearchRequest(baseDn, new SearchFilter(searchFilter));
+        final String[] attrs = executor.getReturnAttributes();
+        if (attrs != null && attrs.length > 0 && !containsIgnoreCase(attrs, keyAttribute)) {
+            final String[] withKey = Arrays.copyOf(attrs, attrs.length + 1);
+            withKey[attrs.length] = keyAttribute;
+            request.setReturnAttributes(withKey);
+        } else {
+            request.setReturnAttributes(attrs);
+        }
+        request.setBinaryAttributes(executor.getBinaryAttributes());
+        request.setSearchScope(executor.getSearchScope());
+        request.setDerefAliases(executor.getDerefAliases());
+        return request;
+    }
+
+
+    /**
+     * Finds the attribute a filter matches the username against.
+     *
+     * @param  filter  Search filter of the resolver.
+     *
+     * @return  Attribute name, or null if the username parameter does not appear only in equality assertions of a
+     * single attribute.
+     */
+    static String userAttribute(final String filter) {
+        final Matcher matcher = USER_ASSERTION.matcher(filter);
+        String attribute = null;
+        int count = 0;
+        while (matcher.find()) {
+            if (attribute == null) {
+                attribute = matcher.group(1);
+            } else if (!attribute.equalsIgnoreCase(matcher.group(1))) {
+                return null;
+            }
+            count++;
+        }
+        return count > 0 && count == occurrences(filter, LdapCredentialsToPrincipalResolver.USER_PLACEHOLDER)
+                ? attribute : null;
+    }
+
+
+    /**
+     * Counts the occurrences of a string.
+     *
+     * @param  s  String to search.
+     * @param  part  String to count.
+     *
+     * @return  Number of non-overlapping occurrences.
+     */
+    private static int occurrences(final String s, final String part) {
+        int count = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Determines whether an array contains a string, ignoring case.
+     *
+     * @param  values  Strings to search.
+     * @param  value  String to find.
+     *
+     * @return  True if found.
+     */
+    private static boolean containsIgnoreCase(final String[] values, final String value) {
+        for (String v : values) {
+            if (v.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /** Caches a principal for each entry as it is read and drops the entry from the search result. */
+    private final class WarmingHandler implements SearchEntryHandler {
+
+        /** Time warming started in nanoseconds. */
+        private final long start;
+
+        /** Number of entries processed. */
+        private long processed;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  start  Time warming started in nanoseconds.
+         */
+        WarmingHandler(final long start) {
+            this.start = start;
+        }
+
+
+        @Override
+        public HandlerResult<SearchEntry> handle(
+                final Connection conn, final SearchRequest request, final SearchEntry entry) throws LdapException {
+            if (stopped) {
+                return new HandlerResult<SearchEntry>(null, true);
+            }
+            if (resolver.cacheEntry(entry, keyAttribute)) {
+                warmedCount.incrementAndGet();
+            }
+            processed++;
+            if (rateLimit > 0) {
+                final long wait = start + processed * TimeUnit.SECONDS.toNanos(1) / rateLimit - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        stopped = true;
+                        return new HandlerResult<SearchEntry>(null, true);
+                    }
+                }
+            }
+            return new HandlerResult<SearchEntry>(null);
+        }
+
+
+        @Override
+        public void initializeRequest(final SearchRequest request) {}
+    }
+}
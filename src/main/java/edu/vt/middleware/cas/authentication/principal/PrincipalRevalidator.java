@@ -0,0 +1,135 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import edu.vt.middleware.cas.cache.CacheKeys;
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import org.jasig.cas.authentication.principal.Principal;
+import org.ldaptive.SearchResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches again in the background for users whose principals {@link LdapCredentialsToPrincipalResolver} returned as
+ * {@link StalePrincipal} instances, and replaces each stale principal with the result.  At most one search per user
+ * is underway at a time.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+final class PrincipalRevalidator {
+
+    /** Number of threads revalidating stale principals. */
+    private static final int THREADS = 2;
+
+    /** Number of stale principals waiting to be revalidated. */
+    private static final int QUEUE_SIZE = 1024;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Resolver whose principals are revalidated. */
+    private final LdapCredentialsToPrincipalResolver resolver;
+
+    /** Normalized usernames of stale principals being revalidated. */
+    private final ConcurrentMap<String, Boolean> revalidating = new ConcurrentHashMap<String, Boolean>();
+
+    /** Runs revalidations; created when first needed. */
+    private volatile ExecutorService executor;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  resolver  Resolver whose principals are revalidated.
+     */
+    PrincipalRevalidator(final LdapCredentialsToPrincipalResolver resolver) {
+        this.resolver = resolver;
+    }
+
+
+    /**
+     * Searches for a user with a stale principal in the background, unless a search is already underway, and replaces
+     * the stale principal with the result.  The stale principal is kept if the search fails.
+     *
+     * @param  username  Username from credentials.
+     */
+    void revalidate(final String username) {
+        final String key = CacheKeys.normalizeUsername(username);
+        if (revalidating.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            getExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        final SearchResult result = resolver.search(username);
+                        if (result.getEntries().isEmpty()) {
+                            logger.debug("Stale principal {} no longer exists.", username);
+                            resolver.notFound(username);
+                        } else {
+                            final Principal principal = resolver.principalFromEntry(result.getEntry());
+                            if (principal != null) {
+                                resolver.cachePrincipal(username, principal);
+                            }
+                        }
+                        resolver.revalidated(key);
+                    } catch (Exception e) {
+                        logger.warn("Cannot revalidate stale principal {}; keeping it.", username, e);
+                    } finally {
+                        revalidating.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            revalidating.remove(key);
+            logger.debug("Revalidation of {} rejected; will retry on next lookup.", username);
+        }
+    }
+
+
+    /**
+     * Stops revalidations that are underway or waiting.
+     */
+    synchronized void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Gets the executor that revalidates stale principals, creating it when first needed.
+     *
+     * @return  Revalidation executor.
+     */
+    private ExecutorService getExecutor() {
+        ExecutorService es = executor;
+        if (es == null) {
+            synchronized (this) {
+                es = executor;
+                if (es == null) {
+                    es = BoundedExecutors.newExecutor("ldap-revalidate", THREADS, QUEUE_SIZE);
+                    executor = es;
+                }
+            }
+        }
+        return es;
+    }
+}
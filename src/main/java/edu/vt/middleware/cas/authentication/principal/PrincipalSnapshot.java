@@ -0,0 +1,713 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import javax.validation.constraints.NotNull;
+
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import org.jasig.cas.authentication.principal.Principal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Binary snapshot of a principal cache on disk, so a restarted node can serve principals before it has searched the
+ * directory.  The cache is written periodically and on shutdown to a temporary file that is then renamed over the
+ * snapshot, so a reader never sees a partial file.  On startup the snapshot is memory mapped and only the usernames are
+ * indexed; a principal is decoded from the mapping when first looked up and returned as a {@link StalePrincipal},
+ * which {@link LdapCredentialsToPrincipalResolver} revalidates against the directory.
+ * <p>
+ * The file starts with a magic number, a format version, the time it was written and the attribute names, followed by
+ * one length-prefixed record per principal and a CRC-32 of everything before it.  A file with a different magic
+ * number or version, a checksum mismatch, malformed records, or one older than {@link #setMaxAge(long) max age} is
+ * discarded with a warning and replaced by the next write.
+ * </p>
+ * <p>
+ * Binary attributes that have not been read are written in their encoded form and loaded as such, so writing and
+ * loading a snapshot does not decode them.  Principals of the loaded snapshot that have neither been revalidated nor
+ * removed are carried over to each write, so a write soon after a restart does not lose them.  The file holds
+ * principal attributes and is made readable and writable by its owner only; the directory it is in should be
+ * protected likewise.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class PrincipalSnapshot implements InitializingBean, DisposableBean {
+
+    /** Default interval between writes in milliseconds. */
+    public static final long DEFAULT_WRITE_INTERVAL = 300000;
+
+    /** Default maximum age of a snapshot that is loaded in milliseconds. */
+    public static final long DEFAULT_MAX_AGE = 86400000;
+
+    /** Magic number at the start of a snapshot file, "CASP". */
+    static final int MAGIC = 0x43415350;
+
+    /** Version of the snapshot format. */
+    static final int VERSION = 2;
+
+    /** Size of magic number, version, timestamp, principal count and name count. */
+    private static final int HEADER_SIZE = 24;
+
+    /** Size of the trailing checksum. */
+    private static final int TRAILER_SIZE = 8;
+
+    /** Value type of single-valued attributes. */
+    private static final byte SINGLE = 0;
+
+    /** Value type of multi-valued attributes. */
+    private static final byte MULTI = 1;
+
+    /** Value type of encoded binary attributes. */
+    private static final byte BINARY = 2;
+
+    /** Size of buffers used to write and checksum snapshots. */
+    private static final int BUFFER_SIZE = 65536;
+
+    /** Encoding of strings. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Cache to write. */
+    @NotNull
+    private final ExpiringCache<String, Principal> cache;
+
+    /** Snapshot file. */
+    @NotNull
+    private final File file;
+
+    /** Interval between writes in milliseconds. */
+    private long writeInterval = DEFAULT_WRITE_INTERVAL;
+
+    /** Maximum age of a snapshot that is loaded in milliseconds. */
+    private long maxAge = DEFAULT_MAX_AGE;
+
+    /** Writes snapshots periodically. */
+    private ScheduledExecutorService scheduler;
+
+    /** Mapped snapshot file. */
+    private volatile ByteBuffer buffer;
+
+    /** Attribute names of the loaded snapshot. */
+    private volatile AttributeLayout layout = AttributeLayout.EMPTY;
+
+    /** Offset of the record of each principal not yet revalidated by username. */
+    private volatile ConcurrentMap<String, Integer> index = new ConcurrentHashMap<String, Integer>();
+
+    /** Time the loaded snapshot was written in milliseconds since the epoch. */
+    private volatile long timestamp;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  cache  Principal cache to write, keyed by normalized username.
+     * @param  file  Snapshot file.
+     */
+    public PrincipalSnapshot(final ExpiringCache<String, Principal> cache, final File file) {
+        this.cache = cache;
+        this.file = file;
+    }
+
+
+    /**
+     * Sets the interval between writes.  The default is {@value #DEFAULT_WRITE_INTERVAL}.
+     *
+     * @param  interval  Interval in milliseconds; a value that is not positive writes only on shutdown.
+     */
+    public void setWriteInterval(final long interval) {
+        this.writeInterval = interval;
+    }
+
+
+    /**
+     * Sets the maximum age of a snapshot that is loaded.  The default is {@value #DEFAULT_MAX_AGE}.
+     *
+     * @param  age  Age in milliseconds; a value that is not positive loads snapshots of any age.
+     */
+    public void setMaxAge(final long age) {
+        this.maxAge = age;
+    }
+
+
+    /**
+     * Loads the snapshot file, if any, and starts periodic writes.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void afterPropertiesSet() throws Exception {
+        load();
+        if (writeInterval > 0 && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new BoundedExecutors.NamedThreadFactory("principal-snapshot"));
+            scheduler.scheduleWithFixedDelay(
+                    new Runnable() {
+                        public void run() {
+                            writeQuietly();
+                        }
+                    },
+                    writeInterval,
+                    writeInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Stops periodic writes and writes a final snapshot.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        writeQuietly();
+    }
+
+
+    /**
+     * Gets a principal from the loaded snapshot.
+     *
+     * @param  key  Normalized username.
+     *
+     * @return  Principal or null if the snapshot has no principal for the user or it has been revalidated.
+     */
+    public StalePrincipal get(final String key) {
+        final Integer offset = index.get(key);
+        if (offset == null) {
+            return null;
+        }
+        final ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        try {
+            readString(in);
+            final String id = readString(in);
+            final AttributeLayout names = layout;
+            final Object[] values = new Object[names.size()];
+            final int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                final int slot = in.getInt();
+                final byte type = in.get();
+                if (type == SINGLE) {
+                    values[slot] = readString(in);
+                } else if (type == MULTI) {
+                    final String[] multi = new String[in.getInt()];
+                    for (int j = 0; j < multi.length; j++) {
+                        multi[j] = readString(in);
+                    }
+                    values[slot] = multi;
+                } else if (type == BINARY) {
+                    final byte[][] encoded = new byte[in.getInt()][];
+                    for (int j = 0; j < encoded.length; j++) {
+                        encoded[j] = readBytes(in);
+                    }
+                    values[slot] = new LazyAttributeValue(encoded);
+                } else {
+                    throw new IllegalArgumentException("Invalid value type " + type);
+                }
+            }
+            return new StalePrincipal(id, new CompactAttributeMap(names, values), timestamp);
+        } catch (RuntimeException e) {
+            logger.warn("Ignoring malformed snapshot record for {}.", key, e);
+            index.remove(key);
+            return null;
+        }
+    }
+
+
+    /**
+     * Removes a principal from the loaded snapshot, e.g. once it has been revalidated.
+     *
+     * @param  key  Normalized username.
+     */
+    public void remove(final String key) {
+        index.remove(key);
+    }
+
+
+    /**
+     * Gets the number of principals in the loaded snapshot that have not been removed.
+     *
+     * @return  Number of principals.
+     */
+    public int size() {
+        return index.size();
+    }
+
+
+    /**
+     * Gets the time the loaded snapshot was written.
+     *
+     * @return  Milliseconds since the epoch, or zero if no snapshot is loaded.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
+    /**
+     * Memory maps the snapshot file and indexes the principals it contains.  The file is discarded if it is invalid.
+     */
+    public void load() {
+        if (!file.exists()) {
+            logger.info("No principal snapshot at {}.", file);
+            return;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            final long length = raf.length();
+            if (length < HEADER_SIZE + TRAILER_SIZE || length > Integer.MAX_VALUE) {
+                discard("invalid length " + length);
+                return;
+            }
+            final ByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            final int end = (int) length - TRAILER_SIZE;
+            if (map.getInt(0) != MAGIC) {
+                discard("not a principal snapshot");
+                return;
+            }
+            if (map.getInt(4) != VERSION) {
+                discard("unsupported version " + map.getInt(4));
+                return;
+            }
+            if (map.getLong(end) != checksum(map, end)) {
+                discard("checksum mismatch");
+                return;
+            }
+            final long written = map.getLong(8);
+            if (maxAge > 0 && System.currentTimeMillis() - written > maxAge) {
+                discard("written " + written + " is older than " + maxAge + "ms");
+                return;
+            }
+            final ByteBuffer in = map.duplicate();
+            in.position(16);
+            final int count = in.getInt();
+            final int nameCount = in.getInt();
+            AttributeLayout names = AttributeLayout.EMPTY;
+            for (int i = 0; i < nameCount; i++) {
+                final String name = readString(in);
+                names = names.with(name, name);
+            }
+            if (names.size() != nameCount) {
+                discard("duplicate attribute names");
+                return;
+            }
+            final ConcurrentMap<String, Integer> offsets = new ConcurrentHashMap<String, Integer>(count * 2);
+            for (int i = 0; i < count; i++) {
+                final int recordLength = in.getInt();
+                final int start = in.position();
+                offsets.put(readString(in), start);
+                in.position(start + recordLength);
+            }
+            if (in.position() != end) {
+                discard("unexpected data after records");
+                return;
+            }
+            buffer = map;
+            layout = names;
+            timestamp = written;
+            index = offsets;
+            logger.info("Loaded {} principals from snapshot {} written at {}.", new Object[] {count, file, written});
+        } catch (IOException e) {
+            logger.warn("Cannot read principal snapshot {}.", file, e);
+        } catch (RuntimeException e) {
+            discard("malformed: " + e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    logger.debug("Error closing {}.", file, e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes the principals in the cache and those of the loaded snapshot not yet revalidated or removed to the
+     * snapshot file, replacing it atomically.
+     *
+     * @return  Number of principals written.
+     *
+     * @throws  IOException  On write errors.
+     */
+    public synchronized int write() throws IOException {
+        final Map<String, Principal> principals = cache.snapshot();
+        // Records of the loaded snapshot are copied as they are, so its names keep their indexes
+        final Map<String, Integer> names = new LinkedHashMap<String, Integer>();
+        final AttributeLayout loaded = layout;
+        for (int i = 0; i < loaded.size(); i++) {
+            names.put(loaded.getName(i), i);
+        }
+        final Map<String, Integer> carried = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<String, Integer> entry : index.entrySet()) {
+            if (!principals.containsKey(entry.getKey())) {
+                carried.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Principal principal : principals.values()) {
+            if (principal instanceof CompactPrincipal) {
+                // Key set of the attributes would decode their values
+                final AttributeLayout attributeLayout =
+                        ((CompactPrincipal) principal).getCompactAttributes().getLayout();
+                for (int i = 0; i < attributeLayout.size(); i++) {
+                    addName(names, attributeLayout.getName(i));
+                }
+            } else {
+                for (String name : principal.getAttributes().keySet()) {
+                    addName(names, name);
+                }
+            }
+        }
+        final File temp = new File(file.getPath() + ".tmp");
+        final FileOutputStream fos = createPrivate(temp);
+        try {
+            final CRC32 crc = new CRC32();
+            final DataOutputStream out = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(principals.size() + carried.size());
+            out.writeInt(names.size());
+            for (String name : names.keySet()) {
+                writeString(out, name);
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream record = new DataOutputStream(bytes);
+            for (Map.Entry<String, Principal> entry : principals.entrySet()) {
+                bytes.reset();
+                writeRecord(record, entry.getKey(), entry.getValue(), names);
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+            if (!carried.isEmpty()) {
+                final ByteBuffer in = buffer.duplicate();
+                final byte[] chunk = new byte[BUFFER_SIZE];
+                for (int offset : carried.values()) {
+                    int remaining = in.getInt(offset - 4);
+                    out.writeInt(remaining);
+                    in.position(offset);
+                    while (remaining > 0) {
+                        final int n = Math.min(chunk.length, remaining);
+                        in.get(chunk, 0, n);
+                        out.write(chunk, 0, n);
+                        remaining -= n;
+                    }
+                }
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!temp.renameTo(file)) {
+            // Platforms that cannot rename over an existing file
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp + " to " + file);
+            }
+        }
+        logger.debug(
+                "Wrote {} principals to snapshot {}, {} of them from the loaded snapshot.",
+                new Object[] {principals.size() + carried.size(), file, carried.size()});
+        return principals.size() + carried.size();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::file=%s, writeInterval=%s, maxAge=%s, size=%s, timestamp=%s",
+                getClass().getName(),
+                hashCode(),
+                file,
+                writeInterval,
+                maxAge,
+                index.size(),
+                timestamp);
+    }
+
+
+    /**
+     * Writes a snapshot, logging rather than throwing errors.
+     */
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException e) {
+            logger.warn("Cannot write principal snapshot {}.", file, e);
+        } catch (RuntimeException e) {
+            logger.warn("Cannot write principal snapshot {}.", file, e);
+        }
+    }
+
+
+    /**
+     * Adds an attribute name to the names written to a snapshot unless it is already present.
+     *
+     * @param  names  Index of each attribute name.
+     * @param  name  Attribute name.
+     */
+    private static void addName(final Map<String, Integer> names, final String name) {
+        if (!names.containsKey(name)) {
+            names.put(name, names.size());
+        }
+    }
+
+
+    /**
+     * Creates an empty file that only its owner can read and write and opens it for writing.
+     *
+     * @param  f  File to create, replacing any existing file.
+     *
+     * @return  Output stream of the file.
+     *
+     * @throws  IOException  If the file cannot be created.
+     */
+    private FileOutputStream createPrivate(final File f) throws IOException {
+        if (f.exists() && !f.delete()) {
+            throw new IOException("Cannot delete " + f);
+        }
+        if (!f.createNewFile()) {
+            throw new IOException("Cannot create " + f);
+        }
+        // Revoke access from everyone, then grant it to the owner, before anything is written
+        if (!f.setReadable(false, false) || !f.setReadable(true, true) ||
+                !f.setWritable(false, false) || !f.setWritable(true, true)) {
+            logger.warn("Cannot restrict permissions of principal snapshot {}.", f);
+        }
+        return new FileOutputStream(f);
+    }
+
+
+    /**
+     * Logs that the snapshot file is invalid and will not be used.
+     *
+     * @param  reason  Why the file is invalid.
+     */
+    private void discard(final String reason) {
+        logger.warn("Discarding principal snapshot {}: {}.", file, reason);
+    }
+
+
+    /**
+     * Writes the record of a principal.
+     *
+     * @param  out  Output to write to.
+     * @param  key  Normalized username.
+     * @param  principal  Principal.
+     * @param  names  Index of each attribute name.
+     *
+     * @throws  IOException  On write errors.
+     */
+    private static void writeRecord(
+            final DataOutputStream out,
+            final String key,
+            final Principal principal,
+            final Map<String, Integer> names)
+            throws IOException {
+
+        writeString(out, key);
+        writeString(out, principal.getId());
+        if (principal instanceof CompactPrincipal) {
+            writeStoredValues(out, ((CompactPrincipal) principal).getCompactAttributes(), names);
+            return;
+        }
+        final Map<String, Object> attributes = principal.getAttributes();
+        int count = 0;
+        for (Object value : attributes.values()) {
+            if (value != null) {
+                count++;
+            }
+        }
+        out.writeInt(count);
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            final Object value = attribute.getValue();
+            if (value == null) {
+                continue;
+            }
+            out.writeInt(names.get(attribute.getKey()));
+            writeValue(out, value);
+        }
+    }
+
+
+    /**
+     * Writes the attributes of a compact map from their stored form, so binary values that have not been read are
+     * written without decoding them.
+     *
+     * @param  out  Output to write to.
+     * @param  attributes  Attributes.
+     * @param  names  Index of each attribute name.
+     *
+     * @throws  IOException  On write errors.
+     */
+    private static void writeStoredValues(
+            final DataOutputStream out,
+            final CompactAttributeMap attributes,
+            final Map<String, Integer> names)
+            throws IOException {
+
+        final AttributeLayout attributeLayout = attributes.getLayout();
+        out.writeInt(attributes.size());
+        for (int slot = 0; slot < attributeLayout.size(); slot++) {
+            final Object value = attributes.getStored(slot);
+            if (value == null) {
+                continue;
+            }
+            out.writeInt(names.get(attributeLayout.getName(slot)));
+            if (value instanceof String[]) {
+                writeValue(out, Arrays.asList((String[]) value));
+            } else if (value instanceof LazyAttributeValue) {
+                final LazyAttributeValue lazy = (LazyAttributeValue) value;
+                final byte[][] encoded = lazy.getEncoded();
+                if (encoded == null) {
+                    writeValue(out, lazy.get());
+                } else {
+                    out.writeByte(BINARY);
+                    out.writeInt(encoded.length);
+                    for (byte[] bytes : encoded) {
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                }
+            } else {
+                writeValue(out, value);
+            }
+        }
+    }
+
+
+    /**
+     * Writes the type and text of an attribute value.
+     *
+     * @param  out  Output to write to.
+     * @param  value  Collection for multi-valued attributes, otherwise a single value.
+     *
+     * @throws  IOException  On write errors.
+     */
+    private static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+        if (value instanceof Collection) {
+            final Collection<?> values = (Collection<?>) value;
+            out.writeByte(MULTI);
+            out.writeInt(values.size());
+            for (Object v : values) {
+                writeString(out, String.valueOf(v));
+            }
+        } else {
+            out.writeByte(SINGLE);
+            writeString(out, String.valueOf(value));
+        }
+    }
+
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     *
+     * @param  out  Output to write to.
+     * @param  s  String to write.
+     *
+     * @throws  IOException  On write errors.
+     */
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @param  in  Buffer to read from.
+     *
+     * @return  String.
+     */
+    private static String readString(final ByteBuffer in) {
+        return new String(readBytes(in), UTF8);
+    }
+
+
+    /**
+     * Reads length-prefixed bytes.
+     *
+     * @param  in  Buffer to read from.
+     *
+     * @return  Bytes.
+     */
+    private static byte[] readBytes(final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+
+    /**
+     * Computes the CRC-32 of the start of a buffer.
+     *
+     * @param  buffer  Buffer.
+     * @param  length  Number of bytes to checksum.
+     *
+     * @return  Checksum.
+     */
+    private static long checksum(final ByteBuffer buffer, final int length) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer in = buffer.duplicate();
+        in.position(0);
+        final byte[] chunk = new byte[BUFFER_SIZE];
+        int remaining = length;
+        while (remaining > 0) {
+            final int n = Math.min(chunk.length, remaining);
+            in.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            remaining -= n;
+        }
+        return crc.getValue();
+    }
+}
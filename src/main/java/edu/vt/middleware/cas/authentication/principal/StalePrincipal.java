@@ -0,0 +1,58 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.util.Map;
+
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+
+/**
+ * Principal whose attributes were not read from the directory for the current request and may be out of date, e.g. a
+ * principal restored from a {@link PrincipalSnapshot}, which is served like any other principal while the resolver
+ * revalidates it against the directory, or the last known good principal served while the directory is unavailable.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class StalePrincipal extends SimplePrincipal {
+
+    /** Serialization version. */
+    private static final long serialVersionUID = -6420351289463011862L;
+
+    /** Time the attributes were read from the directory in milliseconds since the epoch. */
+    private final long timestamp;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  id  Principal identifier.
+     * @param  attributes  Principal attributes.
+     * @param  timestamp  Time the attributes were read from the directory in milliseconds since the epoch.
+     */
+    public StalePrincipal(final String id, final Map<String, Object> attributes, final long timestamp) {
+        super(id, attributes);
+        this.timestamp = timestamp;
+    }
+
+
+    /**
+     * Gets the time the attributes were read from the directory.
+     *
+     * @return  Milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
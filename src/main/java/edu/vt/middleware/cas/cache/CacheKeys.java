@@ -0,0 +1,46 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+import java.util.Locale;
+
+/**
+ * Builds cache keys for LDAP lookup results.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class CacheKeys {
+
+    /**
+     * Utility class.
+     */
+    private CacheKeys() {}
+
+
+    /**
+     * Normalizes a username for use as a cache key.  Leading and trailing whitespace is removed and the result is
+     * lowercased, since directory naming attributes such as <code>uid</code> match case-insensitively.
+     *
+     * @param  username  Username as presented by the caller.
+     *
+     * @return  Normalized cache key.
+     */
+    public static String normalizeUsername(final String username) {
+        if (username == null) {
+            throw new IllegalArgumentException("Username cannot be null.");
+        }
+        return username.trim().toLowerCase(Locale.ENGLISH);
+    }
+}
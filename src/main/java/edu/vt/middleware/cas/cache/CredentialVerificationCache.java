@@ -0,0 +1,250 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Remembers recently verified username and password pairs, so that clients which authenticate the same credentials
+ * many times a minute are answered from memory instead of with a search and bind.  Passwords are never stored: each
+ * entry holds a random salt and an HMAC-SHA256 of the salt, username and password under a key that is generated when
+ * the cache is created and never leaves memory.  Verifiers are compared in constant time.
+ * <p>
+ * Entries should have a short time to live, since a cached password remains valid until it expires even if it is
+ * changed or the account is locked in the directory.  Any failed authentication of a user should
+ * {@link #invalidate(String) invalidate} the user's entry.  Keys are normalized with
+ * {@link CacheKeys#normalizeUsername(String)}.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class CredentialVerificationCache {
+
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Default time to live in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+    /** MAC algorithm. */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /** Size of the MAC key in bytes. */
+    private static final int KEY_SIZE = 32;
+
+    /** Size of salts in bytes. */
+    private static final int SALT_SIZE = 16;
+
+    /** Encoding of usernames and passwords. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Underlying cache of verifiers by normalized username. */
+    private final ExpiringCache<String, Verifier> cache;
+
+    /** Source of salts. */
+    private final SecureRandom random = new SecureRandom();
+
+    /** MAC key. */
+    private final SecretKeySpec secret;
+
+    /** Initialized MAC that is cloned for each computation, since MAC instances are not thread safe. */
+    private final Mac prototype;
+
+
+    /**
+     * Creates a new cache with the default size bound and time to live.
+     */
+    public CredentialVerificationCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+    }
+
+
+    /**
+     * Creates a new cache with the given size bound and time to live.
+     *
+     * @param  maxSize  Maximum number of users held by the cache.
+     * @param  timeToLive  Amount of time in milliseconds verified credentials are remembered.
+     */
+    public CredentialVerificationCache(final int maxSize, final long timeToLive) {
+        this.cache = new ExpiringCache<String, Verifier>(maxSize, timeToLive);
+        final byte[] key = new byte[KEY_SIZE];
+        random.nextBytes(key);
+        this.secret = new SecretKeySpec(key, ALGORITHM);
+        this.prototype = createMac(secret);
+    }
+
+
+    /**
+     * Determines whether the given credentials were recently verified.
+     *
+     * @param  username  Username.
+     * @param  password  Password.
+     *
+     * @return  True if the same username and password were remembered and have not expired, false otherwise.
+     */
+    public boolean verify(final String username, final String password) {
+        if (username == null || password == null) {
+            return false;
+        }
+        final String key = CacheKeys.normalizeUsername(username);
+        final Verifier verifier = cache.get(key);
+        return verifier != null && constantTimeEquals(verifier.mac, mac(verifier.salt, key, password));
+    }
+
+
+    /**
+     * Remembers credentials that were verified against the directory, replacing any entry for the user.
+     *
+     * @param  username  Username.
+     * @param  password  Password.
+     */
+    public void remember(final String username, final String password) {
+        if (username == null || password == null) {
+            return;
+        }
+        final String key = CacheKeys.normalizeUsername(username);
+        final byte[] salt = new byte[SALT_SIZE];
+        random.nextBytes(salt);
+        cache.put(key, new Verifier(salt, mac(salt, key, password)));
+    }
+
+
+    /**
+     * Forgets any credentials remembered for the given user.
+     *
+     * @param  username  Username.
+     */
+    public void invalidate(final String username) {
+        if (username != null) {
+            cache.remove(CacheKeys.normalizeUsername(username));
+        }
+    }
+
+
+    /**
+     * Forgets all credentials.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+
+    /**
+     * Gets the cache of verifiers by normalized username.
+     *
+     * @return  Cache of verifiers by normalized username, which provides size and hit statistics.
+     */
+    public ExpiringCache<String, ?> getCache() {
+        return cache;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s::cache=%s", getClass().getName(), hashCode(), cache);
+    }
+
+
+    /**
+     * Computes the MAC of a salt, username and password.
+     *
+     * @param  salt  Random salt.
+     * @param  username  Normalized username.
+     * @param  password  Password.
+     *
+     * @return  MAC.
+     */
+    private byte[] mac(final byte[] salt, final String username, final String password) {
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            mac = createMac(secret);
+        }
+        mac.update(salt);
+        final byte[] user = username.getBytes(UTF8);
+        mac.update(user);
+        // Separate username and password so that different pairs cannot produce the same input
+        mac.update((byte) 0);
+        return mac.doFinal(password.getBytes(UTF8));
+    }
+
+
+    /**
+     * Creates a MAC instance.
+     *
+     * @param  secret  MAC key.
+     *
+     * @return  Initialized MAC.
+     */
+    private static Mac createMac(final SecretKeySpec secret) {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available.", e);
+        }
+    }
+
+
+    /**
+     * Compares two byte arrays in time that depends only on their lengths.  MessageDigest#isEqual is not constant
+     * time on older Java 6 runtimes.
+     *
+     * @param  a  First array.
+     * @param  b  Second array.
+     *
+     * @return  True if the arrays are equal.
+     */
+    static boolean constantTimeEquals(final byte[] a, final byte[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < a.length; i++) {
+            diff |= a[i] ^ b[i];
+        }
+        return diff == 0;
+    }
+
+
+    /** Salt and MAC of verified credentials. */
+    private static final class Verifier {
+
+        /** Random salt. */
+        final byte[] salt;
+
+        /** MAC of salt, username and password. */
+        final byte[] mac;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  salt  Random salt.
+         * @param  mac  MAC of salt, username and password.
+         */
+        Verifier(final byte[] salt, final byte[] mac) {
+            this.salt = salt;
+            this.mac = mac;
+        }
+    }
+}
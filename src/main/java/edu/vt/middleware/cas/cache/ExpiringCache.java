@@ -0,0 +1,394 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache whose entries expire a fixed amount of time after they are stored.
+ * The cache is divided into a number of independently locked segments, each of which evicts its least recently used
+ * entry when full, so that concurrent readers of different keys rarely contend.
+ * Hit, miss, eviction and expiration counts are kept for monitoring purposes.
+ *
+ * @param  <K>  Type of cache key.
+ * @param  <V>  Type of cached value.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ExpiringCache<K, V> {
+
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Default time to live in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 300000;
+
+    /** Maximum number of segments. */
+    private static final int MAX_SEGMENTS = 16;
+
+    /** Minimum number of entries per segment; smaller caches use fewer segments for more exact LRU ordering. */
+    private static final int MIN_SEGMENT_SIZE = 128;
+
+    /** Independently locked cache segments. */
+    private final List<Segment> segments;
+
+    /** Maximum number of entries held by this cache. */
+    private final int maxSize;
+
+    /** Amount of time in milliseconds an entry remains valid after it is stored. */
+    private final long timeToLive;
+
+    /** Number of lookups that found a valid entry. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups that found no valid entry. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of entries removed to make room for new entries. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Number of entries removed because their time to live elapsed. */
+    private final AtomicLong expirations = new AtomicLong();
+
+
+    /**
+     * Creates a new cache with the default size bound and time to live.
+     */
+    public ExpiringCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+    }
+
+
+    /**
+     * Creates a new cache with the given size bound and time to live.
+     *
+     * @param  maxSize  Maximum number of entries held by the cache.
+     * @param  timeToLive  Amount of time in milliseconds an entry remains valid after it is stored.
+     */
+    public ExpiringCache(final int maxSize, final long timeToLive) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive.");
+        }
+        if (timeToLive < 1) {
+            throw new IllegalArgumentException("timeToLive must be positive.");
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        final int count = Math.max(1, Math.min(MAX_SEGMENTS, maxSize / MIN_SEGMENT_SIZE));
+        this.segments = new ArrayList<Segment>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(new Segment(maxSize / count + (i < maxSize % count ? 1 : 0)));
+        }
+    }
+
+
+    /**
+     * Gets the cached value for the given key.
+     *
+     * @param  key  Cache key.
+     *
+     * @return  Cached value or null if there is no entry for the key or the entry has expired.
+     */
+    public V get(final K key) {
+        final Segment segment = segmentFor(key);
+        final CacheEntry<V> entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && entry.isExpired(currentTimeMillis())) {
+                segment.remove(key);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+
+    /**
+     * Stores a value in the cache, evicting the least recently used entry of the key's segment if it is full.
+     *
+     * @param  key  Cache key.
+     * @param  value  Value to cache.
+     */
+    public void put(final K key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot cache null value.");
+        }
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, new CacheEntry<V>(value, currentTimeMillis() + timeToLive));
+        }
+    }
+
+
+    /**
+     * Removes the entry for the given key.
+     *
+     * @param  key  Cache key.
+     *
+     * @return  Value removed from the cache, or null if none existed.
+     */
+    public V remove(final K key) {
+        final Segment segment = segmentFor(key);
+        final CacheEntry<V> entry;
+        synchronized (segment) {
+            entry = segment.remove(key);
+        }
+        return entry != null ? entry.value : null;
+    }
+
+
+    /**
+     * Copies the entries that have not expired, e.g. to persist them.  Each segment is copied under its lock, so the
+     * copy is consistent per segment but not across segments.  Statistics and recency are not affected.
+     *
+     * @return  Map of key to cached value.
+     */
+    public Map<K, V> snapshot() {
+        final long now = currentTimeMillis();
+        final Map<K, V> copy = new LinkedHashMap<K, V>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<K, CacheEntry<V>> entry : segment.entrySet()) {
+                    if (!entry.getValue().isExpired(now)) {
+                        copy.put(entry.getKey(), entry.getValue().value);
+                    }
+                }
+            }
+        }
+        return copy;
+    }
+
+
+    /**
+     * Removes all entries from the cache.  Statistics are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Gets the number of entries currently held, which may include expired entries not yet removed.
+     *
+     * @return  Number of cache entries.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Gets the maximum number of entries held by this cache.
+     *
+     * @return  Maximum number of entries held by this cache.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Gets the amount of time in milliseconds an entry remains valid after it is stored.
+     *
+     * @return  Amount of time in milliseconds an entry remains valid after it is stored.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+
+    /**
+     * Gets the number of lookups that found a valid entry.
+     *
+     * @return  Number of lookups that found a valid entry.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+
+    /**
+     * Gets the number of lookups that found no valid entry.
+     *
+     * @return  Number of lookups that found no valid entry.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+
+    /**
+     * Gets the number of entries removed to make room for new entries.
+     *
+     * @return  Number of entries removed to make room for new entries.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+
+    /**
+     * Gets the number of entries removed because their time to live elapsed.
+     *
+     * @return  Number of entries removed because their time to live elapsed.
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::size=%s, maxSize=%s, timeToLive=%s, hits=%s, misses=%s, evictions=%s, expirations=%s",
+                getClass().getName(),
+                hashCode(),
+                size(),
+                maxSize,
+                timeToLive,
+                hits,
+                misses,
+                evictions,
+                expirations);
+    }
+
+
+    /**
+     * Gets the current time in milliseconds.  Exposed to facilitate testing.
+     *
+     * @return  Current system time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+
+    /**
+     * Gets the segment responsible for the given key.
+     *
+     * @param  key  Cache key.
+     *
+     * @return  Cache segment.
+     */
+    private Segment segmentFor(final K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Cache key cannot be null.");
+        }
+        // Spread hash bits so keys with similar hash codes land in different segments
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments.get((h & Integer.MAX_VALUE) % segments.size());
+    }
+
+
+    /**
+     * Cached value and its expiration time.
+     *
+     * @param  <V>  Type of cached value.
+     */
+    private static final class CacheEntry<V> {
+
+        /** Cached value. */
+        final V value;
+
+        /** System time in milliseconds after which the entry is no longer valid. */
+        final long expires;
+
+
+        /**
+         * Creates a new cache entry.
+         *
+         * @param  value  Cached value.
+         * @param  expires  Expiration time in milliseconds.
+         */
+        CacheEntry(final V value, final long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+
+        /**
+         * Determines whether the entry has expired.
+         *
+         * @param  now  Current time in milliseconds.
+         *
+         * @return  True if the entry has expired, false otherwise.
+         */
+        boolean isExpired(final long now) {
+            return now >= expires;
+        }
+    }
+
+
+    /**
+     * Access-ordered map that evicts its least recently used entry when it grows beyond capacity.
+     * All access must be synchronized on the segment instance.
+     */
+    private final class Segment extends LinkedHashMap<K, CacheEntry<V>> {
+
+        /** Serialization version. */
+        private static final long serialVersionUID = 1L;
+
+        /** Maximum number of entries in this segment. */
+        private final int capacity;
+
+
+        /**
+         * Creates a new segment of the given capacity.
+         *
+         * @param  capacity  Maximum number of entries in this segment.
+         */
+        Segment(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, CacheEntry<V>> eldest) {
+            if (size() > capacity) {
+                if (eldest.getValue().isExpired(currentTimeMillis())) {
+                    expirations.incrementAndGet();
+                } else {
+                    evictions.incrementAndGet();
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
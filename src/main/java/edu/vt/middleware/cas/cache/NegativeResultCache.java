@@ -0,0 +1,109 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+/**
+ * Remembers usernames for which an LDAP search found no entry, so that repeated lookups of unknown users, e.g. typos,
+ * scanners and decommissioned accounts, are answered from memory.  Entries should have a short time to live since a
+ * user may be created at any time.  Keys are normalized with {@link CacheKeys#normalizeUsername(String)}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class NegativeResultCache {
+
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Default time to live in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE = 30000;
+
+    /** Underlying cache of normalized usernames. */
+    private final ExpiringCache<String, Boolean> cache;
+
+
+    /**
+     * Creates a new cache with the default size bound and time to live.
+     */
+    public NegativeResultCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+    }
+
+
+    /**
+     * Creates a new cache with the given size bound and time to live.
+     *
+     * @param  maxSize  Maximum number of usernames held by the cache.
+     * @param  timeToLive  Amount of time in milliseconds a username is remembered as not found.
+     */
+    public NegativeResultCache(final int maxSize, final long timeToLive) {
+        this.cache = new ExpiringCache<String, Boolean>(maxSize, timeToLive);
+    }
+
+
+    /**
+     * Determines whether a search for the given user recently found no entry.
+     *
+     * @param  username  Username.
+     *
+     * @return  True if the user is known not to exist, false otherwise.
+     */
+    public boolean isNotFound(final String username) {
+        return cache.get(CacheKeys.normalizeUsername(username)) != null;
+    }
+
+
+    /**
+     * Records that a search for the given user found no entry.
+     *
+     * @param  username  Username.
+     */
+    public void notFound(final String username) {
+        cache.put(CacheKeys.normalizeUsername(username), Boolean.TRUE);
+    }
+
+
+    /**
+     * Forgets any negative result for the given user.
+     *
+     * @param  username  Username.
+     */
+    public void remove(final String username) {
+        cache.remove(CacheKeys.normalizeUsername(username));
+    }
+
+
+    /**
+     * Forgets all negative results.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+
+    /**
+     * Gets the cache of normalized usernames.
+     *
+     * @return  Cache of normalized usernames, which provides size and hit statistics.
+     */
+    public ExpiringCache<String, Boolean> getCache() {
+        return cache;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s::cache=%s", getClass().getName(), hashCode(), cache);
+    }
+}
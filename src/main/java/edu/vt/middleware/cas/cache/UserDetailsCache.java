@@ -0,0 +1,244 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Caches user details with a soft and a hard time to live.  Details younger than the soft time to live are fresh and
+ * may be used as is.  Details between the soft and hard time to live are stale: they may still be used, but should be
+ * reloaded in the background so that the next lookup finds fresh details.  Details older than the hard time to live
+ * are discarded and must be reloaded before use.  Keys are normalized with
+ * {@link CacheKeys#normalizeUsername(String)}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class UserDetailsCache {
+
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Default soft time to live in milliseconds. */
+    public static final long DEFAULT_SOFT_TIME_TO_LIVE = 60000;
+
+    /** Default hard time to live in milliseconds. */
+    public static final long DEFAULT_HARD_TIME_TO_LIVE = 900000;
+
+    /** Underlying cache of details keyed by normalized username, which expires entries at the hard time to live. */
+    private final ExpiringCache<String, Entry> cache;
+
+    /** Amount of time in milliseconds cached details remain fresh. */
+    private final long softTimeToLive;
+
+    /** Number of lookups that found stale details. */
+    private final AtomicLong staleHits = new AtomicLong();
+
+
+    /**
+     * Creates a new cache with the default size bound and times to live.
+     */
+    public UserDetailsCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_SOFT_TIME_TO_LIVE, DEFAULT_HARD_TIME_TO_LIVE);
+    }
+
+
+    /**
+     * Creates a new cache with the given size bound and times to live.
+     *
+     * @param  maxSize  Maximum number of users held by the cache.
+     * @param  softTimeToLive  Amount of time in milliseconds cached details remain fresh.
+     * @param  hardTimeToLive  Amount of time in milliseconds cached details may be used at all.  Must not be less
+     *                         than the soft time to live.
+     */
+    public UserDetailsCache(final int maxSize, final long softTimeToLive, final long hardTimeToLive) {
+        if (softTimeToLive < 1) {
+            throw new IllegalArgumentException("softTimeToLive must be positive.");
+        }
+        if (hardTimeToLive < softTimeToLive) {
+            throw new IllegalArgumentException("hardTimeToLive cannot be less than softTimeToLive.");
+        }
+        this.softTimeToLive = softTimeToLive;
+        this.cache = new ExpiringCache<String, Entry>(maxSize, hardTimeToLive) {
+            @Override
+            protected long currentTimeMillis() {
+                return UserDetailsCache.this.currentTimeMillis();
+            }
+        };
+    }
+
+
+    /**
+     * Gets the cached details of the given user.
+     *
+     * @param  username  Username.
+     *
+     * @return  Cache entry, which may be stale, or null if there is none or it is older than the hard time to live.
+     */
+    public Entry get(final String username) {
+        final Entry entry = cache.get(CacheKeys.normalizeUsername(username));
+        if (entry != null && isStale(entry)) {
+            staleHits.incrementAndGet();
+        }
+        return entry;
+    }
+
+
+    /**
+     * Stores freshly loaded details of the given user.
+     *
+     * @param  username  Username.
+     * @param  details  User details.
+     */
+    public void put(final String username, final UserDetails details) {
+        cache.put(CacheKeys.normalizeUsername(username), new Entry(details, currentTimeMillis()));
+    }
+
+
+    /**
+     * Forgets the details of the given user.
+     *
+     * @param  username  Username.
+     */
+    public void remove(final String username) {
+        cache.remove(CacheKeys.normalizeUsername(username));
+    }
+
+
+    /**
+     * Forgets all details.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+
+    /**
+     * Determines whether a cache entry is older than the soft time to live and should be reloaded.
+     *
+     * @param  entry  Cache entry.
+     *
+     * @return  True if the entry is stale, false if it is fresh.
+     */
+    public boolean isStale(final Entry entry) {
+        return currentTimeMillis() - entry.getTimestamp() >= softTimeToLive;
+    }
+
+
+    /**
+     * Gets the amount of time in milliseconds cached details remain fresh.
+     *
+     * @return  Amount of time in milliseconds cached details remain fresh.
+     */
+    public long getSoftTimeToLive() {
+        return softTimeToLive;
+    }
+
+
+    /**
+     * Gets the amount of time in milliseconds cached details may be used at all.
+     *
+     * @return  Amount of time in milliseconds cached details may be used at all.
+     */
+    public long getHardTimeToLive() {
+        return cache.getTimeToLive();
+    }
+
+
+    /**
+     * Gets the number of lookups that found stale details.
+     *
+     * @return  Number of lookups that found stale details.
+     */
+    public long getStaleHitCount() {
+        return staleHits.get();
+    }
+
+
+    /**
+     * Gets the cache of details keyed by normalized username.
+     *
+     * @return  Cache of details keyed by normalized username, which provides size and hit statistics.
+     */
+    public ExpiringCache<String, Entry> getCache() {
+        return cache;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::softTimeToLive=%s, staleHits=%s, cache=%s",
+                getClass().getName(),
+                hashCode(),
+                softTimeToLive,
+                staleHits.get(),
+                cache);
+    }
+
+
+    /**
+     * Gets the current time in milliseconds.  Exposed to facilitate testing.
+     *
+     * @return  Current system time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+
+    /** Cached user details and the time they were loaded. */
+    public static final class Entry {
+
+        /** User details. */
+        private final UserDetails details;
+
+        /** Time in milliseconds since the epoch when the details were loaded. */
+        private final long timestamp;
+
+
+        /**
+         * Creates a new entry.
+         *
+         * @param  details  User details.
+         * @param  timestamp  Time in milliseconds since the epoch when the details were loaded.
+         */
+        Entry(final UserDetails details, final long timestamp) {
+            this.details = details;
+            this.timestamp = timestamp;
+        }
+
+
+        /**
+         * Gets the user details.
+         *
+         * @return  User details.
+         */
+        public UserDetails getUserDetails() {
+            return details;
+        }
+
+
+        /**
+         * Gets the time in milliseconds since the epoch when the details were loaded.
+         *
+         * @return  Time in milliseconds since the epoch when the details were loaded.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.change;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of reading a {@link ChangeFeed}: the changes read and the range of change numbers the feed
+ * scanned to find them.  The range may hold changes that are not returned, e.g. changelog entries the reader is not
+ * allowed to see or cannot interpret, so the reader resumes after the end of the range rather than after the last
+ * change returned.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ChangeBatch {
+
+    /** Changes in ascending order of change number. */
+    private final List<DirectoryChange> changes;
+
+    /** Number of the first change scanned. */
+    private final long firstChangeNumber;
+
+    /** Number of the last change scanned. */
+    private final long lastChangeNumber;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  changes  Changes in ascending order of change number.
+     * @param  firstChangeNumber  Number of the first change scanned.
+     * @param  lastChangeNumber  Number of the last change scanned; less than the first if nothing was scanned.
+     */
+    public ChangeBatch(final List<DirectoryChange> changes, final long firstChangeNumber, final long lastChangeNumber) {
+        this.changes = Collections.unmodifiableList(changes);
+        this.firstChangeNumber = firstChangeNumber;
+        this.lastChangeNumber = lastChangeNumber;
+    }
+
+
+    /**
+     * Creates a batch for a read that scanned nothing.
+     *
+     * @param  after  Number of the last change already read.
+     *
+     * @return  Empty batch that resumes after the given change.
+     */
+    public static ChangeBatch empty(final long after) {
+        return new ChangeBatch(Collections.<DirectoryChange>emptyList(), after + 1, after);
+    }
+
+
+    /**
+     * Gets the changes read.
+     *
+     * @return  Immutable list of changes in ascending order of change number; empty if there are none.
+     */
+    public List<DirectoryChange> getChanges() {
+        return changes;
+    }
+
+
+    /**
+     * Gets the number of the first change scanned.  It is greater than the number following the last change already
+     * read if the feed no longer holds the changes in between.
+     *
+     * @return  First change number scanned.
+     */
+    public long getFirstChangeNumber() {
+        return firstChangeNumber;
+    }
+
+
+    /**
+     * Gets the number of the last change scanned, after which the next read resumes.
+     *
+     * @return  Last change number scanned; less than the first if nothing was scanned.
+     */
+    public long getLastChangeNumber() {
+        return lastChangeNumber;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::changes=%s, first=%s, last=%s",
+                getClass().getName(),
+                hashCode(),
+                changes.size(),
+                firstChangeNumber,
+                lastChangeNumber);
+    }
+}
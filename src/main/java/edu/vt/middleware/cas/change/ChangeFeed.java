@@ -0,0 +1,52 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.change;
+
+import org.ldaptive.LdapException;
+
+/**
+ * Source of changes made to a directory, read in order of change number.  The last change number scanned serves as
+ * the cookie from which reading resumes, so a reader that loses its connection or restarts misses no changes that
+ * the feed still holds.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public interface ChangeFeed {
+
+    /**
+     * Gets the number of the most recent change held by the feed.
+     *
+     * @return  Last change number, or zero if the feed holds no changes.
+     *
+     * @throws  LdapException  On errors reading the feed.
+     */
+    long getLastChangeNumber() throws LdapException;
+
+
+    /**
+     * Reads changes that follow the given change.
+     *
+     * @param  after  Number of the last change already read.
+     * @param  maxChanges  Maximum number of change numbers to scan.
+     *
+     * @return  Changes in ascending order of change number and the range of change numbers scanned, which may hold
+     *          changes that are not returned, e.g. because they are not visible to the reader.  If the feed no longer
+     *          holds the change that immediately follows <code>after</code>, the range starts after
+     *          <code>after + 1</code>.
+     *
+     * @throws  LdapException  On errors reading the feed.
+     */
+    ChangeBatch poll(long after, int maxChanges) throws LdapException;
+}
@@ -0,0 +1,333 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.change;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+import javax.validation.constraints.NotNull;
+
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.DnParser;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchOperation;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResult;
+import org.ldaptive.SearchScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads changes from the changelog of a directory that implements draft-good-ldap-changelog, e.g. 389 Directory
+ * Server or OpenDJ.  Each change is an entry below {@link #setBaseDn(String) cn=changelog} named by its change number;
+ * the first and last change numbers held are read from the root DSE.  Each poll scans a range of change numbers;
+ * entries of the range that the bound identity cannot see, or that cannot be interpreted, are skipped.  Every read
+ * obtains a connection from the connection factory and releases it afterwards, so a pooled factory transparently
+ * replaces broken connections.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ChangelogFeed implements ChangeFeed {
+
+    /** Default base DN of the changelog. */
+    public static final String DEFAULT_BASE_DN = "cn=changelog";
+
+    /** Root DSE attribute holding the first change number. */
+    public static final String FIRST_CHANGE_NUMBER = "firstChangeNumber";
+
+    /** Root DSE attribute holding the last change number. */
+    public static final String LAST_CHANGE_NUMBER = "lastChangeNumber";
+
+    /** Changelog entry attributes read. */
+    private static final String[] CHANGE_ATTRIBUTES = {
+        "changeNumber", "changeType", "targetDN", "newRDN", "newSuperior", "changeTime", "changes",
+    };
+
+    /** Character set of binary attribute values. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangelogFeed.class);
+
+    /** Orders changes by change number. */
+    static final Comparator<DirectoryChange> CHANGE_NUMBER_ORDER = new Comparator<DirectoryChange>() {
+        public int compare(final DirectoryChange a, final DirectoryChange b) {
+            return a.getChangeNumber() < b.getChangeNumber() ? -1 : a.getChangeNumber() > b.getChangeNumber() ? 1 : 0;
+        }
+    };
+
+    /** Source of LDAP connections. */
+    @NotNull
+    private final ConnectionFactory connectionFactory;
+
+    /** Base DN of the changelog. */
+    private String baseDn = DEFAULT_BASE_DN;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  factory  Source of LDAP connections.  The bound identity must be allowed to read the changelog.
+     */
+    public ChangelogFeed(final ConnectionFactory factory) {
+        this.connectionFactory = factory;
+    }
+
+
+    /**
+     * Sets the base DN of the changelog.  The default is {@value #DEFAULT_BASE_DN}.
+     *
+     * @param  dn  Changelog base DN.
+     */
+    public void setBaseDn(final String dn) {
+        this.baseDn = dn;
+    }
+
+
+    @Override
+    public long getLastChangeNumber() throws LdapException {
+        return readChangeNumbers()[1];
+    }
+
+
+    @Override
+    public ChangeBatch poll(final long after, final int maxChanges) throws LdapException {
+        final long[] range = readChangeNumbers();
+        final long from = Math.max(after + 1, range[0]);
+        final long to = Math.min(from + maxChanges - 1, range[1]);
+        if (from > to) {
+            return ChangeBatch.empty(after);
+        }
+        final SearchRequest request = new SearchRequest(
+                baseDn,
+                new SearchFilter(String.format("(&(changeNumber>=%s)(changeNumber<=%s))", from, to)),
+                CHANGE_ATTRIBUTES);
+        request.setSearchScope(SearchScope.ONELEVEL);
+        final SearchResult result = search(request);
+        final List<DirectoryChange> changes = new ArrayList<DirectoryChange>(result.size());
+        for (LdapEntry entry : result.getEntries()) {
+            final DirectoryChange change = toChange(entry);
+            if (change != null) {
+                changes.add(change);
+            }
+        }
+        Collections.sort(changes, CHANGE_NUMBER_ORDER);
+        if (changes.size() < to - from + 1) {
+            LOGGER.debug(
+                    "Read {} changes from change numbers {} to {}; others are not visible or were ignored.",
+                    new Object[] {changes.size(), from, to});
+        }
+        return new ChangeBatch(changes, from, to);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::connectionFactory=%s, baseDn=%s", getClass().getName(), hashCode(), connectionFactory, baseDn);
+    }
+
+
+    /**
+     * Converts a changelog entry into a change.
+     *
+     * @param  entry  Changelog entry.
+     *
+     * @return  Change, or null if the entry lacks a change number, type or target DN.
+     */
+    static DirectoryChange toChange(final LdapEntry entry) {
+        final String number = stringValue(entry, "changeNumber");
+        final String type = stringValue(entry, "changeType");
+        final String targetDn = stringValue(entry, "targetDN");
+        if (number == null || type == null || targetDn == null) {
+            LOGGER.warn("Ignoring incomplete changelog entry {}.", entry.getDn());
+            return null;
+        }
+        final DirectoryChange.Type changeType;
+        try {
+            changeType = toType(type);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Ignoring changelog entry {} with unknown change type {}.", entry.getDn(), type);
+            return null;
+        }
+        String newDn = null;
+        if (changeType == DirectoryChange.Type.MODRDN) {
+            final String newRdn = stringValue(entry, "newRDN");
+            final String newSuperior = stringValue(entry, "newSuperior");
+            if (newRdn != null) {
+                newDn = newRdn + ',' + (newSuperior != null ? newSuperior : DnParser.substring(targetDn, 1));
+            }
+        }
+        return new DirectoryChange(
+                Long.parseLong(number.trim()),
+                changeType,
+                targetDn,
+                newDn,
+                parseGeneralizedTime(stringValue(entry, "changeTime")),
+                changeType == DirectoryChange.Type.MODIFY
+                        ? parseModifiedAttributes(stringValue(entry, "changes")) : null);
+    }
+
+
+    /**
+     * Gets the names of the attributes changed by the LDIF modifications of a changelog entry, e.g.
+     * <code>replace: mail</code>.
+     *
+     * @param  changes  Value of the changes attribute, or null.
+     *
+     * @return  Lowercase attribute names, or null if the value is null.
+     */
+    static Set<String> parseModifiedAttributes(final String changes) {
+        if (changes == null) {
+            return null;
+        }
+        final Set<String> names = new HashSet<String>();
+        for (String line : changes.split("\\r?\\n")) {
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                final String op = line.substring(0, colon).trim();
+                if ("add".equalsIgnoreCase(op) || "replace".equalsIgnoreCase(op) || "delete".equalsIgnoreCase(op)) {
+                    names.add(line.substring(colon + 1).trim().toLowerCase(Locale.ENGLISH));
+                }
+            }
+        }
+        return names;
+    }
+
+
+    /**
+     * Converts the changeType attribute value of a changelog entry into a change type.
+     *
+     * @param  value  Attribute value, e.g. <code>modify</code>.
+     *
+     * @return  Change type.
+     *
+     * @throws  IllegalArgumentException  If the value is not a known change type.
+     */
+    static DirectoryChange.Type toType(final String value) {
+        final String type = value.trim().toUpperCase(Locale.ENGLISH);
+        if ("MODDN".equals(type)) {
+            return DirectoryChange.Type.MODRDN;
+        }
+        return DirectoryChange.Type.valueOf(type);
+    }
+
+
+    /**
+     * Parses an LDAP generalized time, ignoring fractions of a second.
+     *
+     * @param  value  Generalized time, e.g. <code>20121017153000Z</code>, or null.
+     *
+     * @return  Time in milliseconds since the epoch, or zero if the value is null or malformed.
+     */
+    static long parseGeneralizedTime(final String value) {
+        if (value == null || value.length() < 14) {
+            return 0;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss", Locale.ENGLISH);
+        format.setLenient(false);
+        int end = 14;
+        while (end < value.length() && (value.charAt(end) == '.' || Character.isDigit(value.charAt(end)))) {
+            end++;
+        }
+        final String zone = value.substring(end);
+        format.setTimeZone(TimeZone.getTimeZone(zone.isEmpty() || "Z".equals(zone) ? "UTC" : "GMT" + zone));
+        try {
+            return format.parse(value.substring(0, 14)).getTime();
+        } catch (ParseException e) {
+            LOGGER.debug("Cannot parse generalized time {}.", value);
+            return 0;
+        }
+    }
+
+
+    /**
+     * Reads the first and last change numbers from the root DSE.
+     *
+     * @return  Array of first and last change number; both zero if the changelog is empty.
+     *
+     * @throws  LdapException  On LDAP errors.
+     */
+    private long[] readChangeNumbers() throws LdapException {
+        final SearchResult result = search(SearchRequest.newObjectScopeSearchRequest(
+                "", new String[] {FIRST_CHANGE_NUMBER, LAST_CHANGE_NUMBER}));
+        final LdapEntry rootDse = result.getEntry();
+        if (rootDse == null) {
+            throw new LdapException("Cannot read root DSE.");
+        }
+        final String first = stringValue(rootDse, FIRST_CHANGE_NUMBER);
+        final String last = stringValue(rootDse, LAST_CHANGE_NUMBER);
+        if (last == null) {
+            return new long[] {0, 0};
+        }
+        return new long[] {first != null ? Long.parseLong(first.trim()) : 0, Long.parseLong(last.trim())};
+    }
+
+
+    /**
+     * Executes a search on a connection from the connection factory.
+     *
+     * @param  request  Search request.
+     *
+     * @return  Search result.
+     *
+     * @throws  LdapException  On LDAP errors.
+     */
+    private SearchResult search(final SearchRequest request) throws LdapException {
+        Connection conn = null;
+        try {
+            conn = connectionFactory.getConnection();
+            if (!conn.isOpen()) {
+                conn.open();
+            }
+            return new SearchOperation(conn).execute(request).getResult();
+        } finally {
+            if (conn != null && conn.isOpen()) {
+                conn.close();
+            }
+        }
+    }
+
+
+    /**
+     * Gets the first string value of an attribute.
+     *
+     * @param  entry  LDAP entry.
+     * @param  name  Attribute name.
+     *
+     * @return  Attribute value or null if the entry has no such attribute.
+     */
+    private static String stringValue(final LdapEntry entry, final String name) {
+        final LdapAttribute attribute = entry.getAttribute(name);
+        if (attribute == null) {
+            return null;
+        }
+        // Values that are not printable, e.g. multi-line LDIF, are base64 encoded in LDIF and read as binary
+        return attribute.isBinary() ? new String(attribute.getBinaryValue(), UTF8) : attribute.getStringValue();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.change;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Immutable record of one change to a directory entry, as reported by a {@link ChangeFeed}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class DirectoryChange {
+
+    /** Kinds of change. */
+    public enum Type {
+
+        /** Entry was added. */
+        ADD,
+
+        /** Entry was deleted. */
+        DELETE,
+
+        /** Attributes of the entry were modified. */
+        MODIFY,
+
+        /** Entry was renamed or moved. */
+        MODRDN
+    }
+
+
+    /** Number that orders the change among all changes of the feed. */
+    private final long changeNumber;
+
+    /** Kind of change. */
+    private final Type type;
+
+    /** DN of the changed entry; the old DN of a renamed entry. */
+    private final String targetDn;
+
+    /** New DN of a renamed entry; null for other changes. */
+    private final String newDn;
+
+    /** Time in milliseconds since the epoch when the directory made the change; zero if unknown. */
+    private final long changeTime;
+
+    /** Lowercase names of the attributes a modification changed; empty if unknown. */
+    private final Set<String> modifiedAttributes;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  changeNumber  Number that orders the change among all changes of the feed.
+     * @param  type  Kind of change.
+     * @param  targetDn  DN of the changed entry; the old DN of a renamed entry.
+     * @param  newDn  New DN of a renamed entry; null for other changes.
+     * @param  changeTime  Time in milliseconds since the epoch when the directory made the change; zero if unknown.
+     * @param  modifiedAttributes  Lowercase names of the attributes a modification changed; null or empty if unknown.
+     */
+    public DirectoryChange(
+            final long changeNumber,
+            final Type type,
+            final String targetDn,
+            final String newDn,
+            final long changeTime,
+            final Set<String> modifiedAttributes) {
+
+        if (type == null) {
+            throw new IllegalArgumentException("Change type cannot be null.");
+        }
+        if (targetDn == null) {
+            throw new IllegalArgumentException("Target DN cannot be null.");
+        }
+        this.changeNumber = changeNumber;
+        this.type = type;
+        this.targetDn = targetDn;
+        this.newDn = newDn;
+        this.changeTime = changeTime;
+        this.modifiedAttributes = modifiedAttributes != null
+                ? Collections.unmodifiableSet(modifiedAttributes) : Collections.<String>emptySet();
+    }
+
+
+    /**
+     * Gets the number that orders the change among all changes of the feed.
+     *
+     * @return  Number that orders the change among all changes of the feed.
+     */
+    public long getChangeNumber() {
+        return changeNumber;
+    }
+
+
+    /**
+     * Gets the kind of change.
+     *
+     * @return  Kind of change.
+     */
+    public Type getType() {
+        return type;
+    }
+
+
+    /**
+     * Gets the DN of the changed entry.
+     *
+     * @return  DN of the changed entry; the old DN of a renamed entry.
+     */
+    public String getTargetDn() {
+        return targetDn;
+    }
+
+
+    /**
+     * Gets the new DN of a renamed entry.
+     *
+     * @return  New DN of a renamed entry; null for other changes.
+     */
+    public String getNewDn() {
+        return newDn;
+    }
+
+
+    /**
+     * Gets the time in milliseconds since the epoch when the directory made the change.
+     *
+     * @return  Time in milliseconds since the epoch when the directory made the change; zero if unknown.
+     */
+    public long getChangeTime() {
+        return changeTime;
+    }
+
+
+    /**
+     * Gets the lowercase names of the attributes a modification changed.
+     *
+     * @return  Lowercase names of the attributes a modification changed; empty if unknown.
+     */
+    public Set<String> getModifiedAttributes() {
+        return modifiedAttributes;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::changeNumber=%s, type=%s, targetDn=%s, newDn=%s, changeTime=%s, modifiedAttributes=%s",
+                getClass().getName(),
+                hashCode(),
+                changeNumber,
+                type,
+                targetDn,
+                newDn,
+                changeTime,
+                modifiedAttributes);
+    }
+}
@@ -0,0 +1,578 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.change;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.validation.constraints.NotNull;
+
+import edu.vt.middleware.cas.authentication.principal.LdapCredentialsToPrincipalResolver;
+import edu.vt.middleware.cas.cache.CredentialVerificationCache;
+import edu.vt.middleware.cas.userdetails.LdapUserDetailsService;
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import org.ldaptive.DnParser;
+import org.ldaptive.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Reads changes from a {@link ChangeFeed} in the background and invalidates what the principal resolver, the user
+ * details service and the credential verification cache hold about the changed users, so that their caches can use
+ * long times to live without serving outdated data.  Users are identified by the value of the
+ * {@link #setUsernameAttribute(String) username attribute} in the leftmost RDN of a changed entry.  A change to any
+ * other entry, e.g. a group, is taken to affect roles and clears the user details cache; this may be restricted to
+ * entries below a {@link #setGroupBaseDn(String) group base DN}.  Modifications of only
+ * {@link #setIgnoredAttributes(Collection) ignored attributes}, e.g. operational attributes written on every bind,
+ * are skipped.
+ * <p>
+ * Reading starts at the most recent change when the listener starts, since the caches are empty then.  The last
+ * change number the feed scanned, whether or not it returned a change for it, is kept as the cookie from which
+ * reading resumes after an error, which is retried with exponential backoff up to
+ * {@link #setMaxBackoff(long) max backoff}.  Changes the feed scanned but did not return, e.g. because they are not
+ * visible to the listener, are skipped.  If the feed no longer holds the changes that follow the cookie, all caches
+ * are cleared.  The {@link #getLag() lag} is the time since the listener last found no pending changes, which bounds
+ * how outdated a cache may be.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class DirectoryChangeListener implements InitializingBean, DisposableBean {
+
+    /** Default name of the attribute in the RDN of user entries. */
+    public static final String DEFAULT_USERNAME_ATTRIBUTE = "uid";
+
+    /** Default interval between polls in milliseconds. */
+    public static final long DEFAULT_POLL_INTERVAL = 5000;
+
+    /** Default maximum number of changes read per poll. */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Default maximum interval between polls after errors in milliseconds. */
+    public static final long DEFAULT_MAX_BACKOFF = 300000;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Source of changes. */
+    @NotNull
+    private final ChangeFeed feed;
+
+    /** Resolver whose cached principals are invalidated. */
+    private LdapCredentialsToPrincipalResolver principalResolver;
+
+    /** User details service whose cached details are invalidated. */
+    private LdapUserDetailsService userDetailsService;
+
+    /** Cache of verified credentials that is invalidated. */
+    private CredentialVerificationCache verificationCache;
+
+    /** Name of the attribute in the RDN of user entries. */
+    private String usernameAttribute = DEFAULT_USERNAME_ATTRIBUTE;
+
+    /** Lowercase base DN of group entries; null for any entry that is not a user. */
+    private String groupBaseDn;
+
+    /** Lowercase names of attributes whose modification is ignored. */
+    private Set<String> ignoredAttributes = Collections.emptySet();
+
+    /** Interval between polls in milliseconds. */
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    /** Maximum number of changes read per poll. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** Maximum interval between polls after errors in milliseconds. */
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+    /** Runs polls. */
+    private ScheduledExecutorService scheduler;
+
+    /** Number of the last change applied or skipped; negative until the first poll. */
+    private volatile long lastChangeNumber = -1;
+
+    /** Number of changes the feed holds that have not been applied. */
+    private volatile long pendingChanges;
+
+    /** Time in milliseconds since the epoch when the listener last found no pending changes. */
+    private volatile long caughtUpAt;
+
+    /** Time in milliseconds between the directory making the last applied change and the listener applying it. */
+    private volatile long lastChangeDelay;
+
+    /** Number of consecutive failed polls. */
+    private volatile int consecutiveFailures;
+
+    /** Error of the last failed poll, if the last poll failed. */
+    private volatile String failure;
+
+    /** Number of changes applied. */
+    private final AtomicLong appliedCount = new AtomicLong();
+
+    /** Number of times changes were missed and all caches were cleared. */
+    private final AtomicLong gapCount = new AtomicLong();
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  feed  Source of changes.
+     */
+    public DirectoryChangeListener(final ChangeFeed feed) {
+        this.feed = feed;
+    }
+
+
+    /**
+     * Sets the resolver whose cached principals are invalidated.
+     *
+     * @param  resolver  Principal resolver.
+     */
+    public void setPrincipalResolver(final LdapCredentialsToPrincipalResolver resolver) {
+        this.principalResolver = resolver;
+    }
+
+
+    /**
+     * Sets the user details service whose cached details are invalidated.
+     *
+     * @param  service  User details service.
+     */
+    public void setUserDetailsService(final LdapUserDetailsService service) {
+        this.userDetailsService = service;
+    }
+
+
+    /**
+     * Sets the cache of verified credentials that is invalidated, so that a changed password or a deleted user no
+     * longer authenticates from the cache.
+     *
+     * @param  cache  Credential verification cache.
+     */
+    public void setVerificationCache(final CredentialVerificationCache cache) {
+        this.verificationCache = cache;
+    }
+
+
+    /**
+     * Sets the name of the attribute in the RDN of user entries, whose value is the username.  The default is
+     * {@value #DEFAULT_USERNAME_ATTRIBUTE}.
+     *
+     * @param  name  Attribute name.
+     */
+    public void setUsernameAttribute(final String name) {
+        this.usernameAttribute = name;
+    }
+
+
+    /**
+     * Sets the base DN of group entries.  Changes to entries below it clear the user details cache; changes to other
+     * entries that are not users are ignored.  By default any change to an entry that is not a user clears the cache.
+     *
+     * @param  dn  Group base DN.
+     */
+    public void setGroupBaseDn(final String dn) {
+        this.groupBaseDn = dn != null ? dn.trim().toLowerCase(Locale.ENGLISH) : null;
+    }
+
+
+    /**
+     * Sets the attributes whose modification does not invalidate a user, e.g. <code>pwdLastSuccess</code> or
+     * <code>modifyTimestamp</code>.  A modification is skipped only if the feed reports which attributes it changed
+     * and all of them are ignored.
+     *
+     * @param  names  Attribute names.
+     */
+    public void setIgnoredAttributes(final Collection<String> names) {
+        final Set<String> lowercase = new HashSet<String>(names.size());
+        for (String name : names) {
+            lowercase.add(name.trim().toLowerCase(Locale.ENGLISH));
+        }
+        this.ignoredAttributes = lowercase;
+    }
+
+
+    /**
+     * Sets the interval between polls.  The default is {@value #DEFAULT_POLL_INTERVAL}.  A poll that reads a full
+     * batch is followed immediately by the next.
+     *
+     * @param  interval  Poll interval in milliseconds.
+     */
+    public void setPollInterval(final long interval) {
+        this.pollInterval = interval;
+    }
+
+
+    /**
+     * Sets the maximum number of changes read per poll.  The default is {@value #DEFAULT_BATCH_SIZE}.
+     *
+     * @param  size  Batch size.
+     */
+    public void setBatchSize(final int size) {
+        this.batchSize = size;
+    }
+
+
+    /**
+     * Sets the maximum interval between polls after errors.  The interval doubles with each consecutive error up to
+     * this maximum.  The default is {@value #DEFAULT_MAX_BACKOFF}.
+     *
+     * @param  backoff  Maximum backoff in milliseconds.
+     */
+    public void setMaxBackoff(final long backoff) {
+        this.maxBackoff = backoff;
+    }
+
+
+    /**
+     * Checks the configuration and starts polling.
+     *
+     * @throws  Exception  If the configuration is invalid.
+     */
+    public void afterPropertiesSet() throws Exception {
+        Assert.hasText(usernameAttribute, "Username attribute cannot be empty.");
+        Assert.isTrue(pollInterval > 0, "Poll interval must be positive.");
+        Assert.isTrue(batchSize > 0, "Batch size must be positive.");
+        Assert.isTrue(maxBackoff >= pollInterval, "Max backoff cannot be less than the poll interval.");
+        caughtUpAt = System.currentTimeMillis();
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new BoundedExecutors.NamedThreadFactory("ldap-change-listener"));
+            schedule(0);
+        }
+    }
+
+
+    /**
+     * Stops polling.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Gets the number of the last change applied or skipped, or a negative number if no poll has succeeded.
+     *
+     * @return  Number of the last change applied or skipped, or a negative number if no poll has succeeded.
+     */
+    public long getLastChangeNumber() {
+        return lastChangeNumber;
+    }
+
+
+    /**
+     * Gets the number of changes the feed held that had not been applied at the last poll.
+     *
+     * @return  Number of changes the feed held that had not been applied at the last poll.
+     */
+    public long getPendingChanges() {
+        return pendingChanges;
+    }
+
+
+    /**
+     * Gets the time since the listener last found no pending changes, which bounds how outdated a cache may be.
+     *
+     * @return  Lag in milliseconds.
+     */
+    public long getLag() {
+        return Math.max(System.currentTimeMillis() - caughtUpAt, 0);
+    }
+
+
+    /**
+     * Gets the time between the directory making the last applied change and the listener applying it.
+     *
+     * @return  Delay in milliseconds, or zero if the feed does not report change times.
+     */
+    public long getLastChangeDelay() {
+        return lastChangeDelay;
+    }
+
+
+    /**
+     * Gets the number of changes applied.
+     *
+     * @return  Number of changes applied.
+     */
+    public long getAppliedCount() {
+        return appliedCount.get();
+    }
+
+
+    /**
+     * Gets the number of times changes were missed and all caches were cleared.
+     *
+     * @return  Number of times changes were missed and all caches were cleared.
+     */
+    public long getGapCount() {
+        return gapCount.get();
+    }
+
+
+    /**
+     * Gets the number of consecutive failed polls.
+     *
+     * @return  Number of consecutive failed polls.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+
+    /**
+     * Gets the error of the last poll, or null if it succeeded.
+     *
+     * @return  Error of the last poll, or null if it succeeded.
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::feed=%s, lastChangeNumber=%s, pending=%s, lag=%s, applied=%s, gaps=%s, failures=%s",
+                getClass().getName(),
+                hashCode(),
+                feed,
+                lastChangeNumber,
+                pendingChanges,
+                getLag(),
+                appliedCount.get(),
+                gapCount.get(),
+                consecutiveFailures);
+    }
+
+
+    /**
+     * Reads and applies the changes that follow the last change applied.  The first poll only records the most recent
+     * change.
+     *
+     * @return  Number of changes read.
+     *
+     * @throws  LdapException  On errors reading the feed.
+     */
+    int poll() throws LdapException {
+        final long now = System.currentTimeMillis();
+        final long head = feed.getLastChangeNumber();
+        if (lastChangeNumber < 0) {
+            logger.info("Listening for directory changes after change number {}.", head);
+            lastChangeNumber = head;
+        }
+        ChangeBatch batch = ChangeBatch.empty(lastChangeNumber);
+        if (head > lastChangeNumber) {
+            batch = feed.poll(lastChangeNumber, batchSize);
+        } else if (head < lastChangeNumber) {
+            // Change numbers were reset, e.g. the changelog was rebuilt
+            missed(head, "change numbers were reset");
+            lastChangeNumber = head;
+            batch = ChangeBatch.empty(head);
+        }
+        if (batch.getFirstChangeNumber() > lastChangeNumber + 1) {
+            missed(batch.getFirstChangeNumber(), "feed no longer holds them");
+        }
+        final List<DirectoryChange> changes = batch.getChanges();
+        boolean groupChanged = false;
+        for (DirectoryChange change : changes) {
+            groupChanged |= apply(change);
+            lastChangeNumber = change.getChangeNumber();
+            appliedCount.incrementAndGet();
+            if (change.getChangeTime() > 0) {
+                lastChangeDelay = Math.max(System.currentTimeMillis() - change.getChangeTime(), 0);
+            }
+        }
+        if (groupChanged && userDetailsService != null) {
+            userDetailsService.invalidateAll();
+        }
+        // Changes scanned but not returned, e.g. because they are not visible, are skipped
+        lastChangeNumber = Math.max(lastChangeNumber, batch.getLastChangeNumber());
+        pendingChanges = Math.max(head - lastChangeNumber, 0);
+        if (pendingChanges == 0) {
+            caughtUpAt = now;
+        }
+        if (!changes.isEmpty()) {
+            logger.debug("Applied {} changes through change number {}.", changes.size(), lastChangeNumber);
+        }
+        return changes.size();
+    }
+
+
+    /**
+     * Invalidates what is cached about the entries affected by a change.
+     *
+     * @param  change  Directory change.
+     *
+     * @return  True if the change may have affected roles of any user, false otherwise.
+     */
+    boolean apply(final DirectoryChange change) {
+        final String username = usernameOf(change.getTargetDn());
+        if (username == null) {
+            return isGroup(change.getTargetDn()) || (change.getNewDn() != null && isGroup(change.getNewDn()));
+        }
+        if (change.getType() == DirectoryChange.Type.MODIFY && !change.getModifiedAttributes().isEmpty() &&
+                ignoredAttributes.containsAll(change.getModifiedAttributes())) {
+            logger.trace("Ignoring modification of {}.", change.getModifiedAttributes());
+            return false;
+        }
+        invalidate(username);
+        if (change.getNewDn() != null) {
+            final String renamed = usernameOf(change.getNewDn());
+            if (renamed != null) {
+                invalidate(renamed);
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Schedules the next poll.
+     *
+     * @param  delay  Delay in milliseconds.
+     */
+    private void schedule(final long delay) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(
+                new Runnable() {
+                    public void run() {
+                        long next = pollInterval;
+                        try {
+                            if (poll() == batchSize) {
+                                next = 0;
+                            }
+                            consecutiveFailures = 0;
+                            failure = null;
+                        } catch (LdapException e) {
+                            next = failed(e);
+                        } catch (RuntimeException e) {
+                            next = failed(e);
+                        } finally {
+                            schedule(next);
+                        }
+                    }
+                },
+                delay,
+                TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Records a failed poll.
+     *
+     * @param  e  Error.
+     *
+     * @return  Delay before the next poll in milliseconds.
+     */
+    private long failed(final Exception e) {
+        final int failures = ++consecutiveFailures;
+        failure = e.getMessage();
+        final long backoff = Math.min(pollInterval << Math.min(failures, 20), maxBackoff);
+        logger.warn(
+                "Cannot read directory changes after change number {}; retrying in {}ms.",
+                new Object[] {lastChangeNumber, backoff, e});
+        return backoff;
+    }
+
+
+    /**
+     * Clears all caches because changes were missed.
+     *
+     * @param  resumeAt  Change number from which reading resumes.
+     * @param  reason  Why changes were missed.
+     */
+    private void missed(final long resumeAt, final String reason) {
+        gapCount.incrementAndGet();
+        logger.warn(
+                "Missed directory changes after change number {} ({}); clearing caches and resuming at {}.",
+                new Object[] {lastChangeNumber, reason, resumeAt});
+        if (principalResolver != null) {
+            principalResolver.invalidateAll();
+        }
+        if (userDetailsService != null) {
+            userDetailsService.invalidateAll();
+        }
+        if (verificationCache != null) {
+            verificationCache.clear();
+        }
+    }
+
+
+    /**
+     * Invalidates what is cached about a user.
+     *
+     * @param  username  Username.
+     */
+    private void invalidate(final String username) {
+        logger.debug("Invalidating cached data of {}.", username);
+        if (principalResolver != null) {
+            principalResolver.invalidate(username);
+        }
+        if (userDetailsService != null) {
+            userDetailsService.invalidate(username);
+        }
+        if (verificationCache != null) {
+            verificationCache.invalidate(username);
+        }
+    }
+
+
+    /**
+     * Gets the username of a user entry.
+     *
+     * @param  dn  Entry DN.
+     *
+     * @return  Value of the username attribute if it names the entry, otherwise null.
+     */
+    private String usernameOf(final String dn) {
+        final String trimmed = dn.trim();
+        if (!trimmed.regionMatches(true, 0, usernameAttribute + '=', 0, usernameAttribute.length() + 1)) {
+            return null;
+        }
+        final String value = DnParser.getValue(trimmed, usernameAttribute);
+        return value != null && value.length() > 0 ? value : null;
+    }
+
+
+    /**
+     * Determines whether an entry that is not a user may define roles.
+     *
+     * @param  dn  Entry DN.
+     *
+     * @return  True if no group base DN is set or the entry is below it.
+     */
+    private boolean isGroup(final String dn) {
+        return groupBaseDn == null || dn.trim().toLowerCase(Locale.ENGLISH).endsWith(groupBaseDn);
+    }
+}
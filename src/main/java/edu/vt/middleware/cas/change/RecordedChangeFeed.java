@@ -0,0 +1,163 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.change;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.io.LdifReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays changes recorded in an LDIF file of changelog entries, e.g. an export of <code>cn=changelog</code>, as a
+ * stand-in for {@link ChangelogFeed} when testing without a live directory.  The file is read again whenever it is
+ * modified, so changes appended to it are picked up as if they were made to a directory.  Like a changelog, the feed
+ * holds the change numbers of entries that cannot be interpreted, which are scanned but not returned.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class RecordedChangeFeed implements ChangeFeed {
+
+    /** Character set of the recorded file. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** File of recorded changelog entries. */
+    @NotNull
+    private final File file;
+
+    /** Changes in ascending order of change number. */
+    private List<DirectoryChange> changes = Collections.emptyList();
+
+    /** Change numbers of all recorded entries, including those that cannot be interpreted, in ascending order. */
+    private long[] changeNumbers = new long[0];
+
+    /** Modification time of the file when it was last read; zero if it has not been read. */
+    private long lastModified;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  file  LDIF file of changelog entries.
+     */
+    public RecordedChangeFeed(final File file) {
+        this.file = file;
+    }
+
+
+    @Override
+    public synchronized long getLastChangeNumber() throws LdapException {
+        read();
+        return changeNumbers.length == 0 ? 0 : changeNumbers[changeNumbers.length - 1];
+    }
+
+
+    @Override
+    public synchronized ChangeBatch poll(final long after, final int maxChanges) throws LdapException {
+        final List<DirectoryChange> current = read();
+        int start = 0;
+        while (start < changeNumbers.length && changeNumbers[start] <= after) {
+            start++;
+        }
+        if (start == changeNumbers.length) {
+            return ChangeBatch.empty(after);
+        }
+        final long from = changeNumbers[start];
+        final long to = changeNumbers[Math.min(start + maxChanges, changeNumbers.length) - 1];
+        final List<DirectoryChange> next = new ArrayList<DirectoryChange>();
+        for (DirectoryChange change : current) {
+            if (change.getChangeNumber() >= from && change.getChangeNumber() <= to) {
+                next.add(change);
+            }
+        }
+        return new ChangeBatch(next, from, to);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s::file=%s", getClass().getName(), hashCode(), file);
+    }
+
+
+    /**
+     * Reads the recorded file if it was modified since it was last read.
+     *
+     * @return  Recorded changes in ascending order of change number.
+     *
+     * @throws  LdapException  If the file cannot be read.
+     */
+    private List<DirectoryChange> read() throws LdapException {
+        final long modified = file.lastModified();
+        if (modified == 0) {
+            throw new LdapException("Cannot read recorded changes from " + file);
+        }
+        if (modified == lastModified) {
+            return changes;
+        }
+        final List<DirectoryChange> recorded = new ArrayList<DirectoryChange>();
+        final List<Long> numbers = new ArrayList<Long>();
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), UTF8);
+            for (LdapEntry entry : new LdifReader(reader).read().getEntries()) {
+                final LdapAttribute number = entry.getAttribute("changeNumber");
+                if (number != null) {
+                    numbers.add(Long.parseLong(number.getStringValue().trim()));
+                }
+                final DirectoryChange change = ChangelogFeed.toChange(entry);
+                if (change != null) {
+                    recorded.add(change);
+                }
+            }
+        } catch (IOException e) {
+            throw new LdapException("Cannot read recorded changes from " + file, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.debug("Error closing {}.", file, e);
+                }
+            }
+        }
+        Collections.sort(recorded, ChangelogFeed.CHANGE_NUMBER_ORDER);
+        Collections.sort(numbers);
+        changeNumbers = new long[numbers.size()];
+        for (int i = 0; i < changeNumbers.length; i++) {
+            changeNumbers[i] = numbers.get(i);
+        }
+        changes = recorded;
+        lastModified = modified;
+        logger.debug("Read {} recorded changes from {}.", recorded.size(), file);
+        return changes;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precompiled LDAP search filter expression with named parameter placeholders of the form <code>{name}</code>.
+ * The template is parsed once into literal segments and parameter slots, so producing a filter for a given set of
+ * parameter values requires a single pass that appends literals and RFC 4515 escaped values to a presized buffer.
+ * Placeholders that do not name a declared parameter are treated as literal text, as with
+ * {@link org.ldaptive.SearchFilter}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class FilterTemplate {
+
+    /** Extra buffer capacity reserved for escaped characters in parameter values. */
+    private static final int ESCAPE_ALLOWANCE = 16;
+
+    /** Original filter expression. */
+    private final String template;
+
+    /** Declared parameter names. */
+    private final String[] parameterNames;
+
+    /** Literal segments; there is always one more segment than there are slots. */
+    private final String[] literals;
+
+    /** Index into declared parameters for each slot between literal segments. */
+    private final int[] slots;
+
+    /** Total length of all literal segments. */
+    private final int literalLength;
+
+
+    /**
+     * Compiles a filter template.
+     *
+     * @param  template  Filter expression, e.g. <code>(uid={user})</code>.
+     * @param  parameterNames  Names of parameters that must occur in the expression.
+     *
+     * @throws  IllegalArgumentException  If the expression is null or a declared parameter does not occur in it.
+     */
+    public FilterTemplate(final String template, final String... parameterNames) {
+        if (template == null) {
+            throw new IllegalArgumentException("Filter template cannot be null.");
+        }
+        this.template = template;
+        this.parameterNames = parameterNames.clone();
+
+        final List<String> literalList = new ArrayList<String>();
+        final List<Integer> slotList = new ArrayList<Integer>();
+        final boolean[] found = new boolean[parameterNames.length];
+        int start = 0;
+        int open = template.indexOf('{');
+        while (open >= 0) {
+            final int close = template.indexOf('}', open + 1);
+            if (close < 0) {
+                break;
+            }
+            final int index = indexOfParameter(template.substring(open + 1, close));
+            if (index >= 0) {
+                literalList.add(template.substring(start, open));
+                slotList.add(index);
+                found[index] = true;
+                start = close + 1;
+                open = template.indexOf('{', start);
+            } else {
+                open = template.indexOf('{', open + 1);
+            }
+        }
+        literalList.add(template.substring(start));
+        for (int i = 0; i < found.length; i++) {
+            if (!found[i]) {
+                throw new IllegalArgumentException(
+                        "Search filter expression must contain placeholder {" + parameterNames[i] + '}');
+            }
+        }
+
+        this.literals = literalList.toArray(new String[literalList.size()]);
+        this.slots = new int[slotList.size()];
+        int length = 0;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slotList.get(i);
+        }
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+
+    /**
+     * Gets the filter expression this template was compiled from.
+     *
+     * @return  Filter expression this template was compiled from.
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+
+    /**
+     * Gets the names of declared parameters in the order expected by {@link #format(String...)}.
+     *
+     * @return  Names of declared parameters in the order expected by {@link #format(String...)}.
+     */
+    public String[] getParameterNames() {
+        return parameterNames.clone();
+    }
+
+
+    /**
+     * Produces a filter by substituting escaped parameter values for placeholders.
+     *
+     * @param  values  Parameter values in the order of declared parameter names.
+     *
+     * @return  Encoded search filter.
+     */
+    public String format(final String... values) {
+        if (values.length != parameterNames.length) {
+            throw new IllegalArgumentException(
+                    "Expected " + parameterNames.length + " parameter values but got " + values.length);
+        }
+        int capacity = literalLength + ESCAPE_ALLOWANCE;
+        for (int slot : slots) {
+            capacity += values[slot].length();
+        }
+        final StringBuilder sb = new StringBuilder(capacity);
+        appendTo(sb, values);
+        return sb.toString();
+    }
+
+
+    /**
+     * Appends a filter produced from this template to the given buffer.
+     *
+     * @param  sb  Buffer to append to.
+     * @param  values  Parameter values in the order of declared parameter names.
+     */
+    public void appendTo(final StringBuilder sb, final String... values) {
+        sb.append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            appendEscaped(sb, values[slots[i]]);
+            sb.append(literals[i + 1]);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::template=%s, parameterNames=%s",
+                getClass().getName(),
+                hashCode(),
+                template,
+                Arrays.toString(parameterNames));
+    }
+
+
+    /**
+     * Appends an assertion value to a buffer, escaping the characters given special meaning by RFC 4515.
+     *
+     * @param  sb  Buffer to append to.
+     * @param  value  Assertion value.
+     */
+    public static void appendEscaped(final StringBuilder sb, final String value) {
+        final int length = value.length();
+        int start = 0;
+        String escaped;
+        for (int i = 0; i < length; i++) {
+            switch (value.charAt(i)) {
+            case '*':
+                escaped = "\\2a";
+                break;
+            case '(':
+                escaped = "\\28";
+                break;
+            case ')':
+                escaped = "\\29";
+                break;
+            case '\\':
+                escaped = "\\5c";
+                break;
+            case '\0':
+                escaped = "\\00";
+                break;
+            default:
+                continue;
+            }
+            sb.append(value, start, i).append(escaped);
+            start = i + 1;
+        }
+        sb.append(value, start, length);
+    }
+
+
+    /**
+     * Gets the index of the declared parameter with the given name.
+     *
+     * @param  name  Parameter name.
+     *
+     * @return  Parameter index or -1 if no such parameter is declared.
+     */
+    private int indexOfParameter(final String name) {
+        for (int i = 0; i < parameterNames.length; i++) {
+            if (parameterNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,612 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import edu.vt.middleware.cas.util.LatencyHistogram;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchResult;
+import org.ldaptive.handler.SearchEntryHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Search executor that hedges slow searches.  If a search has not completed within a delay derived from a percentile
+ * of recent search latencies, the same search is sent to {@link #setHedgeConnectionFactory(ConnectionFactory)}, e.g.
+ * another replica, and the first successful response is used.  The slower search is abandoned: its result is
+ * discarded and its thread interrupted.  Hedges are limited by a budget so that at most a fixed fraction of searches
+ * are sent twice, which bounds the additional load even when the directory is uniformly slow.
+ * <p>
+ * Searches run on an executor while the calling thread waits for them.  Search entry handlers may be invoked by both
+ * searches and should therefore be stateless.  Without a hedge connection factory, this class behaves exactly like
+ * {@link org.ldaptive.SearchExecutor}.  An executor created by this class is shut down by {@link #destroy()}.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class HedgingSearchExecutor extends org.ldaptive.SearchExecutor implements DisposableBean {
+
+    /** Default latency percentile after which a search is hedged. */
+    public static final double DEFAULT_HEDGE_PERCENTILE = 95;
+
+    /** Default minimum hedge delay in milliseconds. */
+    public static final long DEFAULT_MIN_HEDGE_DELAY = 5;
+
+    /** Default maximum hedge delay in milliseconds, also used until enough latencies have been recorded. */
+    public static final long DEFAULT_MAX_HEDGE_DELAY = 1000;
+
+    /** Default maximum fraction of searches that may be hedged. */
+    public static final double DEFAULT_HEDGE_BUDGET = 0.05;
+
+    /** Number of threads of the default executor. */
+    private static final int DEFAULT_THREADS = 64;
+
+    /** Number of searches waiting for a thread of the default executor. */
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /** Number of latencies required before the hedge delay is derived from them. */
+    private static final int MIN_SAMPLES = 100;
+
+    /** Number of latencies after which older latencies are given less weight. */
+    private static final int SAMPLE_WINDOW = 10000;
+
+    /** Budget tokens are tracked in thousandths of a hedge. */
+    private static final long TOKEN = 1000;
+
+    /** Maximum number of hedges that may be sent in a burst. */
+    private static final long MAX_TOKENS = 10 * TOKEN;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Latencies of searches sent to the primary connection factory. */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /** Hedges that may be sent without exceeding the budget, in thousandths. */
+    private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+
+    /** Number of searches. */
+    private final AtomicLong searchCount = new AtomicLong();
+
+    /** Number of hedged searches sent. */
+    private final AtomicLong hedgesSent = new AtomicLong();
+
+    /** Number of hedged searches that answered first. */
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    /** Number of hedges not sent because the budget was exhausted. */
+    private final AtomicLong hedgesDenied = new AtomicLong();
+
+    /** Source of connections for hedged searches. */
+    private ConnectionFactory hedgeConnectionFactory;
+
+    /** Latency percentile after which a search is hedged. */
+    private double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+
+    /** Minimum hedge delay in milliseconds. */
+    private long minHedgeDelay = DEFAULT_MIN_HEDGE_DELAY;
+
+    /** Maximum hedge delay in milliseconds. */
+    private long maxHedgeDelay = DEFAULT_MAX_HEDGE_DELAY;
+
+    /** Maximum fraction of searches that may be hedged. */
+    private double hedgeBudget = DEFAULT_HEDGE_BUDGET;
+
+    /** Runs searches. */
+    private volatile ExecutorService executor;
+
+    /** Whether the executor was created by this component. */
+    private boolean executorCreated;
+
+
+    /**
+     * Sets the source of connections for hedged searches.  Hedging is disabled if none is set.
+     *
+     * @param  factory  Connection factory, typically for a different replica than the primary factory.
+     */
+    public void setHedgeConnectionFactory(final ConnectionFactory factory) {
+        this.hedgeConnectionFactory = factory;
+    }
+
+
+    /**
+     * Sets the latency percentile after which a search is hedged.  The default is {@value #DEFAULT_HEDGE_PERCENTILE}.
+     *
+     * @param  percentile  Percentile between 0 and 100.
+     */
+    public void setHedgePercentile(final double percentile) {
+        this.hedgePercentile = percentile;
+    }
+
+
+    /**
+     * Sets the minimum hedge delay.  The default is {@value #DEFAULT_MIN_HEDGE_DELAY} milliseconds.
+     *
+     * @param  delay  Delay in milliseconds.
+     */
+    public void setMinHedgeDelay(final long delay) {
+        this.minHedgeDelay = delay;
+    }
+
+
+    /**
+     * Sets the maximum hedge delay, which is also used until enough search latencies have been recorded to derive
+     * the delay from them.  The default is {@value #DEFAULT_MAX_HEDGE_DELAY} milliseconds.
+     *
+     * @param  delay  Delay in milliseconds.
+     */
+    public void setMaxHedgeDelay(final long delay) {
+        this.maxHedgeDelay = delay;
+    }
+
+
+    /**
+     * Sets the maximum fraction of searches that may be hedged, e.g. 0.05 to add at most 5% to the search load.
+     * Short bursts of up to ten hedges are allowed.  The default is {@value #DEFAULT_HEDGE_BUDGET}.
+     *
+     * @param  budget  Fraction between 0 and 1.
+     */
+    public void setHedgeBudget(final double budget) {
+        this.hedgeBudget = budget;
+    }
+
+
+    /**
+     * Sets the executor that runs searches.  If none is set, one is created on first use and shut down by
+     * {@link #destroy()}.  An executor that is set remains owned by the caller and is not shut down.
+     *
+     * @param  executor  Executor service.
+     */
+    public void setExecutor(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+
+    /**
+     * Gets the latencies of searches sent to the primary connection factory.
+     *
+     * @return  Latency histogram.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+
+    /**
+     * Gets the number of searches performed while hedging was enabled.
+     *
+     * @return  Search count.
+     */
+    public long getSearchCount() {
+        return searchCount.get();
+    }
+
+
+    /**
+     * Gets the number of hedged searches sent.
+     *
+     * @return  Hedge count.
+     */
+    public long getHedgesSent() {
+        return hedgesSent.get();
+    }
+
+
+    /**
+     * Gets the number of hedged searches that answered before the original search.
+     *
+     * @return  Winning hedge count.
+     */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+
+    /**
+     * Gets the number of hedges that were not sent because the budget was exhausted.
+     *
+     * @return  Denied hedge count.
+     */
+    public long getHedgesDenied() {
+        return hedgesDenied.get();
+    }
+
+
+    /**
+     * Gets the current hedge delay.
+     *
+     * @return  Delay in milliseconds.
+     */
+    public long getHedgeDelay() {
+        if (latencies.getCount() < MIN_SAMPLES) {
+            return maxHedgeDelay;
+        }
+        final long delay = TimeUnit.NANOSECONDS.toMillis(latencies.getValueAtPercentile(hedgePercentile));
+        return Math.min(Math.max(delay, minHedgeDelay), maxHedgeDelay);
+    }
+
+
+    @Override
+    public Response<SearchResult> search(
+            final ConnectionFactory factory,
+            final SearchFilter filter,
+            final String[] attrs,
+            final SearchEntryHandler... handlers)
+            throws LdapException {
+
+        if (hedgeConnectionFactory == null) {
+            return searchOnce(factory, filter, attrs, handlers);
+        }
+        searchCount.incrementAndGet();
+        replenish();
+        final BlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+        final Attempt primary = new Attempt(factory, filter, attrs, handlers, completed, true);
+        try {
+            getExecutor().execute(primary);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Executor saturated; searching without hedging.");
+            return searchOnce(factory, filter, attrs, handlers);
+        }
+        Attempt hedge = null;
+        try {
+            Attempt first = completed.poll(getHedgeDelay(), TimeUnit.MILLISECONDS);
+            if (first == null) {
+                hedge = sendHedge(filter, attrs, handlers, completed);
+                first = completed.take();
+            }
+            if (first.failed() && hedge != null) {
+                // Prefer a success from the other search to the first failure
+                final Attempt second = completed.take();
+                if (!second.failed()) {
+                    first = second;
+                }
+            }
+            if (first == hedge && !first.failed()) {
+                hedgesWon.incrementAndGet();
+            }
+            return first.response();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LdapException("Interrupted waiting for search", e);
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::hedgeConnectionFactory=%s, hedgePercentile=%s, hedgeBudget=%s, searches=%s, hedgesSent=%s, " +
+                "hedgesWon=%s, hedgesDenied=%s, %s",
+                getClass().getName(),
+                hashCode(),
+                hedgeConnectionFactory,
+                hedgePercentile,
+                hedgeBudget,
+                searchCount,
+                hedgesSent,
+                hedgesWon,
+                hedgesDenied,
+                super.toString());
+    }
+
+
+    /**
+     * Performs a single search without hedging.
+     *
+     * @param  factory  Source of connections.
+     * @param  filter  Search filter.
+     * @param  attrs  Return attributes.
+     * @param  handlers  Search entry handlers.
+     *
+     * @return  Search response.
+     *
+     * @throws  LdapException  On search failure.
+     */
+    protected Response<SearchResult> searchOnce(
+            final ConnectionFactory factory,
+            final SearchFilter filter,
+            final String[] attrs,
+            final SearchEntryHandler... handlers)
+            throws LdapException {
+
+        return super.search(factory, filter, attrs, handlers);
+    }
+
+
+    /**
+     * Sends the search to the hedge connection factory if the budget allows.
+     *
+     * @param  filter  Search filter.
+     * @param  attrs  Return attributes.
+     * @param  handlers  Search entry handlers.
+     * @param  completed  Queue of completed searches.
+     *
+     * @return  Hedged search or null if none was sent.
+     */
+    private Attempt sendHedge(
+            final SearchFilter filter,
+            final String[] attrs,
+            final SearchEntryHandler[] handlers,
+            final BlockingQueue<Attempt> completed) {
+
+        if (!acquireToken()) {
+            hedgesDenied.incrementAndGet();
+            return null;
+        }
+        final Attempt hedge = new Attempt(hedgeConnectionFactory, filter, attrs, handlers, completed, false);
+        try {
+            getExecutor().execute(hedge);
+        } catch (RejectedExecutionException e) {
+            tokens.addAndGet(TOKEN);
+            return null;
+        }
+        hedgesSent.incrementAndGet();
+        logger.debug("Hedged search for {} after {}ms.", filter, getHedgeDelay());
+        return hedge;
+    }
+
+
+    /**
+     * Adds the budget earned by one search, up to the burst limit.
+     */
+    private void replenish() {
+        final long earned = (long) (hedgeBudget * TOKEN);
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= MAX_TOKENS) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(current + earned, MAX_TOKENS)));
+    }
+
+
+    /**
+     * Takes the budget for one hedge.
+     *
+     * @return  True if budget was available, false otherwise.
+     */
+    private boolean acquireToken() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+
+    /**
+     * Shuts down the search executor if it was created by this component.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        synchronized (this) {
+            if (executorCreated) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+
+    /**
+     * Gets the search executor, creating a default one if none was set.
+     *
+     * @return  Executor service.
+     */
+    private ExecutorService getExecutor() {
+        ExecutorService es = executor;
+        if (es == null) {
+            synchronized (this) {
+                es = executor;
+                if (es == null) {
+                    es = BoundedExecutors.newExecutor("ldap-hedge", DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+                    executor = es;
+                    executorCreated = true;
+                }
+            }
+        }
+        return es;
+    }
+
+
+    /**
+     * Records the latency of a primary search, periodically giving older latencies less weight.
+     *
+     * @param  nanos  Latency in nanoseconds.
+     */
+    private void recordLatency(final long nanos) {
+        latencies.record(nanos);
+        if (latencies.getCount() > SAMPLE_WINDOW) {
+            latencies.decay();
+        }
+    }
+
+
+    /** One of the searches of a hedged request. */
+    private final class Attempt extends FutureTask<Response<SearchResult>> {
+
+        /** Search performed by this attempt. */
+        private final SearchCall search;
+
+        /** Queue to which this search adds itself on completion. */
+        private final BlockingQueue<Attempt> completed;
+
+        /** Whether this is the original search, whose latency is recorded. */
+        private final boolean primary;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  factory  Source of connections.
+         * @param  filter  Search filter.
+         * @param  attrs  Return attributes.
+         * @param  handlers  Search entry handlers.
+         * @param  completed  Queue of completed searches.
+         * @param  primary  True if this is the original search, whose latency is recorded.
+         */
+        Attempt(
+                final ConnectionFactory factory,
+                final SearchFilter filter,
+                final String[] attrs,
+                final SearchEntryHandler[] handlers,
+                final BlockingQueue<Attempt> completed,
+                final boolean primary) {
+
+            this(new SearchCall(factory, filter, attrs, handlers), completed, primary);
+        }
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  search  Search to perform.
+         * @param  completed  Queue of completed searches.
+         * @param  primary  True if this is the original search, whose latency is recorded.
+         */
+        private Attempt(final SearchCall search, final BlockingQueue<Attempt> completed, final boolean primary) {
+            super(search);
+            this.search = search;
+            this.completed = completed;
+            this.primary = primary;
+        }
+
+
+        @Override
+        protected void done() {
+            // A primary that fails or is cancelled took at least this long, so slow primaries still raise the delay
+            if (primary && search.started) {
+                recordLatency(System.nanoTime() - search.start);
+            }
+            completed.offer(this);
+        }
+
+
+        /**
+         * Determines whether this search failed.  Must only be called once done.
+         *
+         * @return  True if the search threw an exception or was cancelled.
+         */
+        boolean failed() {
+            try {
+                get();
+                return false;
+            } catch (Exception e) {
+                return true;
+            }
+        }
+
+
+        /**
+         * Gets the response of this search.  Must only be called once done.
+         *
+         * @return  Search response.
+         *
+         * @throws  LdapException  If the search failed.
+         */
+        Response<SearchResult> response() throws LdapException {
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LdapException("Interrupted waiting for search", e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof LdapException) {
+                    throw (LdapException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new LdapException("Search failed", e);
+            }
+        }
+    }
+
+
+    /** Performs a search and notes when it started. */
+    private final class SearchCall implements Callable<Response<SearchResult>> {
+
+        /** Source of connections. */
+        private final ConnectionFactory factory;
+
+        /** Search filter. */
+        private final SearchFilter filter;
+
+        /** Return attributes. */
+        private final String[] attrs;
+
+        /** Search entry handlers. */
+        private final SearchEntryHandler[] handlers;
+
+        /** Whether the search has started. */
+        private volatile boolean started;
+
+        /** Start time as returned by {@link System#nanoTime()}; valid once started. */
+        private volatile long start;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  factory  Source of connections.
+         * @param  filter  Search filter.
+         * @param  attrs  Return attributes.
+         * @param  handlers  Search entry handlers.
+         */
+        SearchCall(
+                final ConnectionFactory factory,
+                final SearchFilter filter,
+                final String[] attrs,
+                final SearchEntryHandler[] handlers) {
+
+            this.factory = factory;
+            this.filter = filter;
+            this.attrs = attrs;
+            this.handlers = handlers;
+        }
+
+
+        @Override
+        public Response<SearchResult> call() throws LdapException {
+            start = System.nanoTime();
+            started = true;
+            return searchOnce(factory, filter, attrs, handlers);
+        }
+    }
+}
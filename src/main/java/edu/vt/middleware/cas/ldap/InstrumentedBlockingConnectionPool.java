@@ -0,0 +1,302 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.vt.middleware.cas.util.LatencyHistogram;
+import org.ldaptive.Connection;
+import org.ldaptive.DefaultConnectionFactory;
+import org.ldaptive.pool.BlockingConnectionPool;
+import org.ldaptive.pool.BlockingTimeoutException;
+import org.ldaptive.pool.PoolConfig;
+import org.ldaptive.pool.PoolException;
+import org.ldaptive.pool.PooledConnectionProxy;
+
+/**
+ * Blocking connection pool that records how it is used: the time threads wait to check out a connection, how often
+ * the pool is exhausted and checkouts time out after {@link #getBlockWaitTime()}, and how many connections are created,
+ * destroyed, pruned and fail validation.  These statistics show whether the maximum pool size fits the load; use
+ * {@link #getStatistics()} to take a snapshot.
+ * <p>
+ * The pool configuration is copied into a {@link ResizablePoolConfig} when it is set, so that pools sharing one
+ * configuration bean may be resized independently with {@link #resize(int)}, e.g. by
+ * {@link edu.vt.middleware.cas.monitor.AdaptivePoolController}.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class InstrumentedBlockingConnectionPool extends BlockingConnectionPool {
+
+    /** Time taken by successful checkouts. */
+    private final LatencyHistogram checkoutWait = new LatencyHistogram();
+
+    /** Number of successful checkouts. */
+    private final AtomicLong checkoutCount = new AtomicLong();
+
+    /** Number of checkouts that found the pool at its maximum size and had to block. */
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    /** Number of checkouts that timed out while blocked. */
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /** Number of checkouts that failed for any other reason. */
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /** Number of connections created. */
+    private final AtomicLong createdCount = new AtomicLong();
+
+    /** Number of connections that could not be created. */
+    private final AtomicLong createFailedCount = new AtomicLong();
+
+    /** Number of connections destroyed, including pruned connections and those discarded on check in. */
+    private final AtomicLong destroyedCount = new AtomicLong();
+
+    /** Number of idle connections pruned. */
+    private final AtomicLong prunedCount = new AtomicLong();
+
+    /** Number of failed validations. */
+    private final AtomicLong validationFailedCount = new AtomicLong();
+
+    /** Total time taken by successful checkouts in nanoseconds. */
+    private final AtomicLong checkoutWaitTotal = new AtomicLong();
+
+
+    /**
+     * Creates a new instance.
+     */
+    public InstrumentedBlockingConnectionPool() {}
+
+
+    /**
+     * Creates a new instance with the default pool configuration.
+     *
+     * @param  factory  Source of connections.
+     */
+    public InstrumentedBlockingConnectionPool(final DefaultConnectionFactory factory) {
+        super(factory);
+    }
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  config  Pool configuration.
+     * @param  factory  Source of connections.
+     */
+    public InstrumentedBlockingConnectionPool(final PoolConfig config, final DefaultConnectionFactory factory) {
+        super(config, factory);
+    }
+
+
+    @Override
+    public Connection getConnection() throws PoolException {
+        final long start = System.nanoTime();
+        try {
+            final Connection conn = super.getConnection();
+            final long wait = System.nanoTime() - start;
+            checkoutWait.record(wait);
+            checkoutWaitTotal.addAndGet(wait);
+            checkoutCount.incrementAndGet();
+            return conn;
+        } catch (BlockingTimeoutException e) {
+            timeoutCount.incrementAndGet();
+            throw e;
+        } catch (PoolException e) {
+            failedCount.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Sets the pool configuration.  A copy is made unless it is already a {@link ResizablePoolConfig}.
+     *
+     * @param  config  Pool configuration.
+     */
+    @Override
+    public void setPoolConfig(final PoolConfig config) {
+        if (config == null || config instanceof ResizablePoolConfig) {
+            super.setPoolConfig(config);
+        } else {
+            super.setPoolConfig(new ResizablePoolConfig(config));
+        }
+    }
+
+
+    /**
+     * Changes the maximum size of this pool.  When shrinking, idle connections are closed until the pool fits the new
+     * size; if too many connections are checked out, the maximum is lowered only to the current number of
+     * connections.
+     *
+     * @param  maxPoolSize  Requested maximum number of connections, which must not be less than the minimum pool size.
+     *
+     * @return  Maximum pool size in effect after resizing.
+     */
+    public int resize(final int maxPoolSize) {
+        final ResizablePoolConfig config = (ResizablePoolConfig) getPoolConfig();
+        if (maxPoolSize < Math.max(config.getMinPoolSize(), 1)) {
+            throw new IllegalArgumentException("Maximum pool size cannot be less than " + config.getMinPoolSize());
+        }
+        // Hold the check out lock so that no connection is being created while the maximum changes
+        checkOutLock.lock();
+        try {
+            poolLock.lock();
+            try {
+                int size = available.size() + active.size();
+                while (size > maxPoolSize && !available.isEmpty()) {
+                    removeAvailableConnection(available.element());
+                    size--;
+                }
+                final int effective = Math.max(maxPoolSize, size);
+                config.setCurrentMaxPoolSize(effective);
+                return effective;
+            } finally {
+                poolLock.unlock();
+            }
+        } finally {
+            checkOutLock.unlock();
+        }
+    }
+
+
+    @Override
+    public void prune() {
+        poolLock.lock();
+        try {
+            final int before = availableCount();
+            super.prune();
+            final int pruned = before - availableCount();
+            if (pruned > 0) {
+                prunedCount.addAndGet(pruned);
+                destroyedCount.addAndGet(pruned);
+            }
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+
+    @Override
+    public boolean validate(final Connection conn) {
+        final boolean valid = super.validate(conn);
+        if (!valid) {
+            validationFailedCount.incrementAndGet();
+        }
+        return valid;
+    }
+
+
+    /**
+     * Gets a snapshot of the statistics of this pool.
+     *
+     * @return  Pool statistics.
+     */
+    public PoolStatistics getStatistics() {
+        return new PoolStatistics(
+                System.currentTimeMillis(),
+                getPoolConfig().getMaxPoolSize(),
+                availableCount(),
+                activeCount(),
+                checkoutCount.get(),
+                exhaustedCount.get(),
+                timeoutCount.get(),
+                failedCount.get(),
+                createdCount.get(),
+                createFailedCount.get(),
+                destroyedCount.get(),
+                prunedCount.get(),
+                validationFailedCount.get(),
+                checkoutWait.getValueAtPercentile(50),
+                checkoutWait.getValueAtPercentile(95),
+                checkoutWait.getValueAtPercentile(99),
+                checkoutWait.getMax());
+    }
+
+
+    /**
+     * Gets the total time taken by successful checkouts, which unlike {@link #getCheckoutWait()} never decays, so
+     * that the mean wait over an interval can be computed from two readings and the checkout counts.
+     *
+     * @return  Total checkout wait in nanoseconds.
+     */
+    public long getCheckoutWaitTotal() {
+        return checkoutWaitTotal.get();
+    }
+
+
+    /**
+     * Gets the histogram of the time taken by successful checkouts, including time spent blocked.
+     *
+     * @return  Checkout wait histogram.
+     */
+    public LatencyHistogram getCheckoutWait() {
+        return checkoutWait;
+    }
+
+
+    @Override
+    protected PooledConnectionProxy blockAvailableConnection() throws PoolException {
+        exhaustedCount.incrementAndGet();
+        return super.blockAvailableConnection();
+    }
+
+
+    @Override
+    protected PooledConnectionProxy createConnection() {
+        final PooledConnectionProxy pc = super.createConnection();
+        if (pc != null) {
+            createdCount.incrementAndGet();
+        } else {
+            createFailedCount.incrementAndGet();
+        }
+        return pc;
+    }
+
+
+    @Override
+    protected boolean validateAndPassivateConnection(final PooledConnectionProxy pc) {
+        final boolean valid = super.validateAndPassivateConnection(pc);
+        if (!valid) {
+            // The pool discards connections that are closed or fail validation on check in
+            destroyedCount.incrementAndGet();
+        }
+        return valid;
+    }
+
+
+    @Override
+    protected void removeAvailableConnection(final PooledConnectionProxy pc) {
+        super.removeAvailableConnection(pc);
+        destroyedCount.incrementAndGet();
+    }
+
+
+    @Override
+    protected void removeActiveConnection(final PooledConnectionProxy pc) {
+        super.removeActiveConnection(pc);
+        destroyedCount.incrementAndGet();
+    }
+
+
+    @Override
+    protected void removeAvailableAndActiveConnection(final PooledConnectionProxy pc) {
+        super.removeAvailableAndActiveConnection(pc);
+        destroyedCount.incrementAndGet();
+    }
+}
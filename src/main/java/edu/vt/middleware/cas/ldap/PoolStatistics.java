@@ -0,0 +1,331 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+/**
+ * Snapshot of the statistics of an {@link InstrumentedBlockingConnectionPool}.  Counts are cumulative since the pool
+ * was created; rates follow from the difference between two snapshots.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class PoolStatistics {
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Time the snapshot was taken in milliseconds since the epoch. */
+    private final long timestamp;
+
+    /** Maximum pool size. */
+    private final int maxPoolSize;
+
+    /** Number of idle connections. */
+    private final int availableCount;
+
+    /** Number of checked out connections. */
+    private final int activeCount;
+
+    /** Number of successful checkouts. */
+    private final long checkoutCount;
+
+    /** Number of checkouts that blocked because the pool was exhausted. */
+    private final long exhaustedCount;
+
+    /** Number of checkouts that timed out. */
+    private final long timeoutCount;
+
+    /** Number of checkouts that failed for other reasons. */
+    private final long failedCount;
+
+    /** Number of connections created. */
+    private final long createdCount;
+
+    /** Number of connections that could not be created. */
+    private final long createFailedCount;
+
+    /** Number of connections destroyed. */
+    private final long destroyedCount;
+
+    /** Number of idle connections pruned. */
+    private final long prunedCount;
+
+    /** Number of failed validations. */
+    private final long validationFailedCount;
+
+    /** Median checkout wait in nanoseconds. */
+    private final long waitP50;
+
+    /** 95th percentile checkout wait in nanoseconds. */
+    private final long waitP95;
+
+    /** 99th percentile checkout wait in nanoseconds. */
+    private final long waitP99;
+
+    /** Maximum checkout wait in nanoseconds. */
+    private final long waitMax;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  timestamp  Time the snapshot was taken in milliseconds since the epoch.
+     * @param  maxPoolSize  Maximum pool size.
+     * @param  availableCount  Number of idle connections.
+     * @param  activeCount  Number of checked out connections.
+     * @param  checkoutCount  Number of successful checkouts.
+     * @param  exhaustedCount  Number of checkouts that blocked because the pool was exhausted.
+     * @param  timeoutCount  Number of checkouts that timed out.
+     * @param  failedCount  Number of checkouts that failed for other reasons.
+     * @param  createdCount  Number of connections created.
+     * @param  createFailedCount  Number of connections that could not be created.
+     * @param  destroyedCount  Number of connections destroyed.
+     * @param  prunedCount  Number of idle connections pruned.
+     * @param  validationFailedCount  Number of failed validations.
+     * @param  waitP50  Median checkout wait in nanoseconds.
+     * @param  waitP95  95th percentile checkout wait in nanoseconds.
+     * @param  waitP99  99th percentile checkout wait in nanoseconds.
+     * @param  waitMax  Maximum checkout wait in nanoseconds.
+     */
+    public PoolStatistics(
+            final long timestamp,
+            final int maxPoolSize,
+            final int availableCount,
+            final int activeCount,
+            final long checkoutCount,
+            final long exhaustedCount,
+            final long timeoutCount,
+            final long failedCount,
+            final long createdCount,
+            final long createFailedCount,
+            final long destroyedCount,
+            final long prunedCount,
+            final long validationFailedCount,
+            final long waitP50,
+            final long waitP95,
+            final long waitP99,
+            final long waitMax) {
+
+        this.timestamp = timestamp;
+        this.maxPoolSize = maxPoolSize;
+        this.availableCount = availableCount;
+        this.activeCount = activeCount;
+        this.checkoutCount = checkoutCount;
+        this.exhaustedCount = exhaustedCount;
+        this.timeoutCount = timeoutCount;
+        this.failedCount = failedCount;
+        this.createdCount = createdCount;
+        this.createFailedCount = createFailedCount;
+        this.destroyedCount = destroyedCount;
+        this.prunedCount = prunedCount;
+        this.validationFailedCount = validationFailedCount;
+        this.waitP50 = waitP50;
+        this.waitP95 = waitP95;
+        this.waitP99 = waitP99;
+        this.waitMax = waitMax;
+    }
+
+
+    /**
+     * Gets the time the snapshot was taken in milliseconds since the epoch.
+     *
+     * @return  Time the snapshot was taken in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
+    /**
+     * Gets the maximum pool size.
+     *
+     * @return  Maximum pool size.
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+
+    /**
+     * Gets the number of idle connections.
+     *
+     * @return  Number of idle connections.
+     */
+    public int getAvailableCount() {
+        return availableCount;
+    }
+
+
+    /**
+     * Gets the number of checked out connections.
+     *
+     * @return  Number of checked out connections.
+     */
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+
+    /**
+     * Gets the number of successful checkouts.
+     *
+     * @return  Number of successful checkouts.
+     */
+    public long getCheckoutCount() {
+        return checkoutCount;
+    }
+
+
+    /**
+     * Gets the number of checkouts that blocked because the pool was at its maximum size.
+     *
+     * @return  Number of checkouts that blocked because the pool was at its maximum size.
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount;
+    }
+
+
+    /**
+     * Gets the number of checkouts that timed out while blocked.
+     *
+     * @return  Number of checkouts that timed out while blocked.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+
+    /**
+     * Gets the number of checkouts that failed for reasons other than a timeout.
+     *
+     * @return  Number of checkouts that failed for reasons other than a timeout.
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+
+    /**
+     * Gets the number of connections created.
+     *
+     * @return  Number of connections created.
+     */
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+
+    /**
+     * Gets the number of connections that could not be created.
+     *
+     * @return  Number of connections that could not be created.
+     */
+    public long getCreateFailedCount() {
+        return createFailedCount;
+    }
+
+
+    /**
+     * Gets the number of connections destroyed, including pruned connections.
+     *
+     * @return  Number of connections destroyed, including pruned connections.
+     */
+    public long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+
+    /**
+     * Gets the number of idle connections pruned.
+     *
+     * @return  Number of idle connections pruned.
+     */
+    public long getPrunedCount() {
+        return prunedCount;
+    }
+
+
+    /**
+     * Gets the number of failed validations.
+     *
+     * @return  Number of failed validations.
+     */
+    public long getValidationFailedCount() {
+        return validationFailedCount;
+    }
+
+
+    /**
+     * Gets the median checkout wait in milliseconds.
+     *
+     * @return  Median checkout wait in milliseconds.
+     */
+    public double getWaitP50() {
+        return waitP50 / NANOS_PER_MILLI;
+    }
+
+
+    /**
+     * Gets the 95th percentile checkout wait in milliseconds.
+     *
+     * @return  95th percentile checkout wait in milliseconds.
+     */
+    public double getWaitP95() {
+        return waitP95 / NANOS_PER_MILLI;
+    }
+
+
+    /**
+     * Gets the 99th percentile checkout wait in milliseconds.
+     *
+     * @return  99th percentile checkout wait in milliseconds.
+     */
+    public double getWaitP99() {
+        return waitP99 / NANOS_PER_MILLI;
+    }
+
+
+    /**
+     * Gets the maximum checkout wait in milliseconds.
+     *
+     * @return  Maximum checkout wait in milliseconds.
+     */
+    public double getWaitMax() {
+        return waitMax / NANOS_PER_MILLI;
+    }
+
+
+    /**
+     * Gets the fraction of checkouts that had to block because the pool was exhausted.
+     *
+     * @return  Exhaustion ratio between 0 and 1.
+     */
+    public double getExhaustedRatio() {
+        final long attempts = checkoutCount + timeoutCount + failedCount;
+        return attempts > 0 ? (double) exhaustedCount / attempts : 0;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "max=%s available=%s active=%s checkouts=%s exhausted=%s timeouts=%s failed=%s created=%s "
+                        + "createFailed=%s destroyed=%s pruned=%s validationFailed=%s "
+                        + "wait p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                maxPoolSize, availableCount, activeCount, checkoutCount, exhaustedCount, timeoutCount, failedCount,
+                createdCount, createFailedCount, destroyedCount, prunedCount, validationFailedCount,
+                getWaitP50(), getWaitP95(), getWaitP99(), getWaitMax());
+    }
+}
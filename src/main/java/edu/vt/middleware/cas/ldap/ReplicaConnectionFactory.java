@@ -0,0 +1,570 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.validation.constraints.NotNull;
+
+import edu.vt.middleware.cas.monitor.ConnectionFactoryMonitor;
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import org.jasig.cas.monitor.StatusCode;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapException;
+import org.ldaptive.pool.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Connection factory that distributes connections among several directory replicas, each represented by its own
+ * {@link ConnectionFactory}, which may be a {@link org.ldaptive.pool.PooledConnectionFactory}.  Each connection is
+ * obtained from the replica with the lowest score, where the score of a replica is the exponentially weighted moving
+ * average of the time its connections are held, i.e. the latency of the operations performed on them, multiplied by
+ * one more than the number of its connections currently in use.  Fast, idle replicas therefore receive most of the
+ * load, while a replica that slows down sheds load to the others as its score rises.  Since the average of a replica
+ * only changes when it serves connections, the average of an idle replica is halved every
+ * {@link #setIdleHalfLife(long)} milliseconds when computing its score, so a replica that was slow is eventually tried
+ * again and its average is refreshed.
+ * <p>
+ * Replicas are ejected from routing when a periodic {@link ConnectionFactoryMonitor} probe fails or when
+ * {@link #setFailureThreshold(int)} consecutive attempts to obtain or open a connection fail, and are restored when a
+ * probe succeeds.  If every replica has been ejected, all replicas are used.  A failure to obtain a connection from
+ * one replica is retried on the next best replica.
+ * </p>
+ * <p>
+ * Consumers that require a {@link org.ldaptive.pool.PooledConnectionFactory}, such as
+ * <code>PooledSearchDnResolver</code> and <code>PooledBindAuthenticationHandler</code>, use a factory built from a
+ * {@link ReplicaConnectionPool} over this instance.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ReplicaConnectionFactory implements ConnectionFactory, InitializingBean, DisposableBean {
+
+    /** Default weight of the most recent latency sample in the moving average. */
+    public static final double DEFAULT_DECAY = 0.2;
+
+    /** Default number of consecutive connection failures after which a replica is ejected. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    /** Default health probe interval in milliseconds. */
+    public static final long DEFAULT_PROBE_INTERVAL = 30000;
+
+    /** Default time in milliseconds after which the average latency of an idle replica counts half. */
+    public static final long DEFAULT_IDLE_HALF_LIFE = 10000;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Replicas in configuration order. */
+    @NotNull
+    private final List<Replica> replicas;
+
+    /** Rotates the starting point of the replica scan so ties are broken evenly. */
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    /** Weight of the most recent latency sample in the moving average. */
+    private double decay = DEFAULT_DECAY;
+
+    /** Time in nanoseconds after which the average latency of an idle replica counts half. */
+    private long idleHalfLife = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_HALF_LIFE);
+
+    /** Number of consecutive connection failures after which a replica is ejected. */
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    /** Validates connections of health probes; probes are disabled if null. */
+    private Validator<Connection> validator;
+
+    /** Health probe interval in milliseconds. */
+    private long probeInterval = DEFAULT_PROBE_INTERVAL;
+
+    /** Runs health probes. */
+    private ScheduledExecutorService scheduler;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  factories  Connection factories, one per replica.
+     */
+    public ReplicaConnectionFactory(final List<ConnectionFactory> factories) {
+        final List<Replica> list = new ArrayList<Replica>(factories.size());
+        for (ConnectionFactory factory : factories) {
+            list.add(new Replica(factory));
+        }
+        this.replicas = Collections.unmodifiableList(list);
+    }
+
+
+    /**
+     * Sets the weight of the most recent latency sample in the moving average of each replica.  Higher values react
+     * faster to latency changes, lower values smooth out noise.  The default is {@value #DEFAULT_DECAY}.
+     *
+     * @param  decay  Weight between 0 exclusive and 1 inclusive.
+     */
+    public void setDecay(final double decay) {
+        this.decay = decay;
+    }
+
+
+    /**
+     * Sets the time after which the average latency of a replica that has not completed a connection counts half
+     * when computing its score; it counts a quarter after twice this time, and so on.  Shorter times retry slow
+     * replicas sooner, longer times keep load off them longer.  The default is {@value #DEFAULT_IDLE_HALF_LIFE}
+     * milliseconds.
+     *
+     * @param  halfLife  Half life in milliseconds; zero or less to disable decay of idle averages.
+     */
+    public void setIdleHalfLife(final long halfLife) {
+        this.idleHalfLife = TimeUnit.MILLISECONDS.toNanos(halfLife);
+    }
+
+
+    /**
+     * Sets the number of consecutive failures to obtain or open a connection after which a replica is ejected until
+     * its next successful health probe.  The default is {@value #DEFAULT_FAILURE_THRESHOLD}.
+     *
+     * @param  threshold  Consecutive failure count; zero or less to eject only on failed probes.
+     */
+    public void setFailureThreshold(final int threshold) {
+        this.failureThreshold = threshold;
+    }
+
+
+    /**
+     * Sets the validator used by health probes.  Each replica is probed by a {@link ConnectionFactoryMonitor} that uses
+     * this validator.  No probes are run by default.
+     *
+     * @param  validator  Connection validator.
+     */
+    public void setValidator(final Validator<Connection> validator) {
+        this.validator = validator;
+    }
+
+
+    /**
+     * Sets the interval between health probes.  The default is {@value #DEFAULT_PROBE_INTERVAL} milliseconds.
+     *
+     * @param  interval  Probe interval in milliseconds.
+     */
+    public void setProbeInterval(final long interval) {
+        this.probeInterval = interval;
+    }
+
+
+    /**
+     * Gets the replicas of this factory.
+     *
+     * @return  Immutable list of replicas in configuration order.
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notEmpty(replicas, "At least one replica is required.");
+        Assert.isTrue(decay > 0 && decay <= 1, "Decay must be greater than 0 and at most 1.");
+        if (validator != null && probeInterval > 0 && scheduler == null) {
+            for (Replica replica : replicas) {
+                replica.monitor = new ConnectionFactoryMonitor(replica.factory, validator);
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new BoundedExecutors.NamedThreadFactory("ldap-replica-probe"));
+            scheduler.scheduleWithFixedDelay(
+                    new Runnable() {
+                        public void run() {
+                            probe();
+                        }
+                    },
+                    0,
+                    probeInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    @Override
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Gets a connection from the replica with the lowest score, failing over to the next best replica if the
+     * connection cannot be obtained.
+     *
+     * @return  Connection that reports its latency to the replica when closed.
+     *
+     * @throws  LdapException  If no replica provides a connection.
+     */
+    @Override
+    public Connection getConnection() throws LdapException {
+        final List<Replica> tried = new ArrayList<Replica>(replicas.size());
+        LdapException lastError = null;
+        Replica replica;
+        while ((replica = select(tried)) != null) {
+            tried.add(replica);
+            final long start = System.nanoTime();
+            replica.outstanding.incrementAndGet();
+            try {
+                final Connection conn = replica.factory.getConnection();
+                return (Connection) Proxy.newProxyInstance(
+                        Connection.class.getClassLoader(),
+                        new Class<?>[] {Connection.class},
+                        new TimedConnection(conn, replica, start));
+            } catch (LdapException e) {
+                replica.outstanding.decrementAndGet();
+                recordFailure(replica, e);
+                lastError = e;
+            } catch (RuntimeException e) {
+                replica.outstanding.decrementAndGet();
+                throw e;
+            }
+        }
+        throw lastError;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::replicas=%s, decay=%s, idleHalfLife=%s, failureThreshold=%s, probeInterval=%s",
+                getClass().getName(),
+                hashCode(),
+                replicas,
+                decay,
+                TimeUnit.NANOSECONDS.toMillis(idleHalfLife),
+                failureThreshold,
+                probeInterval);
+    }
+
+
+    /**
+     * Selects the healthy replica with the lowest score that has not been tried, or the untried replica with the lowest
+     * score if no healthy replica remains untried and no replica is healthy.
+     *
+     * @param  tried  Replicas already tried for the current request.
+     *
+     * @return  Selected replica or null if all replicas have been tried.
+     */
+    private Replica select(final List<Replica> tried) {
+        final int size = replicas.size();
+        final int start = (nextStart.getAndIncrement() & Integer.MAX_VALUE) % size;
+        final long now = System.nanoTime();
+        Replica best = null;
+        double bestScore = 0;
+        double bestEjectedScore = 0;
+        Replica bestEjected = null;
+        boolean anyHealthy = false;
+        for (int i = 0; i < size; i++) {
+            final Replica candidate = replicas.get((start + i) % size);
+            if (candidate.healthy) {
+                anyHealthy = true;
+            }
+            if (tried.contains(candidate)) {
+                continue;
+            }
+            final double score = candidate.score(now, idleHalfLife);
+            if (candidate.healthy) {
+                if (best == null || score < bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            } else if (bestEjected == null || score < bestEjectedScore) {
+                bestEjected = candidate;
+                bestEjectedScore = score;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        // Fail open when every replica has been ejected; otherwise only healthy replicas are tried
+        return anyHealthy ? null : bestEjected;
+    }
+
+
+    /**
+     * Probes the health of every replica.
+     */
+    private void probe() {
+        for (Replica replica : replicas) {
+            try {
+                final long start = System.nanoTime();
+                final boolean ok = replica.monitor.probe().getCode() == StatusCode.OK;
+                if (ok) {
+                    replica.recordLatency(System.nanoTime() - start, decay);
+                    if (!replica.healthy) {
+                        logger.info("Restoring replica {} after successful probe.", replica);
+                    }
+                    replica.consecutiveFailures.set(0);
+                    replica.healthy = true;
+                } else {
+                    if (replica.healthy) {
+                        logger.warn("Ejecting replica {} after failed probe.", replica);
+                    }
+                    replica.healthy = false;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Probe of replica {} failed with error.", replica, e);
+                replica.healthy = false;
+            }
+        }
+    }
+
+
+    /**
+     * Records a failure to obtain or open a connection, ejecting the replica if the failure threshold is reached.
+     *
+     * @param  replica  Replica that failed.
+     * @param  e  Failure.
+     */
+    private void recordFailure(final Replica replica, final LdapException e) {
+        replica.failureCount.incrementAndGet();
+        final int failures = replica.consecutiveFailures.incrementAndGet();
+        logger.debug("Connection failure {} on replica {}.", new Object[] {failures, replica, e});
+        if (failureThreshold > 0 && failures >= failureThreshold && replica.healthy) {
+            logger.warn("Ejecting replica {} after {} consecutive connection failures.", replica, failures);
+            replica.healthy = false;
+        }
+    }
+
+
+    /** Routing state of a replica. */
+    public static final class Replica {
+
+        /** Source of connections to the replica. */
+        private final ConnectionFactory factory;
+
+        /** Number of connections currently in use. */
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /** Moving average latency in nanoseconds, stored as double bits; zero until the first sample. */
+        private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(0));
+
+        /** Time of the most recent latency sample in nanoseconds. */
+        private volatile long lastSample;
+
+        /** Number of connections obtained. */
+        private final AtomicLong connectionCount = new AtomicLong();
+
+        /** Number of failures to obtain or open a connection. */
+        private final AtomicLong failureCount = new AtomicLong();
+
+        /** Number of failures since the last success. */
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        /** Flag that indicates whether the replica is eligible for routing. */
+        private volatile boolean healthy = true;
+
+        /** Health probe. */
+        private volatile ConnectionFactoryMonitor monitor;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  factory  Source of connections to the replica.
+         */
+        Replica(final ConnectionFactory factory) {
+            this.factory = factory;
+        }
+
+
+        /**
+         * Gets the source of connections to the replica.
+         *
+         * @return  Connection factory.
+         */
+        public ConnectionFactory getConnectionFactory() {
+            return factory;
+        }
+
+
+        /**
+         * Determines whether the replica is eligible for routing.
+         *
+         * @return  True if healthy, false if ejected.
+         */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+
+        /**
+         * Gets the moving average time connections to the replica are held.
+         *
+         * @return  Latency in milliseconds.
+         */
+        public double getLatency() {
+            return Double.longBitsToDouble(latency.get()) / 1e6;
+        }
+
+
+        /**
+         * Gets the number of connections to the replica currently in use.
+         *
+         * @return  Outstanding connection count.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+
+        /**
+         * Gets the number of connections obtained from the replica.
+         *
+         * @return  Connection count.
+         */
+        public long getConnectionCount() {
+            return connectionCount.get();
+        }
+
+
+        /**
+         * Gets the number of failures to obtain or open a connection to the replica.
+         *
+         * @return  Failure count.
+         */
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "[%s, healthy=%s, latency=%.2fms, outstanding=%s]", factory, healthy, getLatency(), outstanding);
+        }
+
+
+        /**
+         * Computes the routing score of the replica; lower is better.
+         *
+         * @param  now  Current time in nanoseconds.
+         * @param  halfLife  Idle time in nanoseconds after which the average latency counts half; zero or less to
+         * use the average as is.
+         *
+         * @return  Score.
+         */
+        double score(final long now, final long halfLife) {
+            double average = Double.longBitsToDouble(latency.get());
+            final long idle = now - lastSample;
+            if (halfLife > 0 && idle > 0 && average > 0) {
+                average *= Math.pow(0.5, (double) idle / halfLife);
+            }
+            return average * (outstanding.get() + 1);
+        }
+
+
+        /**
+         * Adds a latency sample to the moving average.
+         *
+         * @param  nanos  Latency in nanoseconds.
+         * @param  decay  Weight of the sample.
+         */
+        void recordLatency(final long nanos, final double decay) {
+            long current;
+            double average;
+            do {
+                current = latency.get();
+                average = Double.longBitsToDouble(current);
+                average = average == 0 ? nanos : average + decay * (nanos - average);
+            } while (!latency.compareAndSet(current, Double.doubleToLongBits(average)));
+            lastSample = System.nanoTime();
+        }
+    }
+
+
+    /** Reports the latency and failures of a connection to its replica. */
+    private final class TimedConnection implements InvocationHandler {
+
+        /** Underlying connection. */
+        private final Connection connection;
+
+        /** Replica that provided the connection. */
+        private final Replica replica;
+
+        /** Time the connection was obtained in nanoseconds. */
+        private final long start;
+
+        /** Flag that indicates whether the connection has been released. */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  connection  Underlying connection.
+         * @param  replica  Replica that provided the connection.
+         * @param  start  Time the connection was obtained in nanoseconds.
+         */
+        TimedConnection(final Connection connection, final Replica replica, final long start) {
+            this.connection = connection;
+            this.replica = replica;
+            this.start = start;
+            replica.connectionCount.incrementAndGet();
+        }
+
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name) && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                final Object result = method.invoke(connection, args);
+                if (name.endsWith("open")) {
+                    replica.consecutiveFailures.set(0);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                final Throwable cause = e.getCause();
+                if (name.endsWith("open") && cause instanceof LdapException) {
+                    recordFailure(replica, (LdapException) cause);
+                }
+                throw cause;
+            } finally {
+                if ("close".equals(name) && released.compareAndSet(false, true)) {
+                    replica.outstanding.decrementAndGet();
+                    replica.recordLatency(System.nanoTime() - start, decay);
+                }
+            }
+        }
+    }
+}
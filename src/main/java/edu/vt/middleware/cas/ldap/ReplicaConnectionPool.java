@@ -0,0 +1,206 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapException;
+import org.ldaptive.pool.Activator;
+import org.ldaptive.pool.ConnectionPool;
+import org.ldaptive.pool.Passivator;
+import org.ldaptive.pool.PoolException;
+import org.ldaptive.pool.PooledConnectionFactory;
+import org.ldaptive.pool.PooledConnectionStatistics;
+import org.ldaptive.pool.Validator;
+
+/**
+ * Connection pool view of a {@link ReplicaConnectionFactory}, so that consumers that require a
+ * {@link PooledConnectionFactory}, such as <code>PooledSearchDnResolver</code> and
+ * <code>PooledBindAuthenticationHandler</code>, can route across replicas:
+ * <pre>
+ *   new PooledConnectionFactory(new ReplicaConnectionPool(replicaConnectionFactory))
+ * </pre>
+ * Each connection is checked out from the replica chosen by the factory and is returned to that replica when closed.
+ * The replicas are normally {@link PooledConnectionFactory} instances whose pools are configured, initialized and
+ * closed on their own; activation, passivation and validation are performed by those pools, so this pool neither
+ * accepts its own activator, passivator or validator nor initializes or closes the replica pools.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ReplicaConnectionPool implements ConnectionPool {
+
+    /** Routes checkouts across replicas. */
+    private final ReplicaConnectionFactory factory;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  factory  Replica connection factory that selects the replica of each checkout.
+     */
+    public ReplicaConnectionPool(final ReplicaConnectionFactory factory) {
+        this.factory = factory;
+    }
+
+
+    /**
+     * Gets the replica connection factory.
+     *
+     * @return  Factory that selects the replica of each checkout.
+     */
+    public ReplicaConnectionFactory getReplicaConnectionFactory() {
+        return factory;
+    }
+
+
+    @Override
+    public Activator<Connection> getActivator() {
+        return null;
+    }
+
+
+    @Override
+    public void setActivator(final Activator<Connection> activator) {
+        throw new UnsupportedOperationException("Configure the activator on the replica pools.");
+    }
+
+
+    @Override
+    public Passivator<Connection> getPassivator() {
+        return null;
+    }
+
+
+    @Override
+    public void setPassivator(final Passivator<Connection> passivator) {
+        throw new UnsupportedOperationException("Configure the passivator on the replica pools.");
+    }
+
+
+    @Override
+    public Validator<Connection> getValidator() {
+        return null;
+    }
+
+
+    @Override
+    public void setValidator(final Validator<Connection> validator) {
+        throw new UnsupportedOperationException("Configure the validator on the replica pools.");
+    }
+
+
+    /**
+     * Does nothing; the replica pools are initialized on their own.
+     */
+    @Override
+    public void initialize() {}
+
+
+    /**
+     * Checks out a connection from the replica with the lowest score, failing over to the next best replica.
+     *
+     * @return  Connection that is returned to its replica when closed.
+     *
+     * @throws  PoolException  If no replica provides a connection.
+     */
+    @Override
+    public Connection getConnection() throws PoolException {
+        try {
+            return factory.getConnection();
+        } catch (PoolException e) {
+            throw e;
+        } catch (LdapException e) {
+            throw new PoolException("Could not get a connection from any replica.", e);
+        }
+    }
+
+
+    /**
+     * Gets the number of connections available in the pools of all replicas.
+     *
+     * @return  Sum of the available counts of the replica pools.
+     */
+    @Override
+    public int availableCount() {
+        int count = 0;
+        for (ReplicaConnectionFactory.Replica replica : factory.getReplicas()) {
+            final ConnectionPool pool = poolOf(replica);
+            if (pool != null) {
+                count += pool.availableCount();
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Gets the number of connections checked out from the pools of all replicas.
+     *
+     * @return  Sum of the active counts of the replica pools.
+     */
+    @Override
+    public int activeCount() {
+        int count = 0;
+        for (ReplicaConnectionFactory.Replica replica : factory.getReplicas()) {
+            final ConnectionPool pool = poolOf(replica);
+            if (pool != null) {
+                count += pool.activeCount();
+            }
+        }
+        return count;
+    }
+
+
+    @Override
+    public Set<PooledConnectionStatistics> getPooledConnectionStatistics() {
+        final Set<PooledConnectionStatistics> stats = new HashSet<PooledConnectionStatistics>();
+        for (ReplicaConnectionFactory.Replica replica : factory.getReplicas()) {
+            final ConnectionPool pool = poolOf(replica);
+            if (pool != null) {
+                stats.addAll(pool.getPooledConnectionStatistics());
+            }
+        }
+        return stats;
+    }
+
+
+    /**
+     * Does nothing; the replica pools are closed on their own.
+     */
+    @Override
+    public void close() {}
+
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s::factory=%s", getClass().getName(), hashCode(), factory);
+    }
+
+
+    /**
+     * Gets the pool of a replica.
+     *
+     * @param  replica  Replica.
+     *
+     * @return  Pool of the replica or null if its connections are not pooled.
+     */
+    private static ConnectionPool poolOf(final ReplicaConnectionFactory.Replica replica) {
+        final ConnectionFactory cf = replica.getConnectionFactory();
+        return cf instanceof PooledConnectionFactory ? ((PooledConnectionFactory) cf).getConnectionPool() : null;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import org.ldaptive.pool.PoolConfig;
+
+/**
+ * Pool configuration whose maximum pool size may be changed after the pool has been initialized and the
+ * configuration made immutable.  Used by {@link InstrumentedBlockingConnectionPool#resize(int)}; the other settings
+ * remain fixed.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ResizablePoolConfig extends PoolConfig {
+
+    /** Maximum pool size set by resizing; zero until the pool is first resized. */
+    private volatile int currentMaxPoolSize;
+
+
+    /**
+     * Creates a new instance with default settings.
+     */
+    public ResizablePoolConfig() {}
+
+
+    /**
+     * Creates a new instance with the settings of the given configuration.
+     *
+     * @param  config  Configuration to copy.
+     */
+    public ResizablePoolConfig(final PoolConfig config) {
+        setMinPoolSize(config.getMinPoolSize());
+        setMaxPoolSize(config.getMaxPoolSize());
+        setValidateOnCheckIn(config.isValidateOnCheckIn());
+        setValidateOnCheckOut(config.isValidateOnCheckOut());
+        setValidatePeriodically(config.isValidatePeriodically());
+        setValidatePeriod(config.getValidatePeriod());
+    }
+
+
+    /**
+     * Gets the maximum pool size, which is the configured size until the pool is resized.
+     *
+     * @return  Maximum number of connections in the pool.
+     */
+    @Override
+    public int getMaxPoolSize() {
+        final int current = currentMaxPoolSize;
+        return current > 0 ? current : super.getMaxPoolSize();
+    }
+
+
+    /**
+     * Gets the maximum pool size that was configured before any resizing.
+     *
+     * @return  Configured maximum number of connections.
+     */
+    public int getConfiguredMaxPoolSize() {
+        return super.getMaxPoolSize();
+    }
+
+
+    /**
+     * Sets the maximum pool size regardless of whether this configuration is immutable.  The pool must hold its locks
+     * and contain no more connections than the new size.
+     *
+     * @param  size  Maximum number of connections in the pool.
+     */
+    void setCurrentMaxPoolSize(final int size) {
+        this.currentMaxPoolSize = size;
+    }
+}
@@ -0,0 +1,532 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.constraints.NotNull;
+
+import edu.vt.middleware.cas.ldap.InstrumentedBlockingConnectionPool;
+import edu.vt.middleware.cas.ldap.PoolStatistics;
+import edu.vt.middleware.cas.ldap.ResizablePoolConfig;
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import edu.vt.middleware.cas.util.LatencyHistogram;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Adjusts the maximum size of an {@link InstrumentedBlockingConnectionPool} between configured bounds according to
+ * how the pool is used.  Every sample interval the controller compares the pool statistics with the previous sample:
+ * <ul>
+ *   <li>The pool is under pressure if any checkout timed out, more than the grow exhausted ratio of checkouts had to
+ *   block, or the mean checkout wait exceeded the grow wait threshold.  After the grow samples number of consecutive
+ *   samples under pressure the pool grows by the grow step.</li>
+ *   <li>The pool is oversized if no checkout blocked and fewer than the shrink utilization fraction of its connections
+ *   were checked out.  After the shrink samples number of consecutive oversized samples the pool shrinks by the
+ *   shrink step.</li>
+ * </ul>
+ * Requiring more samples to shrink than to grow, and starting over after every decision, keeps the pool from
+ * oscillating.  If an operation in {@link OperationMetrics} is configured, the pool does not grow while the mean
+ * latency of that operation exceeds the maximum latency: the directory is then the bottleneck, and more connections
+ * would add load to it rather than shorten waits.
+ * <p>
+ * Every decision, including decisions not to grow, is logged at INFO and the most recent are kept for
+ * {@link #getDecisions()}.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AdaptivePoolController implements InitializingBean, DisposableBean {
+
+    /** Default sample interval in milliseconds. */
+    public static final long DEFAULT_SAMPLE_INTERVAL = 10000;
+
+    /** Default mean checkout wait in milliseconds above which the pool is under pressure. */
+    public static final double DEFAULT_GROW_WAIT_THRESHOLD = 10;
+
+    /** Default fraction of checkouts that blocked above which the pool is under pressure. */
+    public static final double DEFAULT_GROW_EXHAUSTED_RATIO = 0.05;
+
+    /** Default fraction of connections checked out below which the pool is oversized. */
+    public static final double DEFAULT_SHRINK_UTILIZATION = 0.5;
+
+    /** Default number of consecutive samples under pressure before growing. */
+    public static final int DEFAULT_GROW_SAMPLES = 2;
+
+    /** Default number of consecutive oversized samples before shrinking. */
+    public static final int DEFAULT_SHRINK_SAMPLES = 6;
+
+    /** Default number of connections added when growing. */
+    public static final int DEFAULT_GROW_STEP = 2;
+
+    /** Default number of connections removed when shrinking. */
+    public static final int DEFAULT_SHRINK_STEP = 1;
+
+    /** Number of decisions kept. */
+    private static final int HISTORY_SIZE = 100;
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Pool to resize. */
+    @NotNull
+    private final InstrumentedBlockingConnectionPool pool;
+
+    /** Name of the pool in decisions. */
+    private String name = "pool";
+
+    /** Smallest maximum pool size. */
+    private int minSize;
+
+    /** Largest maximum pool size. */
+    private int maxSize;
+
+    /** Interval between samples in milliseconds. */
+    private long sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+    /** Mean checkout wait in milliseconds above which the pool is under pressure. */
+    private double growWaitThreshold = DEFAULT_GROW_WAIT_THRESHOLD;
+
+    /** Fraction of checkouts that blocked above which the pool is under pressure. */
+    private double growExhaustedRatio = DEFAULT_GROW_EXHAUSTED_RATIO;
+
+    /** Fraction of connections checked out below which the pool is oversized. */
+    private double shrinkUtilization = DEFAULT_SHRINK_UTILIZATION;
+
+    /** Number of consecutive samples under pressure before growing. */
+    private int growSamples = DEFAULT_GROW_SAMPLES;
+
+    /** Number of consecutive oversized samples before shrinking. */
+    private int shrinkSamples = DEFAULT_SHRINK_SAMPLES;
+
+    /** Number of connections added when growing. */
+    private int growStep = DEFAULT_GROW_STEP;
+
+    /** Number of connections removed when shrinking. */
+    private int shrinkStep = DEFAULT_SHRINK_STEP;
+
+    /** Source of directory latency. */
+    private OperationMetrics metrics;
+
+    /** Operation whose latency indicates directory load. */
+    private String latencyOperation;
+
+    /** Mean latency of the latency operation in milliseconds above which the pool does not grow. */
+    private double maxLatency;
+
+    /** Takes samples. */
+    private ScheduledExecutorService scheduler;
+
+    /** Pool statistics at the previous sample. */
+    private PoolStatistics lastStatistics;
+
+    /** Total checkout wait at the previous sample. */
+    private long lastWaitTotal;
+
+    /** Count of the latency operation at the previous sample. */
+    private long lastLatencyCount;
+
+    /** Sum of the latency operation in nanoseconds at the previous sample. */
+    private double lastLatencySum;
+
+    /** Number of consecutive samples under pressure. */
+    private int growPressure;
+
+    /** Number of consecutive oversized samples. */
+    private int shrinkPressure;
+
+    /** Most recent decisions, oldest first. */
+    private final LinkedList<PoolResizeDecision> decisions = new LinkedList<PoolResizeDecision>();
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  pool  Pool to resize.
+     */
+    public AdaptivePoolController(final InstrumentedBlockingConnectionPool pool) {
+        this.pool = pool;
+    }
+
+
+    /**
+     * Sets the name of the pool used in decisions and logs.
+     *
+     * @param  name  Pool name.
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+
+    /**
+     * Sets the smallest maximum pool size.  The default is the minimum pool size of the pool configuration, and it
+     * cannot be less than that.
+     *
+     * @param  size  Number of connections.
+     */
+    public void setMinSize(final int size) {
+        this.minSize = size;
+    }
+
+
+    /**
+     * Sets the largest maximum pool size.  The default is the maximum pool size of the pool configuration.
+     *
+     * @param  size  Number of connections.
+     */
+    public void setMaxSize(final int size) {
+        this.maxSize = size;
+    }
+
+
+    /**
+     * Sets the interval between samples.  The default is {@value #DEFAULT_SAMPLE_INTERVAL}.
+     *
+     * @param  interval  Interval in milliseconds; a value that is not positive disables periodic sampling.
+     */
+    public void setSampleInterval(final long interval) {
+        this.sampleInterval = interval;
+    }
+
+
+    /**
+     * Sets the mean checkout wait above which the pool is under pressure.  The default is
+     * {@value #DEFAULT_GROW_WAIT_THRESHOLD}.
+     *
+     * @param  threshold  Wait in milliseconds.
+     */
+    public void setGrowWaitThreshold(final double threshold) {
+        this.growWaitThreshold = threshold;
+    }
+
+
+    /**
+     * Sets the fraction of checkouts that blocked above which the pool is under pressure.  The default is
+     * {@value #DEFAULT_GROW_EXHAUSTED_RATIO}.
+     *
+     * @param  ratio  Ratio between 0 and 1.
+     */
+    public void setGrowExhaustedRatio(final double ratio) {
+        this.growExhaustedRatio = ratio;
+    }
+
+
+    /**
+     * Sets the fraction of connections checked out below which the pool is oversized.  The default is
+     * {@value #DEFAULT_SHRINK_UTILIZATION}.
+     *
+     * @param  utilization  Utilization between 0 and 1.
+     */
+    public void setShrinkUtilization(final double utilization) {
+        this.shrinkUtilization = utilization;
+    }
+
+
+    /**
+     * Sets the number of consecutive samples under pressure before growing.  The default is
+     * {@value #DEFAULT_GROW_SAMPLES}.
+     *
+     * @param  samples  Number of samples.
+     */
+    public void setGrowSamples(final int samples) {
+        this.growSamples = samples;
+    }
+
+
+    /**
+     * Sets the number of consecutive oversized samples before shrinking.  The default is
+     * {@value #DEFAULT_SHRINK_SAMPLES}.
+     *
+     * @param  samples  Number of samples.
+     */
+    public void setShrinkSamples(final int samples) {
+        this.shrinkSamples = samples;
+    }
+
+
+    /**
+     * Sets the number of connections added when growing.  The default is {@value #DEFAULT_GROW_STEP}.
+     *
+     * @param  step  Number of connections.
+     */
+    public void setGrowStep(final int step) {
+        this.growStep = step;
+    }
+
+
+    /**
+     * Sets the number of connections removed when shrinking.  The default is {@value #DEFAULT_SHRINK_STEP}.
+     *
+     * @param  step  Number of connections.
+     */
+    public void setShrinkStep(final int step) {
+        this.shrinkStep = step;
+    }
+
+
+    /**
+     * Sets the metrics that hold the latency of the directory operation named by
+     * {@link #setLatencyOperation(String)}.
+     *
+     * @param  metrics  Operation metrics.
+     */
+    public void setMetrics(final OperationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Sets the operation whose mean latency over a sample interval indicates directory load, e.g.
+     * {@value edu.vt.middleware.cas.authentication.handler.LdapAuthenticationHandler#OP_BIND}.  Only successful
+     * operations are considered.
+     *
+     * @param  operation  Operation name.
+     */
+    public void setLatencyOperation(final String operation) {
+        this.latencyOperation = operation;
+    }
+
+
+    /**
+     * Sets the mean latency of the latency operation above which the pool does not grow.  Not set by default.
+     *
+     * @param  latency  Latency in milliseconds; zero for no limit.
+     */
+    public void setMaxLatency(final double latency) {
+        this.maxLatency = latency;
+    }
+
+
+    /**
+     * Checks the bounds, brings the pool within them and starts sampling.
+     *
+     * @throws  Exception  If the bounds are invalid.
+     */
+    public void afterPropertiesSet() throws Exception {
+        Assert.isInstanceOf(ResizablePoolConfig.class, pool.getPoolConfig(), "Pool configuration must be resizable.");
+        final ResizablePoolConfig config = (ResizablePoolConfig) pool.getPoolConfig();
+        if (minSize <= 0) {
+            minSize = Math.max(config.getMinPoolSize(), 1);
+        }
+        if (maxSize <= 0) {
+            maxSize = config.getConfiguredMaxPoolSize();
+        }
+        Assert.isTrue(minSize >= config.getMinPoolSize(), "minSize cannot be less than the minimum pool size.");
+        Assert.isTrue(minSize <= maxSize, "minSize cannot be greater than maxSize.");
+        final int size = config.getMaxPoolSize();
+        if (size < minSize || size > maxSize) {
+            final int target = Math.min(Math.max(size, minSize), maxSize);
+            record(size, target, pool.resize(target), "outside bounds " + minSize + ".." + maxSize);
+        }
+        if (sampleInterval > 0 && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new BoundedExecutors.NamedThreadFactory("ldap-pool-controller"));
+            scheduler.scheduleWithFixedDelay(
+                    new Runnable() {
+                        public void run() {
+                            try {
+                                sample();
+                            } catch (RuntimeException e) {
+                                logger.warn("Error sampling pool {}.", name, e);
+                            }
+                        }
+                    },
+                    sampleInterval,
+                    sampleInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Stops sampling.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Gets the most recent decisions.
+     *
+     * @return  Decisions, oldest first.
+     */
+    public List<PoolResizeDecision> getDecisions() {
+        synchronized (decisions) {
+            return new ArrayList<PoolResizeDecision>(decisions);
+        }
+    }
+
+
+    /**
+     * Gets the most recent decision.
+     *
+     * @return  Decision or null if none has been made.
+     */
+    public PoolResizeDecision getLastDecision() {
+        synchronized (decisions) {
+            return decisions.isEmpty() ? null : decisions.getLast();
+        }
+    }
+
+
+    /**
+     * Gets the current maximum pool size.
+     *
+     * @return  Current maximum pool size.
+     */
+    public int getSize() {
+        return pool.getPoolConfig().getMaxPoolSize();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::name=%s, size=%s, minSize=%s, maxSize=%s, sampleInterval=%s",
+                getClass().getName(),
+                hashCode(),
+                name,
+                getSize(),
+                minSize,
+                maxSize,
+                sampleInterval);
+    }
+
+
+    /**
+     * Samples the pool and resizes it if warranted.
+     *
+     * @return  Decision made or null if the size was left alone.
+     */
+    synchronized PoolResizeDecision sample() {
+        final PoolStatistics current = pool.getStatistics();
+        final long waitTotal = pool.getCheckoutWaitTotal();
+        final PoolStatistics previous = lastStatistics;
+        final long previousWaitTotal = lastWaitTotal;
+        lastStatistics = current;
+        lastWaitTotal = waitTotal;
+        final double latency = sampleLatency();
+        if (previous == null) {
+            return null;
+        }
+        final long checkouts = current.getCheckoutCount() - previous.getCheckoutCount();
+        final long exhausted = current.getExhaustedCount() - previous.getExhaustedCount();
+        final long timeouts = current.getTimeoutCount() - previous.getTimeoutCount();
+        final double exhaustedRatio = checkouts + timeouts > 0 ? (double) exhausted / (checkouts + timeouts) : 0;
+        final double wait = checkouts > 0 ? (waitTotal - previousWaitTotal) / NANOS_PER_MILLI / checkouts : 0;
+        final int size = current.getMaxPoolSize();
+        final double utilization = (double) current.getActiveCount() / size;
+        final String observed = String.format(
+                "wait=%.1fms exhausted=%.1f%% timeouts=%s utilization=%.0f%% latency=%.1fms",
+                wait, exhaustedRatio * 100, timeouts, utilization * 100, latency);
+        logger.debug("Sampled pool {}: {}", name, observed);
+
+        if (timeouts > 0 || exhaustedRatio > growExhaustedRatio || wait > growWaitThreshold) {
+            shrinkPressure = 0;
+            if (size >= maxSize || ++growPressure < growSamples) {
+                return null;
+            }
+            growPressure = 0;
+            if (maxLatency > 0 && latency > maxLatency) {
+                return record(size, size, size, observed + "; directory latency above " + maxLatency + "ms");
+            }
+            final int target = Math.min(size + growStep, maxSize);
+            return record(size, target, pool.resize(target), observed);
+        }
+        growPressure = 0;
+        if (exhausted == 0 && utilization < shrinkUtilization) {
+            if (size <= minSize || ++shrinkPressure < shrinkSamples) {
+                return null;
+            }
+            shrinkPressure = 0;
+            final int target = Math.max(size - shrinkStep, minSize);
+            return record(size, target, pool.resize(target), observed);
+        }
+        shrinkPressure = 0;
+        return null;
+    }
+
+
+    /**
+     * Computes the mean latency of the latency operation since the previous sample.
+     *
+     * @return  Mean latency in milliseconds, or zero if unknown.
+     */
+    private double sampleLatency() {
+        if (metrics == null || latencyOperation == null) {
+            return 0;
+        }
+        final LatencyHistogram histogram = metrics.getHistogram(latencyOperation, Outcome.SUCCESS);
+        if (histogram == null) {
+            return 0;
+        }
+        final long count = histogram.getTotalCount();
+        final double sum = histogram.getTotalNanos();
+        final long previousCount = lastLatencyCount;
+        final double previousSum = lastLatencySum;
+        lastLatencyCount = count;
+        lastLatencySum = sum;
+        // Totals fall when the histogram is reset
+        if (count <= previousCount || sum < previousSum) {
+            return 0;
+        }
+        return (sum - previousSum) / (count - previousCount) / NANOS_PER_MILLI;
+    }
+
+
+    /**
+     * Logs and keeps a decision.
+     *
+     * @param  previousSize  Maximum pool size before the decision.
+     * @param  requestedSize  Maximum pool size requested.
+     * @param  size  Maximum pool size in effect after the decision.
+     * @param  reason  Observations that led to the decision.
+     *
+     * @return  Decision.
+     */
+    private PoolResizeDecision record(
+            final int previousSize, final int requestedSize, final int size, final String reason) {
+
+        final PoolResizeDecision decision = new PoolResizeDecision(
+                System.currentTimeMillis(), name, previousSize, requestedSize, size, reason);
+        logger.info("Pool resize decision: {}", decision);
+        synchronized (decisions) {
+            decisions.addLast(decision);
+            if (decisions.size() > HISTORY_SIZE) {
+                decisions.removeFirst();
+            }
+        }
+        return decision;
+    }
+}
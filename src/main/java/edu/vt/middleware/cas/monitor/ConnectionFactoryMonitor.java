@@ -13,6 +13,11 @@
 */
 package edu.vt.middleware.cas.monitor;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.vt.middleware.cas.util.BoundedExecutors;
 import org.jasig.cas.monitor.AbstractNamedMonitor;
 import org.jasig.cas.monitor.Status;
 import org.jasig.cas.monitor.StatusCode;
@@ -22,21 +27,33 @@ import org.ldaptive.LdapException;
 import org.ldaptive.pool.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 
 /**
  * Monitors an ldaptive {@link ConnectionFactory}.  While this class can be used with instances of
  * {@link org.ldaptive.pool.PooledConnectionFactory}, the {@link PooledConnectionFactoryMonitor} class is preferable.
+ * <p>
+ * Each probe opens a new connection, so once initialized the monitor probes on a background thread every
+ * {@link #setProbeInterval(long) probe interval} and {@link #observe()} returns the most recent result as a
+ * {@link ProbeStatus} without blocking.  A result that is older than three probe intervals, such as when a probe hangs,
+ * is reported as {@link StatusCode#WARN}.  If the monitor is not initialized or the interval is not positive, every
+ * call to {@link #observe()} runs a probe.
+ * </p>
  *
  * @author Middleware Services
  * @version $Revision: $
  */
-public class ConnectionFactoryMonitor extends AbstractNamedMonitor<Status> {
+public class ConnectionFactoryMonitor extends AbstractNamedMonitor<Status> implements InitializingBean, DisposableBean {
+
+    /** Default probe interval in milliseconds. */
+    public static final long DEFAULT_PROBE_INTERVAL = 10000;
 
-    /** OK status. */
-    private static final Status OK = new Status(StatusCode.OK);
+    /** Number of probe intervals after which a result is stale. */
+    private static final int STALE_INTERVALS = 3;
 
-    /** Error status. */
-    private static final Status ERROR = new Status(StatusCode.ERROR);
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
 
     /** Logger instance. */
     private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -47,6 +64,15 @@ public class ConnectionFactoryMonitor extends AbstractNamedMonitor<Status> {
     /** Connection validator. */
     private final Validator<Connection> validator;
 
+    /** Probe interval in milliseconds. */
+    private long probeInterval = DEFAULT_PROBE_INTERVAL;
+
+    /** Runs probes in the background. */
+    private ScheduledExecutorService scheduler;
+
+    /** Result of the most recent probe. */
+    private volatile ProbeStatus lastStatus;
+
 
     /**
      * Creates a new instance that monitors the given connection factory.
@@ -61,25 +87,117 @@ public class ConnectionFactoryMonitor extends AbstractNamedMonitor<Status> {
 
 
     /**
-     * Gets a connection from the underlying connection factory and attempts to validate it.
+     * Sets the interval between background probes.  The default is {@value #DEFAULT_PROBE_INTERVAL}.
      *
-     * @return  Status with code {@link StatusCode#OK} on success otherwise {@link StatusCode#ERROR}.
+     * @param  interval  Probe interval in milliseconds; a value that is not positive disables background probes.
+     */
+    public void setProbeInterval(final long interval) {
+        this.probeInterval = interval;
+    }
+
+
+    /**
+     * Starts background probes; the first probe runs immediately.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void afterPropertiesSet() throws Exception {
+        if (probeInterval > 0 && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new BoundedExecutors.NamedThreadFactory("ldap-monitor-probe"));
+            scheduler.scheduleWithFixedDelay(
+                    new Runnable() {
+                        public void run() {
+                            try {
+                                probe();
+                            } catch (RuntimeException e) {
+                                logger.warn("Probe failed with unexpected error.", e);
+                            }
+                        }
+                    },
+                    0,
+                    probeInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Stops background probes.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Returns the result of the most recent background probe, with its age and the time the probe took.  Returns
+     * {@link StatusCode#UNKNOWN} until the first probe completes.  Runs a probe if background probes are not enabled.
+     *
+     * @return  Status with code {@link StatusCode#OK} if the probe succeeded otherwise {@link StatusCode#ERROR}.
      */
     public Status observe() {
+        if (scheduler == null) {
+            return probe();
+        }
+        final ProbeStatus status = lastStatus;
+        if (status == null) {
+            return new Status(StatusCode.UNKNOWN, "Awaiting first probe.");
+        }
+        final long age = Math.max(System.currentTimeMillis() - status.getProbeTime(), 0);
+        final StringBuilder description = new StringBuilder();
+        description.append(String.format("Probed %sms ago in %.1fms", age, status.getLatency()));
+        if (status.getDescription() != null) {
+            description.append(": ").append(status.getDescription());
+        }
+        StatusCode code = status.getCode();
+        if (age > STALE_INTERVALS * probeInterval && code == StatusCode.OK) {
+            code = StatusCode.WARN;
+            description.append(" (stale)");
+        }
+        return new ProbeStatus(code, description.toString(), status.getProbeTime(), age, status.getLatency());
+    }
+
+
+    /**
+     * Gets a connection from the underlying connection factory and attempts to validate it.  The result becomes the
+     * status returned by {@link #observe()}.
+     *
+     * @return  Status with code {@link StatusCode#OK} on success otherwise {@link StatusCode#ERROR}.
+     */
+    public ProbeStatus probe() {
+        final long start = System.nanoTime();
+        StatusCode code = StatusCode.ERROR;
+        String description = null;
         Connection conn = null;
         try {
             conn = connectionFactory.getConnection();
             if (!conn.isOpen()) {
                 conn.open();
             }
-            return validator.validate(conn) ? OK : ERROR;
+            if (validator.validate(conn)) {
+                code = StatusCode.OK;
+            } else {
+                description = "Validation failed.";
+            }
         } catch (LdapException e) {
             logger.warn("Validation failed with error.", e);
+            description = e.getMessage();
+        } catch (RuntimeException e) {
+            logger.warn("Validation failed with unexpected error.", e);
+            description = e.toString();
         } finally {
             if (conn != null && conn.isOpen()) {
                 conn.close();
             }
         }
-        return ERROR;
+        final double latency = (System.nanoTime() - start) / NANOS_PER_MILLI;
+        final ProbeStatus status = new ProbeStatus(code, description, System.currentTimeMillis(), 0, latency);
+        lastStatus = status;
+        return status;
     }
 }
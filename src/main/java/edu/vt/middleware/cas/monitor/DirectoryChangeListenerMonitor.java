@@ -0,0 +1,83 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import edu.vt.middleware.cas.change.DirectoryChangeListener;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports how far the caches invalidated by a {@link DirectoryChangeListener} may lag behind the directory.  The
+ * status is {@link StatusCode#WARN} if the lag exceeds {@link #setMaxLag(long) max lag}, e.g. because the change feed
+ * cannot be read, since cached data may then be outdated by more than the operator expects.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class DirectoryChangeListenerMonitor extends AbstractNamedMonitor<Status> {
+
+    /** Default lag in milliseconds above which the status is a warning. */
+    public static final long DEFAULT_MAX_LAG = 60000;
+
+    /** Listener to report on. */
+    private final DirectoryChangeListener listener;
+
+    /** Lag in milliseconds above which the status is a warning. */
+    private long maxLag = DEFAULT_MAX_LAG;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  listener  Directory change listener.
+     */
+    public DirectoryChangeListenerMonitor(final DirectoryChangeListener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Sets the lag above which the status is a warning.  The default is {@value #DEFAULT_MAX_LAG}.
+     *
+     * @param  lag  Maximum lag in milliseconds.
+     */
+    public void setMaxLag(final long lag) {
+        this.maxLag = lag;
+    }
+
+
+    @Override
+    public Status observe() {
+        final long lag = listener.getLag();
+        final StringBuilder description = new StringBuilder();
+        description.append("Applied ").append(listener.getAppliedCount()).append(" changes");
+        if (listener.getLastChangeNumber() >= 0) {
+            description.append(" through change number ").append(listener.getLastChangeNumber());
+        }
+        description.append("; lag ").append(lag).append("ms");
+        description.append(", ").append(listener.getPendingChanges()).append(" pending");
+        if (listener.getLastChangeDelay() > 0) {
+            description.append(", last change applied after ").append(listener.getLastChangeDelay()).append("ms");
+        }
+        if (listener.getGapCount() > 0) {
+            description.append(", caches cleared ").append(listener.getGapCount()).append(" times for missed changes");
+        }
+        if (listener.getFailure() != null) {
+            description.append("; ").append(listener.getConsecutiveFailures()).append(" failures: ");
+            description.append(listener.getFailure());
+        }
+        return new Status(lag > maxLag ? StatusCode.WARN : StatusCode.OK, description.toString());
+    }
+}
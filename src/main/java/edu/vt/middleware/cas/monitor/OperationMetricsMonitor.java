@@ -0,0 +1,122 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.vt.middleware.cas.util.LatencyHistogram;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports the latency percentiles of LDAP operations recorded in {@link OperationMetrics} by the authentication
+ * handler, principal resolver and user details service.  Percentiles and maxima describe recent operations, since the
+ * histograms decay; counts are totals since the metrics were created.  The status is {@link StatusCode#WARN} if the
+ * fraction of operations since the previous observation that failed with an LDAP error exceeds
+ * {@link #setWarnErrorRatio(double)}, otherwise {@link StatusCode#OK}.  Only top-level operations are counted, since
+ * each step of an operation is also part of the operation itself.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class OperationMetricsMonitor extends AbstractNamedMonitor<OperationMetricsStatus> {
+
+    /** Default fraction of operations with LDAP errors above which a warning is reported. */
+    public static final double DEFAULT_WARN_ERROR_RATIO = 0.05;
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Source of metrics. */
+    private final OperationMetrics metrics;
+
+    /** Fraction of operations with LDAP errors above which a warning is reported. */
+    private double warnErrorRatio = DEFAULT_WARN_ERROR_RATIO;
+
+    /** Total count per outcome of each top-level operation at the previous observation. */
+    private final Map<String, long[]> previousCounts = new HashMap<String, long[]>();
+
+
+    /**
+     * Creates a new instance that reports the given metrics.
+     *
+     * @param  metrics  Operation metrics.
+     */
+    public OperationMetricsMonitor(final OperationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Sets the fraction of operations with LDAP errors above which a warning is reported.  The default is
+     * {@value #DEFAULT_WARN_ERROR_RATIO}.
+     *
+     * @param  ratio  Error ratio between 0 and 1.
+     */
+    public void setWarnErrorRatio(final double ratio) {
+        this.warnErrorRatio = ratio;
+    }
+
+
+    @Override
+    public synchronized OperationMetricsStatus observe() {
+        final List<OperationMetricsStatus.Summary> summaries = new ArrayList<OperationMetricsStatus.Summary>();
+        long total = 0;
+        long errors = 0;
+        for (String operation : metrics.getOperations()) {
+            final boolean step = OperationMetrics.isStep(operation);
+            long[] previous = previousCounts.get(operation);
+            if (previous == null && !step) {
+                previous = new long[Outcome.values().length];
+                previousCounts.put(operation, previous);
+            }
+            for (Outcome outcome : Outcome.values()) {
+                final LatencyHistogram histogram = metrics.getHistogram(operation, outcome);
+                final long count = histogram.getTotalCount();
+                if (!step) {
+                    // Counts fall if the metrics are reset
+                    final long delta = Math.max(0, count - previous[outcome.ordinal()]);
+                    previous[outcome.ordinal()] = count;
+                    total += delta;
+                    if (outcome == Outcome.LDAP_ERROR) {
+                        errors += delta;
+                    }
+                }
+                if (count == 0) {
+                    continue;
+                }
+                summaries.add(new OperationMetricsStatus.Summary(
+                        operation,
+                        outcome,
+                        count,
+                        histogram.getValueAtPercentile(50) / NANOS_PER_MILLI,
+                        histogram.getValueAtPercentile(95) / NANOS_PER_MILLI,
+                        histogram.getValueAtPercentile(99) / NANOS_PER_MILLI,
+                        histogram.getMax() / NANOS_PER_MILLI));
+            }
+        }
+        final StatusCode code = total > 0 && (double) errors / total > warnErrorRatio ? StatusCode.WARN : StatusCode.OK;
+        final StringBuilder description = new StringBuilder();
+        description.append(total).append(" operations, ").append(errors).append(" LDAP errors since last observed");
+        for (OperationMetricsStatus.Summary summary : summaries) {
+            description.append("; ").append(summary);
+        }
+        return new OperationMetricsStatus(code, description.toString(), summaries);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import java.util.Collections;
+import java.util.List;
+
+import edu.vt.middleware.cas.util.Outcome;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Status that carries latency percentiles of LDAP operations by outcome.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class OperationMetricsStatus extends Status {
+
+    /** Latency summaries. */
+    private final List<Summary> summaries;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  code  Status code.
+     * @param  description  Status description.
+     * @param  summaries  Latency summaries of operations.
+     */
+    public OperationMetricsStatus(final StatusCode code, final String description, final List<Summary> summaries) {
+        super(code, description);
+        this.summaries = Collections.unmodifiableList(summaries);
+    }
+
+
+    /**
+     * Gets the latency summaries of operations by outcome.  Outcomes never recorded for an operation are omitted.
+     *
+     * @return  Immutable list of summaries sorted by operation and outcome.
+     */
+    public List<Summary> getSummaries() {
+        return summaries;
+    }
+
+
+    /** Latency summary of an operation with a given outcome. */
+    public static final class Summary {
+
+        /** Operation name. */
+        private final String operation;
+
+        /** Outcome. */
+        private final Outcome outcome;
+
+        /** Number of operations. */
+        private final long count;
+
+        /** Median latency of recent operations in milliseconds. */
+        private final double p50;
+
+        /** 95th percentile latency of recent operations in milliseconds. */
+        private final double p95;
+
+        /** 99th percentile latency of recent operations in milliseconds. */
+        private final double p99;
+
+        /** Maximum latency of recent operations in milliseconds. */
+        private final double max;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  operation  Operation name.
+         * @param  outcome  Outcome.
+         * @param  count  Number of operations since the metrics were created.
+         * @param  p50  Median latency in milliseconds.
+         * @param  p95  95th percentile latency in milliseconds.
+         * @param  p99  99th percentile latency in milliseconds.
+         * @param  max  Maximum latency in milliseconds.
+         */
+        public Summary(
+                final String operation,
+                final Outcome outcome,
+                final long count,
+                final double p50,
+                final double p95,
+                final double p99,
+                final double max) {
+
+            this.operation = operation;
+            this.outcome = outcome;
+            this.count = count;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+
+        /**
+         * Gets the operation name.
+         *
+         * @return  Operation name.
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+
+        /**
+         * Gets the outcome of the operations summarized.
+         *
+         * @return  Outcome.
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+
+        /**
+         * Gets the number of operations with the outcome since the metrics were created.
+         *
+         * @return  Number of operations.
+         */
+        public long getCount() {
+            return count;
+        }
+
+
+        /**
+         * Gets the median latency of recent operations.
+         *
+         * @return  Median latency in milliseconds.
+         */
+        public double getP50() {
+            return p50;
+        }
+
+
+        /**
+         * Gets the 95th percentile latency of recent operations.
+         *
+         * @return  95th percentile latency in milliseconds.
+         */
+        public double getP95() {
+            return p95;
+        }
+
+
+        /**
+         * Gets the 99th percentile latency of recent operations.
+         *
+         * @return  99th percentile latency in milliseconds.
+         */
+        public double getP99() {
+            return p99;
+        }
+
+
+        /**
+         * Gets the maximum latency of recent operations.
+         *
+         * @return  Maximum latency in milliseconds.
+         */
+        public double getMax() {
+            return max;
+        }
+
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s %s: n=%s p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                    operation, outcome, count, p50, p95, p99, max);
+        }
+    }
+}
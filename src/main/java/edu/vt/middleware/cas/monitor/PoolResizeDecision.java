@@ -0,0 +1,154 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Record of a decision by an {@link AdaptivePoolController} to resize, or to hold the size of, a connection pool.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class PoolResizeDecision {
+
+    /** Time of the decision in milliseconds since the epoch. */
+    private final long timestamp;
+
+    /** Name of the pool. */
+    private final String poolName;
+
+    /** Maximum pool size before the decision. */
+    private final int previousSize;
+
+    /** Maximum pool size requested. */
+    private final int requestedSize;
+
+    /** Maximum pool size in effect after the decision. */
+    private final int size;
+
+    /** Observations that led to the decision. */
+    private final String reason;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  timestamp  Time of the decision in milliseconds since the epoch.
+     * @param  poolName  Name of the pool.
+     * @param  previousSize  Maximum pool size before the decision.
+     * @param  requestedSize  Maximum pool size requested.
+     * @param  size  Maximum pool size in effect after the decision.
+     * @param  reason  Observations that led to the decision.
+     */
+    public PoolResizeDecision(
+            final long timestamp,
+            final String poolName,
+            final int previousSize,
+            final int requestedSize,
+            final int size,
+            final String reason) {
+
+        this.timestamp = timestamp;
+        this.poolName = poolName;
+        this.previousSize = previousSize;
+        this.requestedSize = requestedSize;
+        this.size = size;
+        this.reason = reason;
+    }
+
+
+    /**
+     * Gets the time of the decision in milliseconds since the epoch.
+     *
+     * @return  Time of the decision in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
+    /**
+     * Gets the name of the pool.
+     *
+     * @return  Name of the pool.
+     */
+    public String getPoolName() {
+        return poolName;
+    }
+
+
+    /**
+     * Gets the maximum pool size before the decision.
+     *
+     * @return  Maximum pool size before the decision.
+     */
+    public int getPreviousSize() {
+        return previousSize;
+    }
+
+
+    /**
+     * Gets the maximum pool size requested.
+     *
+     * @return  Maximum pool size requested.
+     */
+    public int getRequestedSize() {
+        return requestedSize;
+    }
+
+
+    /**
+     * Gets the maximum pool size in effect after the decision.
+     *
+     * @return  Maximum pool size in effect after the decision.
+     */
+    public int getSize() {
+        return size;
+    }
+
+
+    /**
+     * Gets the observations that led to the decision.
+     *
+     * @return  Observations that led to the decision.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+
+    @Override
+    public String toString() {
+        final String action;
+        if (requestedSize == previousSize) {
+            action = "held";
+        } else if (requestedSize > previousSize) {
+            action = "grew";
+        } else {
+            action = "shrank";
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(timestamp)));
+        sb.append(' ').append(poolName).append(' ').append(action).append(' ').append(previousSize);
+        if (requestedSize != previousSize) {
+            sb.append(" -> ").append(size);
+            if (size != requestedSize) {
+                sb.append(" (requested ").append(requestedSize).append(')');
+            }
+        }
+        return sb.append(": ").append(reason).toString();
+    }
+}
@@ -13,14 +13,23 @@
 */
 package edu.vt.middleware.cas.monitor;
 
+import edu.vt.middleware.cas.ldap.InstrumentedBlockingConnectionPool;
+import edu.vt.middleware.cas.ldap.PoolStatistics;
 import org.jasig.cas.monitor.AbstractPoolMonitor;
+import org.jasig.cas.monitor.PoolStatus;
 import org.jasig.cas.monitor.StatusCode;
 import org.ldaptive.Connection;
+import org.ldaptive.pool.ConnectionPool;
 import org.ldaptive.pool.PooledConnectionFactory;
 import org.ldaptive.pool.Validator;
 
 /**
- * Monitors an ldaptive {@link PooledConnectionFactory}.
+ * Monitors an ldaptive {@link PooledConnectionFactory}.  If the factory is backed by an
+ * {@link InstrumentedBlockingConnectionPool}, the status is a {@link PooledConnectionFactoryStatus} that reports
+ * checkout wait percentiles, exhaustion, timeouts and connection churn, and a healthy pool whose checkouts timed out
+ * since the previous observation is reported as {@link StatusCode#WARN}.  If the pool is resized by an
+ * {@link AdaptivePoolController} given to {@link #setController(AdaptivePoolController)}, the most recent decision
+ * is included in the description.
  *
  * @author Middleware Services
  * @version $Revision: $
@@ -33,6 +42,12 @@ public class PooledConnectionFactoryMonitor extends AbstractPoolMonitor {
     /** Connection validator. */
     private final Validator<Connection> validator;
 
+    /** Pool statistics at the previous observation. */
+    private PoolStatistics lastStatistics;
+
+    /** Resizes the monitored pool. */
+    private AdaptivePoolController controller;
+
 
     /**
      * Creates a new instance that monitors the given pooled connection factory.
@@ -47,6 +62,47 @@ public class PooledConnectionFactoryMonitor extends AbstractPoolMonitor {
     }
 
 
+    /**
+     * Sets the controller that resizes the monitored pool, whose most recent decision is reported.
+     *
+     * @param  controller  Adaptive pool controller.
+     */
+    public void setController(final AdaptivePoolController controller) {
+        this.controller = controller;
+    }
+
+
+    @Override
+    public PoolStatus observe() {
+        final PoolStatus status = super.observe();
+        final ConnectionPool pool = connectionFactory.getConnectionPool();
+        if (!(pool instanceof InstrumentedBlockingConnectionPool)) {
+            return status;
+        }
+        final PoolStatistics current = ((InstrumentedBlockingConnectionPool) pool).getStatistics();
+        final PoolStatistics previous;
+        synchronized (this) {
+            previous = lastStatistics;
+            lastStatistics = current;
+        }
+        StatusCode code = status.getCode();
+        final long timeouts = current.getTimeoutCount() - (previous != null ? previous.getTimeoutCount() : 0);
+        if (timeouts > 0 && code.value() < StatusCode.WARN.value()) {
+            code = StatusCode.WARN;
+        }
+        final StringBuilder description = new StringBuilder();
+        if (status.getDescription() != null) {
+            description.append(status.getDescription()).append("; ");
+        }
+        description.append(current);
+        final PoolResizeDecision decision = controller != null ? controller.getLastDecision() : null;
+        if (decision != null) {
+            description.append("; last resize ").append(decision);
+        }
+        return new PooledConnectionFactoryStatus(code, description.toString(), current, previous);
+    }
+
+
     @Override
     protected StatusCode checkPool() throws Exception {
         final Connection conn = connectionFactory.getConnection();
@@ -0,0 +1,155 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import edu.vt.middleware.cas.ldap.PoolStatistics;
+import org.jasig.cas.monitor.PoolStatus;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Pool status that also carries the checkout, exhaustion and churn statistics of an
+ * {@link edu.vt.middleware.cas.ldap.InstrumentedBlockingConnectionPool}.  Rates are per second over the interval since
+ * the previous observation, or since the pool was created on the first observation.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class PooledConnectionFactoryStatus extends PoolStatus {
+
+    /** Pool statistics at the time of observation. */
+    private final PoolStatistics statistics;
+
+    /** Successful checkouts per second. */
+    private final double checkoutRate;
+
+    /** Checkouts per second that blocked because the pool was exhausted. */
+    private final double exhaustedRate;
+
+    /** Checkouts per second that timed out while blocked. */
+    private final double timeoutRate;
+
+    /** Connections created per second. */
+    private final double createRate;
+
+    /** Connections destroyed per second. */
+    private final double destroyRate;
+
+    /** Idle connections pruned per second. */
+    private final double pruneRate;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  code  Status code.
+     * @param  description  Status description.
+     * @param  current  Pool statistics at the time of observation.
+     * @param  previous  Pool statistics at the previous observation, or null if there is none.
+     */
+    public PooledConnectionFactoryStatus(
+            final StatusCode code,
+            final String description,
+            final PoolStatistics current,
+            final PoolStatistics previous) {
+
+        super(code, description, current.getAvailableCount(), current.getActiveCount());
+        this.statistics = current;
+        if (previous != null && current.getTimestamp() > previous.getTimestamp()) {
+            final double seconds = (current.getTimestamp() - previous.getTimestamp()) / 1000.0;
+            checkoutRate = (current.getCheckoutCount() - previous.getCheckoutCount()) / seconds;
+            exhaustedRate = (current.getExhaustedCount() - previous.getExhaustedCount()) / seconds;
+            timeoutRate = (current.getTimeoutCount() - previous.getTimeoutCount()) / seconds;
+            createRate = (current.getCreatedCount() - previous.getCreatedCount()) / seconds;
+            destroyRate = (current.getDestroyedCount() - previous.getDestroyedCount()) / seconds;
+            pruneRate = (current.getPrunedCount() - previous.getPrunedCount()) / seconds;
+        } else {
+            checkoutRate = 0;
+            exhaustedRate = 0;
+            timeoutRate = 0;
+            createRate = 0;
+            destroyRate = 0;
+            pruneRate = 0;
+        }
+    }
+
+
+    /**
+     * Gets the pool statistics at the time of observation.
+     *
+     * @return  Pool statistics at the time of observation.
+     */
+    public PoolStatistics getStatistics() {
+        return statistics;
+    }
+
+
+    /**
+     * Gets the rate of successful checkouts per second.
+     *
+     * @return  Successful checkouts per second.
+     */
+    public double getCheckoutRate() {
+        return checkoutRate;
+    }
+
+
+    /**
+     * Gets the rate of checkouts that blocked because the pool was exhausted.
+     *
+     * @return  Checkouts per second that blocked because the pool was exhausted.
+     */
+    public double getExhaustedRate() {
+        return exhaustedRate;
+    }
+
+
+    /**
+     * Gets the rate of checkouts that timed out while blocked.
+     *
+     * @return  Checkouts per second that timed out while blocked.
+     */
+    public double getTimeoutRate() {
+        return timeoutRate;
+    }
+
+
+    /**
+     * Gets the rate of connection creation per second.
+     *
+     * @return  Connections created per second.
+     */
+    public double getCreateRate() {
+        return createRate;
+    }
+
+
+    /**
+     * Gets the rate of connection destruction per second.
+     *
+     * @return  Connections destroyed per second.
+     */
+    public double getDestroyRate() {
+        return destroyRate;
+    }
+
+
+    /**
+     * Gets the rate of idle connection pruning per second.
+     *
+     * @return  Idle connections pruned per second.
+     */
+    public double getPruneRate() {
+        return pruneRate;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import edu.vt.middleware.cas.authentication.principal.PrincipalCacheWarmer;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports the progress of a {@link PrincipalCacheWarmer}.  The status is {@link StatusCode#WARN} until the warmer is
+ * ready, so a load balancer that polls the status endpoint can hold the node out of service while its cache is cold.
+ * A warm-up that failed is reported as {@link StatusCode#INFO}, since the node serves requests without a warm cache.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class PrincipalCacheWarmerMonitor extends AbstractNamedMonitor<Status> {
+
+    /** Warmer to report on. */
+    private final PrincipalCacheWarmer warmer;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  warmer  Principal cache warmer.
+     */
+    public PrincipalCacheWarmerMonitor(final PrincipalCacheWarmer warmer) {
+        this.warmer = warmer;
+    }
+
+
+    @Override
+    public Status observe() {
+        final StringBuilder description = new StringBuilder();
+        description.append("Warmed ").append(warmer.getWarmedCount());
+        if (warmer.getExpectedEntries() > 0) {
+            description.append(" of ").append(warmer.getExpectedEntries());
+            description.append(String.format(" principals (%.1f%%)", warmer.getProgress()));
+        } else {
+            description.append(" principals");
+        }
+        if (warmer.isFinished()) {
+            description.append(" in ").append(warmer.getElapsed()).append("ms");
+        }
+        final StatusCode code;
+        if (warmer.getFailure() != null) {
+            code = StatusCode.INFO;
+            description.append("; failed: ").append(warmer.getFailure());
+        } else if (warmer.isReady()) {
+            code = StatusCode.OK;
+        } else {
+            code = StatusCode.WARN;
+        }
+        return new Status(code, description.toString());
+    }
+}
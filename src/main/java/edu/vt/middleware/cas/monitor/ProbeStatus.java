@@ -0,0 +1,88 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Status of a connection probe that was run in the background, with the age of the result and the time the probe took.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ProbeStatus extends Status {
+
+    /** Time the probe completed in milliseconds since the epoch. */
+    private final long probeTime;
+
+    /** Age of the result in milliseconds when it was observed. */
+    private final long age;
+
+    /** Time the probe took in milliseconds. */
+    private final double latency;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  code  Status code.
+     * @param  description  Status description.
+     * @param  probeTime  Time the probe completed in milliseconds since the epoch.
+     * @param  age  Age of the result in milliseconds when it was observed.
+     * @param  latency  Time the probe took in milliseconds.
+     */
+    public ProbeStatus(
+            final StatusCode code,
+            final String description,
+            final long probeTime,
+            final long age,
+            final double latency) {
+
+        super(code, description);
+        this.probeTime = probeTime;
+        this.age = age;
+        this.latency = latency;
+    }
+
+
+    /**
+     * Gets the time the probe completed in milliseconds since the epoch.
+     *
+     * @return  Time the probe completed in milliseconds since the epoch.
+     */
+    public long getProbeTime() {
+        return probeTime;
+    }
+
+
+    /**
+     * Gets the age of the result in milliseconds when it was observed.
+     *
+     * @return  Age of the result in milliseconds when it was observed.
+     */
+    public long getAge() {
+        return age;
+    }
+
+
+    /**
+     * Gets the time the probe took in milliseconds.
+     *
+     * @return  Time the probe took in milliseconds.
+     */
+    public double getLatency() {
+        return latency;
+    }
+}
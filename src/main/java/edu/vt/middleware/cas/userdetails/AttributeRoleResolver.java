@@ -0,0 +1,147 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.validation.constraints.NotNull;
+
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves roles from a multi-valued attribute of the user entry itself, e.g. <code>memberOf</code> or
+ * <code>isMemberOf</code>, so that user details are obtained with a single search.  The attribute must be among the
+ * return attributes of the user search.  Values that are DNs may optionally be reduced to the value of their leading
+ * RDN, e.g. <code>cn=admins,ou=groups,dc=vt,dc=edu</code> becomes <code>admins</code>.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AttributeRoleResolver implements RoleResolver {
+
+    /** UTF-8 character set used to decode hex-escaped DN characters. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Name of user entry attribute that contains role membership data. */
+    @NotNull
+    private final String roleAttributeName;
+
+    /** Flag that indicates whether role names are extracted from the leading RDN of DN values. */
+    private boolean extractRdnValue = false;
+
+
+    /**
+     * Creates a new instance that reads roles from the given attribute.
+     *
+     * @param  roleAttributeName  Name of user entry attribute that contains role membership data.
+     */
+    public AttributeRoleResolver(final String roleAttributeName) {
+        this.roleAttributeName = roleAttributeName;
+    }
+
+
+    /**
+     * Sets whether attribute values are DNs from which the role name is taken as the value of the leading RDN.
+     * This is false by default, in which case attribute values are used as role names verbatim.
+     *
+     * @param  extract  True to extract the leading RDN value of DN values, false otherwise.
+     */
+    public void setExtractRdnValue(final boolean extract) {
+        this.extractRdnValue = extract;
+    }
+
+
+    @Override
+    public Collection<String> resolveRoles(final LdapEntry userEntry) {
+        final LdapAttribute attribute = userEntry.getAttribute(roleAttributeName);
+        if (attribute == null) {
+            logger.debug("Role attribute {} not found on entry {}", roleAttributeName, userEntry.getDn());
+            return Collections.emptyList();
+        }
+        final Collection<String> values = attribute.getStringValues();
+        if (!extractRdnValue) {
+            return values;
+        }
+        final Collection<String> roles = new ArrayList<String>(values.size());
+        for (String value : values) {
+            roles.add(rdnValue(value));
+        }
+        return roles;
+    }
+
+
+    /**
+     * Gets the value of the leading RDN of a DN, removing any escaping.  For multi-valued RDNs only the first value
+     * is returned.  Values that do not have the form of a DN are returned unchanged.
+     *
+     * @param  dn  Distinguished name.
+     *
+     * @return  Unescaped value of leading RDN.
+     */
+    protected static String rdnValue(final String dn) {
+        final int equals = dn.indexOf('=');
+        if (equals < 0) {
+            return dn;
+        }
+        final StringBuilder sb = new StringBuilder(dn.length() - equals);
+        for (int i = equals + 1; i < dn.length(); i++) {
+            final char c = dn.charAt(i);
+            if (c == ',' || c == '+') {
+                break;
+            }
+            if (c == '\\' && i + 1 < dn.length()) {
+                if (isHexPair(dn, i + 1)) {
+                    // Consecutive hex pairs form the UTF-8 encoding of one or more characters
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    while (i < dn.length() && dn.charAt(i) == '\\' && isHexPair(dn, i + 1)) {
+                        bytes.write(Integer.parseInt(dn.substring(i + 1, i + 3), 16));
+                        i += 3;
+                    }
+                    sb.append(new String(bytes.toByteArray(), UTF8));
+                    i--;
+                } else {
+                    sb.append(dn.charAt(++i));
+                }
+                continue;
+            }
+            sb.append(c);
+        }
+        return sb.toString().trim();
+    }
+
+
+    /**
+     * Determines whether the two characters at the given position are hexadecimal digits.
+     *
+     * @param  s  String to test.
+     * @param  index  Position of first character.
+     *
+     * @return  True if both characters exist and are hex digits, false otherwise.
+     */
+    private static boolean isHexPair(final String s, final int index) {
+        return index + 1 < s.length()
+                && Character.digit(s.charAt(index), 16) >= 0
+                && Character.digit(s.charAt(index + 1), 16) >= 0;
+    }
+}
@@ -0,0 +1,615 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.validation.constraints.NotNull;
+
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchRequest;
+import org.ldaptive.SearchResult;
+import org.ldaptive.control.util.PagedResultsClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Resolves roles from an in-memory index of group membership, so that role lookups require no LDAP traffic.
+ * All groups under the base DN of the group search executor are loaded at startup using the simple paged results
+ * control, and member DNs are indexed to their groups and role names in memory.  The index is refreshed periodically
+ * by searching only for groups whose <code>modifyTimestamp</code> changed since the last refresh; a less frequent full
+ * rebuild picks up deleted groups.  Until the first build succeeds, lookups are delegated to an optional fallback
+ * resolver.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class GroupMembershipIndex implements RoleResolver, InitializingBean, DisposableBean {
+
+    /** Default page size of group searches. */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    /** Default incremental refresh interval in milliseconds. */
+    public static final long DEFAULT_REFRESH_INTERVAL = 60000;
+
+    /** Default full rebuild interval in milliseconds. */
+    public static final long DEFAULT_REBUILD_INTERVAL = 3600000;
+
+    /** Default overlap in milliseconds applied to modifyTimestamp filters to allow for clock skew. */
+    public static final long DEFAULT_CLOCK_SKEW = 60000;
+
+    /** Name of operational attribute containing last modification time. */
+    private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Source of LDAP connections. */
+    @NotNull
+    private final ConnectionFactory connectionFactory;
+
+    /** Provides the base DN, filter and scope of the group search. */
+    @NotNull
+    private final SearchExecutor groupSearchExecutor;
+
+    /** Name of group attribute containing member DNs. */
+    @NotNull
+    private final String memberAttributeName;
+
+    /** Name of group attribute to be used as the basis for role granted authorities. */
+    @NotNull
+    private final String roleAttributeName;
+
+    /** Page size of group searches. */
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    /** Incremental refresh interval in milliseconds. */
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    /** Full rebuild interval in milliseconds. */
+    private long rebuildInterval = DEFAULT_REBUILD_INTERVAL;
+
+    /** Overlap in milliseconds applied to modifyTimestamp filters. */
+    private long clockSkew = DEFAULT_CLOCK_SKEW;
+
+    /** Resolves roles until the index has been built. */
+    private RoleResolver fallbackResolver;
+
+    /** Current index state. */
+    private volatile Index index;
+
+    /** Time in milliseconds taken by the last full build. */
+    private volatile long buildTime = -1;
+
+    /** System time of the last successful build or refresh. */
+    private volatile long lastRefresh;
+
+    /** System time of the last successful full build. */
+    private volatile long lastBuild;
+
+    /** Runs refresh tasks. */
+    private ScheduledExecutorService scheduler;
+
+    /** Guards against repeated initialization. */
+    private final AtomicBoolean initialized = new AtomicBoolean();
+
+
+    /**
+     * Creates a new group membership index.
+     *
+     * @param  factory  Source of LDAP connections for group searches.
+     * @param  groupSearchExecutor  Provides the base DN, filter and scope of the search for all groups.
+     * @param  memberAttributeName  Name of group attribute containing member DNs, e.g. <code>member</code>.
+     * @param  roleAttributeName  Name of group attribute containing the role name.
+     */
+    public GroupMembershipIndex(
+            final ConnectionFactory factory,
+            final SearchExecutor groupSearchExecutor,
+            final String memberAttributeName,
+            final String roleAttributeName) {
+
+        this.connectionFactory = factory;
+        this.groupSearchExecutor = groupSearchExecutor;
+        this.memberAttributeName = memberAttributeName;
+        this.roleAttributeName = roleAttributeName;
+    }
+
+
+    /**
+     * Sets the page size of group searches.  The default is {@value #DEFAULT_PAGE_SIZE}.
+     *
+     * @param  size  Number of entries per page.
+     */
+    public void setPageSize(final int size) {
+        this.pageSize = size;
+    }
+
+
+    /**
+     * Sets the interval between incremental refreshes.  The default is {@value #DEFAULT_REFRESH_INTERVAL}.
+     *
+     * @param  interval  Refresh interval in milliseconds.
+     */
+    public void setRefreshInterval(final long interval) {
+        this.refreshInterval = interval;
+    }
+
+
+    /**
+     * Sets the interval between full rebuilds, which are needed to remove deleted groups from the index.
+     * The default is {@value #DEFAULT_REBUILD_INTERVAL}.
+     *
+     * @param  interval  Rebuild interval in milliseconds.
+     */
+    public void setRebuildInterval(final long interval) {
+        this.rebuildInterval = interval;
+    }
+
+
+    /**
+     * Sets the overlap applied to <code>modifyTimestamp</code> filters to tolerate clock differences between this
+     * host and the directory.  The default is {@value #DEFAULT_CLOCK_SKEW}.
+     *
+     * @param  skew  Clock skew in milliseconds.
+     */
+    public void setClockSkew(final long skew) {
+        this.clockSkew = skew;
+    }
+
+
+    /**
+     * Sets the resolver used until the index has been built, e.g. a {@link SearchRoleResolver}.
+     * If none is set, no roles are resolved until the index is available.
+     *
+     * @param  resolver  Fallback role resolver.
+     */
+    public void setFallbackResolver(final RoleResolver resolver) {
+        this.fallbackResolver = resolver;
+    }
+
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!initialized.compareAndSet(false, true)) {
+            return;
+        }
+        Assert.isTrue(pageSize > 0, "pageSize must be positive.");
+        Assert.isTrue(refreshInterval > 0, "refreshInterval must be positive.");
+        Assert.notNull(groupSearchExecutor.getSearchFilter(), "GroupSearchExecutor#searchFilter cannot be null.");
+        if (fallbackResolver instanceof InitializingBean) {
+            ((InitializingBean) fallbackResolver).afterPropertiesSet();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "GroupMembershipIndex-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            rebuild();
+        } catch (Exception e) {
+            logger.error("Failed building group membership index; will retry on next refresh.", e);
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    logger.warn("Failed refreshing group membership index.", e);
+                }
+            }
+        }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+
+    @Override
+    public void destroy() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+
+    @Override
+    public Collection<String> resolveRoles(final LdapEntry userEntry) throws LdapException {
+        final Index current = index;
+        if (current == null) {
+            if (fallbackResolver != null) {
+                logger.debug("Group membership index not built; using fallback for {}.", userEntry.getDn());
+                return fallbackResolver.resolveRoles(userEntry);
+            }
+            return Collections.emptyList();
+        }
+        return current.getRoles(normalizeDn(userEntry.getDn()));
+    }
+
+
+    /**
+     * Refreshes the index.  A full rebuild is performed if none has succeeded yet or the rebuild interval has
+     * elapsed, otherwise only groups modified since the last refresh are reloaded.
+     *
+     * @throws  LdapException  On LDAP search errors.
+     */
+    public synchronized void refresh() throws LdapException {
+        final Index current = index;
+        if (current == null || System.currentTimeMillis() - lastBuild >= rebuildInterval) {
+            rebuild();
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final String filter = String.format(
+                "(&%s(%s>=%s))",
+                wrap(groupSearchExecutor.getSearchFilter().getFilter()),
+                MODIFY_TIMESTAMP,
+                generalizedTime(lastRefresh - clockSkew));
+        final int count = search(filter, current);
+        lastRefresh = start;
+        logger.debug("Refreshed {} modified groups in group membership index.", count);
+    }
+
+
+    /**
+     * Loads all groups and replaces the current index.
+     *
+     * @throws  LdapException  On LDAP search errors.
+     */
+    public synchronized void rebuild() throws LdapException {
+        final long start = System.currentTimeMillis();
+        final Index newIndex = new Index();
+        final int count = search(groupSearchExecutor.getSearchFilter().getFilter(), newIndex);
+        index = newIndex;
+        lastBuild = start;
+        lastRefresh = start;
+        buildTime = System.currentTimeMillis() - start;
+        logger.info(
+                "Built group membership index of {} groups and {} members in {}ms.",
+                new Object[] {count, newIndex.rolesByMember.size(), buildTime});
+    }
+
+
+    /**
+     * Gets the number of groups in the index.
+     *
+     * @return  Number of groups in the index, or 0 if the index has not been built.
+     */
+    public int getGroupCount() {
+        final Index current = index;
+        return current != null ? current.groups.size() : 0;
+    }
+
+
+    /**
+     * Gets the number of distinct members in the index.
+     *
+     * @return  Number of distinct members in the index, or 0 if the index has not been built.
+     */
+    public int getMemberCount() {
+        final Index current = index;
+        return current != null ? current.rolesByMember.size() : 0;
+    }
+
+
+    /**
+     * Gets the time in milliseconds taken by the last full build.
+     *
+     * @return  Time in milliseconds taken by the last full build, or -1 if the index has not been built.
+     */
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+
+    /**
+     * Gets the milliseconds elapsed since the last successful build or refresh.
+     *
+     * @return  Milliseconds elapsed since the last successful build or refresh, or -1 if the index has not been built.
+     */
+    public long getLastRefreshAge() {
+        return index != null ? System.currentTimeMillis() - lastRefresh : -1;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::groups=%s, members=%s, buildTime=%s, lastRefreshAge=%s",
+                getClass().getName(),
+                hashCode(),
+                getGroupCount(),
+                getMemberCount(),
+                buildTime,
+                getLastRefreshAge());
+    }
+
+
+    /**
+     * Performs a paged search for groups and adds each group found to the given index.
+     *
+     * @param  filter  Search filter.
+     * @param  target  Index to update.
+     *
+     * @return  Number of groups found.
+     *
+     * @throws  LdapException  On LDAP search errors.
+     */
+    private int search(final String filter, final Index target) throws LdapException {
+        final SearchRequest request = new SearchRequest(
+                groupSearchExecutor.getBaseDn(), filter, roleAttributeName, memberAttributeName);
+        request.setSearchScope(groupSearchExecutor.getSearchScope());
+        int count = 0;
+        final Connection conn = connectionFactory.getConnection();
+        try {
+            if (!conn.isOpen()) {
+                conn.open();
+            }
+            final PagedResultsClient client = new PagedResultsClient(conn, pageSize);
+            Response<SearchResult> response = client.execute(request);
+            count += update(target, response.getResult());
+            while (client.hasMore(response)) {
+                response = client.execute(request, response);
+                count += update(target, response.getResult());
+            }
+        } finally {
+            conn.close();
+        }
+        return count;
+    }
+
+
+    /**
+     * Updates an index with the group entries of a search result page.  A group without a role attribute is removed
+     * from the index.
+     *
+     * @param  target  Index to update.
+     * @param  result  Page of group entries.
+     *
+     * @return  Number of groups in the page.
+     */
+    int update(final Index target, final SearchResult result) {
+        for (LdapEntry entry : result.getEntries()) {
+            final LdapAttribute roleAttribute = entry.getAttribute(roleAttributeName);
+            if (roleAttribute == null) {
+                logger.warn("Role attribute not found on entry {}", entry.getDn());
+                target.remove(normalizeDn(entry.getDn()));
+                continue;
+            }
+            final LdapAttribute memberAttribute = entry.getAttribute(memberAttributeName);
+            final Set<String> members = new HashSet<String>();
+            if (memberAttribute != null) {
+                for (String member : memberAttribute.getStringValues()) {
+                    members.add(normalizeDn(member));
+                }
+            }
+            target.put(normalizeDn(entry.getDn()), new Group(roleAttribute.getStringValue(), members));
+        }
+        return result.size();
+    }
+
+
+    /**
+     * Normalizes a DN for use as an index key by lowercasing it and removing whitespace around separators.
+     *
+     * @param  dn  Distinguished name.
+     *
+     * @return  Normalized DN.
+     */
+    protected static String normalizeDn(final String dn) {
+        return dn.replaceAll("\\s*([,=+])\\s*", "$1").trim().toLowerCase(Locale.ENGLISH);
+    }
+
+
+    /**
+     * Encloses a filter expression in parentheses if it is not already.
+     *
+     * @param  filter  Filter expression.
+     *
+     * @return  Parenthesized filter.
+     */
+    private static String wrap(final String filter) {
+        return filter.startsWith("(") ? filter : '(' + filter + ')';
+    }
+
+
+    /**
+     * Formats a time as an LDAP generalized time in UTC.
+     *
+     * @param  time  System time in milliseconds.
+     *
+     * @return  Generalized time string.
+     */
+    private static String generalizedTime(final long time) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+
+    /** Role name and members of a group. */
+    static final class Group {
+
+        /** Role name. */
+        final String role;
+
+        /** Normalized member DNs. */
+        final Set<String> members;
+
+
+        /**
+         * Creates a new group.
+         *
+         * @param  role  Role name.
+         * @param  members  Normalized member DNs.
+         */
+        Group(final String role, final Set<String> members) {
+            this.role = role;
+            this.members = members;
+        }
+    }
+
+
+    /**
+     * Forward index of groups and inverted indexes of members.  Each member is indexed to the DNs of its groups, so a
+     * role granted by several groups is kept until the member leaves all of them, and the roles of a member are derived
+     * from its groups whenever they change.  Updates are performed by a single thread; the role sets read by lookups
+     * are never modified once published, so readers always see a consistent set of roles.
+     */
+    static final class Index {
+
+        /** Groups keyed by normalized DN. */
+        final Map<String, Group> groups = new HashMap<String, Group>();
+
+        /** Normalized group DNs keyed by normalized member DN; only accessed by the updating thread. */
+        final Map<String, Set<String>> groupsByMember = new HashMap<String, Set<String>>();
+
+        /** Role names keyed by normalized member DN. */
+        final Map<String, Set<String>> rolesByMember = new ConcurrentHashMap<String, Set<String>>();
+
+
+        /**
+         * Gets the roles of a member.
+         *
+         * @param  member  Normalized member DN.
+         *
+         * @return  Unmodifiable set of role names, empty if the DN is not a member of any group.
+         */
+        Set<String> getRoles(final String member) {
+            final Set<String> roles = rolesByMember.get(member);
+            return roles != null ? roles : Collections.<String>emptySet();
+        }
+
+
+        /**
+         * Adds or replaces a group, updating the inverted indexes for current and former members.
+         *
+         * @param  dn  Normalized group DN.
+         * @param  group  Group to store.
+         */
+        void put(final String dn, final Group group) {
+            final Group old = groups.put(dn, group);
+            final Set<String> changed = new HashSet<String>();
+            for (String member : group.members) {
+                if (link(member, dn) || old == null || !old.role.equals(group.role)) {
+                    changed.add(member);
+                }
+            }
+            if (old != null) {
+                for (String member : old.members) {
+                    if (!group.members.contains(member)) {
+                        unlink(member, dn);
+                        changed.add(member);
+                    }
+                }
+            }
+            for (String member : changed) {
+                publish(member);
+            }
+        }
+
+
+        /**
+         * Removes a group, updating the inverted indexes for its members.
+         *
+         * @param  dn  Normalized group DN.
+         */
+        void remove(final String dn) {
+            final Group old = groups.remove(dn);
+            if (old == null) {
+                return;
+            }
+            for (String member : old.members) {
+                unlink(member, dn);
+                publish(member);
+            }
+        }
+
+
+        /**
+         * Records that a DN is a member of a group.
+         *
+         * @param  member  Normalized member DN.
+         * @param  dn  Normalized group DN.
+         *
+         * @return  True if the DN was not a member of the group before, false otherwise.
+         */
+        private boolean link(final String member, final String dn) {
+            Set<String> dns = groupsByMember.get(member);
+            if (dns == null) {
+                dns = new HashSet<String>();
+                groupsByMember.put(member, dns);
+            }
+            return dns.add(dn);
+        }
+
+
+        /**
+         * Records that a DN is no longer a member of a group.
+         *
+         * @param  member  Normalized member DN.
+         * @param  dn  Normalized group DN.
+         */
+        private void unlink(final String member, final String dn) {
+            final Set<String> dns = groupsByMember.get(member);
+            if (dns != null && dns.remove(dn) && dns.isEmpty()) {
+                groupsByMember.remove(member);
+            }
+        }
+
+
+        /**
+         * Derives the roles of a member from its groups and publishes them to readers.
+         *
+         * @param  member  Normalized member DN.
+         */
+        private void publish(final String member) {
+            final Set<String> dns = groupsByMember.get(member);
+            if (dns == null) {
+                rolesByMember.remove(member);
+                return;
+            }
+            final Set<String> roles = new HashSet<String>();
+            for (String dn : dns) {
+                roles.add(groups.get(dn).role);
+            }
+            rolesByMember.put(
+                    member,
+                    roles.size() == 1 ? Collections.singleton(roles.iterator().next())
+                            : Collections.unmodifiableSet(roles));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import org.ldaptive.LdapException;
+
+/**
+ * Thrown by {@link LdapUserDetailsService} when a lookup fails because of an LDAP error, as opposed to an unexpected
+ * answer from the directory such as multiple entries for one user.  Only lookups that fail with this exception are
+ * answered with last known good details.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LdapLookupException extends RuntimeException {
+
+    /** Serial version uid. */
+    private static final long serialVersionUID = -4409327310764514254L;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  message  Error message.
+     * @param  cause  LDAP error.
+     */
+    public LdapLookupException(final String message, final LdapException cause) {
+        super(message, cause);
+    }
+}
@@ -15,19 +15,37 @@ package edu.vt.middleware.cas.userdetails;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.validation.constraints.NotNull;
 
+import edu.vt.middleware.cas.cache.CacheKeys;
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import edu.vt.middleware.cas.cache.NegativeResultCache;
+import edu.vt.middleware.cas.cache.UserDetailsCache;
+import edu.vt.middleware.cas.ldap.FilterTemplate;
+import edu.vt.middleware.cas.util.BoundedExecutors;
+import edu.vt.middleware.cas.util.CircuitBreaker;
+import edu.vt.middleware.cas.util.CircuitOpenException;
+import edu.vt.middleware.cas.util.ConcurrencyLimitExceededException;
+import edu.vt.middleware.cas.util.ConcurrencyLimiter;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import edu.vt.middleware.cas.util.SingleFlight;
 import org.ldaptive.ConnectionFactory;
 import org.ldaptive.LdapAttribute;
 import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
 import org.ldaptive.Response;
 import org.ldaptive.SearchExecutor;
-import org.ldaptive.SearchFilter;
 import org.ldaptive.SearchResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
@@ -38,18 +56,28 @@ import org.springframework.util.Assert;
 
 /**
  * Provides a simple {@link UserDetailsService} implementation that obtains user details from an LDAP search.
- * Two searches are performed by this component for every user details lookup:
+ * A user details lookup consists of the following steps:
  * <ol>
  *     <li>Search for an entry to resolve the username. In most cases the search should return exactly one result,
  *     but the {@link #setAllowMultipleResults(boolean)} property may be toggled to change that behavior.</li>
- *     <li>Search for groups of which the user is a member. This search commonly occurs on a separate directory
- *     branch than that of the user search.</li>
+ *     <li>Resolve the roles of the user via a {@link RoleResolver}. By default {@link SearchRoleResolver} searches
+ *     for groups of which the user is a member, but {@link AttributeRoleResolver} may be used to derive roles from
+ *     an attribute of the user entry, e.g. <code>memberOf</code>, which saves a search.</li>
  * </ol>
+ * Usernames for which no entry was found may be remembered for a short time by a {@link NegativeResultCache}.
+ * Details that were found may be kept by a {@link UserDetailsCache}, which answers lookups from memory; details
+ * past its soft time to live are still returned, but are reloaded in the background.
+ * Concurrent lookups of the same user are coalesced so that they share one set of searches and its outcome.
+ * Lookups that reach the directory may be limited by a {@link ConcurrencyLimiter} and guarded by a
+ * {@link CircuitBreaker}.  A lookup that fails for either reason, or because of an LDAP error, is answered with the
+ * last details loaded for the user, as {@link StaleUserDetails}, if a
+ * {@link #setLastKnownGoodCache(ExpiringCache) last known good cache} is set.  Lookups that fail because of an
+ * unexpected answer from the directory, e.g. multiple entries for one user, are never answered with stale details.
  *
  * @author Middleware Services
  * @version $Revision: $
  */
-public class LdapUserDetailsService implements UserDetailsService, InitializingBean {
+public class LdapUserDetailsService implements UserDetailsService, InitializingBean, DisposableBean {
 
     /** The name of the username parameter in the search filter expression. */
     public static final String USER_PARAM = "user";
@@ -63,6 +91,21 @@ public class LdapUserDetailsService implements UserDetailsService, InitializingB
     /** Placeholder for unknown password given to user details. */
     public static final String UNKNOWN_PASSWORD = "<UNKNOWN>";
 
+    /** Name of the user details lookup operation in {@link OperationMetrics}. */
+    public static final String OP_LOAD_USER = "userDetails";
+
+    /** Name of the user search step of user details lookup in {@link OperationMetrics}. */
+    public static final String OP_SEARCH = "userDetails.search";
+
+    /** Name of the role resolution step of user details lookup in {@link OperationMetrics}. */
+    public static final String OP_RESOLVE_ROLES = "userDetails.resolveRoles";
+
+    /** Number of threads refreshing stale user details. */
+    private static final int REFRESH_THREADS = 2;
+
+    /** Number of stale user details waiting to be refreshed. */
+    private static final int REFRESH_QUEUE = 1024;
+
     /** Logger instance. */
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -74,28 +117,57 @@ public class LdapUserDetailsService implements UserDetailsService, InitializingB
     @NotNull
     private final SearchExecutor userSearchExecutor;
 
-    /** Executes the search query for roles. */
-    @NotNull
-    private final SearchExecutor roleSearchExecutor;
-
     /** Name of LDAP attribute to use as principal identifier. */
     @NotNull
     private final String userAttributeName;
 
-    /** Name of LDAP attribute to be used as the basis for role granted authorities. */
+    /** Resolves the roles of a user. */
     @NotNull
-    private final String roleAttributeName;
+    private final RoleResolver roleResolver;
 
-    /** Prefix appended to the uppercased {@link #roleAttributeName} per the normal Spring Security convention. */
+    /** Prefix appended to the uppercased role name per the normal Spring Security convention. */
     @NotNull
     private String rolePrefix = DEFAULT_ROLE_PREFIX;
 
     /** Flag that indicates whether multiple search results are allowed for a given credential. */
     private boolean allowMultipleResults = false;
 
+    /** User search filter compiled from {@link #userSearchExecutor}. */
+    private FilterTemplate userFilterTemplate;
+
+    /** Optional cache of usernames for which no entry was found. */
+    private NegativeResultCache negativeResultCache;
+
+    /** Coalesces concurrent lookups for the same normalized username. */
+    private final SingleFlight<String, UserDetails> lookups = new SingleFlight<String, UserDetails>();
+
+    /** Records operation latencies. */
+    private OperationMetrics metrics;
+
+    /** Limits concurrent lookups against the directory. */
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    /** Stops lookups while the directory is failing. */
+    private CircuitBreaker circuitBreaker;
+
+    /** Details of recently looked up users. */
+    private UserDetailsCache userDetailsCache;
+
+    /** Executor that refreshes stale user details. */
+    private volatile ExecutorService refreshExecutor;
+
+    /** Whether the refresh executor was created by this service. */
+    private boolean refreshExecutorCreated;
+
+    /** Normalized usernames of stale user details being refreshed. */
+    private final ConcurrentMap<String, Boolean> refreshing = new ConcurrentHashMap<String, Boolean>();
+
+    /** Last details loaded for each user, served while the directory is unavailable. */
+    private ExpiringCache<String, UserDetails> lastKnownGoodCache;
+
 
     /**
-     * Creates a new instance with the given required parameters.
+     * Creates a new instance that resolves roles with a {@link SearchRoleResolver}.
      *
      * @param  factory  Source of LDAP connections for searches.
      * @param  userSearchExecutor  Executes the LDAP search for user data.
@@ -110,16 +182,36 @@ public class LdapUserDetailsService implements UserDetailsService, InitializingB
             final String userAttributeName,
             final String roleAttributeName) {
 
+        this(factory,
+             userSearchExecutor,
+             userAttributeName,
+             new SearchRoleResolver(factory, roleSearchExecutor, roleAttributeName));
+    }
+
+
+    /**
+     * Creates a new instance with the given role resolution strategy.
+     *
+     * @param  factory  Source of LDAP connections for searches.
+     * @param  userSearchExecutor  Executes the LDAP search for user data.
+     * @param  userAttributeName  Name of LDAP attribute that contains username for user details.
+     * @param  roleResolver  Resolves the roles of a user from the user entry.
+     */
+    public LdapUserDetailsService(
+            final ConnectionFactory factory,
+            final SearchExecutor userSearchExecutor,
+            final String userAttributeName,
+            final RoleResolver roleResolver) {
+
         this.connectionFactory = factory;
         this.userSearchExecutor = userSearchExecutor;
-        this.roleSearchExecutor = roleSearchExecutor;
         this.userAttributeName = userAttributeName;
-        this.roleAttributeName = roleAttributeName;
+        this.roleResolver = roleResolver;
     }
 
 
     /**
-     * Sets the prefix appended to the uppercase {@link #roleAttributeName} per the normal Spring Security convention.
+     * Sets the prefix appended to the uppercase role name per the normal Spring Security convention.
      * The default value {@value #DEFAULT_ROLE_PREFIX} is sufficient in most cases.
      *
      * @param  rolePrefix  Role prefix.
@@ -143,92 +235,478 @@ public class LdapUserDetailsService implements UserDetailsService, InitializingB
     }
 
 
+    /**
+     * Sets the cache of usernames for which no entry was found.  Lookups of such users fail with
+     * {@link UsernameNotFoundException} without searching until the negative result expires.
+     * No negative caching is performed by default.
+     *
+     * @param  cache  Negative result cache.
+     */
+    public void setNegativeResultCache(final NegativeResultCache cache) {
+        this.negativeResultCache = cache;
+    }
+
+
+    /**
+     * Sets the component that records the latency of user details lookups, as operation {@value #OP_LOAD_USER}, and of
+     * their user search and role resolution steps, as operations {@value #OP_SEARCH} and {@value #OP_RESOLVE_ROLES}.
+     * Lookups answered from the user details or negative result cache are not recorded.  No metrics are recorded by
+     * default.
+     *
+     * @param  metrics  Operation metrics.
+     */
+    public void setMetrics(final OperationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
+    /**
+     * Sets the limiter of concurrent lookups against the directory.  A lookup, comprising the user search and role
+     * resolution, counts once against the limit; lookups beyond it fail with
+     * {@link ConcurrencyLimitExceededException}.  No limit is applied by default.
+     *
+     * @param  limiter  Concurrency limiter used by this component only, since the cost of operations differs between
+     *                  components.
+     */
+    public void setConcurrencyLimiter(final ConcurrencyLimiter limiter) {
+        this.concurrencyLimiter = limiter;
+    }
+
+
+    /**
+     * Sets the cache of user details.  Fresh details are returned without searching; stale details are returned while
+     * they are refreshed in the background.  No details are cached by default.
+     *
+     * @param  cache  User details cache.
+     */
+    public void setUserDetailsCache(final UserDetailsCache cache) {
+        this.userDetailsCache = cache;
+    }
+
+
+    /**
+     * Sets the executor that refreshes stale user details in the background.  If none is set, a bounded one is
+     * created when first needed and shut down by {@link #destroy()}; an executor that is set is not shut down.
+     * Refreshes rejected by the executor are retried on a later lookup.
+     *
+     * @param  executor  Executor service.
+     */
+    public void setRefreshExecutor(final ExecutorService executor) {
+        this.refreshExecutor = executor;
+    }
+
+
+    /**
+     * Sets the circuit breaker that guards lookups against the directory.  Lookups rejected by the breaker fail with
+     * {@link CircuitOpenException}.  No breaker is used by default.
+     *
+     * @param  breaker  Circuit breaker, which may be shared with other components that use the same directory.
+     */
+    public void setCircuitBreaker(final CircuitBreaker breaker) {
+        this.circuitBreaker = breaker;
+    }
+
+
+    /**
+     * Sets the cache of the last details loaded for each user, which answers lookups that fail because of an LDAP
+     * error, i.e. with {@link LdapLookupException}, an open circuit or the concurrency limit.  No fallback is made by
+     * default.
+     *
+     * @param  cache  Last known good details keyed by normalized username.
+     */
+    public void setLastKnownGoodCache(final ExpiringCache<String, UserDetails> cache) {
+        this.lastKnownGoodCache = cache;
+    }
+
+
+    /**
+     * Forgets everything cached about a user, e.g. because the directory reports that the user entry changed, so that
+     * the next lookup searches for the user.
+     *
+     * @param  username  Username.
+     */
+    public void invalidate(final String username) {
+        final String key = CacheKeys.normalizeUsername(username);
+        if (userDetailsCache != null) {
+            userDetailsCache.remove(key);
+        }
+        if (lastKnownGoodCache != null) {
+            lastKnownGoodCache.remove(key);
+        }
+        if (negativeResultCache != null) {
+            negativeResultCache.remove(username);
+        }
+    }
+
+
+    /**
+     * Forgets all cached and negative results, e.g. because group membership changed or changes to the directory may
+     * have been missed.  Last known good details are kept, since they are only served while the directory is
+     * unavailable.
+     */
+    public void invalidateAll() {
+        if (userDetailsCache != null) {
+            userDetailsCache.clear();
+        }
+        if (negativeResultCache != null) {
+            negativeResultCache.clear();
+        }
+    }
+
+
+    /**
+     * Gets the component that coalesces concurrent lookups of the same user, e.g. to report how many lookups were
+     * saved.
+     *
+     * @return  Lookup coalescer.
+     */
+    public SingleFlight<String, UserDetails> getLookupCoalescer() {
+        return lookups;
+    }
+
+
     @Override
     public void afterPropertiesSet() throws Exception {
         Assert.notNull(userSearchExecutor.getSearchFilter(), "UserSearchExecutor#searchFilter cannot be null.");
         final String userSearchFilter = userSearchExecutor.getSearchFilter().getFilter();
         Assert.notNull(userSearchFilter, "UserSearchExecutor#searchFilter#filter cannot be null.");
-        if (!userSearchFilter.contains(USER_PLACEHOLDER)) {
-            throw new IllegalArgumentException(
-                    "Search filter expression must container user name placeholder " + USER_PLACEHOLDER);
+        userFilterTemplate = new FilterTemplate(userSearchFilter, USER_PARAM);
+
+        // Role resolvers created by this component are not managed by the container
+        if (roleResolver instanceof InitializingBean) {
+            ((InitializingBean) roleResolver).afterPropertiesSet();
         }
+    }
+
 
-        Assert.notNull(userSearchExecutor.getSearchFilter(), "RoleSearchExecutor#searchFilter cannot be null.");
-        final String roleSearchFilter = userSearchExecutor.getSearchFilter().getFilter();
-        Assert.notNull(roleSearchFilter, "RoleSearchExecutor#searchFilter#filter cannot be null.");
-        if (!roleSearchFilter.contains(USER_PLACEHOLDER)) {
-            throw new IllegalArgumentException(
-                    "Search filter expression must container user name placeholder " + USER_PLACEHOLDER);
+    /**
+     * Shuts down the refresh executor if it was created by this service.
+     *
+     * @throws  Exception  Not thrown.
+     */
+    public void destroy() throws Exception {
+        synchronized (this) {
+            if (refreshExecutorCreated) {
+                refreshExecutor.shutdownNow();
+            }
         }
     }
 
 
     @Override
     public UserDetails loadUserByUsername(final String username) throws UsernameNotFoundException {
-        final SearchResult userResult;
+        return loadUserByUsername(username, true);
+    }
+
+
+    /**
+     * Loads user details, optionally bypassing the negative result cache.
+     *
+     * @param  username  Username to look up.
+     * @param  useNegativeCache  True to answer lookups of users recently not found from the negative result cache,
+     *                           false to search regardless.  Search outcomes are recorded in either case.
+     *
+     * @return  User details.
+     *
+     * @throws  UsernameNotFoundException  If no entry exists for the user.
+     */
+    public UserDetails loadUserByUsername(final String username, final boolean useNegativeCache)
+            throws UsernameNotFoundException {
+
+        if (useNegativeCache && negativeResultCache != null && negativeResultCache.isNotFound(username)) {
+            throw new UsernameNotFoundException(username + " not found.");
+        }
+        if (userDetailsCache != null) {
+            final UserDetailsCache.Entry cached = userDetailsCache.get(username);
+            if (cached != null) {
+                logger.debug("Got details for user {} from cache.", username);
+                if (userDetailsCache.isStale(cached)) {
+                    refresh(username);
+                }
+                return cached.getUserDetails();
+            }
+        }
+        final long start = System.nanoTime();
+        Outcome outcome = Outcome.LDAP_ERROR;
+        try {
+            final UserDetails details = lookups.execute(
+                    CacheKeys.normalizeUsername(username),
+                    new Callable<UserDetails>() {
+                        public UserDetails call() {
+                            return guardedLookup(username, useNegativeCache);
+                        }
+                    });
+            outcome = Outcome.SUCCESS;
+            return details;
+        } catch (UsernameNotFoundException e) {
+            outcome = Outcome.NOT_FOUND;
+            throw e;
+        } catch (ConcurrencyLimitExceededException e) {
+            outcome = Outcome.REJECTED;
+            return lastKnownGood(username, e);
+        } catch (CircuitOpenException e) {
+            outcome = Outcome.REJECTED;
+            return lastKnownGood(username, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted fetching details for user.", e);
+        } catch (LdapLookupException e) {
+            return lastKnownGood(username, e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Unexpected error fetching details for user.", e);
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(OP_LOAD_USER, outcome, start);
+            }
+        }
+    }
+
+
+    /**
+     * Looks up a user if the circuit breaker, if any, allows, and reports the outcome to the breaker.  Users that are
+     * not found count as successful lookups; only LDAP errors count as failures, and lookups that fail for other
+     * reasons are ignored.  Details that are found are stored in the user details and last known
+     * good caches, if any; users that are not found are removed from the user details cache.
+     *
+     * @param  username  Username to look up.
+     * @param  useNegativeCache  True if the negative result cache was consulted for this lookup.
+     *
+     * @return  User details.
+     *
+     * @throws  UsernameNotFoundException  If no entry exists for the user.
+     * @throws  CircuitOpenException  If the circuit breaker is open.
+     * @throws  ConcurrencyLimitExceededException  If the concurrency limit has been reached.
+     * @throws  LdapLookupException  On LDAP errors.
+     */
+    private UserDetails guardedLookup(final String username, final boolean useNegativeCache) {
+        if (circuitBreaker != null) {
+            circuitBreaker.acquire();
+        }
+        Boolean failed = null;
+        try {
+            final UserDetails details = limitedLookup(username, useNegativeCache);
+            failed = Boolean.FALSE;
+            if (userDetailsCache != null) {
+                userDetailsCache.put(username, details);
+            }
+            if (lastKnownGoodCache != null) {
+                lastKnownGoodCache.put(
+                        CacheKeys.normalizeUsername(username),
+                        new StaleUserDetails(details, System.currentTimeMillis()));
+            }
+            return details;
+        } catch (UsernameNotFoundException e) {
+            failed = Boolean.FALSE;
+            if (userDetailsCache != null) {
+                userDetailsCache.remove(username);
+            }
+            throw e;
+        } catch (LdapLookupException e) {
+            failed = Boolean.TRUE;
+            throw e;
+        } finally {
+            if (circuitBreaker != null) {
+                if (failed == null) {
+                    circuitBreaker.onIgnored();
+                } else if (failed) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Looks up a user with stale cached details in the background, unless a refresh is already underway, which
+     * replaces the cached details with the result.  The refresh shares the outcome of any concurrent lookup of the same
+     * user.  The stale details are kept if the lookup fails.
+     *
+     * @param  username  Username to look up.
+     */
+    private void refresh(final String username) {
+        final String key = CacheKeys.normalizeUsername(username);
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            getRefreshExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        lookups.execute(key, new Callable<UserDetails>() {
+                            public UserDetails call() {
+                                return guardedLookup(username, false);
+                            }
+                        });
+                    } catch (UsernameNotFoundException e) {
+                        logger.debug("User {} with stale details no longer exists.", username);
+                    } catch (Exception e) {
+                        logger.warn("Cannot refresh stale details for user {}; keeping them.", username, e);
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+            logger.debug("Refresh of {} rejected; will retry on next lookup.", username);
+        }
+    }
+
+
+    /**
+     * Gets the executor that refreshes stale user details, creating it when first needed.
+     *
+     * @return  Refresh executor.
+     */
+    private ExecutorService getRefreshExecutor() {
+        ExecutorService executor = refreshExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = refreshExecutor;
+                if (executor == null) {
+                    executor = BoundedExecutors.newExecutor("userdetails-refresh", REFRESH_THREADS, REFRESH_QUEUE);
+                    refreshExecutor = executor;
+                    refreshExecutorCreated = true;
+                }
+            }
+        }
+        return executor;
+    }
+
+
+    /**
+     * Gets the last details loaded for a user whose lookup failed.
+     *
+     * @param  username  Username that was looked up.
+     * @param  cause  Reason the lookup failed, which is rethrown if there are no last known good details.
+     *
+     * @return  Stale user details.
+     */
+    private UserDetails lastKnownGood(final String username, final RuntimeException cause) {
+        final UserDetails details = lastKnownGoodCache != null
+                ? lastKnownGoodCache.get(CacheKeys.normalizeUsername(username)) : null;
+        if (details == null) {
+            throw cause;
+        }
+        logger.warn("Directory unavailable ({}); loaded last known good details for {}.", cause.getMessage(), username);
+        return details;
+    }
+
+
+    /**
+     * Looks up a user within the concurrency limit, if any.
+     *
+     * @param  username  Username to look up.
+     * @param  useNegativeCache  True if the negative result cache was consulted for this lookup.
+     *
+     * @return  User details.
+     *
+     * @throws  UsernameNotFoundException  If no entry exists for the user.
+     * @throws  ConcurrencyLimitExceededException  If the concurrency limit has been reached.
+     */
+    private UserDetails limitedLookup(final String username, final boolean useNegativeCache) {
+        if (concurrencyLimiter == null) {
+            return lookup(username, useNegativeCache);
+        }
+        concurrencyLimiter.acquire();
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final UserDetails details = lookup(username, useNegativeCache);
+            failed = false;
+            return details;
+        } catch (UsernameNotFoundException e) {
+            failed = false;
+            throw e;
+        } finally {
+            concurrencyLimiter.release(start, failed);
+        }
+    }
+
+
+    /**
+     * Searches for the user entry and resolves the roles of the user.
+     *
+     * @param  username  Username to look up.
+     * @param  useNegativeCache  True if the negative result cache was consulted for this lookup.
+     *
+     * @return  User details.
+     *
+     * @throws  UsernameNotFoundException  If no entry exists for the user.
+     * @throws  LdapLookupException  On LDAP errors.
+     */
+    private UserDetails lookup(final String username, final boolean useNegativeCache) {
+        SearchResult userResult = null;
+        long start = System.nanoTime();
         try {
             logger.debug("Attempting to get details for user {}.", username);
             final Response<SearchResult> response = userSearchExecutor.search(
                     connectionFactory,
-                    filterWithParams(userSearchExecutor, username));
+                    userFilterTemplate.format(username));
             logger.debug("LDAP user search response: {}", response);
             userResult = response.getResult();
         } catch (LdapException e) {
-            throw new RuntimeException("LDAP error fetching details for user.", e);
+            throw new LdapLookupException("LDAP error fetching details for user.", e);
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(OP_SEARCH, outcomeOf(userResult), start);
+            }
         }
         if (userResult.size() == 0) {
+            if (negativeResultCache != null) {
+                negativeResultCache.notFound(username);
+            }
             throw new UsernameNotFoundException(username + " not found.");
         }
+        if (!useNegativeCache && negativeResultCache != null) {
+            negativeResultCache.remove(username);
+        }
         if (userResult.size() > 1 && !allowMultipleResults) {
             throw new IllegalStateException(
                     "Found multiple results for user which is not allowed (allowMultipleResults=false).");
         }
-        final String userDn = userResult.getEntry().getDn();
-        final LdapAttribute userAttribute = userResult.getEntry().getAttribute(userAttributeName);
+        final LdapEntry userEntry = userResult.getEntry();
+        final LdapAttribute userAttribute = userEntry.getAttribute(userAttributeName);
         if (userAttribute == null) {
             throw new IllegalStateException(userAttributeName + " attribute not found in results.");
         }
         final String id = userAttribute.getStringValue();
 
-        final SearchResult roleResult;
+        Collection<String> roleNames = null;
+        start = System.nanoTime();
         try {
-            logger.debug("Attempting to get roles for user {}.", userDn);
-            final Response<SearchResult> response = roleSearchExecutor.search(
-                    connectionFactory,
-                    filterWithParams(roleSearchExecutor, userDn));
-            logger.debug("LDAP role search response: {}", response);
-            roleResult = response.getResult();
+            roleNames = roleResolver.resolveRoles(userEntry);
         } catch (LdapException e) {
-            throw new RuntimeException("LDAP error fetching roles for user.", e);
-        }
-        LdapAttribute roleAttribute;
-        final Collection<SimpleGrantedAuthority> roles = new ArrayList<SimpleGrantedAuthority>(roleResult.size());
-        for (LdapEntry entry : roleResult.getEntries()) {
-            roleAttribute = entry.getAttribute(roleAttributeName);
-            if (roleAttribute == null) {
-                logger.warn("Role attribute not found on entry {}", entry);
-                continue;
+            throw new LdapLookupException("LDAP error fetching roles for user.", e);
+        } finally {
+            if (metrics != null) {
+                metrics.recordSince(OP_RESOLVE_ROLES, roleNames != null ? Outcome.SUCCESS : Outcome.LDAP_ERROR, start);
             }
-            roles.add(new SimpleGrantedAuthority(rolePrefix + roleAttribute.getStringValue().toUpperCase()));
+        }
+        final Collection<SimpleGrantedAuthority> roles = new ArrayList<SimpleGrantedAuthority>(roleNames.size());
+        for (String roleName : roleNames) {
+            roles.add(new SimpleGrantedAuthority(rolePrefix + roleName.toUpperCase()));
         }
 
         return new User(id, UNKNOWN_PASSWORD, roles);
     }
 
 
-
     /**
-     * Constructs a new search filter using {@link SearchExecutor#searchFilter} as a template and
-     * the username as a parameter.
+     * Determines the outcome of a user search.
      *
-     * @param  username  Username parameter of search query.
+     * @param  result  Search result or null if the search failed.
      *
-     * @return  Search filter with parameters applied.
+     * @return  Search outcome.
      */
-    private SearchFilter filterWithParams(final SearchExecutor executor, final String username) {
-        final SearchFilter filter = new SearchFilter();
-        filter.setFilter(executor.getSearchFilter().getFilter());
-        filter.setParameter(USER_PARAM, username);
-        return filter;
+    private static Outcome outcomeOf(final SearchResult result) {
+        if (result == null) {
+            return Outcome.LDAP_ERROR;
+        }
+        return result.size() > 0 ? Outcome.SUCCESS : Outcome.NOT_FOUND;
     }
 }
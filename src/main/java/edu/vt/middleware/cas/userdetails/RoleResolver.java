@@ -0,0 +1,39 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.util.Collection;
+
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+
+/**
+ * Strategy for determining the roles of a user whose entry has been found by {@link LdapUserDetailsService}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public interface RoleResolver {
+
+    /**
+     * Resolves the names of the roles held by a user.
+     *
+     * @param  userEntry  LDAP entry of user.
+     *
+     * @return  Role names, which are converted to granted authorities by the caller.  Never null.
+     *
+     * @throws  LdapException  On LDAP errors resolving roles.
+     */
+    Collection<String> resolveRoles(LdapEntry userEntry) throws LdapException;
+}
@@ -0,0 +1,120 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.validation.constraints.NotNull;
+
+import edu.vt.middleware.cas.ldap.FilterTemplate;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Resolves roles by searching for groups of which the user is a member, e.g. <code>member={dn}</code>, where the
+ * user DN is substituted for the {@value #DN_PARAM} parameter.  For compatibility, a filter without that parameter
+ * may name the user DN {@value LdapUserDetailsService#USER_PARAM} instead.  The role name is taken from an attribute
+ * of each group entry found.  This search commonly occurs on a separate directory branch than that of
+ * the user search.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class SearchRoleResolver implements RoleResolver, InitializingBean {
+
+    /** The name of the user DN parameter in the role search filter expression. */
+    public static final String DN_PARAM = "dn";
+
+    /** User DN placeholder in the role search filter expression. */
+    public static final String DN_PLACEHOLDER = '{' + DN_PARAM + '}';
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Source of LDAP connections. */
+    @NotNull
+    private final ConnectionFactory connectionFactory;
+
+    /** Executes the search query for roles. */
+    @NotNull
+    private final SearchExecutor roleSearchExecutor;
+
+    /** Name of LDAP attribute to be used as the basis for role granted authorities. */
+    @NotNull
+    private final String roleAttributeName;
+
+    /** Role search filter compiled from {@link #roleSearchExecutor}. */
+    private FilterTemplate roleFilterTemplate;
+
+
+    /**
+     * Creates a new instance with the given required parameters.
+     *
+     * @param  factory  Source of LDAP connections for searches.
+     * @param  roleSearchExecutor  Executes the LDAP search for role data.
+     * @param  roleAttributeName  Name of LDAP attribute on group entries that contains the role name.
+     */
+    public SearchRoleResolver(
+            final ConnectionFactory factory,
+            final SearchExecutor roleSearchExecutor,
+            final String roleAttributeName) {
+
+        this.connectionFactory = factory;
+        this.roleSearchExecutor = roleSearchExecutor;
+        this.roleAttributeName = roleAttributeName;
+    }
+
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(roleSearchExecutor.getSearchFilter(), "RoleSearchExecutor#searchFilter cannot be null.");
+        final String roleSearchFilter = roleSearchExecutor.getSearchFilter().getFilter();
+        Assert.notNull(roleSearchFilter, "RoleSearchExecutor#searchFilter#filter cannot be null.");
+        roleFilterTemplate = new FilterTemplate(
+                roleSearchFilter,
+                roleSearchFilter.contains(DN_PLACEHOLDER) ? DN_PARAM : LdapUserDetailsService.USER_PARAM);
+    }
+
+
+    @Override
+    public Collection<String> resolveRoles(final LdapEntry userEntry) throws LdapException {
+        logger.debug("Attempting to get roles for user {}.", userEntry.getDn());
+        final Response<SearchResult> response = roleSearchExecutor.search(
+                connectionFactory,
+                roleFilterTemplate.format(userEntry.getDn()));
+        logger.debug("LDAP role search response: {}", response);
+        final SearchResult roleResult = response.getResult();
+        LdapAttribute roleAttribute;
+        final Collection<String> roles = new ArrayList<String>(roleResult.size());
+        for (LdapEntry entry : roleResult.getEntries()) {
+            roleAttribute = entry.getAttribute(roleAttributeName);
+            if (roleAttribute == null) {
+                logger.warn("Role attribute not found on entry {}", entry);
+                continue;
+            }
+            roles.add(roleAttribute.getStringValue());
+        }
+        return roles;
+    }
+}
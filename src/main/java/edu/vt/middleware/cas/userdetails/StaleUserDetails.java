@@ -0,0 +1,62 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * User details that were loaded from the directory at some time in the past and have not been verified since, e.g.
+ * the last known good details served while the directory is unavailable.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class StaleUserDetails extends User {
+
+    /** Serialization version. */
+    private static final long serialVersionUID = -3019374516201947284L;
+
+    /** Time in milliseconds since the epoch when the details were loaded. */
+    private final long timestamp;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  details  User details to copy.
+     * @param  timestamp  Time in milliseconds since the epoch when the details were loaded.
+     */
+    public StaleUserDetails(final UserDetails details, final long timestamp) {
+        super(
+                details.getUsername(),
+                details.getPassword(),
+                details.isEnabled(),
+                details.isAccountNonExpired(),
+                details.isCredentialsNonExpired(),
+                details.isAccountNonLocked(),
+                details.getAuthorities());
+        this.timestamp = timestamp;
+    }
+
+
+    /**
+     * Gets the time in milliseconds since the epoch when the details were loaded.
+     *
+     * @return  Time in milliseconds since the epoch when the details were loaded.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
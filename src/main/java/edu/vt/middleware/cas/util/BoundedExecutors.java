@@ -0,0 +1,237 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates executors that bound the number of tasks in flight and reject work beyond that bound rather than queue it
+ * without limit.  On a JVM that supports virtual threads, tasks run on a new virtual thread each, so tasks blocked on
+ * LDAP I/O do not tie up platform threads; otherwise a fixed pool of daemon threads with a bounded queue is used.
+ * Suitable for use as a Spring <code>factory-method</code>.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public final class BoundedExecutors {
+
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedExecutors.class);
+
+    /** Factory method for virtual thread executors, or null if unsupported by the running JVM. */
+    private static final Method VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+
+
+    /**
+     * Utility class.
+     */
+    private BoundedExecutors() {}
+
+
+    /**
+     * Creates a bounded executor, preferring virtual threads when the JVM supports them.
+     *
+     * @param  name  Prefix of executor thread names.
+     * @param  maxThreads  Maximum number of concurrently executing tasks.
+     * @param  queueSize  Maximum number of tasks waiting to execute.  With virtual threads, each waiting task is a
+     *                    virtual thread parked until one of the executing tasks completes.
+     *
+     * @return  Bounded executor service.
+     */
+    public static ExecutorService newExecutor(final String name, final int maxThreads, final int queueSize) {
+        if (VIRTUAL_THREAD_FACTORY != null) {
+            try {
+                final ExecutorService virtual = (ExecutorService) VIRTUAL_THREAD_FACTORY.invoke(null);
+                LOGGER.debug("Created virtual thread executor {}.", name);
+                return new PermitExecutorService(virtual, maxThreads, queueSize);
+            } catch (Exception e) {
+                LOGGER.warn("Cannot create virtual thread executor; falling back to platform threads.", e);
+            }
+        }
+        return newThreadPoolExecutor(name, maxThreads, queueSize);
+    }
+
+
+    /**
+     * Creates a fixed size pool of daemon platform threads with a bounded queue.
+     *
+     * @param  name  Prefix of executor thread names.
+     * @param  maxThreads  Number of threads.
+     * @param  queueSize  Maximum number of tasks waiting for a thread.
+     *
+     * @return  Thread pool executor that rejects tasks when its queue is full and lets threads idle for a minute exit.
+     */
+    public static ExecutorService newThreadPoolExecutor(final String name, final int maxThreads, final int queueSize) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxThreads,
+                maxThreads,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                new NamedThreadFactory(name),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
+    /**
+     * Looks up <code>Executors#newVirtualThreadPerTaskExecutor()</code>.
+     *
+     * @return  Factory method or null if not supported.
+     */
+    private static Method findVirtualThreadFactory() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+
+    /** Creates named daemon threads. */
+    public static final class NamedThreadFactory implements ThreadFactory {
+
+        /** Thread name prefix. */
+        private final String prefix;
+
+        /** Thread counter. */
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        /**
+         * Creates a new thread factory.
+         *
+         * @param  prefix  Thread name prefix.
+         */
+        public NamedThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, prefix + '-' + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+
+    /**
+     * Executor service that bounds the tasks of an unbounded delegate like a thread pool with a bounded queue: at most
+     * a given number of tasks execute at once, at most a given number more wait for them in arrival order, and further
+     * tasks are rejected.  A waiting task holds a delegate thread parked on a semaphore, which is cheap for virtual
+     * threads.
+     */
+    static final class PermitExecutorService extends AbstractExecutorService {
+
+        /** Executor that runs tasks. */
+        private final ExecutorService delegate;
+
+        /** Permits for tasks executing or waiting to execute. */
+        private final Semaphore admitted;
+
+        /** Permits for executing tasks. */
+        private final Semaphore running;
+
+
+        /**
+         * Creates a new instance.
+         *
+         * @param  delegate  Executor that runs tasks.
+         * @param  maxRunning  Maximum number of concurrently executing tasks.
+         * @param  queueSize  Maximum number of tasks waiting to execute.
+         */
+        PermitExecutorService(final ExecutorService delegate, final int maxRunning, final int queueSize) {
+            this.delegate = delegate;
+            this.admitted = new Semaphore(maxRunning + Math.max(0, queueSize));
+            this.running = new Semaphore(maxRunning, true);
+        }
+
+
+        @Override
+        public void execute(final Runnable command) {
+            if (!admitted.tryAcquire()) {
+                throw new RejectedExecutionException("Too many tasks in flight.");
+            }
+            try {
+                delegate.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            running.acquire();
+                        } catch (InterruptedException e) {
+                            // Shut down while waiting; drop the task as a thread pool drops its queue
+                            admitted.release();
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        try {
+                            command.run();
+                        } finally {
+                            running.release();
+                            admitted.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admitted.release();
+                throw e;
+            }
+        }
+
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calling the directory while it is failing, so that callers fail immediately instead of each waiting out
+ * connect and checkout timeouts.  The breaker records the outcomes of the most recent calls:
+ * <ul>
+ *   <li>While closed, calls are allowed.  Once at least the minimum number of calls have been recorded and the
+ *   fraction that failed reaches the failure rate threshold, the breaker opens.</li>
+ *   <li>While open, calls are rejected.  After the open duration the breaker becomes half open.</li>
+ *   <li>While half open, up to the number of trial calls are allowed.  If they all succeed the breaker closes; if any
+ *   fails it opens again.</li>
+ * </ul>
+ * Callers use {@link #acquire()} or {@link #allowRequest()} before a call and report its outcome with
+ * {@link #onSuccess()} or {@link #onFailure()}.  Outcomes that show the directory answered, such as an entry not
+ * being found, are successes; a call that was allowed but not made is reported with {@link #onIgnored()}.  Every
+ * state change is logged.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class CircuitBreaker {
+
+    /** State of a circuit breaker. */
+    public enum State {
+
+        /** Calls are allowed. */
+        CLOSED,
+
+        /** Calls are rejected. */
+        OPEN,
+
+        /** A limited number of trial calls are allowed. */
+        HALF_OPEN
+    }
+
+    /** Default number of recent calls whose outcome is recorded. */
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+
+    /** Default number of recorded calls needed before the breaker may open. */
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+
+    /** Default fraction of recorded calls that must fail to open the breaker. */
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+
+    /** Default time in milliseconds the breaker stays open. */
+    public static final long DEFAULT_OPEN_DURATION = 30000;
+
+    /** Default number of trial calls while half open. */
+    public static final int DEFAULT_TRIAL_CALLS = 3;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Name of the breaker. */
+    private final String name;
+
+    /** Exception thrown by {@link #acquire()}. */
+    private final CircuitOpenException rejection;
+
+    /** Number of recorded calls needed before the breaker may open. */
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+
+    /** Fraction of recorded calls that must fail to open the breaker. */
+    private double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+
+    /** Time in milliseconds the breaker stays open. */
+    private long openDuration = DEFAULT_OPEN_DURATION;
+
+    /** Number of trial calls while half open. */
+    private int trialCalls = DEFAULT_TRIAL_CALLS;
+
+    /** Outcomes of recent calls, true for failure, used as a ring buffer. */
+    private boolean[] window = new boolean[DEFAULT_WINDOW_SIZE];
+
+    /** Index of the next outcome in the window. */
+    private int next;
+
+    /** Number of recorded outcomes, at most the window size. */
+    private int recorded;
+
+    /** Number of recorded failures. */
+    private int failures;
+
+    /** Current state. */
+    private volatile State state = State.CLOSED;
+
+    /** Time the breaker last opened in milliseconds since the epoch. */
+    private long openedAt;
+
+    /** Number of trial calls allowed since the breaker became half open. */
+    private int trialsStarted;
+
+    /** Number of trial calls that succeeded since the breaker became half open. */
+    private int trialsSucceeded;
+
+    /** Number of rejected calls. */
+    private long rejectedCount;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  name  Name of the breaker used in logs and errors.
+     */
+    public CircuitBreaker(final String name) {
+        this.name = name;
+        this.rejection = new CircuitOpenException(name);
+    }
+
+
+    /**
+     * Sets the number of recent calls whose outcome is recorded.  The default is {@value #DEFAULT_WINDOW_SIZE}.
+     *
+     * @param  size  Number of calls.
+     */
+    public synchronized void setWindowSize(final int size) {
+        this.window = new boolean[size];
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+
+    /**
+     * Sets the number of recorded calls needed before the breaker may open.  The default is
+     * {@value #DEFAULT_MINIMUM_CALLS}.
+     *
+     * @param  calls  Number of calls, at most the window size.
+     */
+    public void setMinimumCalls(final int calls) {
+        this.minimumCalls = calls;
+    }
+
+
+    /**
+     * Sets the fraction of recorded calls that must fail to open the breaker.  The default is
+     * {@value #DEFAULT_FAILURE_RATE_THRESHOLD}.
+     *
+     * @param  threshold  Fraction between 0 and 1.
+     */
+    public void setFailureRateThreshold(final double threshold) {
+        this.failureRateThreshold = threshold;
+    }
+
+
+    /**
+     * Sets the time the breaker stays open before allowing trial calls.  The default is
+     * {@value #DEFAULT_OPEN_DURATION}.
+     *
+     * @param  duration  Duration in milliseconds.
+     */
+    public void setOpenDuration(final long duration) {
+        this.openDuration = duration;
+    }
+
+
+    /**
+     * Sets the number of trial calls allowed while half open.  The default is {@value #DEFAULT_TRIAL_CALLS}.
+     *
+     * @param  calls  Number of calls.
+     */
+    public void setTrialCalls(final int calls) {
+        this.trialCalls = calls;
+    }
+
+
+    /**
+     * Determines whether a call may proceed.  A call that is allowed must be followed by {@link #onSuccess()},
+     * {@link #onFailure()} or {@link #onIgnored()}.
+     *
+     * @return  True if the call may proceed, false if it is rejected.
+     */
+    public boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (currentTimeMillis() - openedAt < openDuration) {
+                    rejectedCount++;
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                trialsStarted = 0;
+                trialsSucceeded = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialsStarted >= trialCalls) {
+                    rejectedCount++;
+                    return false;
+                }
+                trialsStarted++;
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Determines whether a call may proceed.  A call that is allowed must be followed by {@link #onSuccess()},
+     * {@link #onFailure()} or {@link #onIgnored()}.
+     *
+     * @throws  CircuitOpenException  If the call is rejected.
+     */
+    public void acquire() throws CircuitOpenException {
+        if (!allowRequest()) {
+            throw rejection;
+        }
+    }
+
+
+    /**
+     * Records that an allowed call succeeded.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++trialsSucceeded >= trialCalls) {
+                reset();
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        record(false);
+    }
+
+
+    /**
+     * Records that an allowed call failed.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && recorded >= minimumCalls &&
+                (double) failures / recorded >= failureRateThreshold) {
+            open();
+        }
+    }
+
+
+    /**
+     * Records that an allowed call was not made or that its outcome says nothing about the health of the directory.
+     * A trial call while half open may then be made by another caller.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && trialsStarted > 0) {
+            trialsStarted--;
+        }
+    }
+
+
+    /**
+     * Gets the name of the breaker.
+     *
+     * @return  Name of the breaker.
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Gets the current state.
+     *
+     * @return  Current state.
+     */
+    public State getState() {
+        return state;
+    }
+
+
+    /**
+     * Gets the fraction of recorded calls that failed.
+     *
+     * @return  Fraction of recorded calls that failed.
+     */
+    public synchronized double getFailureRate() {
+        return recorded > 0 ? (double) failures / recorded : 0;
+    }
+
+
+    /**
+     * Gets the number of rejected calls.
+     *
+     * @return  Number of rejected calls.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::name=%s, state=%s, failureRate=%.2f, rejected=%s",
+                getClass().getName(),
+                hashCode(),
+                name,
+                state,
+                getFailureRate(),
+                getRejectedCount());
+    }
+
+
+    /**
+     * Gets the current time.  Overridden in tests.
+     *
+     * @return  Milliseconds since the epoch.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+
+    /**
+     * Records an outcome in the window.
+     *
+     * @param  failure  True if the call failed.
+     */
+    private void record(final boolean failure) {
+        if (recorded == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+
+    /**
+     * Opens the breaker.
+     */
+    private void open() {
+        openedAt = currentTimeMillis();
+        reset();
+        transition(State.OPEN);
+    }
+
+
+    /**
+     * Discards recorded outcomes.
+     */
+    private void reset() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+
+    /**
+     * Changes the state and logs the change.
+     *
+     * @param  to  New state.
+     */
+    private void transition(final State to) {
+        if (state != to) {
+            if (to == State.OPEN) {
+                logger.warn("Circuit {} changed from {} to {}.", new Object[] {name, state, to});
+            } else {
+                logger.info("Circuit {} changed from {} to {}.", new Object[] {name, state, to});
+            }
+            state = to;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+/**
+ * Thrown when an operation is not attempted because a {@link CircuitBreaker} is open.  The exception carries no stack
+ * trace and each breaker throws the same instance.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    /** Serial version uid. */
+    private static final long serialVersionUID = 3308702391254119542L;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  name  Name of the circuit breaker.
+     */
+    public CircuitOpenException(final String name) {
+        super("Circuit " + name + " is open.");
+    }
+
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+/**
+ * Thrown when an operation is rejected by a {@link ConcurrencyLimiter}.  Rejections are expected under overload, so
+ * the exception carries no stack trace and each limiter throws the same instance.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    /** Serial version uid. */
+    private static final long serialVersionUID = -4128035713384405542L;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  name  Name of the limiter.
+     */
+    public ConcurrencyLimitExceededException(final String name) {
+        super("Concurrency limit of " + name + " exceeded.");
+    }
+
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrent directory operations to what the directory can sustain, discovering that number
+ * from observed latency by additive increase, multiplicative decrease (AIMD).  The limiter keeps two exponentially
+ * weighted moving averages of latency: a baseline over a long window of {@link #setBaselineWindow(int) baseline
+ * window} operations, and a recent latency over a short window of {@link #setSampleWindow(int) sample window}
+ * operations.  When the recent latency exceeds the tolerance times the baseline or the maximum latency, or an
+ * operation fails, the directory is taken to be overloaded and the limit is multiplied by the backoff ratio, at most
+ * once per recent latency.  Other operations that complete while the limit is at least half used raise the limit by
+ * one per limit's worth of operations.
+ * <p>
+ * Since both averages describe the same mix of operations, a steady mix of cheap and expensive operations does not
+ * signal overload; a rise in latency across the mix does.  Operations of very different cost, e.g. authentication
+ * and principal resolution, should nevertheless use separate limiters so that a change in the mix is not mistaken for
+ * overload.
+ * </p>
+ * <p>
+ * Operations beyond the limit are rejected immediately instead of queueing for the directory, so under overload some
+ * requests fail fast while the rest complete in normal time.  Callers pair a successful {@link #tryAcquire()} with
+ * {@link #release(long, boolean)}, or use {@link #acquire()}, which throws a preallocated
+ * {@link ConcurrencyLimitExceededException}.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ConcurrencyLimiter {
+
+    /** Default initial limit. */
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+
+    /** Default lower bound of the limit. */
+    public static final int DEFAULT_MIN_LIMIT = 2;
+
+    /** Default upper bound of the limit. */
+    public static final int DEFAULT_MAX_LIMIT = 200;
+
+    /** Default factor applied to the limit on overload. */
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    /** Default multiple of the baseline latency above which an operation signals overload. */
+    public static final double DEFAULT_TOLERANCE = 2.0;
+
+    /** Default number of operations over which the baseline latency is averaged. */
+    public static final int DEFAULT_BASELINE_WINDOW = 500;
+
+    /** Default number of operations over which the recent latency is averaged. */
+    public static final int DEFAULT_SAMPLE_WINDOW = 10;
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Name of the limiter. */
+    private final String name;
+
+    /** Exception thrown by {@link #acquire()}. */
+    private final ConcurrencyLimitExceededException rejection;
+
+    /** Number of operations in progress. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** Number of rejected operations. */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** Lower bound of the limit. */
+    private int minLimit = DEFAULT_MIN_LIMIT;
+
+    /** Upper bound of the limit. */
+    private int maxLimit = DEFAULT_MAX_LIMIT;
+
+    /** Factor applied to the limit on overload. */
+    private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+
+    /** Multiple of the baseline latency above which an operation signals overload. */
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    /** Recent latency in nanoseconds above which the directory is taken to be overloaded; zero for none. */
+    private long maxLatency;
+
+    /** Number of operations over which the baseline latency is averaged. */
+    private int baselineWindow = DEFAULT_BASELINE_WINDOW;
+
+    /** Number of operations over which the recent latency is averaged. */
+    private int sampleWindow = DEFAULT_SAMPLE_WINDOW;
+
+    /** Current limit. */
+    private volatile double limit = DEFAULT_INITIAL_LIMIT;
+
+    /** Baseline latency in nanoseconds, averaged over the baseline window; zero until an operation completes. */
+    private double baseline;
+
+    /** Recent latency in nanoseconds, averaged over the sample window; zero until an operation completes. */
+    private double recent;
+
+    /** Number of operations that completed without failure. */
+    private long samples;
+
+    /** Time of the last decrease of the limit. */
+    private long lastDecrease;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param  name  Name of the limiter used in logs and errors.
+     */
+    public ConcurrencyLimiter(final String name) {
+        this.name = name;
+        this.rejection = new ConcurrencyLimitExceededException(name);
+        this.lastDecrease = System.nanoTime();
+    }
+
+
+    /**
+     * Sets the initial limit.  The default is {@value #DEFAULT_INITIAL_LIMIT}.
+     *
+     * @param  initial  Number of concurrent operations.
+     */
+    public void setInitialLimit(final int initial) {
+        this.limit = initial;
+    }
+
+
+    /**
+     * Sets the lower bound of the limit.  The default is {@value #DEFAULT_MIN_LIMIT}.
+     *
+     * @param  min  Number of concurrent operations.
+     */
+    public void setMinLimit(final int min) {
+        this.minLimit = min;
+    }
+
+
+    /**
+     * Sets the upper bound of the limit.  The default is {@value #DEFAULT_MAX_LIMIT}.
+     *
+     * @param  max  Number of concurrent operations.
+     */
+    public void setMaxLimit(final int max) {
+        this.maxLimit = max;
+    }
+
+
+    /**
+     * Sets the factor applied to the limit on overload.  The default is {@value #DEFAULT_BACKOFF_RATIO}.
+     *
+     * @param  ratio  Ratio between 0 and 1.
+     */
+    public void setBackoffRatio(final double ratio) {
+        this.backoffRatio = ratio;
+    }
+
+
+    /**
+     * Sets the multiple of the baseline latency above which the recent latency signals overload.  The default is
+     * {@value #DEFAULT_TOLERANCE}.
+     *
+     * @param  tolerance  Multiple greater than 1.
+     */
+    public void setTolerance(final double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+
+    /**
+     * Sets the recent latency above which the directory is taken to be overloaded regardless of the baseline.  Not
+     * set by default.
+     *
+     * @param  millis  Latency in milliseconds; zero for none.
+     */
+    public void setMaxLatency(final long millis) {
+        this.maxLatency = millis * (long) NANOS_PER_MILLI;
+    }
+
+
+    /**
+     * Sets the number of operations over which the baseline latency is averaged.  A longer window makes the baseline
+     * follow a sustained change in latency more slowly.  The default is {@value #DEFAULT_BASELINE_WINDOW}.
+     *
+     * @param  window  Number of operations; must be greater than the sample window.
+     */
+    public void setBaselineWindow(final int window) {
+        this.baselineWindow = window;
+    }
+
+
+    /**
+     * Sets the number of operations over which the recent latency is averaged.  The default is
+     * {@value #DEFAULT_SAMPLE_WINDOW}.
+     *
+     * @param  window  Number of operations.
+     */
+    public void setSampleWindow(final int window) {
+        this.sampleWindow = window;
+    }
+
+
+    /**
+     * Starts an operation if the limit allows.
+     *
+     * @return  True if the operation may proceed and must be followed by {@link #release(long, boolean)}, false if it
+     *          was rejected.
+     */
+    public boolean tryAcquire() {
+        final int current = (int) limit;
+        while (true) {
+            final int n = inFlight.get();
+            if (n >= current) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Starts an operation if the limit allows.
+     *
+     * @throws  ConcurrencyLimitExceededException  If the operation was rejected.
+     */
+    public void acquire() throws ConcurrencyLimitExceededException {
+        if (!tryAcquire()) {
+            throw rejection;
+        }
+    }
+
+
+    /**
+     * Completes an operation started by {@link #tryAcquire()} or {@link #acquire()} and adjusts the limit.
+     *
+     * @param  startNanos  Value of {@link System#nanoTime()} when the operation started.
+     * @param  failed  True if the operation failed with an error that may indicate overload, e.g. a timeout.
+     */
+    public void release(final long startNanos, final boolean failed) {
+        final long now = System.nanoTime();
+        final int active = inFlight.getAndDecrement();
+        update(now, now - startNanos, failed, active);
+    }
+
+
+    /**
+     * Gets the name of the limiter.
+     *
+     * @return  Name of the limiter.
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Gets the current limit.
+     *
+     * @return  Current limit.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+
+    /**
+     * Gets the number of operations in progress.
+     *
+     * @return  Number of operations in progress.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+
+    /**
+     * Gets the number of rejected operations.
+     *
+     * @return  Number of rejected operations.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+
+    /**
+     * Gets the baseline latency in milliseconds.
+     *
+     * @return  Baseline latency in milliseconds.
+     */
+    public synchronized double getBaseline() {
+        return baseline / NANOS_PER_MILLI;
+    }
+
+
+    /**
+     * Gets the recent latency in milliseconds.
+     *
+     * @return  Recent latency in milliseconds.
+     */
+    public synchronized double getRecentLatency() {
+        return recent / NANOS_PER_MILLI;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::name=%s, limit=%s, inFlight=%s, rejected=%s, baseline=%.1fms, recent=%.1fms",
+                getClass().getName(),
+                hashCode(),
+                name,
+                getLimit(),
+                getInFlight(),
+                getRejectedCount(),
+                getBaseline(),
+                getRecentLatency());
+    }
+
+
+    /**
+     * Adjusts the latency averages and the limit for a completed operation.
+     *
+     * @param  now  Time the operation completed.
+     * @param  latency  Latency of the operation in nanoseconds.
+     * @param  failed  True if the operation failed.
+     * @param  active  Number of operations in progress when it completed, including itself.
+     */
+    private synchronized void update(final long now, final long latency, final boolean failed, final int active) {
+        if (!failed) {
+            samples++;
+            // Plain mean until a window is full, so the first operations do not dominate the average
+            baseline += (latency - baseline) * Math.max(1.0 / samples, 2.0 / (baselineWindow + 1));
+            recent += (latency - recent) * Math.max(1.0 / samples, 2.0 / (sampleWindow + 1));
+        }
+        final boolean overloaded = failed ||
+                recent > baseline * tolerance ||
+                (maxLatency > 0 && recent > maxLatency);
+        double next = limit;
+        if (overloaded) {
+            // Back off once per round trip rather than once per slow operation in flight
+            if (now - lastDecrease > recent) {
+                next = Math.max(minLimit, next * backoffRatio);
+                lastDecrease = now;
+            }
+        } else if (active * 2 >= next) {
+            next = Math.min(maxLimit, next + 1 / next);
+        }
+        limit = next;
+    }
+}
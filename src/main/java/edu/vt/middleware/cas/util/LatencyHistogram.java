@@ -0,0 +1,273 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies with microsecond resolution and a relative error of at most 12.5%.  Values below
+ * 16 microseconds are counted exactly; larger values fall in one of eight buckets per power of two.  Recording is a
+ * few atomic increments, so the histogram may be updated on every request without contention.  Percentiles are
+ * computed from a snapshot of the counts and are therefore approximate while recording continues.
+ * <p>
+ * {@link #decay()} halves the counts so percentiles, mean and maximum describe recent latencies, while
+ * {@link #getTotalCount()} and {@link #getTotalNanos()} keep accumulating so that rates and means over an interval
+ * can be computed from their difference.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LatencyHistogram {
+
+    /** Number of bits that select a sub-bucket within a power of two. */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** Number of sub-buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Number of exactly counted values; the smallest power of two with a full set of sub-buckets. */
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS << 1;
+
+    /** Exponent of the smallest value counted in sub-buckets. */
+    private static final int MIN_EXPONENT = SUB_BUCKET_BITS + 1;
+
+    /** Exponent of the largest value that can be recorded, about 12 days in microseconds. */
+    private static final int MAX_EXPONENT = 39;
+
+    /** Total number of buckets. */
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+    /** Largest value that can be recorded in microseconds. */
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    /** Counts per bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /** Number of recorded values. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Sum of recorded values in microseconds. */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** Largest recorded value in microseconds. */
+    private final AtomicLong max = new AtomicLong();
+
+    /** Number of values recorded since creation or reset, not reduced by decay. */
+    private final AtomicLong totalCount = new AtomicLong();
+
+    /** Sum of values recorded since creation or reset in microseconds, not reduced by decay. */
+    private final AtomicLong totalSum = new AtomicLong();
+
+
+    /**
+     * Records a latency.
+     *
+     * @param  nanos  Latency in nanoseconds; negative values are recorded as zero.
+     */
+    public void record(final long nanos) {
+        final long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get())) {
+            if (max.compareAndSet(current, micros)) {
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Gets the latency at or below which the given percentage of recorded latencies fall.
+     *
+     * @param  percentile  Percentile between 0 and 100.
+     *
+     * @return  Upper bound of the bucket that contains the percentile in nanoseconds, or zero if nothing has been
+     *          recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return Math.min(upperBoundOf(i), max.get()) * 1000;
+            }
+        }
+        return max.get() * 1000;
+    }
+
+
+    /**
+     * Gets the number of recorded latencies.
+     *
+     * @return  Count.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+
+    /**
+     * Gets the number of latencies recorded since creation or reset, which is not reduced by {@link #decay()}.
+     *
+     * @return  Total count.
+     */
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+
+    /**
+     * Gets the sum of latencies recorded since creation or reset, which is not reduced by {@link #decay()}.
+     *
+     * @return  Total latency in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalSum.get() * 1000;
+    }
+
+
+    /**
+     * Gets the mean of recorded latencies.
+     *
+     * @return  Mean latency in nanoseconds, or zero if nothing has been recorded.
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : sum.get() * 1000.0 / n;
+    }
+
+
+    /**
+     * Gets the largest recorded latency.
+     *
+     * @return  Maximum latency in nanoseconds.
+     */
+    public long getMax() {
+        return max.get() * 1000;
+    }
+
+
+    /**
+     * Halves all counts, rounding down, so that older latencies carry less weight than newer ones and a latency
+     * recorded once is forgotten.  The sum is reduced by the share of the bucketed latencies that was removed and the
+     * maximum is lowered to the upper bound of the largest bucket that is still counted.  Latencies recorded
+     * concurrently may be partly decayed.
+     */
+    public void decay() {
+        long removed = 0;
+        double weight = 0;
+        double removedWeight = 0;
+        int highest = -1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long c = counts.get(i);
+            if (c > 0) {
+                final long r = c - (c >> 1);
+                counts.addAndGet(i, -r);
+                removed += r;
+                weight += (double) c * upperBoundOf(i);
+                removedWeight += (double) r * upperBoundOf(i);
+                if (c > 1) {
+                    highest = i;
+                }
+            }
+        }
+        count.addAndGet(-removed);
+        if (weight > 0) {
+            final long s = sum.get();
+            sum.addAndGet(-(long) (s * (removedWeight / weight)));
+        }
+        final long m = max.get();
+        max.compareAndSet(m, highest < 0 ? 0 : Math.min(upperBoundOf(highest), m));
+    }
+
+
+    /**
+     * Discards all recorded latencies.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+        totalCount.set(0);
+        totalSum.set(0);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::count=%s, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+                getClass().getName(),
+                hashCode(),
+                getCount(),
+                getMean() / 1e6,
+                getValueAtPercentile(50) / 1e6,
+                getValueAtPercentile(99) / 1e6,
+                getMax() / 1e6);
+    }
+
+
+    /**
+     * Gets the bucket that counts the given value.
+     *
+     * @param  micros  Value in microseconds.
+     *
+     * @return  Bucket index.
+     */
+    static int bucketOf(final long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+
+    /**
+     * Gets the largest value counted by the given bucket.
+     *
+     * @param  bucket  Bucket index.
+     *
+     * @return  Upper bound in microseconds.
+     */
+    static long upperBoundOf(final int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + MIN_EXPONENT;
+        final int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+}
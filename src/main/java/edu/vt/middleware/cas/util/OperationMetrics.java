@@ -0,0 +1,194 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms of named operations, one per {@link Outcome}.  Recording is lock-free; a histogram is created
+ * the first time an operation is recorded and reused thereafter.  A single instance is typically shared by all
+ * components so that their operations can be reported together, e.g. by
+ * {@link edu.vt.middleware.cas.monitor.OperationMetricsMonitor}.
+ * <p>
+ * Operation names that contain a dot denote a step of the operation named by the part before the first dot, e.g.
+ * <code>authentication.bind</code> is timed within <code>authentication</code>.  All histograms are decayed every
+ * {@link #setDecayInterval(long) decay interval} so that their percentiles describe recent operations.
+ * </p>
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class OperationMetrics {
+
+    /** Default interval between decays of all histograms in milliseconds. */
+    public static final long DEFAULT_DECAY_INTERVAL = 60000;
+
+    /** Histograms per outcome by operation name. */
+    private final ConcurrentMap<String, LatencyHistogram[]> operations =
+            new ConcurrentHashMap<String, LatencyHistogram[]>();
+
+    /** Interval between decays of all histograms in milliseconds. */
+    private volatile long decayInterval = DEFAULT_DECAY_INTERVAL;
+
+    /** System time of the next decay. */
+    private final AtomicLong nextDecay = new AtomicLong(System.currentTimeMillis() + DEFAULT_DECAY_INTERVAL);
+
+
+    /**
+     * Sets the interval between decays of all histograms, each of which halves their counts.  Latencies older than a
+     * few intervals hardly affect percentiles.  The default is {@value #DEFAULT_DECAY_INTERVAL}.
+     *
+     * @param  interval  Interval in milliseconds; a value that is not positive never decays histograms.
+     */
+    public void setDecayInterval(final long interval) {
+        this.decayInterval = interval;
+        nextDecay.set(System.currentTimeMillis() + interval);
+    }
+
+
+    /**
+     * Determines whether an operation is a step of another operation.
+     *
+     * @param  operation  Operation name.
+     *
+     * @return  True if the name contains a dot, false otherwise.
+     */
+    public static boolean isStep(final String operation) {
+        return operation.indexOf('.') >= 0;
+    }
+
+
+    /**
+     * Records the latency of an operation.
+     *
+     * @param  operation  Operation name.
+     * @param  outcome  Outcome of the operation.
+     * @param  nanos  Latency in nanoseconds.
+     */
+    public void record(final String operation, final Outcome outcome, final long nanos) {
+        histogramsOf(operation)[outcome.ordinal()].record(nanos);
+        decayIfDue();
+    }
+
+
+    /**
+     * Records the latency of an operation that started at the given time and ended now.
+     *
+     * @param  operation  Operation name.
+     * @param  outcome  Outcome of the operation.
+     * @param  startNanos  Start time as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(final String operation, final Outcome outcome, final long startNanos) {
+        record(operation, outcome, System.nanoTime() - startNanos);
+    }
+
+
+    /**
+     * Gets the names of all recorded operations.
+     *
+     * @return  Sorted operation names.
+     */
+    public Set<String> getOperations() {
+        return Collections.unmodifiableSet(new TreeSet<String>(operations.keySet()));
+    }
+
+
+    /**
+     * Gets the histogram of an operation with a given outcome.
+     *
+     * @param  operation  Operation name.
+     * @param  outcome  Outcome.
+     *
+     * @return  Latency histogram or null if the operation has never been recorded.
+     */
+    public LatencyHistogram getHistogram(final String operation, final Outcome outcome) {
+        final LatencyHistogram[] histograms = operations.get(operation);
+        return histograms != null ? histograms[outcome.ordinal()] : null;
+    }
+
+
+    /**
+     * Discards all recorded latencies.
+     */
+    public void reset() {
+        for (LatencyHistogram[] histograms : operations.values()) {
+            for (LatencyHistogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+    }
+
+
+    /**
+     * Halves the counts of all histograms.
+     */
+    public void decay() {
+        for (LatencyHistogram[] histograms : operations.values()) {
+            for (LatencyHistogram histogram : histograms) {
+                histogram.decay();
+            }
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s::operations=%s", getClass().getName(), hashCode(), getOperations());
+    }
+
+
+    /**
+     * Decays all histograms if the decay interval has elapsed, on at most one of the threads that observe it.
+     */
+    private void decayIfDue() {
+        final long interval = decayInterval;
+        if (interval <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long due = nextDecay.get();
+        if (now >= due && nextDecay.compareAndSet(due, now + interval)) {
+            decay();
+        }
+    }
+
+
+    /**
+     * Gets the histograms of an operation, creating them if necessary.
+     *
+     * @param  operation  Operation name.
+     *
+     * @return  Histograms indexed by outcome ordinal.
+     */
+    private LatencyHistogram[] histogramsOf(final String operation) {
+        LatencyHistogram[] histograms = operations.get(operation);
+        if (histograms == null) {
+            final Outcome[] outcomes = Outcome.values();
+            histograms = new LatencyHistogram[outcomes.length];
+            for (int i = 0; i < outcomes.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            final LatencyHistogram[] existing = operations.putIfAbsent(operation, histograms);
+            if (existing != null) {
+                histograms = existing;
+            }
+        }
+        return histograms;
+    }
+}
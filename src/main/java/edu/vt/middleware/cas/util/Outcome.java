@@ -0,0 +1,44 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+/**
+ * Outcome of an LDAP operation, used to tag its recorded latency.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public enum Outcome {
+
+    /** Operation succeeded. */
+    SUCCESS,
+
+    /** Credentials were rejected. */
+    BAD_CREDENTIALS,
+
+    /** Credentials were rejected because of the state of the account, e.g. locked or expired. */
+    ACCOUNT_STATE_ERROR,
+
+    /** No entry was found. */
+    NOT_FOUND,
+
+    /** Operation failed with an LDAP or other unexpected error. */
+    LDAP_ERROR,
+
+    /**
+     * Operation was not attempted because too many were in progress or the directory is failing; see
+     * {@link ConcurrencyLimiter} and {@link CircuitBreaker}.
+     */
+    REJECTED
+}
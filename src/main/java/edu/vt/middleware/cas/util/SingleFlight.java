@@ -0,0 +1,140 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls for the same key so that only one of them performs the work while the others wait for
+ * and share its result or exception.  Nothing is cached: once a call completes, the next call for the key performs
+ * the work again.  Results are shared between threads and should therefore not be modified by callers.
+ *
+ * @param  <K>  Type of key.
+ * @param  <V>  Type of result.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class SingleFlight<K, V> {
+
+    /** Calls in flight by key. */
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /** Number of calls that performed the work. */
+    private final AtomicLong executionCount = new AtomicLong();
+
+    /** Number of calls that shared the result of a call in flight. */
+    private final AtomicLong deduplicatedCount = new AtomicLong();
+
+
+    /**
+     * Performs the given work unless a call for the same key is already in flight, in which case the outcome of that
+     * call is returned instead.
+     *
+     * @param  key  Key that identifies equivalent work.
+     * @param  work  Work to perform.
+     *
+     * @return  Result of the work.
+     *
+     * @throws  Exception  Exception thrown by the work, or <code>InterruptedException</code> if the calling thread is
+     *                     interrupted while waiting for another call.
+     */
+    public V execute(final K key, final Callable<V> work) throws Exception {
+        final FutureTask<V> task = new FutureTask<V>(work);
+        final FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            deduplicatedCount.incrementAndGet();
+            return outcome(existing);
+        }
+        executionCount.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return outcome(task);
+    }
+
+
+    /**
+     * Gets the number of calls that performed their work.
+     *
+     * @return  Execution count.
+     */
+    public long getExecutionCount() {
+        return executionCount.get();
+    }
+
+
+    /**
+     * Gets the number of calls that shared the outcome of another call instead of performing their work.
+     *
+     * @return  Deduplicated call count.
+     */
+    public long getDeduplicatedCount() {
+        return deduplicatedCount.get();
+    }
+
+
+    /**
+     * Gets the number of keys with a call in flight.
+     *
+     * @return  In-flight call count.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s@%s::inFlight=%s, executions=%s, deduplicated=%s",
+                getClass().getName(),
+                hashCode(),
+                getInFlightCount(),
+                executionCount,
+                deduplicatedCount);
+    }
+
+
+    /**
+     * Waits for the outcome of a call.
+     *
+     * @param  task  Call in flight.
+     *
+     * @return  Result of the call.
+     *
+     * @throws  Exception  Exception thrown by the call.
+     */
+    private V outcome(final FutureTask<V> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
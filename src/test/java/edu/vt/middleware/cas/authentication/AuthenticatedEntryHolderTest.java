@@ -0,0 +1,45 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication;
+
+import org.junit.Test;
+import org.ldaptive.LdapEntry;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit test for {@link AuthenticatedEntryHolder} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AuthenticatedEntryHolderTest {
+
+    @Test
+    public void testTake() throws Exception {
+        final LdapEntry entry = new LdapEntry("uid=bob,ou=people,dc=ldaptive,dc=org");
+        AuthenticatedEntryHolder.set("Bob", entry);
+        assertSame(entry, AuthenticatedEntryHolder.take("bob"));
+        assertNull(AuthenticatedEntryHolder.take("bob"));
+    }
+
+
+    @Test
+    public void testTakeOtherUser() throws Exception {
+        AuthenticatedEntryHolder.set("bob", new LdapEntry("uid=bob,ou=people,dc=ldaptive,dc=org"));
+        assertNull(AuthenticatedEntryHolder.take("janice"));
+        assertNull(AuthenticatedEntryHolder.take("bob"));
+    }
+}
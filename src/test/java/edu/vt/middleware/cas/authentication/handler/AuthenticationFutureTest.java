@@ -0,0 +1,175 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.handler;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import edu.vt.middleware.cas.authentication.AuthenticatedEntryHolder;
+import org.jasig.cas.authentication.handler.AuthenticationException;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.junit.Test;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.auth.Authenticator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link AuthenticationFuture} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AuthenticationFutureTest {
+
+    private static final LdapEntry BOB = new LdapEntry("uid=bob,ou=people,dc=ldaptive,dc=org");
+
+
+    @Test
+    public void testSuccessBindsEntryToCaller() throws Exception {
+        final AuthenticationFuture future = new StubHandler(0).authenticateAsync(newCredentials("bob"));
+        assertTrue(future.await());
+        assertSame(BOB, AuthenticatedEntryHolder.take("bob"));
+    }
+
+
+    @Test
+    public void testFailure() throws Exception {
+        try {
+            new StubHandler(0).authenticateAsync(newCredentials("locked")).await();
+            fail("Should have thrown WrappedGeneralSecurityException");
+        } catch (WrappedGeneralSecurityException e) {
+            assertNotNull(e.getCause());
+        }
+    }
+
+
+    @Test
+    public void testTimeout() throws Exception {
+        final AuthenticationFuture future = new StubHandler(5000).authenticateAsync(
+                newCredentials("bob"), 50, TimeUnit.MILLISECONDS);
+        try {
+            future.await();
+            fail("Should have thrown AuthenticationTimeoutException");
+        } catch (AuthenticationTimeoutException e) {
+            assertTrue(future.isTimedOut());
+        }
+    }
+
+
+    @Test
+    public void testAwaitTimeout() throws Exception {
+        final AuthenticationFuture future = new StubHandler(5000).authenticateAsync(newCredentials("bob"));
+        try {
+            future.await(50, TimeUnit.MILLISECONDS);
+            fail("Should have thrown AuthenticationTimeoutException");
+        } catch (AuthenticationTimeoutException e) {
+            assertTrue(future.isCancelled());
+        }
+    }
+
+
+    @Test
+    public void testCallback() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AuthenticationFuture future = new StubHandler(0).authenticateAsync(newCredentials("bob"));
+        future.addCallback(new AuthenticationCallback() {
+            public void completed(final AuthenticationFuture f) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(true, future.await());
+    }
+
+
+    @Test
+    public void testCredentialsReleasedWhenDone() throws Exception {
+        final StubHandler handler = new StubHandler(0);
+        final AuthenticationFuture future = handler.authenticateAsync(
+                newCredentials("bob"), 5000, TimeUnit.MILLISECONDS);
+        assertTrue(future.await());
+        assertSame(BOB, AuthenticatedEntryHolder.take("bob"));
+        // Waiters may wake before completion callbacks run
+        for (int i = 0; i < 100 && future.getCredentials() != null; i++) {
+            Thread.sleep(10);
+        }
+        assertNull(future.getCredentials());
+        handler.destroy();
+    }
+
+
+    @Test
+    public void testDestroy() throws Exception {
+        final StubHandler handler = new StubHandler(5000);
+        final AuthenticationFuture future = handler.authenticateAsync(
+                newCredentials("bob"), 5000, TimeUnit.MILLISECONDS);
+        handler.destroy();
+        try {
+            future.await(1, TimeUnit.SECONDS);
+            fail("Should have thrown RuntimeException");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        assertFalse(future.isTimedOut());
+        try {
+            handler.authenticateAsync(newCredentials("bob"));
+            fail("Should have thrown RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            assertNotNull(e);
+        }
+    }
+
+
+    private static UsernamePasswordCredentials newCredentials(final String user) {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername(user);
+        credentials.setPassword("password");
+        return credentials;
+    }
+
+
+    /** Handler that succeeds for any user other than "locked" after an optional delay. */
+    static class StubHandler extends LdapAuthenticationHandler {
+        private final long delay;
+
+        StubHandler(final long delay) {
+            super(new Authenticator());
+            this.delay = delay;
+        }
+
+        @Override
+        protected boolean authenticateUsernamePasswordInternal(final UsernamePasswordCredentials credentials)
+                throws AuthenticationException {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if ("locked".equals(credentials.getUsername())) {
+                throw new WrappedGeneralSecurityException(new GeneralSecurityException("Account locked"));
+            }
+            AuthenticatedEntryHolder.set(credentials.getUsername(), BOB);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.handler;
+
+import edu.vt.middleware.cas.util.ConcurrencyLimiter;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link LdapAuthenticationHandler} with a {@link ConcurrencyLimiter}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LdapAuthenticationHandlerConcurrencyLimitTest {
+
+    @Test
+    public void testRejectAtLimit() throws Exception {
+        final LdapAuthenticationHandlerVerificationCacheTest.StubAuthenticator authenticator =
+                new LdapAuthenticationHandlerVerificationCacheTest.StubAuthenticator();
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter("authn");
+        limiter.setInitialLimit(1);
+        limiter.setMinLimit(1);
+        limiter.setMaxLimit(1);
+        final OperationMetrics metrics = new OperationMetrics();
+        final LdapAuthenticationHandler handler = new LdapAuthenticationHandler(authenticator);
+        handler.setConcurrencyLimiter(limiter);
+        handler.setMetrics(metrics);
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("alice");
+        credentials.setPassword("secret");
+        assertTrue(handler.authenticate(credentials));
+        assertEquals(0, limiter.getInFlight());
+
+        assertTrue(limiter.tryAcquire());
+        try {
+            handler.authenticate(credentials);
+            fail("Should have thrown AuthenticationOverloadException");
+        } catch (AuthenticationOverloadException e) {
+            assertEquals(AuthenticationOverloadException.CODE, e.getCode());
+        }
+        assertEquals(1, authenticator.requests.size());
+        assertEquals(1, metrics.getHistogram(LdapAuthenticationHandler.OP_AUTHENTICATE, Outcome.REJECTED).getCount());
+    }
+}
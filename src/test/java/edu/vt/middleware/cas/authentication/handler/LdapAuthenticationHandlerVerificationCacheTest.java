@@ -0,0 +1,106 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.vt.middleware.cas.cache.CredentialVerificationCache;
+import org.jasig.cas.authentication.handler.BadCredentialsAuthenticationException;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.LdapException;
+import org.ldaptive.ResultCode;
+import org.ldaptive.auth.AuthenticationRequest;
+import org.ldaptive.auth.AuthenticationResponse;
+import org.ldaptive.auth.AuthenticationResultCode;
+import org.ldaptive.auth.Authenticator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link LdapAuthenticationHandler} with a {@link CredentialVerificationCache}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LdapAuthenticationHandlerVerificationCacheTest {
+
+    private StubAuthenticator authenticator;
+
+    private CredentialVerificationCache cache;
+
+    private LdapAuthenticationHandler handler;
+
+
+    @Before
+    public void setUp() throws Exception {
+        authenticator = new StubAuthenticator();
+        cache = new CredentialVerificationCache(10, 60000);
+        handler = new LdapAuthenticationHandler(authenticator);
+        handler.setVerificationCache(cache);
+    }
+
+
+    @Test
+    public void testRepeatAnsweredFromCache() throws Exception {
+        assertTrue(handler.authenticate(newCredentials("alice", "secret")));
+        assertTrue(handler.authenticate(newCredentials("alice", "secret")));
+        assertEquals(1, authenticator.requests.size());
+        assertTrue(cache.verify("alice", "secret"));
+    }
+
+
+    @Test
+    public void testFailureInvalidates() throws Exception {
+        assertTrue(handler.authenticate(newCredentials("alice", "secret")));
+        try {
+            handler.authenticate(newCredentials("alice", "wrong"));
+            fail("Should have thrown BadCredentialsAuthenticationException");
+        } catch (BadCredentialsAuthenticationException e) {
+            assertFalse(cache.verify("alice", "secret"));
+        }
+        assertTrue(handler.authenticate(newCredentials("alice", "secret")));
+        assertEquals(3, authenticator.requests.size());
+    }
+
+
+    private UsernamePasswordCredentials newCredentials(final String user, final String pass) {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername(user);
+        credentials.setPassword(pass);
+        return credentials;
+    }
+
+
+    /** Accepts the password "secret" for any user. */
+    static class StubAuthenticator extends Authenticator {
+        final List<String> requests = new ArrayList<String>();
+
+        @Override
+        public AuthenticationResponse authenticate(final AuthenticationRequest request) throws LdapException {
+            requests.add(request.getUser());
+            final boolean valid = "secret".equals(request.getCredential().getString());
+            return new AuthenticationResponse(
+                    valid ? AuthenticationResultCode.AUTHENTICATION_HANDLER_SUCCESS
+                          : AuthenticationResultCode.AUTHENTICATION_HANDLER_FAILURE,
+                    valid ? ResultCode.SUCCESS : ResultCode.INVALID_CREDENTIALS,
+                    null);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.cas.authentication.principal.Principal;
+import org.junit.Test;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchFilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link CompactAttributeMap} and {@link AttributeLayout} classes.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class CompactAttributeMapTest {
+
+    @Test
+    public void testMapContract() throws Exception {
+        final AttributeLayout layout = AttributeLayout.EMPTY.with("mail", "email").with("cn", "cn").with("ou", "ou");
+        final CompactAttributeMap map = new CompactAttributeMap(
+                layout, new Object[] {"a@vt.edu", null, new String[] {"x", "y"}});
+        final Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("email", "a@vt.edu");
+        expected.put("ou", Arrays.asList("x", "y"));
+        assertEquals(2, map.size());
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertTrue(map.containsKey("email"));
+        assertFalse(map.containsKey("cn"));
+        assertFalse(map.containsKey("mail"));
+        assertNull(map.get("cn"));
+        assertEquals(expected.keySet(), map.keySet());
+        try {
+            map.put("cn", "x");
+            fail("Should have thrown UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testLayoutExtension() throws Exception {
+        final AttributeLayout layout = AttributeLayout.EMPTY.with("mail", "email");
+        final CompactAttributeMap map = new CompactAttributeMap(layout, new Object[] {"a@vt.edu"});
+        final AttributeLayout extended = layout.with("cn", "cn").with("rfc822Mailbox", "email");
+        assertSame(extended, extended.with("mail", "other"));
+        assertEquals(2, extended.size());
+        assertEquals(0, extended.indexOfSource("rfc822Mailbox"));
+        assertEquals(-1, layout.indexOfSource("cn"));
+        assertEquals("a@vt.edu", map.get("email"));
+        assertEquals(1, map.size());
+    }
+
+
+    @Test
+    public void testSerialization() throws Exception {
+        final AttributeLayout layout = AttributeLayout.EMPTY.with("mail", "email").with("ou", "ou");
+        final CompactAttributeMap map = new CompactAttributeMap(
+                layout, new Object[] {"a@vt.edu", new String[] {"x", "y"}});
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+        final Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(map, copy);
+    }
+
+
+    @Test
+    public void testDeserializedMapsShareLayout() throws Exception {
+        final AttributeLayout layout = AttributeLayout.EMPTY.with("mail", "email").with("ou", "ou");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new CompactAttributeMap(layout, new Object[] {"a@vt.edu"}));
+        out.writeObject(new CompactAttributeMap(layout.with("rfc822Mailbox", "email"), new Object[] {"b@vt.edu"}));
+        out.close();
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final CompactAttributeMap first = (CompactAttributeMap) in.readObject();
+        final CompactAttributeMap second = (CompactAttributeMap) in.readObject();
+        assertSame(first.getLayout(), second.getLayout());
+        assertEquals(1, first.getLayout().indexOf("ou"));
+        assertEquals(-1, first.getLayout().indexOfSource("mail"));
+        assertEquals("b@vt.edu", second.get("email"));
+    }
+
+
+    @Test
+    public void testResolverSharesLayout() throws Exception {
+        final SearchExecutor executor = new SearchExecutor();
+        executor.setSearchFilter(new SearchFilter("(uid={user})"));
+        executor.setReturnAttributes("uid", "mail", "eduPersonAffiliation");
+        final Map<String, String> mapping = new HashMap<String, String>();
+        mapping.put("mail", "email");
+        final LdapCredentialsToPrincipalResolver resolver = new LdapCredentialsToPrincipalResolver(
+                null, executor, "uid");
+        resolver.setAttributeMapping(mapping);
+        resolver.afterPropertiesSet();
+        assertEquals(2, resolver.getAttributeLayout().size());
+
+        final Principal p1 = resolver.principalFromEntry(newEntry("alice", "alice@vt.edu", "staff", "member"));
+        final Principal p2 = resolver.principalFromEntry(newEntry("bob", "bob@vt.edu", "student"));
+        assertEquals("alice", p1.getId());
+        assertEquals("alice@vt.edu", p1.getAttributes().get("email"));
+        assertEquals(
+                new HashSet<Object>(Arrays.asList("staff", "member")),
+                new HashSet<Object>((List<?>) p1.getAttributes().get("eduPersonAffiliation")));
+        assertEquals("student", p2.getAttributes().get("eduPersonAffiliation"));
+        assertFalse(p2.getAttributes().containsKey("uid"));
+
+        final LdapEntry extra = newEntry("carol", "carol@vt.edu", "faculty");
+        extra.addAttribute(new LdapAttribute("cn", "Carol"));
+        final Principal p3 = resolver.principalFromEntry(extra);
+        assertEquals("Carol", p3.getAttributes().get("cn"));
+        assertEquals(3, resolver.getAttributeLayout().size());
+        assertEquals("bob@vt.edu", p2.getAttributes().get("email"));
+    }
+
+
+    @Test
+    public void testLazyAttributes() throws Exception {
+        final SearchExecutor executor = new SearchExecutor();
+        executor.setSearchFilter(new SearchFilter("(uid={user})"));
+        final LdapCredentialsToPrincipalResolver resolver = new LdapCredentialsToPrincipalResolver(
+                null, executor, "uid");
+        resolver.setLazyAttributes(new HashSet<String>(Arrays.asList("jpegPhoto", "userCertificate")));
+        resolver.afterPropertiesSet();
+
+        final LdapEntry entry = newEntry("alice", "alice@vt.edu", "staff");
+        final LdapAttribute photo = new LdapAttribute(true);
+        photo.setName("jpegPhoto");
+        photo.addBinaryValue(new byte[] {1, 2, 3});
+        entry.addAttribute(photo);
+        final LdapAttribute certs = new LdapAttribute(true);
+        certs.setName("userCertificate");
+        certs.addBinaryValue(new byte[] {4}, new byte[] {5, 6});
+        entry.addAttribute(certs);
+
+        final Map<String, Object> attributes = resolver.principalFromEntry(entry).getAttributes();
+        assertEquals(photo.getStringValue(), attributes.get("jpegPhoto"));
+        assertEquals(
+                new HashSet<Object>(certs.getStringValues()),
+                new HashSet<Object>((List<?>) attributes.get("userCertificate")));
+        assertEquals("alice@vt.edu", attributes.get("mail"));
+    }
+
+
+    @Test
+    public void testLazyValueMemoized() throws Exception {
+        final LazyAttributeValue value = new LazyAttributeValue(new byte[][] {{1, 2, 3}});
+        assertFalse(value.isDecoded());
+        final Object decoded = value.get();
+        assertEquals("AQID", decoded);
+        assertTrue(value.isDecoded());
+        assertSame(decoded, value.get());
+    }
+
+
+    private static LdapEntry newEntry(final String uid, final String mail, final String... affiliations) {
+        final LdapEntry entry = new LdapEntry("uid=" + uid + ",ou=people,dc=vt,dc=edu");
+        entry.addAttribute(new LdapAttribute("uid", uid));
+        entry.addAttribute(new LdapAttribute("mail", mail));
+        entry.addAttribute(new LdapAttribute("eduPersonAffiliation", affiliations));
+        return entry;
+    }
+}
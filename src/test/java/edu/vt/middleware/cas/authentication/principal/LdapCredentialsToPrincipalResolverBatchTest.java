@@ -0,0 +1,198 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import edu.vt.middleware.cas.cache.NegativeResultCache;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.ResultCode;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchResult;
+import org.ldaptive.handler.SearchEntryHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for batch resolution of {@link LdapCredentialsToPrincipalResolver}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LdapCredentialsToPrincipalResolverBatchTest {
+
+    private StubExecutor executor;
+
+    private LdapCredentialsToPrincipalResolver resolver;
+
+    private NegativeResultCache negativeCache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new StubExecutor("alice", "bob", "carol", "dave", "erin");
+        executor.setSearchFilter(new SearchFilter("(&(objectClass=person)(uid={user}))"));
+        resolver = new LdapCredentialsToPrincipalResolver(null, executor, "uid");
+        negativeCache = new NegativeResultCache(100, 60000);
+        resolver.setNegativeResultCache(negativeCache);
+        resolver.setPrincipalCache(new ExpiringCache<String, Principal>(100, 60000));
+        resolver.setBatchSize(2);
+        resolver.afterPropertiesSet();
+    }
+
+
+    @Test
+    public void testResolvePrincipals() throws Exception {
+        final Map<String, Principal> principals = resolver.resolvePrincipals(
+                Arrays.asList("Alice", "bob", "carol", "zed", "alice"));
+        assertEquals(Arrays.asList("Alice", "bob", "carol", "alice"), new ArrayList<String>(principals.keySet()));
+        assertEquals("alice", principals.get("Alice").getId());
+        assertEquals("carol@vt.edu", principals.get("carol").getAttributes().get("mail"));
+        assertEquals(
+                Arrays.asList(
+                        "(|(&(objectClass=person)(uid=alice))(&(objectClass=person)(uid=bob)))",
+                        "(|(&(objectClass=person)(uid=carol))(&(objectClass=person)(uid=zed)))"),
+                executor.filters);
+        assertTrue(negativeCache.isNotFound("zed"));
+        assertFalse(negativeCache.isNotFound("alice"));
+    }
+
+
+    @Test
+    public void testCachedPrincipalsNotSearched() throws Exception {
+        resolver.resolvePrincipals(Arrays.asList("alice", "bob"));
+        executor.filters.clear();
+        final Map<String, Principal> principals = resolver.resolvePrincipals(Arrays.asList("alice", "dave"));
+        assertEquals(2, principals.size());
+        assertEquals(Collections.singletonList("(&(objectClass=person)(uid=dave))"), executor.filters);
+    }
+
+
+    @Test
+    public void testParallelism() throws Exception {
+        resolver.setBatchParallelism(3);
+        final Map<String, Principal> principals = resolver.resolvePrincipals(
+                Arrays.asList("alice", "bob", "carol", "dave", "erin"));
+        assertEquals(5, principals.size());
+        assertEquals(3, executor.filters.size());
+    }
+
+
+    @Test(expected = LdapException.class)
+    public void testSearchError() throws Exception {
+        executor.fail = true;
+        resolver.setBatchParallelism(2);
+        resolver.resolvePrincipals(Arrays.asList("alice", "bob", "carol"));
+    }
+
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testDestroyShutsDownCreatedExecutor() throws Exception {
+        resolver.setBatchParallelism(2);
+        resolver.resolvePrincipals(Arrays.asList("alice", "bob", "carol"));
+        resolver.destroy();
+        resolver.resolvePrincipals(Arrays.asList("dave", "erin", "zed"));
+    }
+
+
+    @Test
+    public void testDestroyKeepsGivenExecutor() throws Exception {
+        final ExecutorService given = Executors.newFixedThreadPool(2);
+        try {
+            resolver.setBatchParallelism(2);
+            resolver.setBatchExecutor(given);
+            assertEquals(3, resolver.resolvePrincipals(Arrays.asList("alice", "bob", "carol")).size());
+            resolver.destroy();
+            assertFalse(given.isShutdown());
+        } finally {
+            given.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testMultipleResultsUseFirstEntry() throws Exception {
+        executor.duplicates = true;
+        final LdapCredentialsToPrincipalResolver single = new LdapCredentialsToPrincipalResolver(null, executor, "uid");
+        single.setAllowMultipleResults(true);
+        single.afterPropertiesSet();
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("alice");
+        final Object expected = single.resolvePrincipal(credentials).getAttributes().get("mail");
+        resolver.setAllowMultipleResults(true);
+        final Map<String, Principal> principals = resolver.resolvePrincipals(Arrays.asList("alice", "bob"));
+        assertEquals(expected, principals.get("alice").getAttributes().get("mail"));
+    }
+
+
+    /** Returns an entry for each known user whose uid appears in the filter. */
+    static class StubExecutor extends SearchExecutor {
+        final List<String> filters = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> users;
+        volatile boolean fail;
+        volatile boolean duplicates;
+
+        StubExecutor(final String... users) {
+            this.users = Arrays.asList(users);
+        }
+
+        @Override
+        public Response<SearchResult> search(
+                final ConnectionFactory factory,
+                final SearchFilter filter,
+                final String[] attrs,
+                final SearchEntryHandler... handlers)
+                throws LdapException {
+            filters.add(filter.getFilter());
+            if (fail) {
+                throw new LdapException("Search failed.");
+            }
+            final SearchResult result = new SearchResult();
+            for (String user : users) {
+                if (filter.getFilter().contains("(uid=" + user + ")")) {
+                    final LdapEntry entry = new LdapEntry("uid=" + user + ",ou=people,dc=vt,dc=edu");
+                    entry.addAttribute(new LdapAttribute("uid", user));
+                    entry.addAttribute(new LdapAttribute("mail", user + "@vt.edu"));
+                    result.addEntry(entry);
+                    if (duplicates) {
+                        final LdapEntry other = new LdapEntry("uid=" + user + ",ou=staff,dc=vt,dc=edu");
+                        other.addAttribute(new LdapAttribute("uid", user));
+                        other.addAttribute(new LdapAttribute("mail", user + "@staff.vt.edu"));
+                        result.addEntry(other);
+                    }
+                }
+            }
+            return new Response<SearchResult>(result, ResultCode.SUCCESS);
+        }
+    }
+}
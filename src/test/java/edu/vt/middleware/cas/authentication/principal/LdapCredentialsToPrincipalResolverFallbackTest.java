@@ -0,0 +1,84 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import edu.vt.middleware.cas.util.CircuitBreaker;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.SearchFilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for the circuit breaker and last known good fallback of {@link LdapCredentialsToPrincipalResolver}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LdapCredentialsToPrincipalResolverFallbackTest {
+
+    private LdapCredentialsToPrincipalResolverBatchTest.StubExecutor executor;
+
+    private LdapCredentialsToPrincipalResolver resolver;
+
+    private CircuitBreaker breaker;
+
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new LdapCredentialsToPrincipalResolverBatchTest.StubExecutor("alice", "bob");
+        executor.setSearchFilter(new SearchFilter("(&(objectClass=person)(uid={user}))"));
+        breaker = new CircuitBreaker("test");
+        breaker.setMinimumCalls(2);
+        breaker.setFailureRateThreshold(0.5);
+        resolver = new LdapCredentialsToPrincipalResolver(null, executor, "uid");
+        resolver.setCircuitBreaker(breaker);
+        resolver.setLastKnownGoodCache(new ExpiringCache<String, Principal>(100, 60000));
+        resolver.afterPropertiesSet();
+    }
+
+
+    @Test
+    public void testLastKnownGoodWhileOpen() throws Exception {
+        assertEquals("alice", resolver.resolvePrincipal(newCredentials("alice")).getId());
+        assertEquals(1, executor.filters.size());
+
+        executor.fail = true;
+        final Principal stale = resolver.resolvePrincipal(newCredentials("Alice"));
+        assertTrue(stale instanceof StalePrincipal);
+        assertEquals("alice", stale.getId());
+        assertEquals("alice@vt.edu", stale.getAttributes().get("mail"));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Open circuit answers without searching
+        final int searches = executor.filters.size();
+        assertTrue(resolver.resolvePrincipal(newCredentials("alice")) instanceof StalePrincipal);
+        assertNull(resolver.resolvePrincipal(newCredentials("bob")));
+        assertEquals(searches, executor.filters.size());
+        assertEquals(2, breaker.getRejectedCount());
+    }
+
+
+    private UsernamePasswordCredentials newCredentials(final String user) {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername(user);
+        credentials.setPassword("password");
+        return credentials;
+    }
+}
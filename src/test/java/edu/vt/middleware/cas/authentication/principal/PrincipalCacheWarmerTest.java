@@ -0,0 +1,138 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import edu.vt.middleware.cas.cache.CacheKeys;
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import edu.vt.middleware.cas.monitor.PrincipalCacheWarmerMonitor;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.monitor.StatusCode;
+import org.junit.Test;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchFilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link PrincipalCacheWarmer} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class PrincipalCacheWarmerTest {
+
+    @Test
+    public void testWithoutCache() throws Exception {
+        final PrincipalCacheWarmer warmer = new PrincipalCacheWarmer(new FailingFactory(), newResolver(false));
+        warmer.afterPropertiesSet();
+        assertTrue(warmer.isFinished());
+        assertTrue(warmer.isReady());
+        assertTrue(warmer.toString().contains("searchFilter=(&(objectClass=person)(uid=*))"));
+        assertTrue(warmer.toString().contains("baseDn=ou=people,dc=vt,dc=edu"));
+    }
+
+
+    @Test
+    public void testProgress() throws Exception {
+        final PrincipalCacheWarmer warmer = new PrincipalCacheWarmer(new FailingFactory(), newResolver(true));
+        warmer.setExpectedEntries(1000);
+        assertEquals(0, warmer.getProgress(), 0);
+        assertFalse(warmer.isReady());
+        final PrincipalCacheWarmerMonitor monitor = new PrincipalCacheWarmerMonitor(warmer);
+        assertEquals(StatusCode.WARN, monitor.observe().getCode());
+    }
+
+
+    @Test
+    public void testFailure() throws Exception {
+        final PrincipalCacheWarmer warmer = new PrincipalCacheWarmer(new FailingFactory(), newResolver(true));
+        warmer.setExpectedEntries(1000);
+        warmer.warm();
+        assertTrue(warmer.isFinished());
+        assertTrue(warmer.isReady());
+        assertEquals("Connection refused.", warmer.getFailure());
+        assertEquals(StatusCode.INFO, new PrincipalCacheWarmerMonitor(warmer).observe().getCode());
+    }
+
+
+    @Test
+    public void testUserAttribute() throws Exception {
+        assertEquals("uid", PrincipalCacheWarmer.userAttribute("(&(objectClass=person)(uid={user}))"));
+        assertEquals("mail", PrincipalCacheWarmer.userAttribute("(mail = {user})"));
+        assertEquals("uid", PrincipalCacheWarmer.userAttribute("(|(uid={user})(UID={user}))"));
+        assertNull(PrincipalCacheWarmer.userAttribute("(|(uid={user})(mail={user}))"));
+        assertNull(PrincipalCacheWarmer.userAttribute("(uid={user}*)"));
+        assertNull(PrincipalCacheWarmer.userAttribute("(objectClass=person)"));
+    }
+
+
+    @Test
+    public void testCachesByFilterAttribute() throws Exception {
+        final LdapCredentialsToPrincipalResolver resolver = newResolver(true, "(mail={user})");
+        assertTrue(resolver.cacheEntry(new LdapEntry(
+                "uid=bob,ou=people,dc=vt,dc=edu",
+                new LdapAttribute("uid", "bob"),
+                new LdapAttribute("mail", "Bob@vt.edu")), "mail"));
+        assertEquals("bob", resolver.getCachedPrincipal(CacheKeys.normalizeUsername("bob@vt.edu")).getId());
+        assertNull(resolver.getCachedPrincipal(CacheKeys.normalizeUsername("bob")));
+    }
+
+
+    @Test
+    public void testAmbiguousFilterNotWarmed() throws Exception {
+        final PrincipalCacheWarmer warmer = new PrincipalCacheWarmer(
+                new FailingFactory(), newResolver(true, "(|(uid={user})(mail={user}))"));
+        warmer.afterPropertiesSet();
+        assertTrue(warmer.isFinished());
+        assertNull(warmer.getFailure());
+        assertEquals(0, warmer.getWarmedCount());
+    }
+
+
+    private static LdapCredentialsToPrincipalResolver newResolver(final boolean caching) throws Exception {
+        return newResolver(caching, "(&(objectClass=person)(uid={user}))");
+    }
+
+
+    private static LdapCredentialsToPrincipalResolver newResolver(final boolean caching, final String filter)
+            throws Exception {
+        final SearchExecutor executor = new SearchExecutor();
+        executor.setBaseDn("ou=people,dc=vt,dc=edu");
+        executor.setSearchFilter(new SearchFilter(filter));
+        final LdapCredentialsToPrincipalResolver resolver = new LdapCredentialsToPrincipalResolver(
+                null, executor, "uid");
+        if (caching) {
+            resolver.setPrincipalCache(new ExpiringCache<String, Principal>(100, 60000));
+        }
+        resolver.afterPropertiesSet();
+        return resolver;
+    }
+
+
+    /** Connection factory that cannot connect. */
+    static class FailingFactory implements ConnectionFactory {
+        @Override
+        public Connection getConnection() throws LdapException {
+            throw new LdapException("Connection refused.");
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.authentication.principal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.SearchFilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link PrincipalSnapshot} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class PrincipalSnapshotTest {
+
+    private File file;
+
+    private ExpiringCache<String, Principal> cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("principals", ".snapshot");
+        file.delete();
+        cache = new ExpiringCache<String, Principal>(100, 60000);
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("mail", "alice@vt.edu");
+        attributes.put("affiliation", Arrays.asList("staff", "student"));
+        cache.put("alice", new SimplePrincipal("alice", attributes));
+        cache.put("zed", new SimplePrincipal("zed", new HashMap<String, Object>()));
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+
+    @Test
+    public void testWriteLoad() throws Exception {
+        assertEquals(2, new PrincipalSnapshot(cache, file).write());
+        final PrincipalSnapshot snapshot = new PrincipalSnapshot(
+                new ExpiringCache<String, Principal>(100, 60000), file);
+        snapshot.load();
+        assertEquals(2, snapshot.size());
+        assertTrue(snapshot.getTimestamp() > 0);
+        final StalePrincipal alice = snapshot.get("alice");
+        assertEquals("alice", alice.getId());
+        assertEquals("alice@vt.edu", alice.getAttributes().get("mail"));
+        assertEquals(Arrays.asList("staff", "student"), alice.getAttributes().get("affiliation"));
+        assertEquals(snapshot.getTimestamp(), alice.getTimestamp());
+        assertTrue(snapshot.get("zed").getAttributes().isEmpty());
+        assertNull(snapshot.get("bob"));
+        snapshot.remove("alice");
+        assertNull(snapshot.get("alice"));
+    }
+
+
+    @Test
+    public void testWriteCarriesOverLoadedPrincipals() throws Exception {
+        new PrincipalSnapshot(cache, file).write();
+        final ExpiringCache<String, Principal> restarted = new ExpiringCache<String, Principal>(100, 60000);
+        final PrincipalSnapshot snapshot = new PrincipalSnapshot(restarted, file);
+        snapshot.load();
+        restarted.put("bob", new SimplePrincipal("bob", new HashMap<String, Object>()));
+        snapshot.remove("zed");
+        assertEquals(2, snapshot.write());
+
+        final PrincipalSnapshot reloaded = new PrincipalSnapshot(restarted, file);
+        reloaded.load();
+        assertEquals(2, reloaded.size());
+        assertEquals("alice@vt.edu", reloaded.get("alice").getAttributes().get("mail"));
+        assertNotNull(reloaded.get("bob"));
+        assertNull(reloaded.get("zed"));
+    }
+
+
+    @Test
+    public void testBinaryAttributesStayEncoded() throws Exception {
+        final AttributeLayout layout = AttributeLayout.EMPTY.with("mail", "mail").with("photo", "photo");
+        final LazyAttributeValue photo = new LazyAttributeValue(new byte[][] {{1, 2, 3}});
+        cache.put("carol", new CompactPrincipal(
+                "carol", new CompactAttributeMap(layout, new Object[] {"carol@vt.edu", photo})));
+        new PrincipalSnapshot(cache, file).write();
+        assertFalse(photo.isDecoded());
+
+        final PrincipalSnapshot snapshot = new PrincipalSnapshot(cache, file);
+        snapshot.load();
+        final Map<String, Object> attributes = snapshot.get("carol").getAttributes();
+        assertEquals("carol@vt.edu", attributes.get("mail"));
+        assertEquals("AQID", attributes.get("photo"));
+    }
+
+
+    @Test
+    public void testCorruptFileDiscarded() throws Exception {
+        new PrincipalSnapshot(cache, file).write();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() / 2);
+            final int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+        assertDiscarded();
+    }
+
+
+    @Test
+    public void testTruncatedFileDiscarded() throws Exception {
+        new PrincipalSnapshot(cache, file).write();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+        assertDiscarded();
+    }
+
+
+    @Test
+    public void testOtherVersionDiscarded() throws Exception {
+        new PrincipalSnapshot(cache, file).write();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4);
+            raf.writeInt(PrincipalSnapshot.VERSION + 1);
+        } finally {
+            raf.close();
+        }
+        assertDiscarded();
+    }
+
+
+    @Test
+    public void testOutdatedFileDiscarded() throws Exception {
+        new PrincipalSnapshot(cache, file).write();
+        Thread.sleep(5);
+        final PrincipalSnapshot snapshot = new PrincipalSnapshot(cache, file);
+        snapshot.setMaxAge(1);
+        snapshot.load();
+        assertEquals(0, snapshot.size());
+    }
+
+
+    @Test
+    public void testStalePrincipalRevalidated() throws Exception {
+        new PrincipalSnapshot(cache, file).write();
+        final ExpiringCache<String, Principal> principalCache = new ExpiringCache<String, Principal>(100, 60000);
+        final PrincipalSnapshot snapshot = new PrincipalSnapshot(principalCache, file);
+        snapshot.load();
+        final LdapCredentialsToPrincipalResolverBatchTest.StubExecutor executor =
+                new LdapCredentialsToPrincipalResolverBatchTest.StubExecutor("alice");
+        executor.setSearchFilter(new SearchFilter("(uid={user})"));
+        final LdapCredentialsToPrincipalResolver resolver = new LdapCredentialsToPrincipalResolver(
+                null, executor, "uid");
+        resolver.setPrincipalCache(principalCache);
+        resolver.setPrincipalSnapshot(snapshot);
+        resolver.afterPropertiesSet();
+
+        final Principal stale = resolver.resolvePrincipal(credentials("alice"));
+        assertTrue(stale instanceof StalePrincipal);
+        assertNotNull(resolver.resolvePrincipal(credentials("zed")));
+        for (int i = 0; i < 100 && snapshot.size() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, snapshot.size());
+        final Principal fresh = principalCache.get("alice");
+        assertFalse(fresh instanceof StalePrincipal);
+        assertEquals("alice@vt.edu", fresh.getAttributes().get("mail"));
+        assertNull(principalCache.get("zed"));
+    }
+
+
+    private void assertDiscarded() {
+        final PrincipalSnapshot snapshot = new PrincipalSnapshot(cache, file);
+        snapshot.load();
+        assertEquals(0, snapshot.size());
+        assertNull(snapshot.get("alice"));
+    }
+
+
+    private static UsernamePasswordCredentials credentials(final String username) {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername(username);
+        return credentials;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link CredentialVerificationCache} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class CredentialVerificationCacheTest {
+
+    @Test
+    public void testVerify() throws Exception {
+        final CredentialVerificationCache cache = new CredentialVerificationCache(10, 60000);
+        assertFalse(cache.verify("alice", "secret"));
+        cache.remember("Alice", "secret");
+        assertTrue(cache.verify("alice ", "secret"));
+        assertFalse(cache.verify("alice", "Secret"));
+        assertFalse(cache.verify("alice", "secret "));
+        assertFalse(cache.verify("alices", "ecret"));
+        assertFalse(cache.verify("alice", null));
+        cache.remember("alice", "changed");
+        assertFalse(cache.verify("alice", "secret"));
+        assertTrue(cache.verify("alice", "changed"));
+        cache.invalidate("ALICE");
+        assertFalse(cache.verify("alice", "changed"));
+    }
+
+
+    @Test
+    public void testKeysDiffer() throws Exception {
+        final CredentialVerificationCache a = new CredentialVerificationCache(10, 60000);
+        final CredentialVerificationCache b = new CredentialVerificationCache(10, 60000);
+        a.remember("alice", "secret");
+        assertFalse(b.verify("alice", "secret"));
+    }
+
+
+    @Test
+    public void testBounded() throws Exception {
+        final CredentialVerificationCache cache = new CredentialVerificationCache(10, 60000);
+        for (int i = 0; i < 100; i++) {
+            cache.remember("user" + i, "secret");
+        }
+        assertTrue(cache.getCache().size() <= 10);
+        assertTrue(cache.verify("user99", "secret"));
+    }
+
+
+    @Test
+    public void testConstantTimeEquals() throws Exception {
+        assertTrue(CredentialVerificationCache.constantTimeEquals(new byte[] {1, 2}, new byte[] {1, 2}));
+        assertFalse(CredentialVerificationCache.constantTimeEquals(new byte[] {1, 2}, new byte[] {1, 3}));
+        assertFalse(CredentialVerificationCache.constantTimeEquals(new byte[] {1, 2}, new byte[] {1}));
+        assertEquals(0, new CredentialVerificationCache().getCache().size());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link ExpiringCache} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ExpiringCacheTest {
+
+    @Test
+    public void testGetPut() throws Exception {
+        final ExpiringCache<String, String> cache = new ExpiringCache<String, String>(10, 60000);
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals("1", cache.remove("a"));
+        assertNull(cache.get("a"));
+    }
+
+
+    @Test
+    public void testExpiration() throws Exception {
+        final MutableClockCache cache = new MutableClockCache(10, 1000);
+        cache.put("a", "1");
+        cache.now = 999;
+        assertEquals("1", cache.get("a"));
+        cache.now = 1000;
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.size());
+    }
+
+
+    @Test
+    public void testEviction() throws Exception {
+        final ExpiringCache<Integer, Integer> cache = new ExpiringCache<Integer, Integer>(100, 60000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 100);
+        assertEquals(1000 - cache.size(), cache.getEvictionCount());
+        assertEquals(Integer.valueOf(999), cache.get(999));
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        final ExpiringCache<String, String> cache = new ExpiringCache<String, String>(2, 60000);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+
+    @Test
+    public void testSnapshot() throws Exception {
+        final MutableClockCache cache = new MutableClockCache(10, 1000);
+        cache.put("a", "1");
+        cache.now = 500;
+        cache.put("b", "2");
+        cache.now = 1000;
+        final Map<String, String> snapshot = cache.snapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals("2", snapshot.get("b"));
+        assertEquals(0, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testNormalizeUsername() throws Exception {
+        assertEquals("bob", CacheKeys.normalizeUsername(" Bob "));
+    }
+
+
+    /** Cache with a settable clock. */
+    static class MutableClockCache extends ExpiringCache<String, String> {
+        long now;
+
+        MutableClockCache(final int maxSize, final long timeToLive) {
+            super(maxSize, timeToLive);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
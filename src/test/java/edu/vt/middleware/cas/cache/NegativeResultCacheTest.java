@@ -0,0 +1,41 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link NegativeResultCache} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class NegativeResultCacheTest {
+
+    @Test
+    public void testNotFound() throws Exception {
+        final NegativeResultCache cache = new NegativeResultCache(10, 60000);
+        assertFalse(cache.isNotFound("nobody"));
+        cache.notFound("Nobody");
+        assertTrue(cache.isNotFound("nobody "));
+        cache.remove("NOBODY");
+        assertFalse(cache.isNotFound("nobody"));
+        assertEquals(1, cache.getCache().getHitCount());
+        assertEquals(2, cache.getCache().getMissCount());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.cache;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link UserDetailsCache} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class UserDetailsCacheTest {
+
+    @Test
+    public void testSoftAndHardTimeToLive() throws Exception {
+        final MutableClockCache cache = new MutableClockCache(10, 1000, 5000);
+        final User alice = new User("alice", "x", Collections.<GrantedAuthority>emptyList());
+        cache.put("Alice", alice);
+
+        cache.now = 999;
+        UserDetailsCache.Entry entry = cache.get("alice");
+        assertEquals(alice, entry.getUserDetails());
+        assertFalse(cache.isStale(entry));
+
+        cache.now = 1000;
+        entry = cache.get("ALICE");
+        assertEquals(alice, entry.getUserDetails());
+        assertTrue(cache.isStale(entry));
+        assertEquals(1, cache.getStaleHitCount());
+
+        cache.now = 5000;
+        assertNull(cache.get("alice"));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHardLessThanSoft() throws Exception {
+        new UserDetailsCache(10, 1000, 999);
+    }
+
+
+    /** Cache with a settable clock. */
+    static class MutableClockCache extends UserDetailsCache {
+        long now;
+
+        MutableClockCache(final int maxSize, final long softTimeToLive, final long hardTimeToLive) {
+            super(maxSize, softTimeToLive, hardTimeToLive);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.change;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for parsing of changelog entries by {@link ChangelogFeed} and their replay by {@link RecordedChangeFeed}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ChangelogFeedTest {
+
+    private RecordedChangeFeed feed;
+
+
+    @Before
+    public void setUp() throws Exception {
+        feed = new RecordedChangeFeed(new File(getClass().getResource("/changelog-test.ldif").toURI()));
+    }
+
+
+    @Test
+    public void testPoll() throws Exception {
+        assertEquals(105, feed.getLastChangeNumber());
+        final ChangeBatch batch = feed.poll(100, 10);
+        assertEquals(101, batch.getFirstChangeNumber());
+        assertEquals(105, batch.getLastChangeNumber());
+        final List<DirectoryChange> changes = batch.getChanges();
+        assertEquals(5, changes.size());
+
+        final DirectoryChange modify = changes.get(0);
+        assertEquals(101, modify.getChangeNumber());
+        assertEquals(DirectoryChange.Type.MODIFY, modify.getType());
+        assertEquals("uid=alice,ou=people,dc=vt,dc=edu", modify.getTargetDn());
+        assertNull(modify.getNewDn());
+        assertEquals(ChangelogFeed.parseGeneralizedTime("20121017150001Z"), modify.getChangeTime());
+        assertEquals(new HashSet<String>(Arrays.asList("mail", "modifytimestamp")), modify.getModifiedAttributes());
+
+        final DirectoryChange modrdn = changes.get(3);
+        assertEquals(DirectoryChange.Type.MODRDN, modrdn.getType());
+        assertEquals("uid=carol.smith,ou=people,dc=vt,dc=edu", modrdn.getNewDn());
+        assertEquals(DirectoryChange.Type.DELETE, changes.get(4).getType());
+        assertTrue(changes.get(4).getModifiedAttributes().isEmpty());
+
+        final List<DirectoryChange> next = feed.poll(102, 2).getChanges();
+        assertEquals(2, next.size());
+        assertEquals(103, next.get(0).getChangeNumber());
+        assertEquals(104, next.get(1).getChangeNumber());
+        final ChangeBatch empty = feed.poll(105, 10);
+        assertTrue(empty.getChanges().isEmpty());
+        assertEquals(105, empty.getLastChangeNumber());
+    }
+
+
+    @Test
+    public void testParseGeneralizedTime() throws Exception {
+        assertEquals(1350486001000L, ChangelogFeed.parseGeneralizedTime("20121017150001Z"));
+        assertEquals(1350486001000L, ChangelogFeed.parseGeneralizedTime("20121017150001.123Z"));
+        assertEquals(1350486001000L, ChangelogFeed.parseGeneralizedTime("20121017110001-0400"));
+        assertEquals(0, ChangelogFeed.parseGeneralizedTime("2012"));
+        assertEquals(0, ChangelogFeed.parseGeneralizedTime(null));
+    }
+
+
+    @Test
+    public void testToType() throws Exception {
+        assertEquals(DirectoryChange.Type.ADD, ChangelogFeed.toType("add"));
+        assertEquals(DirectoryChange.Type.MODRDN, ChangelogFeed.toType("modDN"));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.change;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import edu.vt.middleware.cas.authentication.principal.LdapCredentialsToPrincipalResolver;
+import edu.vt.middleware.cas.cache.CredentialVerificationCache;
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import edu.vt.middleware.cas.cache.UserDetailsCache;
+import edu.vt.middleware.cas.userdetails.LdapUserDetailsService;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.SearchExecutor;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link DirectoryChangeListener} class, replaying recorded changes with {@link RecordedChangeFeed}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class DirectoryChangeListenerTest {
+
+    private static final String[] USERS = {"alice", "bob", "carol", "carol.smith", "dave", "erin"};
+
+    private File file;
+
+    private ExpiringCache<String, Principal> principalCache;
+
+    private UserDetailsCache userDetailsCache;
+
+    private CredentialVerificationCache verificationCache;
+
+    private DirectoryChangeListener listener;
+
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("changelog", ".ldif");
+        record(0, entry(100, "modify", "uid=zed,ou=people,dc=vt,dc=edu"));
+
+        principalCache = new ExpiringCache<String, Principal>(100, 60000);
+        final LdapCredentialsToPrincipalResolver resolver = new LdapCredentialsToPrincipalResolver(
+                null, new SearchExecutor(), "uid");
+        resolver.setPrincipalCache(principalCache);
+
+        userDetailsCache = new UserDetailsCache(100, 60000, 60000);
+        final LdapUserDetailsService service = new LdapUserDetailsService(null, new SearchExecutor(), "uid", null);
+        service.setUserDetailsCache(userDetailsCache);
+
+        verificationCache = new CredentialVerificationCache(100, 60000);
+        for (String user : USERS) {
+            principalCache.put(user, new SimplePrincipal(user));
+            userDetailsCache.put(user, new User(user, "x", Collections.<GrantedAuthority>emptyList()));
+            verificationCache.remember(user, "secret");
+        }
+
+        listener = new DirectoryChangeListener(new RecordedChangeFeed(file));
+        listener.setPrincipalResolver(resolver);
+        listener.setUserDetailsService(service);
+        listener.setVerificationCache(verificationCache);
+        listener.setGroupBaseDn("ou=groups,dc=vt,dc=edu");
+        listener.setIgnoredAttributes(Arrays.asList("pwdLastSuccess", "modifyTimestamp"));
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        listener.destroy();
+        file.delete();
+    }
+
+
+    @Test
+    public void testFirstPollStartsAtMostRecentChange() throws Exception {
+        assertEquals(0, listener.poll());
+        assertEquals(100, listener.getLastChangeNumber());
+        assertEquals(0, listener.getPendingChanges());
+        assertTrue(principalCache.get("alice") != null);
+    }
+
+
+    @Test
+    public void testApplyRecordedChanges() throws Exception {
+        listener.poll();
+        record(1, entry(100, "modify", "uid=zed,ou=people,dc=vt,dc=edu"), recorded());
+        assertEquals(5, listener.poll());
+        assertEquals(105, listener.getLastChangeNumber());
+        assertEquals(5, listener.getAppliedCount());
+        assertEquals(0, listener.getGapCount());
+
+        // Modification of mail invalidates alice everywhere
+        assertNull(principalCache.get("alice"));
+        assertNull(userDetailsCache.get("alice"));
+        assertFalse(verificationCache.verify("alice", "secret"));
+
+        // Modification of ignored attributes only leaves bob's principal cached
+        assertNotNull(principalCache.get("bob"));
+        assertTrue(verificationCache.verify("bob", "secret"));
+
+        // Group change clears user details but not principals
+        assertNull(userDetailsCache.get("bob"));
+        assertNull(userDetailsCache.get("erin"));
+        assertNotNull(principalCache.get("erin"));
+
+        // Rename invalidates old and new names; delete invalidates user
+        assertNull(principalCache.get("carol"));
+        assertNull(principalCache.get("carol.smith"));
+        assertNull(principalCache.get("dave"));
+        assertFalse(verificationCache.verify("dave", "secret"));
+        assertTrue(verificationCache.verify("erin", "secret"));
+    }
+
+
+    @Test
+    public void testBatches() throws Exception {
+        listener.setBatchSize(2);
+        listener.poll();
+        record(1, entry(100, "modify", "uid=zed,ou=people,dc=vt,dc=edu"), recorded());
+        assertEquals(2, listener.poll());
+        assertEquals(102, listener.getLastChangeNumber());
+        assertEquals(3, listener.getPendingChanges());
+        assertEquals(2, listener.poll());
+        assertEquals(1, listener.poll());
+        assertEquals(0, listener.getPendingChanges());
+    }
+
+
+    @Test
+    public void testMissedChangesClearCaches() throws Exception {
+        listener.poll();
+        record(1, entry(200, "modify", "uid=zed,ou=people,dc=vt,dc=edu"));
+        assertEquals(1, listener.poll());
+        assertEquals(1, listener.getGapCount());
+        assertEquals(200, listener.getLastChangeNumber());
+        for (String user : USERS) {
+            assertNull(principalCache.get(user));
+            assertNull(userDetailsCache.get(user));
+            assertFalse(verificationCache.verify(user, "secret"));
+        }
+    }
+
+
+    @Test
+    public void testSkipsChangesNotReturned() throws Exception {
+        listener.setBatchSize(2);
+        listener.poll();
+        // Entries without a target DN, like entries hidden by access controls, yield no change
+        record(
+                1,
+                entry(100, "modify", "uid=zed,ou=people,dc=vt,dc=edu"),
+                String.format("dn: changenumber=101,cn=changelog%nchangeNumber: 101%nchangeType: modify%n%n"),
+                String.format("dn: changenumber=102,cn=changelog%nchangeNumber: 102%nchangeType: modify%n%n"),
+                entry(103, "delete", "uid=alice,ou=people,dc=vt,dc=edu"));
+        assertEquals(0, listener.poll());
+        assertEquals(102, listener.getLastChangeNumber());
+        assertEquals(1, listener.getPendingChanges());
+        assertEquals(1, listener.poll());
+        assertEquals(103, listener.getLastChangeNumber());
+        assertEquals(0, listener.getPendingChanges());
+        assertEquals(0, listener.getGapCount());
+        assertNull(principalCache.get("alice"));
+    }
+
+
+    @Test
+    public void testUnreadableFeed() throws Exception {
+        listener.poll();
+        file.delete();
+        try {
+            listener.poll();
+        } catch (org.ldaptive.LdapException e) {
+            assertEquals(100, listener.getLastChangeNumber());
+            return;
+        }
+        throw new AssertionError("Expected LdapException");
+    }
+
+
+    private String recorded() throws IOException {
+        final InputStream in = getClass().getResourceAsStream("/changelog-test.ldif");
+        try {
+            final StringBuilder sb = new StringBuilder();
+            final byte[] buffer = new byte[4096];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                sb.append(new String(buffer, 0, n, "UTF-8"));
+            }
+            return sb.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+
+    private static String entry(final long number, final String type, final String targetDn) {
+        return String.format(
+                "dn: changenumber=%s,cn=changelog%nchangeNumber: %s%nchangeType: %s%ntargetDN: %s%n%n",
+                number, number, type, targetDn);
+    }
+
+
+    private void record(final int version, final String... entries) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            for (String entry : entries) {
+                out.write(entry.getBytes("UTF-8"));
+            }
+        } finally {
+            out.close();
+        }
+        // Ensure the feed sees a new modification time regardless of file system resolution
+        file.setLastModified(1000000000000L + version * 1000L);
+    }
+}
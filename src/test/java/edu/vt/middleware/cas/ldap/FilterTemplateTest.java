@@ -0,0 +1,68 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import org.junit.Test;
+import org.ldaptive.SearchFilter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for {@link FilterTemplate} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class FilterTemplateTest {
+
+    @Test
+    public void testFormat() throws Exception {
+        final FilterTemplate template = new FilterTemplate("(&(objectClass=person)(uid={user}))", "user");
+        assertEquals("(&(objectClass=person)(uid=bob))", template.format("bob"));
+        assertEquals("(&(objectClass=person)(uid=\\2a\\29\\28\\5c\\00))", template.format("*)(\\\0"));
+    }
+
+
+    @Test
+    public void testMultipleOccurrences() throws Exception {
+        final FilterTemplate template = new FilterTemplate("(|(uid={user})(mail={user}))", "user");
+        assertEquals("(|(uid=bob)(mail=bob))", template.format("bob"));
+    }
+
+
+    @Test
+    public void testUndeclaredPlaceholder() throws Exception {
+        final FilterTemplate template = new FilterTemplate("(&(cn={0})(uid={user}))", "user");
+        assertEquals("(&(cn={0})(uid=bob))", template.format("bob"));
+    }
+
+
+    @Test
+    public void testMatchesSearchFilter() throws Exception {
+        final String expression = "(member={user})";
+        final FilterTemplate template = new FilterTemplate(expression, "user");
+        final String[] values = {"uid=bob,ou=people,dc=vt,dc=edu", "a*b", "(x)", "back\\slash", "\u00fcn\u00ef"};
+        for (String value : values) {
+            final SearchFilter filter = new SearchFilter(expression);
+            filter.setParameter("user", value);
+            assertEquals(filter.format(), template.format(value));
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingPlaceholder() throws Exception {
+        new FilterTemplate("(uid=bob)", "user");
+    }
+}
@@ -0,0 +1,177 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.ResultCode;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchResult;
+import org.ldaptive.handler.SearchEntryHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link HedgingSearchExecutor} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class HedgingSearchExecutorTest {
+
+    private final ReplicaConnectionFactoryTest.StubFactory slow = new ReplicaConnectionFactoryTest.StubFactory(false);
+
+    private final ReplicaConnectionFactoryTest.StubFactory fast = new ReplicaConnectionFactoryTest.StubFactory(false);
+
+
+    @Test
+    public void testNoHedgeWhenFast() throws Exception {
+        final StubExecutor executor = new StubExecutor(0, 0);
+        executor.setMaxHedgeDelay(1000);
+        assertEquals("uid=primary", search(executor));
+        assertEquals(0, executor.getHedgesSent());
+        assertEquals(1, executor.getSearchCount());
+    }
+
+
+    @Test
+    public void testHedgeWins() throws Exception {
+        final StubExecutor executor = new StubExecutor(2000, 0);
+        executor.setMaxHedgeDelay(20);
+        assertEquals("uid=hedge", search(executor));
+        assertEquals(1, executor.getHedgesSent());
+        assertEquals(1, executor.getHedgesWon());
+    }
+
+
+    @Test
+    public void testCancelledPrimaryLatencyRecorded() throws Exception {
+        final StubExecutor executor = new StubExecutor(2000, 0);
+        executor.setMaxHedgeDelay(20);
+        assertEquals("uid=hedge", search(executor));
+        assertEquals(1, executor.getLatencies().getCount());
+        assertTrue(executor.getLatencies().getMax() >= 20000000);
+    }
+
+
+    @Test
+    public void testFailedPrimaryLatencyRecorded() throws Exception {
+        final StubExecutor executor = new StubExecutor(-1, 0);
+        executor.setMaxHedgeDelay(1000);
+        try {
+            search(executor);
+            fail("Should have thrown LdapException");
+        } catch (LdapException e) {
+            assertEquals(1, executor.getLatencies().getCount());
+        }
+    }
+
+
+    @Test
+    public void testBudget() throws Exception {
+        final StubExecutor executor = new StubExecutor(50, 0);
+        executor.setMaxHedgeDelay(1);
+        executor.setHedgeBudget(0);
+        for (int i = 0; i < 15; i++) {
+            search(executor);
+        }
+        assertEquals(10, executor.getHedgesSent());
+        assertEquals(5, executor.getHedgesDenied());
+    }
+
+
+    @Test
+    public void testHedgeFailureUsesPrimary() throws Exception {
+        final StubExecutor executor = new StubExecutor(100, -1);
+        executor.setMaxHedgeDelay(10);
+        assertEquals("uid=primary", search(executor));
+        assertEquals(1, executor.getHedgesSent());
+        assertEquals(0, executor.getHedgesWon());
+    }
+
+
+    @Test
+    public void testDestroyShutsDownCreatedExecutor() throws Exception {
+        final StubExecutor executor = new StubExecutor(200, 0);
+        executor.setMaxHedgeDelay(20);
+        assertEquals("uid=hedge", search(executor));
+        executor.destroy();
+        // Searches rejected by the executor run on the calling thread without hedging
+        assertEquals("uid=primary", search(executor));
+        assertEquals(1, executor.getHedgesSent());
+    }
+
+
+    @Test
+    public void testDestroyKeepsGivenExecutor() throws Exception {
+        final ExecutorService given = Executors.newCachedThreadPool();
+        try {
+            final StubExecutor executor = new StubExecutor(0, 0);
+            executor.setExecutor(given);
+            search(executor);
+            executor.destroy();
+            assertFalse(given.isShutdown());
+        } finally {
+            given.shutdownNow();
+        }
+    }
+
+
+    private String search(final StubExecutor executor) throws LdapException {
+        return executor.search(slow, new SearchFilter("(uid=bob)"), (String[]) null).getResult().getEntry().getDn();
+    }
+
+
+    /** Executor whose primary and hedge searches take fixed times; a negative time means failure. */
+    class StubExecutor extends HedgingSearchExecutor {
+        private final long primaryDelay;
+        private final long hedgeDelay;
+
+        StubExecutor(final long primaryDelay, final long hedgeDelay) {
+            this.primaryDelay = primaryDelay;
+            this.hedgeDelay = hedgeDelay;
+            setHedgeConnectionFactory(fast);
+        }
+
+        @Override
+        protected Response<SearchResult> searchOnce(
+                final ConnectionFactory factory,
+                final SearchFilter filter,
+                final String[] attrs,
+                final SearchEntryHandler... handlers)
+                throws LdapException {
+            final boolean primary = factory == slow;
+            final long delay = primary ? primaryDelay : hedgeDelay;
+            if (delay < 0) {
+                throw new LdapException("Search failed");
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new LdapException("Interrupted", e);
+            }
+            return new Response<SearchResult>(
+                    new SearchResult(new LdapEntry(primary ? "uid=primary" : "uid=hedge")), ResultCode.SUCCESS);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.DefaultConnectionFactory;
+import org.ldaptive.pool.BlockingTimeoutException;
+import org.ldaptive.pool.PoolConfig;
+import org.ldaptive.pool.Validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link InstrumentedBlockingConnectionPool} class.  Connections are not opened on creation, so no
+ * directory is needed.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class InstrumentedBlockingConnectionPoolTest {
+
+    private InstrumentedBlockingConnectionPool pool;
+
+    private boolean valid = true;
+
+
+    @Before
+    public void setUp() throws Exception {
+        final PoolConfig config = new PoolConfig();
+        config.setMinPoolSize(1);
+        config.setMaxPoolSize(2);
+        pool = new InstrumentedBlockingConnectionPool(
+                config, new DefaultConnectionFactory(new ConnectionConfig("ldap://localhost:1")));
+        pool.setConnectOnCreate(false);
+        pool.setBlockWaitTime(50);
+        pool.setValidator(new Validator<Connection>() {
+            public boolean validate(final Connection conn) {
+                return valid;
+            }
+        });
+        pool.initialize();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+    }
+
+
+    @Test
+    public void testExhaustionAndTimeout() throws Exception {
+        final List<Connection> conns = new ArrayList<Connection>();
+        conns.add(pool.getConnection());
+        conns.add(pool.getConnection());
+        try {
+            pool.getConnection();
+            fail("Should have thrown BlockingTimeoutException");
+        } catch (BlockingTimeoutException e) {
+            // expected
+        }
+        for (Connection conn : conns) {
+            conn.close();
+        }
+        final PoolStatistics stats = pool.getStatistics();
+        assertEquals(2, stats.getMaxPoolSize());
+        assertEquals(2, stats.getCheckoutCount());
+        assertEquals(1, stats.getExhaustedCount());
+        assertEquals(1, stats.getTimeoutCount());
+        assertEquals(2, stats.getCreatedCount());
+        assertEquals(2, stats.getAvailableCount() + stats.getDestroyedCount());
+        assertEquals(0, stats.getActiveCount());
+        assertTrue(stats.getWaitMax() < 50);
+    }
+
+
+    @Test
+    public void testResize() throws Exception {
+        assertEquals(4, pool.resize(4));
+        final List<Connection> conns = new ArrayList<Connection>();
+        for (int i = 0; i < 4; i++) {
+            conns.add(pool.getConnection());
+        }
+        try {
+            pool.getConnection();
+            fail("Should have thrown BlockingTimeoutException");
+        } catch (BlockingTimeoutException e) {
+            // expected
+        }
+        assertEquals(4, pool.resize(1));
+        for (Connection conn : conns) {
+            conn.close();
+        }
+        assertEquals(1, pool.resize(1));
+        assertEquals(1, pool.getStatistics().getMaxPoolSize());
+        assertEquals(2, ((ResizablePoolConfig) pool.getPoolConfig()).getConfiguredMaxPoolSize());
+        assertTrue(pool.getStatistics().getAvailableCount() <= 1);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResizeBelowMinimum() throws Exception {
+        pool.resize(0);
+    }
+
+
+    @Test
+    public void testValidationFailure() throws Exception {
+        final Connection conn = pool.getConnection();
+        valid = false;
+        assertFalse(pool.validate(conn));
+        conn.close();
+        assertEquals(1, pool.getStatistics().getValidationFailedCount());
+    }
+}
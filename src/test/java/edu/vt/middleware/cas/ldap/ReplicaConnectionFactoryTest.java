@@ -0,0 +1,185 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.ldaptive.BindRequest;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.control.RequestControl;
+import org.ldaptive.provider.ProviderConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link ReplicaConnectionFactory} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ReplicaConnectionFactoryTest {
+
+    @Test
+    public void testPrefersLowerLatency() throws Exception {
+        final StubFactory fast = new StubFactory(false);
+        final StubFactory slow = new StubFactory(false);
+        final ReplicaConnectionFactory factory = newFactory(slow, fast);
+        factory.getReplicas().get(0).recordLatency(50000000, 1);
+        factory.getReplicas().get(1).recordLatency(5000000, 1);
+        for (int i = 0; i < 10; i++) {
+            factory.getConnection().close();
+        }
+        assertEquals(0, slow.count);
+        assertEquals(10, fast.count);
+    }
+
+
+    @Test
+    public void testIdleReplicaRetried() throws Exception {
+        final StubFactory fast = new StubFactory(false);
+        final StubFactory slow = new StubFactory(false);
+        final ReplicaConnectionFactory factory = newFactory(slow, fast);
+        factory.setIdleHalfLife(1);
+        factory.getReplicas().get(0).recordLatency(50000000, 1);
+        Thread.sleep(50);
+        factory.getReplicas().get(1).recordLatency(5000000, 1);
+        factory.getConnection().close();
+        assertEquals(1, slow.count);
+        assertEquals(0, fast.count);
+    }
+
+
+    @Test
+    public void testOutstandingConnectionsRaiseScore() throws Exception {
+        final StubFactory a = new StubFactory(false);
+        final StubFactory b = new StubFactory(false);
+        final ReplicaConnectionFactory factory = newFactory(a, b);
+        factory.getReplicas().get(0).recordLatency(10000000, 1);
+        factory.getReplicas().get(1).recordLatency(15000000, 1);
+        final List<Connection> held = new ArrayList<Connection>();
+        for (int i = 0; i < 4; i++) {
+            held.add(factory.getConnection());
+        }
+        assertTrue(a.count > 0);
+        assertTrue(b.count > 0);
+        assertEquals(a.count, factory.getReplicas().get(0).getOutstanding());
+        for (Connection conn : held) {
+            conn.close();
+            conn.close();
+        }
+        assertEquals(0, factory.getReplicas().get(0).getOutstanding());
+        assertEquals(0, factory.getReplicas().get(1).getOutstanding());
+    }
+
+
+    @Test
+    public void testFailoverAndEjection() throws Exception {
+        final StubFactory broken = new StubFactory(true);
+        final StubFactory working = new StubFactory(false);
+        final ReplicaConnectionFactory factory = newFactory(broken, working);
+        factory.setFailureThreshold(2);
+        for (int i = 0; i < 5; i++) {
+            factory.getConnection().close();
+        }
+        assertEquals(5, working.count);
+        assertEquals(2, factory.getReplicas().get(0).getFailureCount());
+        assertFalse(factory.getReplicas().get(0).isHealthy());
+        assertTrue(factory.getReplicas().get(1).isHealthy());
+    }
+
+
+    @Test(expected = LdapException.class)
+    public void testAllReplicasFail() throws Exception {
+        newFactory(new StubFactory(true), new StubFactory(true)).getConnection();
+    }
+
+
+    private static ReplicaConnectionFactory newFactory(final ConnectionFactory... factories) throws Exception {
+        final ReplicaConnectionFactory factory = new ReplicaConnectionFactory(Arrays.asList(factories));
+        factory.afterPropertiesSet();
+        return factory;
+    }
+
+
+    /** Connection factory that counts connections or always fails. */
+    static class StubFactory implements ConnectionFactory {
+        private final boolean fail;
+        private int count;
+
+        StubFactory(final boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public Connection getConnection() throws LdapException {
+            if (fail) {
+                throw new LdapException("Connection refused");
+            }
+            count++;
+            return new StubConnection();
+        }
+    }
+
+
+    /** Connection that does nothing. */
+    static class StubConnection implements Connection {
+        private boolean open;
+
+        public ConnectionConfig getConnectionConfig() {
+            return null;
+        }
+
+        public Response<Void> open() {
+            open = true;
+            return null;
+        }
+
+        public Response<Void> open(final BindRequest request) {
+            return open();
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public ProviderConnection getProviderConnection() {
+            return null;
+        }
+
+        public void close() {
+            open = false;
+        }
+
+        public void close(final RequestControl[] controls) {
+            close();
+        }
+
+        public Response<Void> reopen() {
+            return open();
+        }
+
+        public Response<Void> reopen(final BindRequest request) {
+            return open();
+        }
+    }
+}
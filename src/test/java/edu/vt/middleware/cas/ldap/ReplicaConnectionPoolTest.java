@@ -0,0 +1,62 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.ldap;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.pool.PoolException;
+import org.ldaptive.pool.PooledConnectionFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for {@link ReplicaConnectionPool} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ReplicaConnectionPoolTest {
+
+    @Test
+    public void testPooledFactoryRoutesAcrossReplicas() throws Exception {
+        final ReplicaConnectionFactoryTest.StubFactory broken = new ReplicaConnectionFactoryTest.StubFactory(true);
+        final ReplicaConnectionFactoryTest.StubFactory working = new ReplicaConnectionFactoryTest.StubFactory(false);
+        final ReplicaConnectionFactory replicas = newFactory(broken, working);
+        final PooledConnectionFactory factory = new PooledConnectionFactory(new ReplicaConnectionPool(replicas));
+        final Connection conn = factory.getConnection();
+        assertEquals(1, replicas.getReplicas().get(1).getOutstanding());
+        conn.close();
+        assertEquals(0, replicas.getReplicas().get(1).getOutstanding());
+        assertEquals(1, replicas.getReplicas().get(1).getConnectionCount());
+        assertEquals(0, factory.getConnectionPool().activeCount());
+    }
+
+
+    @Test(expected = PoolException.class)
+    public void testAllReplicasFail() throws Exception {
+        new ReplicaConnectionPool(newFactory(
+                new ReplicaConnectionFactoryTest.StubFactory(true),
+                new ReplicaConnectionFactoryTest.StubFactory(true))).getConnection();
+    }
+
+
+    private static ReplicaConnectionFactory newFactory(final ConnectionFactory... factories) throws Exception {
+        final ReplicaConnectionFactory factory = new ReplicaConnectionFactory(Arrays.asList(factories));
+        factory.afterPropertiesSet();
+        return factory;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.vt.middleware.cas.ldap.InstrumentedBlockingConnectionPool;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionConfig;
+import org.ldaptive.DefaultConnectionFactory;
+import org.ldaptive.pool.BlockingTimeoutException;
+import org.ldaptive.pool.PoolConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link AdaptivePoolController} class.  Connections are not opened on creation, so no directory is
+ * needed.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AdaptivePoolControllerTest {
+
+    private InstrumentedBlockingConnectionPool pool;
+
+    private AdaptivePoolController controller;
+
+
+    @Before
+    public void setUp() throws Exception {
+        final PoolConfig config = new PoolConfig();
+        config.setMinPoolSize(1);
+        config.setMaxPoolSize(2);
+        pool = new InstrumentedBlockingConnectionPool(
+                config, new DefaultConnectionFactory(new ConnectionConfig("ldap://localhost:1")));
+        pool.setConnectOnCreate(false);
+        pool.setBlockWaitTime(20);
+        pool.initialize();
+        controller = new AdaptivePoolController(pool);
+        controller.setName("test");
+        controller.setMinSize(2);
+        controller.setMaxSize(5);
+        controller.setSampleInterval(0);
+        controller.setGrowSamples(1);
+        controller.setShrinkSamples(2);
+        controller.afterPropertiesSet();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        controller.destroy();
+        pool.close();
+    }
+
+
+    @Test
+    public void testGrowAndShrink() throws Exception {
+        assertNull(controller.sample());
+        exhaust();
+        final PoolResizeDecision grow = controller.sample();
+        assertEquals(2, grow.getPreviousSize());
+        assertEquals(4, grow.getSize());
+        assertEquals(4, pool.getStatistics().getMaxPoolSize());
+
+        exhaust();
+        assertEquals(5, controller.sample().getSize());
+        exhaust();
+        assertNull(controller.sample());
+
+        assertNull(controller.sample());
+        assertEquals(4, controller.sample().getSize());
+        assertNull(controller.sample());
+        assertEquals(3, controller.sample().getSize());
+        assertNull(controller.sample());
+        assertEquals(2, controller.sample().getSize());
+        assertNull(controller.sample());
+        assertNull(controller.sample());
+        assertEquals(5, controller.getDecisions().size());
+        assertEquals(2, controller.getLastDecision().getSize());
+    }
+
+
+    @Test
+    public void testInitialSizeBroughtWithinBounds() throws Exception {
+        final AdaptivePoolController c = new AdaptivePoolController(pool);
+        c.setMinSize(3);
+        c.setMaxSize(6);
+        c.setSampleInterval(0);
+        c.afterPropertiesSet();
+        assertEquals(3, c.getSize());
+        assertEquals(1, c.getDecisions().size());
+    }
+
+
+    @Test
+    public void testDirectoryLatencyHoldsGrowth() throws Exception {
+        final OperationMetrics metrics = new OperationMetrics();
+        controller.setMetrics(metrics);
+        controller.setLatencyOperation("bind");
+        controller.setMaxLatency(100);
+        controller.sample();
+        metrics.record("bind", Outcome.SUCCESS, 500000000L);
+        exhaust();
+        final PoolResizeDecision hold = controller.sample();
+        assertEquals(2, hold.getPreviousSize());
+        assertEquals(2, hold.getRequestedSize());
+        assertEquals(2, pool.getStatistics().getMaxPoolSize());
+    }
+
+
+    /** Checks out every connection, times out one more checkout and returns the connections. */
+    private void exhaust() throws Exception {
+        final List<Connection> conns = new ArrayList<Connection>();
+        final int size = pool.getStatistics().getMaxPoolSize();
+        for (int i = 0; i < size; i++) {
+            conns.add(pool.getConnection());
+        }
+        try {
+            pool.getConnection();
+            fail("Should have thrown BlockingTimeoutException");
+        } catch (BlockingTimeoutException e) {
+            // expected
+        }
+        for (Connection conn : conns) {
+            conn.close();
+        }
+    }
+}
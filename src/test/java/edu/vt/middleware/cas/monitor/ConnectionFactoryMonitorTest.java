@@ -13,14 +13,19 @@
 */
 package edu.vt.middleware.cas.monitor;
 
+import org.jasig.cas.monitor.Status;
 import org.jasig.cas.monitor.StatusCode;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.ldaptive.Connection;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.pool.SearchValidator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit test for {@link ConnectionFactoryMonitor} class.
@@ -37,6 +42,37 @@ public class ConnectionFactoryMonitorTest {
 
     @Test
     public void testObserve() throws Exception {
-        assertEquals(StatusCode.OK, monitor.observe().getCode());
+        Status status = monitor.observe();
+        for (int i = 0; i < 50 && status.getCode() == StatusCode.UNKNOWN; i++) {
+            Thread.sleep(100);
+            status = monitor.observe();
+        }
+        assertEquals(StatusCode.OK, status.getCode());
+        assertTrue(status instanceof ProbeStatus);
+    }
+
+
+    @Test
+    public void testProbe() throws Exception {
+        final ProbeStatus status = monitor.probe();
+        assertEquals(StatusCode.OK, status.getCode());
+        assertTrue(status.getLatency() > 0);
+        assertEquals(status.getProbeTime(), ((ProbeStatus) monitor.observe()).getProbeTime());
+    }
+
+
+    @Test
+    public void testProbeUnexpectedError() throws Exception {
+        final ConnectionFactoryMonitor broken = new ConnectionFactoryMonitor(
+                new ConnectionFactory() {
+                    public Connection getConnection() {
+                        throw new IllegalStateException("Provider not configured.");
+                    }
+                },
+                new SearchValidator());
+        final ProbeStatus status = broken.probe();
+        assertEquals(StatusCode.ERROR, status.getCode());
+        assertTrue(status.getDescription().contains("Provider not configured."));
+        assertEquals(StatusCode.ERROR, broken.observe().getCode());
     }
 }
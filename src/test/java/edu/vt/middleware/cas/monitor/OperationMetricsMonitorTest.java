@@ -0,0 +1,90 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.monitor;
+
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import org.jasig.cas.monitor.StatusCode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link OperationMetricsMonitor} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class OperationMetricsMonitorTest {
+
+    @Test
+    public void testObserve() throws Exception {
+        final OperationMetrics metrics = new OperationMetrics();
+        final OperationMetricsMonitor monitor = new OperationMetricsMonitor(metrics);
+        assertEquals(StatusCode.OK, monitor.observe().getCode());
+
+        for (int i = 1; i <= 100; i++) {
+            metrics.record("authentication", Outcome.SUCCESS, i * 1000000L);
+        }
+        metrics.record("authentication", Outcome.BAD_CREDENTIALS, 2000000L);
+        metrics.record("authentication.bind", Outcome.LDAP_ERROR, 3000000L);
+        OperationMetricsStatus status = monitor.observe();
+        assertEquals(StatusCode.OK, status.getCode());
+        assertEquals(3, status.getSummaries().size());
+
+        final OperationMetricsStatus.Summary success = status.getSummaries().get(0);
+        assertEquals("authentication", success.getOperation());
+        assertEquals(Outcome.SUCCESS, success.getOutcome());
+        assertEquals(100, success.getCount());
+        assertTrue(success.getP50() <= success.getP95());
+        assertTrue(success.getP95() <= success.getP99());
+        assertEquals(100.0, success.getMax(), 0.001);
+        assertEquals(Outcome.BAD_CREDENTIALS, status.getSummaries().get(1).getOutcome());
+        // Steps are not counted again
+        assertTrue(status.getDescription().startsWith("101 operations, 0 LDAP errors"));
+
+        metrics.record("authentication", Outcome.LDAP_ERROR, 3000000L);
+        metrics.record("authentication", Outcome.SUCCESS, 3000000L);
+        status = monitor.observe();
+        assertEquals(StatusCode.WARN, status.getCode());
+        assertTrue(status.getDescription().startsWith("2 operations, 1 LDAP errors"));
+
+        // Errors before the previous observation no longer count
+        for (int i = 0; i < 10; i++) {
+            metrics.record("authentication", Outcome.SUCCESS, 3000000L);
+        }
+        assertEquals(StatusCode.OK, monitor.observe().getCode());
+    }
+
+
+    @Test
+    public void testPercentilesDescribeRecentOperations() throws Exception {
+        final OperationMetrics metrics = new OperationMetrics();
+        final OperationMetricsMonitor monitor = new OperationMetricsMonitor(metrics);
+        for (int i = 0; i < 100; i++) {
+            metrics.record("authentication", Outcome.SUCCESS, 500000000L);
+        }
+        for (int i = 0; i < 8; i++) {
+            metrics.decay();
+            for (int j = 0; j < 100; j++) {
+                metrics.record("authentication", Outcome.SUCCESS, 2000000L);
+            }
+        }
+        final OperationMetricsStatus.Summary summary = monitor.observe().getSummaries().get(0);
+        assertEquals(900, summary.getCount());
+        assertTrue(summary.getP99() < 3);
+        assertTrue(summary.getMax() < 3);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link AttributeRoleResolver} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class AttributeRoleResolverTest {
+
+    private final LdapEntry entry = new LdapEntry(
+            "uid=bob,ou=people,dc=vt,dc=edu",
+            new LdapAttribute("memberOf", "cn=admins,ou=groups,dc=vt,dc=edu", "cn=users,ou=groups,dc=vt,dc=edu"));
+
+
+    @Test
+    public void testResolveRoles() throws Exception {
+        final AttributeRoleResolver resolver = new AttributeRoleResolver("memberOf");
+        assertEquals(
+                set("cn=admins,ou=groups,dc=vt,dc=edu", "cn=users,ou=groups,dc=vt,dc=edu"),
+                new HashSet<String>(resolver.resolveRoles(entry)));
+    }
+
+
+    @Test
+    public void testResolveRolesExtractRdnValue() throws Exception {
+        final AttributeRoleResolver resolver = new AttributeRoleResolver("memberOf");
+        resolver.setExtractRdnValue(true);
+        assertEquals(set("admins", "users"), new HashSet<String>(resolver.resolveRoles(entry)));
+    }
+
+
+    @Test
+    public void testResolveRolesMissingAttribute() throws Exception {
+        assertTrue(new AttributeRoleResolver("isMemberOf").resolveRoles(entry).isEmpty());
+    }
+
+
+    @Test
+    public void testRdnValue() throws Exception {
+        assertEquals("admins", AttributeRoleResolver.rdnValue("cn=admins,dc=vt,dc=edu"));
+        assertEquals("a,b", AttributeRoleResolver.rdnValue("cn=a\\,b,dc=vt,dc=edu"));
+        assertEquals("a+b", AttributeRoleResolver.rdnValue("cn=a\\2Bb,dc=vt,dc=edu"));
+        assertEquals("\u00fc", AttributeRoleResolver.rdnValue("cn=\\c3\\bc,dc=vt,dc=edu"));
+        assertEquals("x", AttributeRoleResolver.rdnValue("cn=x+ou=y,dc=vt,dc=edu"));
+        assertEquals("admins", AttributeRoleResolver.rdnValue("admins"));
+    }
+
+
+    private static Set<String> set(final String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.SearchResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link GroupMembershipIndex} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class GroupMembershipIndexTest {
+
+    private static final String ALICE = "uid=alice,ou=people,dc=vt,dc=edu";
+
+    private static final String BOB = "uid=bob,ou=people,dc=vt,dc=edu";
+
+    private final GroupMembershipIndex groupIndex = new GroupMembershipIndex(null, null, "member", "cn");
+
+    private final GroupMembershipIndex.Index index = new GroupMembershipIndex.Index();
+
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        update(group("staff", "staff", ALICE, BOB));
+        assertEquals(set("staff"), roles(ALICE));
+        assertEquals(set("staff"), roles(BOB));
+
+        update(group("staff", "staff", BOB), group("admins", "admins", "UID=alice, ou=people, dc=vt, dc=edu"));
+        assertEquals(set("admins"), roles(ALICE));
+        assertEquals(set("staff"), roles(BOB));
+
+        update(group("staff", "employees", BOB));
+        assertEquals(set("employees"), roles(BOB));
+        assertEquals(2, index.rolesByMember.size());
+    }
+
+
+    @Test
+    public void testGroupRemoval() throws Exception {
+        update(group("staff", "staff", ALICE, BOB), group("admins", "admins", ALICE));
+        index.remove(GroupMembershipIndex.normalizeDn("cn=admins,ou=groups,dc=vt,dc=edu"));
+        assertEquals(set("staff"), roles(ALICE));
+
+        // A modified group without a role attribute is removed
+        update(new LdapEntry("cn=staff,ou=groups,dc=vt,dc=edu", new LdapAttribute("member", ALICE, BOB)));
+        assertTrue(roles(ALICE).isEmpty());
+        assertTrue(roles(BOB).isEmpty());
+        assertTrue(index.rolesByMember.isEmpty());
+        assertTrue(index.groupsByMember.isEmpty());
+    }
+
+
+    @Test
+    public void testDuplicateRole() throws Exception {
+        update(
+                new LdapEntry(
+                        "cn=staff,ou=groups,dc=vt,dc=edu",
+                        new LdapAttribute("cn", "staff"),
+                        new LdapAttribute("member", ALICE, BOB)),
+                new LdapEntry(
+                        "cn=staff,ou=groups,dc=example,dc=edu",
+                        new LdapAttribute("cn", "staff"),
+                        new LdapAttribute("member", ALICE)));
+        update(new LdapEntry(
+                "cn=staff,ou=groups,dc=vt,dc=edu", new LdapAttribute("cn", "staff"), new LdapAttribute("member", BOB)));
+        assertEquals(set("staff"), roles(ALICE));
+
+        index.remove(GroupMembershipIndex.normalizeDn("cn=staff,ou=groups,dc=example,dc=edu"));
+        assertTrue(roles(ALICE).isEmpty());
+        assertEquals(set("staff"), roles(BOB));
+    }
+
+
+    private void update(final LdapEntry... groups) {
+        final SearchResult result = new SearchResult(groups);
+        assertEquals(groups.length, groupIndex.update(index, result));
+    }
+
+
+    private Set<String> roles(final String member) {
+        return index.getRoles(GroupMembershipIndex.normalizeDn(member));
+    }
+
+
+    private static LdapEntry group(final String name, final String role, final String... members) {
+        return new LdapEntry(
+                "cn=" + name + ",ou=groups,dc=vt,dc=edu",
+                new LdapAttribute("cn", role),
+                new LdapAttribute("member", members));
+    }
+
+
+    private static Set<String> set(final String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
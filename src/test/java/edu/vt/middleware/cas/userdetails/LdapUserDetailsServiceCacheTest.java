@@ -0,0 +1,248 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.vt.middleware.cas.cache.UserDetailsCache;
+import edu.vt.middleware.cas.util.OperationMetrics;
+import edu.vt.middleware.cas.util.Outcome;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.ResultCode;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchResult;
+import org.ldaptive.handler.SearchEntryHandler;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test for user details caching of {@link LdapUserDetailsService}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LdapUserDetailsServiceCacheTest {
+
+    private StubExecutor executor;
+
+    private List<String> roles;
+
+    private MutableClockCache cache;
+
+    private ExecutorService refreshExecutor;
+
+    private LdapUserDetailsService service;
+
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new StubExecutor();
+        executor.setSearchFilter(new SearchFilter("(uid={user})"));
+        roles = new ArrayList<String>();
+        roles.add("staff");
+        cache = new MutableClockCache();
+        refreshExecutor = Executors.newSingleThreadExecutor();
+        service = new LdapUserDetailsService(null, executor, "uid", new RoleResolver() {
+            public Collection<String> resolveRoles(final LdapEntry userEntry) {
+                return new ArrayList<String>(roles);
+            }
+        });
+        service.setUserDetailsCache(cache);
+        service.setRefreshExecutor(refreshExecutor);
+        service.afterPropertiesSet();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        refreshExecutor.shutdownNow();
+    }
+
+
+    @Test
+    public void testFreshDetailsFromCache() throws Exception {
+        assertRoles("ROLE_STAFF", service.loadUserByUsername("alice"));
+        cache.now = 999;
+        assertRoles("ROLE_STAFF", service.loadUserByUsername("Alice"));
+        assertEquals(1, executor.searches.get());
+    }
+
+
+    @Test
+    public void testStaleDetailsRefreshedInBackground() throws Exception {
+        assertRoles("ROLE_STAFF", service.loadUserByUsername("alice"));
+        roles.add("admin");
+        cache.now = 1000;
+        assertRoles("ROLE_STAFF", service.loadUserByUsername("alice"));
+        awaitRefresh();
+        assertEquals(2, executor.searches.get());
+        assertRoles("ROLE_STAFF,ROLE_ADMIN", service.loadUserByUsername("alice"));
+        assertEquals(2, executor.searches.get());
+    }
+
+
+    @Test
+    public void testFailedRefreshKeepsStaleDetails() throws Exception {
+        service.loadUserByUsername("alice");
+        executor.fail = true;
+        cache.now = 1000;
+        assertRoles("ROLE_STAFF", service.loadUserByUsername("alice"));
+        awaitRefresh();
+        assertRoles("ROLE_STAFF", service.loadUserByUsername("alice"));
+    }
+
+
+    @Test
+    public void testExpiredDetailsLoadedSynchronously() throws Exception {
+        service.loadUserByUsername("alice");
+        roles.add("admin");
+        cache.now = 5000;
+        assertRoles("ROLE_STAFF,ROLE_ADMIN", service.loadUserByUsername("alice"));
+        assertEquals(2, executor.searches.get());
+    }
+
+
+    @Test
+    public void testRemovedUserEvicted() throws Exception {
+        service.loadUserByUsername("alice");
+        executor.exists = false;
+        cache.now = 1000;
+        service.loadUserByUsername("alice");
+        awaitRefresh();
+        assertNull(cache.get("alice"));
+        try {
+            service.loadUserByUsername("alice");
+        } catch (UsernameNotFoundException e) {
+            return;
+        }
+        throw new AssertionError("Expected UsernameNotFoundException");
+    }
+
+
+    @Test
+    public void testCacheHitsNotRecorded() throws Exception {
+        final OperationMetrics metrics = new OperationMetrics();
+        service.setMetrics(metrics);
+        service.loadUserByUsername("alice");
+        service.loadUserByUsername("alice");
+        assertEquals(1, metrics.getHistogram(LdapUserDetailsService.OP_LOAD_USER, Outcome.SUCCESS).getCount());
+    }
+
+
+    @Test
+    public void testDestroyKeepsGivenExecutor() throws Exception {
+        service.destroy();
+        assertFalse(refreshExecutor.isShutdown());
+    }
+
+
+    @Test
+    public void testDestroyShutsDownCreatedExecutor() throws Exception {
+        service.setRefreshExecutor(null);
+        service.loadUserByUsername("alice");
+        cache.now = 1000;
+        service.loadUserByUsername("alice");
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (executor.searches.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, executor.searches.get());
+
+        service.destroy();
+        cache.now = 2000;
+        assertRoles("ROLE_STAFF", service.loadUserByUsername("alice"));
+        Thread.sleep(100);
+        assertEquals(2, executor.searches.get());
+    }
+
+
+    private void awaitRefresh() throws Exception {
+        refreshExecutor.submit(new Runnable() {
+            public void run() {}
+        }).get();
+    }
+
+
+    private static void assertRoles(final String expected, final UserDetails details) {
+        final Set<String> actual = new HashSet<String>();
+        for (GrantedAuthority authority : details.getAuthorities()) {
+            actual.add(authority.getAuthority());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList(expected.split(","))), actual);
+    }
+
+
+    /** User details cache with a settable clock. */
+    static class MutableClockCache extends UserDetailsCache {
+        long now;
+
+        MutableClockCache() {
+            super(10, 1000, 5000);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+
+    /** Search executor that finds alice unless told otherwise. */
+    static class StubExecutor extends SearchExecutor {
+        final AtomicInteger searches = new AtomicInteger();
+        volatile boolean fail;
+        volatile boolean exists = true;
+
+        @Override
+        public Response<SearchResult> search(
+                final ConnectionFactory factory,
+                final SearchFilter filter,
+                final String[] attrs,
+                final SearchEntryHandler... handlers)
+                throws LdapException {
+            searches.incrementAndGet();
+            if (fail) {
+                throw new LdapException("Search failed.");
+            }
+            final SearchResult result = new SearchResult();
+            if (exists) {
+                final LdapEntry entry = new LdapEntry("uid=alice,ou=people,dc=vt,dc=edu");
+                entry.addAttribute(new LdapAttribute("uid", "alice"));
+                result.addEntry(entry);
+            }
+            return new Response<SearchResult>(result, ResultCode.SUCCESS);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import edu.vt.middleware.cas.cache.ExpiringCache;
+import edu.vt.middleware.cas.util.CircuitBreaker;
+import org.junit.Before;
+import org.junit.Test;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.ResultCode;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchResult;
+import org.ldaptive.handler.SearchEntryHandler;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for the circuit breaker and last known good fallback of {@link LdapUserDetailsService}.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LdapUserDetailsServiceFallbackTest {
+
+    private StubExecutor executor;
+
+    private CircuitBreaker breaker;
+
+    private LdapUserDetailsService service;
+
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new StubExecutor();
+        executor.setSearchFilter(new SearchFilter("(uid={user})"));
+        breaker = new CircuitBreaker("test");
+        breaker.setMinimumCalls(2);
+        breaker.setFailureRateThreshold(0.5);
+        service = new LdapUserDetailsService(null, executor, "uid", new RoleResolver() {
+            public Collection<String> resolveRoles(final LdapEntry userEntry) {
+                return Arrays.asList("staff");
+            }
+        });
+        service.setCircuitBreaker(breaker);
+        service.setLastKnownGoodCache(new ExpiringCache<String, UserDetails>(100, 60000));
+        service.afterPropertiesSet();
+    }
+
+
+    @Test
+    public void testLastKnownGoodOnLdapError() throws Exception {
+        assertEquals("alice", service.loadUserByUsername("alice").getUsername());
+
+        executor.fail = true;
+        final UserDetails stale = service.loadUserByUsername("Alice");
+        assertTrue(stale instanceof StaleUserDetails);
+        assertEquals("alice", stale.getUsername());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+
+    @Test
+    public void testNoLastKnownGoodOnMultipleResults() throws Exception {
+        assertEquals("alice", service.loadUserByUsername("alice").getUsername());
+
+        executor.duplicate = true;
+        for (int i = 0; i < 3; i++) {
+            try {
+                service.loadUserByUsername("alice");
+                fail("Should have thrown IllegalStateException");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("multiple results"));
+            }
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, breaker.getFailureRate(), 0);
+    }
+
+
+    @Test(expected = LdapLookupException.class)
+    public void testLdapErrorWithoutLastKnownGood() throws Exception {
+        executor.fail = true;
+        service.loadUserByUsername("alice");
+    }
+
+
+    /** Search executor that finds alice, optionally twice, or fails. */
+    static class StubExecutor extends SearchExecutor {
+        volatile boolean fail;
+        volatile boolean duplicate;
+
+        @Override
+        public Response<SearchResult> search(
+                final ConnectionFactory factory,
+                final SearchFilter filter,
+                final String[] attrs,
+                final SearchEntryHandler... handlers)
+                throws LdapException {
+            if (fail) {
+                throw new LdapException("Search failed.");
+            }
+            final SearchResult result = new SearchResult();
+            result.addEntry(new LdapEntry("uid=alice,ou=people,dc=vt,dc=edu", new LdapAttribute("uid", "alice")));
+            if (duplicate) {
+                result.addEntry(new LdapEntry("uid=alice,ou=staff,dc=vt,dc=edu", new LdapAttribute("uid", "alice")));
+            }
+            return new Response<SearchResult>(result, ResultCode.SUCCESS);
+        }
+    }
+}
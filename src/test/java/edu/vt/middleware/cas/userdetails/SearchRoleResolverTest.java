@@ -0,0 +1,141 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.userdetails;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
+import org.ldaptive.LdapEntry;
+import org.ldaptive.LdapException;
+import org.ldaptive.Response;
+import org.ldaptive.ResultCode;
+import org.ldaptive.SearchExecutor;
+import org.ldaptive.SearchFilter;
+import org.ldaptive.SearchResult;
+import org.ldaptive.handler.SearchEntryHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link SearchRoleResolver} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class SearchRoleResolverTest {
+
+    private static final String USER_DN = "uid=bob,ou=people,dc=vt,dc=edu";
+
+    private final LdapEntry userEntry = new LdapEntry(USER_DN);
+
+
+    @Test
+    public void testResolveRolesDnParameter() throws Exception {
+        final StubExecutor executor = new StubExecutor("(&(objectClass=groupOfNames)(member={dn}))");
+        final SearchRoleResolver resolver = newResolver(executor, "cn");
+        assertEquals(set("admins", "users"), new HashSet<String>(resolver.resolveRoles(userEntry)));
+        assertEquals(Arrays.asList("(&(objectClass=groupOfNames)(member=" + USER_DN + "))"), executor.filters);
+    }
+
+
+    @Test
+    public void testResolveRolesUserParameter() throws Exception {
+        final StubExecutor executor = new StubExecutor("(member={user})");
+        final SearchRoleResolver resolver = newResolver(executor, "cn");
+        assertEquals(set("admins", "users"), new HashSet<String>(resolver.resolveRoles(userEntry)));
+        assertEquals(Arrays.asList("(member=" + USER_DN + ")"), executor.filters);
+    }
+
+
+    @Test
+    public void testResolveRolesEscapesDn() throws Exception {
+        final StubExecutor executor = new StubExecutor("(member={dn})");
+        final SearchRoleResolver resolver = newResolver(executor, "cn");
+        resolver.resolveRoles(new LdapEntry("cn=Smith\\, Bob (admin),ou=people,dc=vt,dc=edu"));
+        assertEquals(
+                Arrays.asList("(member=cn=Smith\\5c, Bob \\28admin\\29,ou=people,dc=vt,dc=edu)"), executor.filters);
+    }
+
+
+    @Test
+    public void testResolveRolesSkipsEntriesWithoutAttribute() throws Exception {
+        final SearchRoleResolver resolver = newResolver(new StubExecutor("(member={dn})"), "ou");
+        assertEquals(Arrays.asList("admin group"), resolver.resolveRoles(userEntry));
+    }
+
+
+    @Test
+    public void testResolveRolesNoGroups() throws Exception {
+        final StubExecutor executor = new StubExecutor("(member={dn})");
+        executor.groups.clear();
+        assertTrue(newResolver(executor, "cn").resolveRoles(userEntry).isEmpty());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFilterWithoutParameter() throws Exception {
+        newResolver(new StubExecutor("(objectClass=groupOfNames)"), "cn");
+    }
+
+
+    private static SearchRoleResolver newResolver(final SearchExecutor executor, final String roleAttribute)
+            throws Exception {
+        final SearchRoleResolver resolver = new SearchRoleResolver(null, executor, roleAttribute);
+        resolver.afterPropertiesSet();
+        return resolver;
+    }
+
+
+    private static Set<String> set(final String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+
+    /** Records the filters searched for and returns two group entries. */
+    static class StubExecutor extends SearchExecutor {
+        final List<String> filters = new ArrayList<String>();
+        final List<LdapEntry> groups = new ArrayList<LdapEntry>();
+
+        StubExecutor(final String filter) {
+            setSearchFilter(new SearchFilter(filter));
+            groups.add(new LdapEntry(
+                    "cn=admins,ou=groups,dc=vt,dc=edu",
+                    new LdapAttribute("cn", "admins"),
+                    new LdapAttribute("ou", "admin group")));
+            groups.add(new LdapEntry("cn=users,ou=groups,dc=vt,dc=edu", new LdapAttribute("cn", "users")));
+        }
+
+        @Override
+        public Response<SearchResult> search(
+                final ConnectionFactory factory,
+                final SearchFilter filter,
+                final String[] attrs,
+                final SearchEntryHandler... handlers)
+                throws LdapException {
+            filters.add(filter.getFilter());
+            final SearchResult result = new SearchResult();
+            for (LdapEntry group : groups) {
+                result.addEntry(group);
+            }
+            return new Response<SearchResult>(result, ResultCode.SUCCESS);
+        }
+    }
+}
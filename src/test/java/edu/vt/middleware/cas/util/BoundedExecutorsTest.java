@@ -0,0 +1,92 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link BoundedExecutors} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class BoundedExecutorsTest {
+
+    @Test
+    public void testPermitExecutorBoundsRunningAndWaitingTasks() throws Exception {
+        final ExecutorService executor = new BoundedExecutors.PermitExecutorService(
+                Executors.newCachedThreadPool(new BoundedExecutors.NamedThreadFactory("test")), 2, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(3);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Runnable task = new Runnable() {
+            public void run() {
+                final int now = running.incrementAndGet();
+                int max;
+                while (now > (max = maxRunning.get()) && !maxRunning.compareAndSet(max, now)) {
+                    continue;
+                }
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            executor.execute(task);
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(2, running.get());
+        try {
+            executor.execute(task);
+            fail("Should have thrown RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            assertTrue(e.getMessage().contains("in flight"));
+        }
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void testThreadPoolThreadsTimeOut() throws Exception {
+        final ThreadPoolExecutor executor =
+                (ThreadPoolExecutor) BoundedExecutors.newThreadPoolExecutor("test", 2, 1);
+        assertTrue(executor.allowsCoreThreadTimeOut());
+        assertEquals(60, executor.getKeepAliveTime(TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link CircuitBreaker} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class CircuitBreakerTest {
+
+    private MutableClockBreaker breaker;
+
+
+    @Before
+    public void setUp() throws Exception {
+        breaker = new MutableClockBreaker();
+        breaker.setWindowSize(10);
+        breaker.setMinimumCalls(4);
+        breaker.setFailureRateThreshold(0.5);
+        breaker.setOpenDuration(1000);
+        breaker.setTrialCalls(2);
+    }
+
+
+    @Test
+    public void testOpensOnFailureRate() throws Exception {
+        call(false);
+        call(true);
+        call(false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+
+    @Test
+    public void testStaysClosedBelowThreshold() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            call(i % 3 == 1);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+
+    @Test
+    public void testClosesAfterSuccessfulTrials() throws Exception {
+        open();
+        breaker.now = 1000;
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, breaker.getFailureRate(), 0.0);
+    }
+
+
+    @Test
+    public void testReopensOnFailedTrial() throws Exception {
+        open();
+        breaker.now = 1000;
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        breaker.now = 1999;
+        assertFalse(breaker.allowRequest());
+        breaker.now = 2000;
+        assertTrue(breaker.allowRequest());
+    }
+
+
+    @Test
+    public void testIgnoredTrialIsReleased() throws Exception {
+        open();
+        breaker.now = 1000;
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onIgnored();
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+
+    @Test(expected = CircuitOpenException.class)
+    public void testAcquireWhenOpen() throws Exception {
+        open();
+        breaker.acquire();
+    }
+
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(true);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+
+    private void call(final boolean fail) {
+        assertTrue(breaker.allowRequest());
+        if (fail) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+
+    /** Breaker with a settable clock. */
+    static class MutableClockBreaker extends CircuitBreaker {
+        long now;
+
+        MutableClockBreaker() {
+            super("test");
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
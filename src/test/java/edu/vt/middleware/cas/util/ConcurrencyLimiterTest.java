@@ -0,0 +1,153 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link ConcurrencyLimiter} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void testRejectBeyondLimit() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test");
+        limiter.setInitialLimit(2);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        ConcurrencyLimitExceededException first = null;
+        try {
+            limiter.acquire();
+            fail("Should have thrown ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+            first = e;
+            assertEquals(0, e.getStackTrace().length);
+        }
+        try {
+            limiter.acquire();
+            fail("Should have thrown ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertSame(first, e);
+        }
+        assertEquals(3, limiter.getRejectedCount());
+        assertEquals(2, limiter.getInFlight());
+        limiter.release(System.nanoTime(), false);
+        assertTrue(limiter.tryAcquire());
+    }
+
+
+    @Test
+    public void testBackoffOnFailure() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test");
+        limiter.setInitialLimit(10);
+        limiter.setMinLimit(5);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            Thread.sleep(1);
+            limiter.release(System.nanoTime() - 1000, true);
+        }
+        assertEquals(5, limiter.getLimit());
+    }
+
+
+    @Test
+    public void testBackoffOnLatency() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test");
+        limiter.setInitialLimit(10);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(System.nanoTime() - 1000000, false);
+        }
+        assertEquals(10, limiter.getLimit());
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(10);
+            assertTrue(limiter.tryAcquire());
+            limiter.release(System.nanoTime() - 5000000, false);
+        }
+        assertTrue(limiter.getLimit() < 10);
+        assertTrue(limiter.getBaseline() < 2);
+        assertTrue(limiter.getRecentLatency() > 2);
+    }
+
+
+    @Test
+    public void testMixedLatencyIsNotOverload() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test");
+        final Random random = new Random(42);
+        final int clients = 40;
+        long rejected = 0;
+        for (int round = 0; round < 500; round++) {
+            int admitted = 0;
+            for (int i = 0; i < clients; i++) {
+                if (limiter.tryAcquire()) {
+                    admitted++;
+                }
+            }
+            if (round >= 400) {
+                rejected += clients - admitted;
+            }
+            for (int i = 0; i < admitted; i++) {
+                limiter.release(System.nanoTime() - (random.nextBoolean() ? 4000000 : 10000000), false);
+            }
+        }
+        assertTrue("Limit " + limiter.getLimit(), limiter.getLimit() >= clients);
+        assertEquals(0, rejected);
+
+        // A rise in latency across the same mix is overload
+        final int limit = limiter.getLimit();
+        for (int round = 0; round < 20; round++) {
+            Thread.sleep(35);
+            assertTrue(limiter.tryAcquire());
+            limiter.release(System.nanoTime() - (random.nextBoolean() ? 12000000 : 30000000), false);
+        }
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+
+    @Test
+    public void testIncreaseWhenUtilized() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test");
+        limiter.setInitialLimit(4);
+        limiter.setMaxLimit(6);
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            for (int j = 0; j < 3; j++) {
+                limiter.release(System.nanoTime() - 1000000, false);
+            }
+        }
+        assertEquals(6, limiter.getLimit());
+
+        final ConcurrencyLimiter idle = new ConcurrencyLimiter("idle");
+        idle.setInitialLimit(4);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(idle.tryAcquire());
+            idle.release(System.nanoTime() - 1000000, false);
+        }
+        assertEquals(4, idle.getLimit());
+    }
+}
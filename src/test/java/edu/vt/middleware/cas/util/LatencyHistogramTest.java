@@ -0,0 +1,78 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link LatencyHistogram} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() throws Exception {
+        for (long v = 0; v < 1000000; v += 7) {
+            final int bucket = LatencyHistogram.bucketOf(v);
+            assertTrue(v <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(v > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+
+    @Test
+    public void testPercentiles() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5e6, histogram.getMean(), 1e3);
+        assertEquals(1000e6, histogram.getMax(), 0);
+        assertWithin(500e6, histogram.getValueAtPercentile(50));
+        assertWithin(990e6, histogram.getValueAtPercentile(99));
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+    }
+
+
+    @Test
+    public void testDecayAndReset() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(1000000);
+        }
+        histogram.record(900000000);
+        histogram.decay();
+        assertEquals(50, histogram.getCount());
+        assertEquals(101, histogram.getTotalCount());
+        assertTrue(histogram.getMax() < 2000000);
+        assertEquals(1e6, histogram.getMean(), 0.125e6);
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+
+    private static void assertWithin(final double expected, final long actual) {
+        assertTrue(actual + " not within 12.5% of " + expected, Math.abs(actual - expected) <= expected * 0.125);
+    }
+}
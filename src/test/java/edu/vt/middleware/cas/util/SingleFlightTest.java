@@ -0,0 +1,117 @@
+/*
+  $Id: $
+
+  Copyright (C) 2012 Virginia Tech.
+  All rights reserved.
+
+  SEE LICENSE FOR MORE INFORMATION
+
+  Author:  Middleware Services
+  Email:   middleware@vt.edu
+  Version: $Revision: $
+  Updated: $Date: $
+*/
+package edu.vt.middleware.cas.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link SingleFlight} class.
+ *
+ * @author Middleware Services
+ * @version $Revision: $
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<String, Integer>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<Integer> work = new Callable<Integer>() {
+            public Integer call() throws Exception {
+                started.countDown();
+                release.await();
+                return calls.incrementAndGet();
+            }
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            results.add(executor.submit(newCall(flight, "bob", work)));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(newCall(flight, "bob", work)));
+            }
+            while (flight.getDeduplicatedCount() < 3) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(1), result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, flight.getExecutionCount());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+
+    @Test
+    public void testSequentialCallsExecute() throws Exception {
+        final SingleFlight<String, String> flight = new SingleFlight<String, String>();
+        final Callable<String> work = new Callable<String>() {
+            public String call() {
+                return "a";
+            }
+        };
+        flight.execute("bob", work);
+        flight.execute("bob", work);
+        assertEquals(2, flight.getExecutionCount());
+        assertEquals(0, flight.getDeduplicatedCount());
+    }
+
+
+    @Test
+    public void testExceptionPropagates() throws Exception {
+        final SingleFlight<String, String> flight = new SingleFlight<String, String>();
+        try {
+            flight.execute("bob", new Callable<String>() {
+                public String call() throws Exception {
+                    throw new IllegalStateException("boom");
+                }
+            });
+            fail("Should have thrown IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+
+    private static <V> Callable<V> newCall(
+            final SingleFlight<String, V> flight, final String key, final Callable<V> work) {
+        return new Callable<V>() {
+            public V call() throws Exception {
+                return flight.execute(key, work);
+            }
+        };
+    }
+}